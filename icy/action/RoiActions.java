@@ -21,7 +21,7 @@ package icy.action;
 import java.awt.event.ActionEvent;
 import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
-import java.io.PrintWriter;
+import java.io.File;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -30,7 +30,6 @@ import java.util.List;
 import org.w3c.dom.Document;
 
 import icy.clipboard.Clipboard;
-import icy.file.FileUtil;
 import icy.gui.dialog.IdConfirmDialog;
 import icy.gui.dialog.MessageDialog;
 import icy.gui.dialog.OpenDialog;
@@ -54,11 +53,8 @@ import icy.system.SystemUtil;
 import icy.type.DataIteratorUtil;
 import icy.util.ClassUtil;
 import icy.util.ShapeUtil.BooleanOperator;
-import icy.util.StringUtil;
-import icy.util.XLSUtil;
+import icy.util.XLSXWriter;
 import icy.util.XMLUtil;
-import jxl.write.WritableSheet;
-import jxl.write.WritableWorkbook;
 import plugins.kernel.roi.roi2d.ROI2DRectangle;
 import plugins.kernel.roi.roi3d.ROI3DStackRectangle;
 import plugins.kernel.roi.roi4d.ROI4DStackRectangle;
@@ -1028,7 +1024,7 @@ public class RoiActions
 
     public static IcyAbstractAction xlsExportAction = new IcyAbstractAction("Excel export",
             new IcyIcon(ResourceUtil.ICON_XLS_EXPORT), "ROI Excel export",
-            "Export the content of the ROI table into a XLS/CSV file", true, "Exporting ROI informations...")
+            "Export the content of the ROI table into a XLSX/CSV file", true, "Exporting ROI informations...")
     {
         /**
          * 
@@ -1043,44 +1039,21 @@ public class RoiActions
 
             if ((sequence != null) && (roisPanel != null))
             {
-                final String content = roisPanel.getCSVFormattedInfos();
-
-                if (StringUtil.isEmpty(content) || roisPanel.getVisibleRois().isEmpty())
+                if (roisPanel.getVisibleRois().isEmpty())
                 {
                     MessageDialog.showDialog("Nothing to export !", MessageDialog.INFORMATION_MESSAGE);
                     return true;
                 }
 
-                final String filename = SaveDialog.chooseFileForResult("Export ROIs...", "result", ".xls");
+                final String filename = SaveDialog.chooseFileForResult("Export ROIs...", "result",
+                        XLSXWriter.FILE_DOT_EXTENSION);
 
                 if (filename != null)
                 {
                     try
                     {
-                        // CSV format wanted ?
-                        if (!FileUtil.getFileExtension(filename, false).toLowerCase().startsWith("xls"))
-                        {
-                            // just write CSV content
-                            final PrintWriter out = new PrintWriter(filename);
-                            out.println(content);
-                            out.close();
-                        }
-                        // XLS export
-                        else
-                        {
-                            final WritableWorkbook workbook = XLSUtil.createWorkbook(filename);
-                            final WritableSheet sheet = XLSUtil.createNewPage(workbook, "ROIS");
-
-                            if (XLSUtil.setFromCSV(sheet, content))
-                                XLSUtil.saveAndClose(workbook);
-                            else
-                            {
-                                MessageDialog.showDialog("Error",
-                                        "Error while exporting ROIs table content to XLS file.",
-                                        MessageDialog.ERROR_MESSAGE);
-                                return false;
-                            }
-                        }
+                        // XLSX or CSV depending extension (rows are directly streamed to the file)
+                        roisPanel.exportInfos(new File(filename), null);
                     }
                     catch (Exception e1)
                     {
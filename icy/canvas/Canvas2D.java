@@ -804,6 +804,10 @@ public class Canvas2D extends IcyCanvas2D implements ROITaskListener
          * Image cache
          */
         final ImageCache imageCache;
+        /**
+         * Aggregated ROI rendering cache
+         */
+        final ROILayerCache roiCache;
 
         /**
          * internals
@@ -835,6 +839,7 @@ public class Canvas2D extends IcyCanvas2D implements ROITaskListener
             super();
 
             imageCache = new ImageCache();
+            roiCache = new ROILayerCache(Canvas2D.this);
             actived = false;
             handlingMouseMoveEvent = false;
             startDragPosition = null;
@@ -1451,6 +1456,18 @@ public class Canvas2D extends IcyCanvas2D implements ROITaskListener
          * Draw specified image layer and others layers on specified {@link Graphics2D} object.
          */
         void drawImageAndLayers(Graphics2D g, Layer imageLayer)
+        {
+            drawImageAndLayers(g, imageLayer, false);
+        }
+
+        /**
+         * Draw specified image layer and others layers on specified {@link Graphics2D} object.
+         * 
+         * @param useROICache
+         *        if <code>true</code> the ROI layers can be painted from the aggregated ROI cache
+         *        (should be used only when painting at canvas resolution)
+         */
+        void drawImageAndLayers(Graphics2D g, Layer imageLayer, boolean useROICache)
         {
             final Sequence seq = getSequence();
             final Layer defaultImageLayer = getImageLayer();
@@ -1459,6 +1476,9 @@ public class Canvas2D extends IcyCanvas2D implements ROITaskListener
             if (isLayersVisible())
             {
                 final List<Layer> layers = getLayers(true);
+                // many ROIs ? --> use aggregated rendering
+                final boolean aggregate = useROICache && roiCache.update(layers);
+                int roiCacheGroup = -1;
 
                 // draw them in inverse order to have first painter event at top
                 for (int i = layers.size() - 1; i >= 0; i--)
@@ -1468,6 +1488,17 @@ public class Canvas2D extends IcyCanvas2D implements ROITaskListener
                     // replace the default image layer by the specified one
                     if (layer == defaultImageLayer)
                         drawLayer(g, seq, imageLayer);
+                    else if (aggregate && roiCache.isCached(layer))
+                    {
+                        final int group = roiCache.getGroup(layer);
+
+                        // cached ROIs are painted at once for each contiguous group
+                        if (group != roiCacheGroup)
+                        {
+                            roiCache.paint(g, seq, group);
+                            roiCacheGroup = group;
+                        }
+                    }
                     else
                         drawLayer(g, seq, layer);
                 }
@@ -1510,7 +1541,7 @@ public class Canvas2D extends IcyCanvas2D implements ROITaskListener
                 g2.transform(getTransform());
 
                 // draw image and layers
-                drawImageAndLayers(g2, getImageLayer());
+                drawImageAndLayers(g2, getImageLayer(), true);
 
                 g2.dispose();
             }
@@ -3288,6 +3319,7 @@ public class Canvas2D extends IcyCanvas2D implements ROITaskListener
             // layer refresh
             if (canvasView != null)
             {
+                canvasView.roiCache.overlayChanged(event.getSource().getOverlay());
                 canvasView.layersChanged();
                 canvasView.refresh();
             }
@@ -3302,6 +3334,7 @@ public class Canvas2D extends IcyCanvas2D implements ROITaskListener
         // layer refresh
         if (canvasView != null)
         {
+            canvasView.roiCache.overlayChanged(overlay);
             canvasView.layersChanged();
             canvasView.refresh();
         }
@@ -361,6 +361,14 @@ public abstract class IcyCanvas extends JPanel
      * Priority ordered layers.
      */
     protected List<Layer> orderedLayers;
+    /**
+     * Layer --> position in ordered layers
+     */
+    protected Map<Layer, Integer> orderedLayersRank;
+    /**
+     * Layers spatial index for mouse events
+     */
+    protected final OverlayHitIndex overlayHitIndex;
 
     /**
      * internal updater
@@ -421,6 +429,8 @@ public abstract class IcyCanvas extends JPanel
         layersVisible = true;
         layers = new HashMap<Overlay, Layer>();
         orderedLayers = new ArrayList<Layer>();
+        orderedLayersRank = new HashMap<Layer, Integer>();
+        overlayHitIndex = new OverlayHitIndex();
         syncId = 0;
         synchMaster = false;
         orderedLayersOutdated = false;
@@ -807,36 +817,94 @@ public abstract class IcyCanvas extends JPanel
     public List<Layer> getLayers(boolean sorted)
     {
         if (sorted)
+            return new ArrayList<Layer>(getOrderedLayers());
+
+        synchronized (layers)
         {
-            // need to rebuild sorted layer list ?
-            if (orderedLayersOutdated)
-            {
-                // build and sort the list
-                synchronized (layers)
-                {
-                    orderedLayers = new ArrayList<Layer>(layers.values());
-                }
+            return new ArrayList<Layer>(layers.values());
+        }
+    }
 
-                try
-                {
-                    Collections.sort(orderedLayers);
-                }
-                catch (Exception e)
-                {
-                    // catch exceptions here as some we can have "IllegalArgumentException: Comparison method violates
-                    // its general contract!"
-                }
+    /**
+     * Returns the priority ordered layers list (rebuilt if needed), should not be modified.
+     */
+    private List<Layer> getOrderedLayers()
+    {
+        // need to rebuild sorted layer list ?
+        if (orderedLayersOutdated)
+        {
+            final List<Layer> result;
 
-                orderedLayersOutdated = false;
+            // build and sort the list
+            synchronized (layers)
+            {
+                result = new ArrayList<Layer>(layers.values());
+            }
+
+            try
+            {
+                Collections.sort(result);
+            }
+            catch (Exception e)
+            {
+                // catch exceptions here as some we can have "IllegalArgumentException: Comparison method violates
+                // its general contract!"
             }
 
-            return new ArrayList<Layer>(orderedLayers);
+            final Map<Layer, Integer> rank = new HashMap<Layer, Integer>(result.size());
+            for (int i = 0; i < result.size(); i++)
+                rank.put(result.get(i), Integer.valueOf(i));
+
+            orderedLayers = result;
+            orderedLayersRank = rank;
+            orderedLayersOutdated = false;
         }
 
-        synchronized (layers)
+        return orderedLayers;
+    }
+
+    /**
+     * Returns <code>true</code> if mouse events can be forwarded only to the overlays located
+     * under the mouse position (see {@link OverlayHitIndex}).<br>
+     * Default implementation returns <code>false</code>, override it to enable it.
+     */
+    protected boolean isMouseEventIndexEnabled()
+    {
+        return false;
+    }
+
+    /**
+     * Returns layers (sorted on priority) which should receive a mouse event occurring at the
+     * specified image position.
+     */
+    protected List<Layer> getMouseEventLayers(Point5D.Double pt)
+    {
+        final List<Layer> sortedLayers = getOrderedLayers();
+
+        // not worth using index
+        if (!isMouseEventIndexEnabled() || (pt == null) || (sortedLayers.size() < 64))
+            return new ArrayList<Layer>(sortedLayers);
+
+        final Map<Layer, Integer> rank = orderedLayersRank;
+        final List<Layer> result = new ArrayList<Layer>(overlayHitIndex.getLayers(pt.x, pt.y,
+                Math.min(getScaleX(), getScaleY())));
+
+        // restore priority order
+        Collections.sort(result, new Comparator<Layer>()
         {
-            return new ArrayList<Layer>(layers.values());
-        }
+            @Override
+            public int compare(Layer o1, Layer o2)
+            {
+                final Integer r1 = rank.get(o1);
+                final Integer r2 = rank.get(o2);
+                final int i1 = (r1 == null) ? Integer.MAX_VALUE : r1.intValue();
+                final int i2 = (r2 == null) ? Integer.MAX_VALUE : r2.intValue();
+
+                return (i1 < i2) ? -1 : ((i1 == i2) ? 0 : 1);
+            }
+        });
+
+        return result;
     }
 
     /**
@@ -3267,12 +3335,17 @@ public abstract class IcyCanvas extends JPanel
     {
         final boolean globalVisible = isLayersVisible();
 
+        final List<Layer> eventLayers = getMouseEventLayers(pt);
+
         // send mouse event to overlays after so mouse canvas position is ok
-        for (Layer layer : getLayers(true))
+        for (Layer layer : eventLayers)
         {
             if ((globalVisible && layer.isVisible()) || layer.getReceiveMouseEventOnHidden())
                 layer.getOverlay().mousePressed(event, pt, this);
         }
+
+        // event can change overlay state
+        overlayHitIndex.refreshState(eventLayers);
     }
 
     /**
@@ -3298,12 +3371,17 @@ public abstract class IcyCanvas extends JPanel
     {
         final boolean globalVisible = isLayersVisible();
 
+        final List<Layer> eventLayers = getMouseEventLayers(pt);
+
         // send mouse event to overlays after so mouse canvas position is ok
-        for (Layer layer : getLayers(true))
+        for (Layer layer : eventLayers)
         {
             if ((globalVisible && layer.isVisible()) || layer.getReceiveMouseEventOnHidden())
                 layer.getOverlay().mouseReleased(event, pt, this);
         }
+
+        // event can change overlay state
+        overlayHitIndex.refreshState(eventLayers);
     }
 
     /**
@@ -3329,12 +3407,17 @@ public abstract class IcyCanvas extends JPanel
     {
         final boolean globalVisible = isLayersVisible();
 
+        final List<Layer> eventLayers = getMouseEventLayers(pt);
+
         // send mouse event to overlays after so mouse canvas position is ok
-        for (Layer layer : getLayers(true))
+        for (Layer layer : eventLayers)
         {
             if ((globalVisible && layer.isVisible()) || layer.getReceiveMouseEventOnHidden())
                 layer.getOverlay().mouseClick(event, pt, this);
         }
+
+        // event can change overlay state
+        overlayHitIndex.refreshState(eventLayers);
     }
 
     /**
@@ -3360,12 +3443,17 @@ public abstract class IcyCanvas extends JPanel
     {
         final boolean globalVisible = isLayersVisible();
 
+        final List<Layer> eventLayers = getMouseEventLayers(pt);
+
         // send mouse event to overlays after so mouse canvas position is ok
-        for (Layer layer : getLayers(true))
+        for (Layer layer : eventLayers)
         {
             if ((globalVisible && layer.isVisible()) || layer.getReceiveMouseEventOnHidden())
                 layer.getOverlay().mouseMove(event, pt, this);
         }
+
+        // event can change overlay state
+        overlayHitIndex.refreshState(eventLayers);
     }
 
     /**
@@ -3391,12 +3479,17 @@ public abstract class IcyCanvas extends JPanel
     {
         final boolean globalVisible = isLayersVisible();
 
+        final List<Layer> eventLayers = getMouseEventLayers(pt);
+
         // send mouse event to overlays after so mouse canvas position is ok
-        for (Layer layer : getLayers(true))
+        for (Layer layer : eventLayers)
         {
             if ((globalVisible && layer.isVisible()) || layer.getReceiveMouseEventOnHidden())
                 layer.getOverlay().mouseDrag(event, pt, this);
         }
+
+        // event can change overlay state
+        overlayHitIndex.refreshState(eventLayers);
     }
 
     /**
@@ -3484,12 +3577,17 @@ public abstract class IcyCanvas extends JPanel
     {
         final boolean globalVisible = isLayersVisible();
 
+        final List<Layer> eventLayers = getMouseEventLayers(pt);
+
         // send mouse event to overlays after so mouse canvas position is ok
-        for (Layer layer : getLayers(true))
+        for (Layer layer : eventLayers)
         {
             if ((globalVisible && layer.isVisible()) || layer.getReceiveMouseEventOnHidden())
                 layer.getOverlay().mouseWheelMoved(event, pt, this);
         }
+
+        // event can change overlay state
+        overlayHitIndex.refreshState(eventLayers);
     }
 
     /**
@@ -4169,6 +4267,9 @@ public abstract class IcyCanvas extends JPanel
                     layer.setName("layer " + layers.size());
             }
 
+            // index it
+            overlayHitIndex.update(layer);
+
             // added
             layerAdded(layer);
         }
@@ -4201,6 +4302,7 @@ public abstract class IcyCanvas extends JPanel
 
         if (layer != null)
         {
+            overlayHitIndex.remove(layer);
             // stop listening layer
             layer.removeListener(this);
             // notify remove
@@ -4477,6 +4579,9 @@ public abstract class IcyCanvas extends JPanel
         // we need to rebuild sorted layer list
         if ((event.getType() != LayersEventType.CHANGED) || (property == null) || (property == Layer.PROPERTY_PRIORITY))
             orderedLayersOutdated = true;
+        // priority change reflects ROI focus / selection change
+        if ((event.getType() == LayersEventType.CHANGED) && (property == Layer.PROPERTY_PRIORITY))
+            overlayHitIndex.update(getLayer(event.getSource().getOverlay()));
 
         // notify listeners that layers have changed
         fireLayerChangedEvent(event);
@@ -4606,7 +4711,8 @@ public abstract class IcyCanvas extends JPanel
                 break;
 
             case CHANGED:
-                // nothing to do here
+                // overlay position or state may have changed
+                overlayHitIndex.update(getLayer(overlay));
                 break;
         }
     }
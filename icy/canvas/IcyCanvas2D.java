@@ -77,6 +77,12 @@ public abstract class IcyCanvas2D extends IcyCanvas
         lut.setAlphaToOpaque();
     }
 
+    @Override
+    protected boolean isMouseEventIndexEnabled()
+    {
+        return true;
+    }
+
     @Override
     public void setPositionZ(int z)
     {
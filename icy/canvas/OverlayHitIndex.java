@@ -0,0 +1,288 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.canvas;
+
+import icy.painter.Overlay;
+import icy.roi.ROI;
+import icy.roi.ROI.ROIPainter;
+import icy.type.rectangle.Rectangle5D;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Spatial index of canvas layers used to forward mouse events only to overlays which can be
+ * interested by them.<br>
+ * ROI overlays are indexed on their XY bounds (image coordinates) in a regular grid, they only
+ * receive events occurring over (or near) their bounds, unless they are selected, focused or in
+ * creation. Others overlays (and ROI overlays which don't limit their events to their bounds) are
+ * global and always receive events.<br>
+ * The index is updated incrementally from layer / overlay change events.
+ * 
+ * @author Stephane
+ */
+public class OverlayHitIndex
+{
+    /**
+     * grid cell size (image pixel)
+     */
+    public static final int CELL_SIZE = 64;
+    /**
+     * Layers covering more cells are considered as global
+     */
+    private static final int MAX_CELLS = 1024;
+
+    /**
+     * cell --> layers
+     */
+    private final Map<Long, List<Layer>> cells;
+    /**
+     * indexed layer --> cell range
+     */
+    private final Map<Layer, Rectangle> ranges;
+    /**
+     * layers always receiving events
+     */
+    private final Set<Layer> globals;
+    /**
+     * ROI layers receiving all events because of their current state (selected, focused...)
+     */
+    private final Set<Layer> actives;
+    /**
+     * maximum ROI stroke (used for the hit margin)
+     */
+    private double maxStroke;
+
+    public OverlayHitIndex()
+    {
+        super();
+
+        cells = new HashMap<Long, List<Layer>>();
+        ranges = new HashMap<Layer, Rectangle>();
+        globals = new HashSet<Layer>();
+        actives = new HashSet<Layer>();
+        maxStroke = 1d;
+    }
+
+    private static Long getCellKey(int cx, int cy)
+    {
+        return Long.valueOf((((long) cy) << 32) | (cx & 0xFFFFFFFFL));
+    }
+
+    /**
+     * Returns <code>true</code> if the specified ROI always need to receive events
+     */
+    private static boolean isActive(ROI roi)
+    {
+        return roi.isSelected() || roi.isFocused() || roi.isCreating();
+    }
+
+    /**
+     * Add or update the specified layer.
+     */
+    public synchronized void update(Layer layer)
+    {
+        if (layer == null)
+            return;
+
+        removeInternal(layer);
+
+        final Overlay overlay = layer.getOverlay();
+
+        // not a ROI or ROI requiring all events --> global
+        if (!(overlay instanceof ROIPainter) || !((ROIPainter) overlay).isMouseEventBoundsLimited())
+        {
+            globals.add(layer);
+            return;
+        }
+
+        final ROI roi = ((ROIPainter) overlay).getROI();
+
+        if (isActive(roi))
+            actives.add(layer);
+
+        maxStroke = Math.max(maxStroke, roi.getStroke());
+
+        final Rectangle5D bounds = roi.getBounds5D();
+        final double minX = bounds.getMinX();
+        final double minY = bounds.getMinY();
+        final double maxX = bounds.getMaxX();
+        final double maxY = bounds.getMaxY();
+
+        // infinite or invalid bounds --> global
+        if (Double.isInfinite(minX) || Double.isInfinite(minY) || Double.isInfinite(maxX)
+                || Double.isInfinite(maxY) || Double.isNaN(minX) || Double.isNaN(minY) || Double.isNaN(maxX)
+                || Double.isNaN(maxY))
+        {
+            globals.add(layer);
+            return;
+        }
+
+        final int cx = (int) Math.floor(minX / CELL_SIZE);
+        final int cy = (int) Math.floor(minY / CELL_SIZE);
+        final int cw = ((int) Math.floor(maxX / CELL_SIZE) - cx) + 1;
+        final int ch = ((int) Math.floor(maxY / CELL_SIZE) - cy) + 1;
+
+        // too large --> global
+        if (((long) cw * (long) ch) > MAX_CELLS)
+        {
+            globals.add(layer);
+            return;
+        }
+
+        final Rectangle range = new Rectangle(cx, cy, cw, ch);
+
+        for (int y = cy; y < (cy + ch); y++)
+        {
+            for (int x = cx; x < (cx + cw); x++)
+            {
+                final Long key = getCellKey(x, y);
+                List<Layer> list = cells.get(key);
+
+                if (list == null)
+                {
+                    list = new ArrayList<Layer>(4);
+                    cells.put(key, list);
+                }
+
+                list.add(layer);
+            }
+        }
+
+        ranges.put(layer, range);
+    }
+
+    /**
+     * Remove the specified layer.
+     */
+    public synchronized void remove(Layer layer)
+    {
+        if (layer != null)
+            removeInternal(layer);
+    }
+
+    private void removeInternal(Layer layer)
+    {
+        globals.remove(layer);
+        actives.remove(layer);
+
+        final Rectangle range = ranges.remove(layer);
+
+        if (range != null)
+        {
+            for (int y = range.y; y < (range.y + range.height); y++)
+            {
+                for (int x = range.x; x < (range.x + range.width); x++)
+                {
+                    final Long key = getCellKey(x, y);
+                    final List<Layer> list = cells.get(key);
+
+                    if (list != null)
+                    {
+                        list.remove(layer);
+                        if (list.isEmpty())
+                            cells.remove(key);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all layers.
+     */
+    public synchronized void clear()
+    {
+        cells.clear();
+        ranges.clear();
+        globals.clear();
+        actives.clear();
+        maxStroke = 1d;
+    }
+
+    /**
+     * Refresh the active state of the specified layers (to call after they received an event as
+     * it can change their selection or focus state).
+     */
+    public synchronized void refreshState(List<Layer> layers)
+    {
+        for (Layer layer : layers)
+        {
+            // only for indexed layers
+            if (ranges.containsKey(layer))
+            {
+                if (isActive(((ROIPainter) layer.getOverlay()).getROI()))
+                    actives.add(layer);
+                else
+                    actives.remove(layer);
+            }
+        }
+    }
+
+    /**
+     * Returns layers which should receive a mouse event occurring at the specified image position.
+     * 
+     * @param x
+     *        X image position
+     * @param y
+     *        Y image position
+     * @param scale
+     *        canvas scale (used to compute the hit margin)
+     */
+    public synchronized Set<Layer> getLayers(double x, double y, double scale)
+    {
+        final Set<Layer> result = new HashSet<Layer>(globals);
+
+        result.addAll(actives);
+
+        // hit margin for stroke and anchors (in image pixel)
+        final double margin = ((maxStroke * 2d) + 8d) / ((scale > 0d) ? scale : 1d);
+        final int minX = (int) Math.floor((x - margin) / CELL_SIZE);
+        final int minY = (int) Math.floor((y - margin) / CELL_SIZE);
+        final int maxX = (int) Math.floor((x + margin) / CELL_SIZE);
+        final int maxY = (int) Math.floor((y + margin) / CELL_SIZE);
+
+        for (int cy = minY; cy <= maxY; cy++)
+        {
+            for (int cx = minX; cx <= maxX; cx++)
+            {
+                final List<Layer> list = cells.get(getCellKey(cx, cy));
+
+                if (list != null)
+                {
+                    for (Layer layer : list)
+                    {
+                        final Rectangle5D bounds = ((ROIPainter) layer.getOverlay()).getROI().getBounds5D();
+
+                        if ((x >= (bounds.getMinX() - margin)) && (x <= (bounds.getMaxX() + margin))
+                                && (y >= (bounds.getMinY() - margin)) && (y <= (bounds.getMaxY() + margin)))
+                            result.add(layer);
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+}
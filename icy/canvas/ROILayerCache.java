@@ -0,0 +1,586 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.canvas;
+
+import icy.painter.Overlay;
+import icy.roi.ROI;
+import icy.roi.ROI.ROIPainter;
+import icy.roi.ROI2D;
+import icy.sequence.Sequence;
+import icy.system.SystemUtil;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Aggregated ROI rendering for {@link Canvas2D}.<br>
+ * When the canvas contains many ROI layers, the non selected (and non focused) 2D ROIs of the
+ * current plane are rasterized together in image tiles at the current zoom level instead of being
+ * painted one by one at each repaint. Only tiles intersecting a modified ROI are rasterized again.<br>
+ * Each contiguous run of cacheable layers (in paint order) is rasterized in its own tile group so
+ * layers painted in between keep their order (see {@link #getGroup(Layer)}).<br>
+ * Selected / focused ROIs (and ROIs displaying their name) are still painted live on top, and ROIs
+ * smaller than a pixel at the current zoom level are not painted.
+ * 
+ * @author Stephane
+ */
+public class ROILayerCache
+{
+    /**
+     * Minimum number of ROI layers to enable aggregated rendering
+     */
+    public static final int MIN_ROI_COUNT = 500;
+    /**
+     * Tile size (in canvas pixel)
+     */
+    public static final int TILE_SIZE = 256;
+    /**
+     * Minimum number of rasterized tiles kept in memory
+     */
+    public static final int MIN_TILES = 16;
+    /**
+     * Maximum part of the java heap used by rasterized tiles
+     */
+    public static final int MEMORY_RATIO = 8;
+
+    /**
+     * Rasterized tile key (group and tile position)
+     */
+    private static class TileKey
+    {
+        final int group;
+        final int tx;
+        final int ty;
+
+        TileKey(int group, int tx, int ty)
+        {
+            super();
+
+            this.group = group;
+            this.tx = tx;
+            this.ty = ty;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj instanceof TileKey)
+            {
+                final TileKey key = (TileKey) obj;
+                return (key.group == group) && (key.tx == tx) && (key.ty == ty);
+            }
+
+            return false;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (((group * 31) + ty) * 31) + tx;
+        }
+    }
+
+    final IcyCanvas2D canvas;
+
+    /**
+     * rasterization state (tiles are invalid as soon as one of these changed)
+     */
+    private double scaleX;
+    private double scaleY;
+    private int posZ;
+    private int posT;
+    private int posC;
+
+    /**
+     * rasterized tiles (LRU) and maximum number of tiles (depends on canvas size)
+     */
+    private final Map<TileKey, BufferedImage> tiles;
+    private int maxTiles;
+    /**
+     * overlays of cached layers (paint order) and their group
+     */
+    private List<Layer> cachedLayers;
+    private final Set<Overlay> cachedOverlays;
+    private Map<Overlay, Integer> groups;
+    private int groupCount;
+    /**
+     * area painted by each cached overlay (image coordinates)
+     */
+    private final Map<Overlay, Rectangle2D> paintedBounds;
+    /**
+     * tile --> layers to paint in tile (paint order)
+     */
+    private final Map<TileKey, List<Layer>> index;
+    private boolean indexValid;
+
+    public ROILayerCache(IcyCanvas2D canvas)
+    {
+        super();
+
+        this.canvas = canvas;
+
+        maxTiles = MIN_TILES;
+        tiles = new LinkedHashMap<TileKey, BufferedImage>(MIN_TILES, 0.75f, true)
+        {
+            private static final long serialVersionUID = -1877236574407417384L;
+
+            @Override
+            protected boolean removeEldestEntry(Entry<TileKey, BufferedImage> eldest)
+            {
+                return size() > maxTiles;
+            }
+        };
+        cachedLayers = new ArrayList<Layer>();
+        cachedOverlays = new HashSet<Overlay>();
+        groups = new HashMap<Overlay, Integer>();
+        groupCount = 0;
+        paintedBounds = new HashMap<Overlay, Rectangle2D>();
+        index = new HashMap<TileKey, List<Layer>>();
+        indexValid = false;
+        scaleX = 0d;
+        scaleY = 0d;
+    }
+
+    /**
+     * Release all cached data.
+     */
+    public synchronized void clear()
+    {
+        tiles.clear();
+        cachedLayers = new ArrayList<Layer>();
+        cachedOverlays.clear();
+        groups = new HashMap<Overlay, Integer>();
+        groupCount = 0;
+        paintedBounds.clear();
+        index.clear();
+        indexValid = false;
+    }
+
+    /**
+     * Returns <code>true</code> if the specified layer can be painted in cached tiles.
+     */
+    protected boolean isCacheable(Layer layer)
+    {
+        if (!layer.isVisible())
+            return false;
+
+        final Overlay overlay = layer.getOverlay();
+
+        if (!(overlay instanceof ROIPainter))
+            return false;
+
+        final ROI roi = ((ROIPainter) overlay).getROI();
+
+        return (roi instanceof ROI2D) && !roi.isSelected() && !roi.isFocused() && !roi.getShowName()
+                && ((ROI2D) roi).isActiveFor(canvas);
+    }
+
+    /**
+     * Update the cache state for the specified canvas layers (sorted on priority) and returns
+     * <code>true</code> if aggregated rendering should be used for them.
+     */
+    public synchronized boolean update(List<Layer> layers)
+    {
+        int roiCount = 0;
+        for (Layer layer : layers)
+            if (layer.getOverlay() instanceof ROIPainter)
+                roiCount++;
+
+        if (roiCount < MIN_ROI_COUNT)
+        {
+            // release resources
+            if (!cachedLayers.isEmpty())
+                clear();
+
+            return false;
+        }
+
+        final double sx = canvas.getScaleX();
+        final double sy = canvas.getScaleY();
+        final int z = canvas.getPositionZ();
+        final int t = canvas.getPositionT();
+        final int c = canvas.getPositionC();
+
+        // view changed --> rasterize again
+        if ((sx != scaleX) || (sy != scaleY) || (z != posZ) || (t != posT) || (c != posC))
+        {
+            scaleX = sx;
+            scaleY = sy;
+            posZ = z;
+            posT = t;
+            posC = c;
+
+            tiles.clear();
+            indexValid = false;
+        }
+
+        // build cached layer list in paint order
+        final List<Layer> newCachedLayers = new ArrayList<Layer>(roiCount);
+        final Map<Overlay, Integer> newGroups = new HashMap<Overlay, Integer>(roiCount);
+        int group = 0;
+        boolean inGroup = false;
+
+        for (int i = layers.size() - 1; i >= 0; i--)
+        {
+            final Layer layer = layers.get(i);
+
+            if (isCacheable(layer))
+            {
+                newCachedLayers.add(layer);
+                newGroups.put(layer.getOverlay(), Integer.valueOf(group));
+                inGroup = true;
+            }
+            // a painted layer ends the current group
+            else if (inGroup && layer.isVisible())
+            {
+                group++;
+                inGroup = false;
+            }
+        }
+
+        final int newGroupCount = inGroup ? group + 1 : group;
+
+        // invalidate tiles of previous and new groups
+        groupCount = Math.max(groupCount, newGroupCount);
+
+        if (!newGroups.equals(groups))
+        {
+            // invalidate area of layers which changed of group
+            for (Entry<Overlay, Integer> entry : newGroups.entrySet())
+            {
+                final Overlay overlay = entry.getKey();
+                final Integer oldGroup = groups.get(overlay);
+
+                if ((oldGroup != null) && !oldGroup.equals(entry.getValue()))
+                {
+                    invalidate(paintedBounds.get(overlay));
+                    invalidate(getPaintBounds(((ROIPainter) overlay).getROI()));
+                }
+            }
+
+            indexValid = false;
+        }
+
+        if (!newCachedLayers.equals(cachedLayers))
+        {
+            final Set<Overlay> newCachedOverlays = new HashSet<Overlay>(newCachedLayers.size());
+            for (Layer layer : newCachedLayers)
+                newCachedOverlays.add(layer.getOverlay());
+
+            // invalidate area of layers leaving the cache
+            for (Overlay overlay : cachedOverlays)
+                if (!newCachedOverlays.contains(overlay))
+                    invalidate(paintedBounds.remove(overlay));
+            // invalidate area of layers entering the cache
+            for (Overlay overlay : newCachedOverlays)
+                if (!cachedOverlays.contains(overlay))
+                    invalidate(getPaintBounds(((ROIPainter) overlay).getROI()));
+
+            cachedLayers = newCachedLayers;
+            cachedOverlays.clear();
+            cachedOverlays.addAll(newCachedOverlays);
+            indexValid = false;
+        }
+
+        groups = newGroups;
+
+        // release tiles of removed groups
+        if (newGroupCount < groupCount)
+        {
+            final Iterator<TileKey> it = tiles.keySet().iterator();
+            while (it.hasNext())
+                if (it.next().group >= newGroupCount)
+                    it.remove();
+        }
+
+        groupCount = newGroupCount;
+        updateMaxTiles();
+
+        return true;
+    }
+
+    /**
+     * Adjust the maximum number of tiles to the canvas size: twice the number of visible tiles for
+     * each group (bounded by the available memory).
+     */
+    private void updateMaxTiles()
+    {
+        final int visibleTiles = (((canvas.getCanvasSizeX() + TILE_SIZE - 1) / TILE_SIZE) + 1)
+                * (((canvas.getCanvasSizeY() + TILE_SIZE - 1) / TILE_SIZE) + 1);
+        final long memoryTiles = SystemUtil.getJavaMaxMemory() / (MEMORY_RATIO * TILE_SIZE * TILE_SIZE * 4L);
+        final long value = Math.min(2L * visibleTiles * Math.max(1, groupCount), memoryTiles);
+
+        maxTiles = (int) Math.max(MIN_TILES, value);
+
+        // release tiles above the new limit (least recently used first)
+        final Iterator<TileKey> it = tiles.keySet().iterator();
+        while ((tiles.size() > maxTiles) && it.hasNext())
+        {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * Returns the maximum number of rasterized tiles kept in memory.
+     */
+    public synchronized int getMaxTiles()
+    {
+        return maxTiles;
+    }
+
+    /**
+     * Returns <code>true</code> if the specified layer is painted by the cache (see
+     * {@link #update(List)}).
+     */
+    public synchronized boolean isCached(Layer layer)
+    {
+        return cachedOverlays.contains(layer.getOverlay());
+    }
+
+    /**
+     * Returns the group of the specified cached layer (-1 if not cached).<br>
+     * A group is a contiguous run of cached layers in paint order, each group should be painted (see
+     * {@link #paint(Graphics2D, Sequence, int)}) in place of its layers.
+     */
+    public synchronized int getGroup(Layer layer)
+    {
+        final Integer result = groups.get(layer.getOverlay());
+
+        if (result == null)
+            return -1;
+
+        return result.intValue();
+    }
+
+    /**
+     * Notify the cache that the specified overlay changed (or has been added / removed).
+     */
+    public synchronized void overlayChanged(Overlay overlay)
+    {
+        if (cachedLayers.isEmpty())
+            return;
+
+        // previous area
+        invalidate(paintedBounds.get(overlay));
+        // new area
+        if (overlay instanceof ROIPainter)
+            invalidate(getPaintBounds(((ROIPainter) overlay).getROI()));
+
+        indexValid = false;
+    }
+
+    /**
+     * Returns the area painted by the specified ROI (image coordinates) or <code>null</code> if it
+     * is not painted by the cache.
+     */
+    protected Rectangle2D getPaintBounds(ROI roi)
+    {
+        if (!(roi instanceof ROI2D) || (scaleX <= 0d) || (scaleY <= 0d))
+            return null;
+
+        final Rectangle2D bounds = ((ROI2D) roi).getBounds2D();
+
+        // too small to be visible
+        if (((bounds.getWidth() * scaleX) < 1d) && ((bounds.getHeight() * scaleY) < 1d))
+            return null;
+
+        // take stroke and anti aliasing into account
+        final double margin = roi.getAdjustedStroke(canvas) + (2d / Math.min(scaleX, scaleY));
+
+        return new Rectangle2D.Double(bounds.getX() - margin, bounds.getY() - margin, bounds.getWidth()
+                + (2 * margin), bounds.getHeight() + (2 * margin));
+    }
+
+    /**
+     * Returns tiles range (inclusive) for the specified image area.
+     */
+    private Rectangle getTileRange(Rectangle2D area)
+    {
+        final double tw = TILE_SIZE / scaleX;
+        final double th = TILE_SIZE / scaleY;
+        final int minX = (int) Math.floor(area.getMinX() / tw);
+        final int minY = (int) Math.floor(area.getMinY() / th);
+        final int maxX = (int) Math.floor(area.getMaxX() / tw);
+        final int maxY = (int) Math.floor(area.getMaxY() / th);
+
+        return new Rectangle(minX, minY, (maxX - minX) + 1, (maxY - minY) + 1);
+    }
+
+    /**
+     * Remove rasterized tiles intersecting the specified area
+     */
+    private void invalidate(Rectangle2D area)
+    {
+        if ((area == null) || tiles.isEmpty())
+            return;
+
+        final Rectangle range = getTileRange(area);
+
+        for (int group = 0; group < groupCount; group++)
+            for (int ty = range.y; ty < (range.y + range.height); ty++)
+                for (int tx = range.x; tx < (range.x + range.width); tx++)
+                    tiles.remove(new TileKey(group, tx, ty));
+    }
+
+    /**
+     * Rebuild tile --> layers index
+     */
+    private void buildIndex()
+    {
+        index.clear();
+        paintedBounds.clear();
+
+        for (Layer layer : cachedLayers)
+        {
+            final Overlay overlay = layer.getOverlay();
+            final Rectangle2D bounds = getPaintBounds(((ROIPainter) overlay).getROI());
+
+            // culled
+            if (bounds == null)
+                continue;
+
+            paintedBounds.put(overlay, bounds);
+
+            final int group = groups.get(overlay).intValue();
+            final Rectangle range = getTileRange(bounds);
+
+            for (int ty = range.y; ty < (range.y + range.height); ty++)
+            {
+                for (int tx = range.x; tx < (range.x + range.width); tx++)
+                {
+                    final TileKey key = new TileKey(group, tx, ty);
+                    List<Layer> list = index.get(key);
+
+                    if (list == null)
+                    {
+                        list = new ArrayList<Layer>();
+                        index.put(key, list);
+                    }
+
+                    list.add(layer);
+                }
+            }
+        }
+
+        indexValid = true;
+    }
+
+    /**
+     * Rasterize the specified tile
+     */
+    private BufferedImage createTile(Sequence sequence, int tx, int ty, List<Layer> layers)
+    {
+        final double tw = TILE_SIZE / scaleX;
+        final double th = TILE_SIZE / scaleY;
+        final double x = tx * tw;
+        final double y = ty * th;
+        final BufferedImage result = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D g = result.createGraphics();
+
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        // tile image --> image coordinates
+        g.scale(scaleX, scaleY);
+        g.translate(-x, -y);
+        g.clip(new Rectangle2D.Double(x, y, tw, th));
+
+        for (Layer layer : layers)
+        {
+            final float opacity = layer.getOpacity();
+
+            if (opacity != 1f)
+                g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity));
+            else
+                g.setComposite(AlphaComposite.SrcOver);
+
+            try
+            {
+                layer.getOverlay().paint(g, sequence, canvas);
+            }
+            catch (Exception e)
+            {
+                // ignore painting error of a single ROI
+            }
+        }
+
+        g.dispose();
+
+        return result;
+    }
+
+    /**
+     * Paint cached layers of the specified group on the specified graphics (image coordinates).
+     */
+    public synchronized void paint(Graphics2D g, Sequence sequence, int group)
+    {
+        if (cachedLayers.isEmpty() || (scaleX <= 0d) || (scaleY <= 0d))
+            return;
+        if (!indexValid)
+            buildIndex();
+
+        Rectangle2D area = g.getClipBounds();
+        if (area == null)
+            area = new Rectangle2D.Double(0, 0, canvas.getImageSizeX(), canvas.getImageSizeY());
+
+        final double tw = TILE_SIZE / scaleX;
+        final double th = TILE_SIZE / scaleY;
+        final Rectangle range = getTileRange(area);
+        final AffineTransform trans = new AffineTransform();
+
+        g.setComposite(AlphaComposite.SrcOver);
+
+        for (int ty = range.y; ty < (range.y + range.height); ty++)
+        {
+            for (int tx = range.x; tx < (range.x + range.width); tx++)
+            {
+                final TileKey key = new TileKey(group, tx, ty);
+                final List<Layer> layers = index.get(key);
+
+                // nothing to paint here
+                if (layers == null)
+                    continue;
+
+                BufferedImage tile = tiles.get(key);
+
+                if (tile == null)
+                {
+                    tile = createTile(sequence, tx, ty, layers);
+                    tiles.put(key, tile);
+                }
+
+                trans.setTransform(1d / scaleX, 0d, 0d, 1d / scaleY, tx * tw, ty * th);
+                g.drawImage(tile, trans, null);
+            }
+        }
+    }
+}
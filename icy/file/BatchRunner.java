@@ -0,0 +1,940 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Icy. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package icy.file;
+
+import icy.common.exception.UnsupportedFormatException;
+import icy.common.listener.ProgressListener;
+import icy.image.IcyBufferedImage;
+import icy.sequence.MetaDataUtil;
+import icy.system.IcyExceptionHandler;
+import icy.system.SystemUtil;
+import icy.system.thread.Processor;
+import icy.type.DataType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import loci.common.services.ServiceException;
+import loci.formats.FormatException;
+import loci.formats.IFormatWriter;
+import loci.formats.UnknownFormatException;
+import loci.formats.meta.MetadataRetrieve;
+import loci.formats.out.TiffWriter;
+import ome.xml.meta.OMEXMLMetadata;
+
+/**
+ * Headless batch runner streaming image files through <i>open --> per plane processing --> save</i>.<br>
+ * <br>
+ * Files are processed in parallel by a bounded number of file workers (see {@link #setNumFileThread(int)}). Each
+ * worker keeps its own {@link SequenceFileImporter} and {@link IFormatWriter} instances and reuse them for all the
+ * files it processes.<br>
+ * Inside a file, planes are pipelined: the worker reads planes sequentially while the previous ones are processed
+ * in the shared plane processing pool then written back in order, so at most {@link #getPlaneWindow()} planes per
+ * file are kept in memory.<br>
+ * <br>
+ * No GUI component is used here (no progress frame, no viewer, no recent files list) so it can safely be used in
+ * headless mode. A {@link FileResult} containing timing informations is produced for each processed file.
+ * 
+ * @author Stephane
+ */
+public class BatchRunner
+{
+    /**
+     * Per plane image processor.<br>
+     * Planes are processed concurrently so implementation should be thread safe.
+     */
+    public static interface PlaneProcessor
+    {
+        /**
+         * Process the specified plane and return the result image.<br>
+         * The input image can be directly modified and returned, returning <code>null</code> is equivalent to
+         * return the input image.<br>
+         * All planes of a file should have the same size, number of channel and data type once processed.
+         * 
+         * @param image
+         *        input plane image (all channels)
+         * @param path
+         *        input file path
+         * @param z
+         *        Z position of the plane
+         * @param t
+         *        T position of the plane
+         */
+        public IcyBufferedImage process(IcyBufferedImage image, String path, int z, int t) throws Exception;
+    }
+
+    /**
+     * Batch listener, notified each time a file has been processed (successfully or not).<br>
+     * Notification are done from the worker threads.
+     */
+    public static interface BatchListener
+    {
+        public void fileProcessed(BatchRunner source, FileResult result);
+    }
+
+    /**
+     * Result and timing informations of a processed file.<br>
+     * Times are given in milliseconds, processing time is cumulated over all plane processing threads.
+     */
+    public static class FileResult
+    {
+        final String path;
+        String outputPath;
+        int numPlane;
+        long openTime;
+        long readTime;
+        final AtomicLong processTime;
+        long writeTime;
+        long totalTime;
+        Throwable error;
+
+        FileResult(String path)
+        {
+            super();
+
+            this.path = path;
+            outputPath = null;
+            numPlane = 0;
+            openTime = 0L;
+            readTime = 0L;
+            processTime = new AtomicLong(0L);
+            writeTime = 0L;
+            totalTime = 0L;
+            error = null;
+        }
+
+        /**
+         * Returns the input file path.
+         */
+        public String getPath()
+        {
+            return path;
+        }
+
+        /**
+         * Returns the output file path (<code>null</code> if not yet defined).
+         */
+        public String getOutputPath()
+        {
+            return outputPath;
+        }
+
+        /**
+         * Returns the number of plane written in the output file.
+         */
+        public int getNumPlane()
+        {
+            return numPlane;
+        }
+
+        /**
+         * Returns the time spent to find the importer, open the file and read metadata (in ms).
+         */
+        public double getOpenTime()
+        {
+            return openTime / 1000000d;
+        }
+
+        /**
+         * Returns the time spent to read planes (in ms).
+         */
+        public double getReadTime()
+        {
+            return readTime / 1000000d;
+        }
+
+        /**
+         * Returns the time spent to process planes, cumulated over all processing threads (in ms).
+         */
+        public double getProcessTime()
+        {
+            return processTime.get() / 1000000d;
+        }
+
+        /**
+         * Returns the time spent to prepare the writer and write planes (in ms).
+         */
+        public double getWriteTime()
+        {
+            return writeTime / 1000000d;
+        }
+
+        /**
+         * Returns the total (wall clock) time spent for this file (in ms).
+         */
+        public double getTotalTime()
+        {
+            return totalTime / 1000000d;
+        }
+
+        /**
+         * Returns the error which interrupted the file processing (<code>null</code> if no error).
+         */
+        public Throwable getError()
+        {
+            return error;
+        }
+
+        /**
+         * Returns <code>true</code> if the file has been correctly processed.
+         */
+        public boolean isSuccess()
+        {
+            return error == null;
+        }
+
+        @Override
+        public String toString()
+        {
+            final String result = path + " (" + numPlane + " plane(s)) total=" + Math.round(getTotalTime())
+                    + " ms [open=" + Math.round(getOpenTime()) + " ms, read=" + Math.round(getReadTime())
+                    + " ms, process=" + Math.round(getProcessTime()) + " ms, write=" + Math.round(getWriteTime())
+                    + " ms]";
+
+            if (error != null)
+                return result + " failed: " + error;
+
+            return result;
+        }
+    }
+
+    /**
+     * Canceled file exception (internal use)
+     */
+    private static class CanceledException extends Exception
+    {
+        private static final long serialVersionUID = 5146186853315467012L;
+
+        public CanceledException()
+        {
+            super("Canceled");
+        }
+    }
+
+    /**
+     * File worker: process files from the shared file list until it is empty.<br>
+     * Importers and writers are kept for the worker life so they are reused between files.
+     */
+    private class FileWorker implements Callable<Object>
+    {
+        final List<String> paths;
+        final String[] outputPaths;
+        final List<FileResult> results;
+        final AtomicInteger next;
+        final AtomicInteger done;
+        final ProgressListener progressListener;
+        final List<SequenceFileImporter> importers;
+        final Map<ImageFileFormat, IFormatWriter> writers;
+
+        public FileWorker(List<String> paths, String[] outputPaths, List<FileResult> results, AtomicInteger next,
+                AtomicInteger done, ProgressListener progressListener)
+        {
+            super();
+
+            this.paths = paths;
+            this.outputPaths = outputPaths;
+            this.results = results;
+            this.next = next;
+            this.done = done;
+            this.progressListener = progressListener;
+
+            importers = Loader.getSequenceFileImporters();
+            writers = new EnumMap<ImageFileFormat, IFormatWriter>(ImageFileFormat.class);
+        }
+
+        IFormatWriter getWriter(ImageFileFormat format) throws UnknownFormatException
+        {
+            IFormatWriter result = writers.get(format);
+
+            if (result == null)
+            {
+                result = Saver.getWriter(format);
+                if (result == null)
+                    throw new UnknownFormatException("Can't find a valid image writer for " + format + " format.");
+
+                writers.put(format, result);
+            }
+
+            return result;
+        }
+
+        @Override
+        public Object call() throws Exception
+        {
+            int index;
+
+            while (!canceled && ((index = next.getAndIncrement()) < paths.size()))
+            {
+                final FileResult result = new FileResult(paths.get(index));
+
+                try
+                {
+                    processFile(result, outputPaths[index], importers, getWriter(outputFormat));
+                }
+                catch (CanceledException e)
+                {
+                    result.error = e;
+                }
+                catch (Throwable t)
+                {
+                    result.error = t;
+                    System.err.println("BatchRunner: error while processing " + result.path + " :");
+                    IcyExceptionHandler.showErrorMessage(t, true);
+                }
+
+                results.set(index, result);
+                fireFileProcessedEvent(result);
+
+                final int numDone = done.incrementAndGet();
+
+                if (progressListener != null)
+                {
+                    if (!progressListener.notifyProgress(numDone, paths.size()))
+                        cancel();
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * plane processing pool (shared by all runners)
+     */
+    private static Processor planeProcessor = null;
+
+    protected final PlaneProcessor processor;
+    protected final File outputDirectory;
+    protected final ImageFileFormat outputFormat;
+    protected int series;
+    protected int numFileThread;
+    protected int planeWindow;
+
+    private final List<BatchListener> listeners;
+    volatile boolean canceled;
+
+    /**
+     * Creates a new batch runner.
+     * 
+     * @param processor
+     *        processor applied on each plane of each file
+     * @param outputDirectory
+     *        directory where output files are written (file name is kept, extension is set from the output format)
+     * @param outputFormat
+     *        output image file format (multi planes files require TIFF format)
+     */
+    public BatchRunner(PlaneProcessor processor, File outputDirectory, ImageFileFormat outputFormat)
+    {
+        super();
+
+        if (processor == null)
+            throw new IllegalArgumentException("BatchRunner: plane processor cannot be null.");
+
+        this.processor = processor;
+        this.outputDirectory = outputDirectory;
+        this.outputFormat = (outputFormat != null) ? outputFormat : ImageFileFormat.TIFF;
+
+        series = 0;
+        numFileThread = Math.max(1, Math.min(4, SystemUtil.getNumberOfCPUs() / 2));
+        planeWindow = SystemUtil.getNumberOfCPUs() * 2;
+        listeners = new ArrayList<BatchListener>();
+        canceled = false;
+    }
+
+    /**
+     * Creates a new batch runner saving files in TIFF format.
+     * 
+     * @see #BatchRunner(PlaneProcessor, File, ImageFileFormat)
+     */
+    public BatchRunner(PlaneProcessor processor, File outputDirectory)
+    {
+        this(processor, outputDirectory, ImageFileFormat.TIFF);
+    }
+
+    private static synchronized Processor getPlaneProcessor()
+    {
+        if (planeProcessor == null)
+        {
+            planeProcessor = new Processor(SystemUtil.getNumberOfCPUs());
+            planeProcessor.setThreadName("Batch plane processing");
+        }
+
+        return planeProcessor;
+    }
+
+    /**
+     * Returns the series index processed in each file.
+     */
+    public int getSeries()
+    {
+        return series;
+    }
+
+    /**
+     * Sets the series index processed in each file (default is 0).
+     */
+    public void setSeries(int value)
+    {
+        series = Math.max(0, value);
+    }
+
+    /**
+     * Returns the maximum number of files processed in parallel.
+     */
+    public int getNumFileThread()
+    {
+        return numFileThread;
+    }
+
+    /**
+     * Sets the maximum number of files processed in parallel.<br>
+     * Each file worker keeps its own importers / writer so memory usage grows with this value.
+     */
+    public void setNumFileThread(int value)
+    {
+        numFileThread = Math.max(1, value);
+    }
+
+    /**
+     * Returns the maximum number of planes in flight (read, being processed or waiting to be written) per file.
+     */
+    public int getPlaneWindow()
+    {
+        return planeWindow;
+    }
+
+    /**
+     * Sets the maximum number of planes in flight per file.
+     */
+    public void setPlaneWindow(int value)
+    {
+        planeWindow = Math.max(1, value);
+    }
+
+    /**
+     * Returns the output file format.
+     */
+    public ImageFileFormat getOutputFormat()
+    {
+        return outputFormat;
+    }
+
+    /**
+     * Returns the output directory.
+     */
+    public File getOutputDirectory()
+    {
+        return outputDirectory;
+    }
+
+    /**
+     * Cancel the current batch, files being processed are interrupted (partial output files are removed).
+     */
+    public void cancel()
+    {
+        canceled = true;
+    }
+
+    /**
+     * Returns <code>true</code> if the current batch has been canceled.
+     */
+    public boolean isCanceled()
+    {
+        return canceled;
+    }
+
+    /**
+     * Returns the output file path for the specified input file path.<br>
+     * Override it to use a custom naming scheme.
+     */
+    protected String getOutputPath(String path)
+    {
+        final String dir;
+
+        if (outputDirectory != null)
+            dir = FileUtil.getGenericPath(outputDirectory.getAbsolutePath());
+        else
+            dir = FileUtil.getDirectory(path, false);
+
+        return dir + FileUtil.separator + FileUtil.getFileName(path, false) + "."
+                + outputFormat.getExtensions()[0];
+    }
+
+    /**
+     * Returns the key used to compare the specified file paths (absolute and case insensitive when the file system
+     * usually is).
+     */
+    private static String getPathKey(String path)
+    {
+        final String result = FileUtil.getGenericPath(new File(path).getAbsolutePath());
+
+        if (SystemUtil.isWindows() || SystemUtil.isMac())
+            return result.toLowerCase();
+
+        return result;
+    }
+
+    /**
+     * Returns the output file path of each specified input file path (see {@link #getOutputPath(String)}).<br>
+     * An entry is set to <code>null</code> when its output file is already used by a previous entry (as
+     * <code>dir1/a.tif</code> and <code>dir2/a.tif</code> with a single output directory or <code>a.tif</code> and
+     * <code>a.png</code>) or when it would overwrite one of the input files.
+     */
+    protected String[] getOutputPaths(List<String> paths)
+    {
+        final String[] result = new String[paths.size()];
+        final Map<String, String> inputs = new HashMap<String, String>();
+        final Map<String, String> outputs = new HashMap<String, String>();
+
+        for (String path : paths)
+            inputs.put(getPathKey(path), path);
+
+        for (int i = 0; i < result.length; i++)
+        {
+            final String path = paths.get(i);
+            final String outputPath = getOutputPath(path);
+            final String key = getPathKey(outputPath);
+
+            if (!inputs.containsKey(key) && !outputs.containsKey(key))
+            {
+                outputs.put(key, path);
+                result[i] = outputPath;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Process the specified list of files and wait for completion.<br>
+     * Files whose output file path collides with the output of a previous file or with an input file are not
+     * processed and their result contains an {@link IOException} error (see {@link #getOutputPaths(List)}).
+     * 
+     * @param paths
+     *        list of input file path
+     * @param progressListener
+     *        listener notified each time a file is done, returning <code>false</code> cancel the batch (can be
+     *        <code>null</code>)
+     * @return the result of each file (same order as input paths), files not processed because of cancellation
+     *         have no result (<code>null</code> entry)
+     */
+    public List<FileResult> run(List<String> paths, ProgressListener progressListener)
+    {
+        final List<FileResult> results = Collections.synchronizedList(new ArrayList<FileResult>(Collections
+                .<FileResult> nCopies(paths.size(), null)));
+        final int numWorker = Math.min(numFileThread, paths.size());
+
+        canceled = false;
+
+        if (numWorker == 0)
+            return results;
+
+        final String[] outputPaths = getOutputPaths(paths);
+        final AtomicInteger next = new AtomicInteger(0);
+        final AtomicInteger done = new AtomicInteger(0);
+        final Processor fileProcessor = new Processor(numWorker, numWorker);
+        final List<Future<Object>> futures = new ArrayList<Future<Object>>(numWorker);
+
+        fileProcessor.setThreadName("Batch file processing");
+
+        try
+        {
+            for (int i = 0; i < numWorker; i++)
+                futures.add(fileProcessor.submit(new FileWorker(paths, outputPaths, results, next, done,
+                        progressListener)));
+
+            for (Future<Object> future : futures)
+            {
+                try
+                {
+                    future.get();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    cancel();
+                    break;
+                }
+                catch (ExecutionException e)
+                {
+                    IcyExceptionHandler.showErrorMessage(e.getCause(), true);
+                }
+            }
+        }
+        finally
+        {
+            fileProcessor.shutdown();
+        }
+
+        return results;
+    }
+
+    /**
+     * Process the specified list of files and wait for completion.
+     * 
+     * @see #run(List, ProgressListener)
+     */
+    public List<FileResult> run(List<String> paths)
+    {
+        return run(paths, null);
+    }
+
+    /**
+     * Process the specified file (synchronous, use the calling thread for read / write operations).
+     */
+    public FileResult run(String path) throws Exception
+    {
+        final FileResult result = new FileResult(path);
+
+        canceled = false;
+        processFile(result, getOutputPath(path), Loader.getSequenceFileImporters(), Saver.getWriter(outputFormat));
+        fireFileProcessedEvent(result);
+
+        return result;
+    }
+
+    /**
+     * Stream the specified file through open --> process --> save
+     * 
+     * @param outputPath
+     *        output file path, <code>null</code> if it collides with another file of the batch
+     */
+    void processFile(final FileResult result, String outputPath, List<SequenceFileImporter> importers,
+            IFormatWriter writer) throws Exception
+    {
+        final long start = System.nanoTime();
+        final String path = result.path;
+
+        try
+        {
+            if (outputPath == null)
+                throw new IOException("Output file '" + getOutputPath(path)
+                        + "' collides with the output of another file or with an input file: " + path);
+            if (FileUtil.getGenericPath(new File(outputPath).getAbsolutePath()).equals(
+                    FileUtil.getGenericPath(new File(path).getAbsolutePath())))
+                throw new IOException("Output file would overwrite input file: " + path);
+            if (writer == null)
+                throw new UnknownFormatException("Can't find a valid image writer for " + outputFormat + " format.");
+
+            final SequenceFileImporter importer = Loader.getSequenceFileImporter(importers, path, true);
+
+            if ((importer == null) || !importer.open(path, SequenceFileImporter.FLAG_METADATA_MINIMUM))
+                throw new UnsupportedFormatException("Image file '" + path + "' is not supported !");
+
+            try
+            {
+                final OMEXMLMetadata meta = importer.getOMEXMLMetaData();
+
+                if (series >= MetaDataUtil.getNumSeries(meta))
+                    throw new IllegalArgumentException("Image file '" + path + "' does not contain series " + series);
+
+                final int sizeZ = MetaDataUtil.getSizeZ(meta, series);
+                final int sizeT = MetaDataUtil.getSizeT(meta, series);
+
+                Loader.checkOpeningPlane(0, MetaDataUtil.getSizeX(meta, series), MetaDataUtil.getSizeY(meta, series),
+                        " (" + path + ")");
+                checkFormat(sizeZ, sizeT);
+
+                result.outputPath = outputPath;
+                result.openTime = System.nanoTime() - start;
+
+                processPlanes(result, importer, meta, writer, sizeZ, sizeT);
+            }
+            finally
+            {
+                importer.close();
+            }
+        }
+        catch (Exception e)
+        {
+            // remove partial output file (even empty as the writer may already have created it)
+            if (result.outputPath != null)
+                FileUtil.delete(result.outputPath, false);
+
+            result.error = e;
+            throw e;
+        }
+        finally
+        {
+            result.totalTime = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Check that output format can store the specified image dimension
+     */
+    private void checkFormat(int sizeZ, int sizeT) throws FormatException
+    {
+        switch (outputFormat)
+        {
+            default:
+                // no restriction for TIFF
+                break;
+
+            case AVI:
+                if (sizeZ > 1)
+                    throw new FormatException("AVI format does not support 3D image.");
+                break;
+
+            case JPG:
+            case PNG:
+                if ((sizeZ * sizeT) > 1)
+                    throw new FormatException(outputFormat + " format does not support multi planes image.");
+                break;
+        }
+    }
+
+    private void processPlanes(final FileResult result, final SequenceFileImporter importer, OMEXMLMetadata meta,
+            IFormatWriter writer, int sizeZ, int sizeT) throws Exception
+    {
+        final String path = result.path;
+        final Processor planePool = getPlaneProcessor();
+        final LinkedList<Future<IcyBufferedImage>> window = new LinkedList<Future<IcyBufferedImage>>();
+        final int numPlane = sizeZ * sizeT;
+        boolean writerOpened = false;
+        boolean success = false;
+        // output format (defined from first processed plane)
+        int sizeX = 0;
+        int sizeY = 0;
+        int sizeC = 0;
+        DataType dataType = null;
+        boolean separateChannel = false;
+        boolean littleEndian = true;
+        byte[] data = null;
+        int imageIndex = 0;
+        int read = 0;
+
+        try
+        {
+            // XYCZT order is important here (see metadata)
+            while ((read < numPlane) || !window.isEmpty())
+            {
+                if (canceled)
+                    throw new CanceledException();
+
+                // fill the pipeline
+                if ((read < numPlane) && (window.size() < planeWindow))
+                {
+                    final int z = read % sizeZ;
+                    final int t = read / sizeZ;
+                    long time = System.nanoTime();
+                    final IcyBufferedImage image = importer.getImage(series, 0, z, t);
+                    result.readTime += System.nanoTime() - time;
+
+                    if (image == null)
+                        throw new IOException("Can't read plane [Z=" + z + ", T=" + t + "] from " + path);
+
+                    window.add(planePool.submit(new Callable<IcyBufferedImage>()
+                    {
+                        @Override
+                        public IcyBufferedImage call() throws Exception
+                        {
+                            final long startTime = System.nanoTime();
+
+                            try
+                            {
+                                final IcyBufferedImage processed = processor.process(image, path, z, t);
+                                return (processed != null) ? processed : image;
+                            }
+                            finally
+                            {
+                                result.processTime.addAndGet(System.nanoTime() - startTime);
+                            }
+                        }
+                    }));
+
+                    read++;
+
+                    // keep reading while the oldest plane is not yet ready
+                    if (!window.getFirst().isDone() && (window.size() < planeWindow) && (read < numPlane))
+                        continue;
+                }
+
+                // write oldest plane
+                final IcyBufferedImage image = getResult(window.removeFirst());
+                final long time = System.nanoTime();
+
+                if (!writerOpened)
+                {
+                    sizeX = image.getSizeX();
+                    sizeY = image.getSizeY();
+                    sizeC = image.getSizeC();
+                    dataType = image.getDataType_();
+
+                    if (!Saver.isCompatible(writer, sizeC, false, dataType))
+                        throw new FormatException(outputFormat + " format does not support " + sizeC
+                                + " channel(s) " + dataType + " image.");
+
+                    separateChannel = Saver.getSeparateChannelFlag(writer, sizeC, dataType);
+                    openWriter(writer, meta, result.outputPath, sizeX, sizeY, sizeC, sizeZ, sizeT, dataType,
+                            separateChannel);
+                    writerOpened = true;
+                    littleEndian = !writer.getMetadataRetrieve().getPixelsBinDataBigEndian(0, 0).booleanValue();
+                }
+                else if ((image.getSizeX() != sizeX) || (image.getSizeY() != sizeY) || (image.getSizeC() != sizeC)
+                        || (image.getDataType_() != dataType))
+                    throw new FormatException("Processed planes of " + path
+                            + " do not have the same size, number of channel or data type.");
+
+                if (separateChannel)
+                {
+                    for (int c = 0; c < sizeC; c++)
+                    {
+                        // avoid multiple allocation
+                        data = image.getRawData(c, data, 0, littleEndian);
+                        writer.saveBytes(imageIndex++, data);
+                    }
+                }
+                else
+                {
+                    data = image.getRawData(data, 0, littleEndian);
+                    writer.saveBytes(imageIndex++, data);
+                }
+
+                result.numPlane++;
+                result.writeTime += System.nanoTime() - time;
+            }
+
+            success = true;
+        }
+        finally
+        {
+            if (!success)
+            {
+                for (Future<IcyBufferedImage> future : window)
+                    future.cancel(true);
+            }
+
+            if (writerOpened)
+            {
+                final long time = System.nanoTime();
+                // always close writer after a file has been saved
+                writer.close();
+                result.writeTime += System.nanoTime() - time;
+            }
+        }
+    }
+
+    private static IcyBufferedImage getResult(Future<IcyBufferedImage> future) throws Exception
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new CanceledException();
+        }
+        catch (ExecutionException e)
+        {
+            final Throwable cause = e.getCause();
+
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+
+            throw e;
+        }
+    }
+
+    private static void openWriter(IFormatWriter writer, OMEXMLMetadata inputMeta, String filePath, int sizeX,
+            int sizeY, int sizeC, int sizeZ, int sizeT, DataType dataType, boolean separateChannel)
+            throws ServiceException, FormatException, IOException
+    {
+        final OMEXMLMetadata metadata = MetaDataUtil.generateMetaData(sizeX, sizeY, sizeC, sizeZ, sizeT, dataType,
+                separateChannel);
+        final int series = 0;
+
+        // keep calibration when processing does not change plane size
+        if ((sizeX == MetaDataUtil.getSizeX(inputMeta, series)) && (sizeY == MetaDataUtil.getSizeY(inputMeta, series)))
+        {
+            MetaDataUtil.setPixelSizeX(metadata, 0, MetaDataUtil.getPixelSizeX(inputMeta, series, 1d));
+            MetaDataUtil.setPixelSizeY(metadata, 0, MetaDataUtil.getPixelSizeY(inputMeta, series, 1d));
+        }
+        MetaDataUtil.setPixelSizeZ(metadata, 0, MetaDataUtil.getPixelSizeZ(inputMeta, series, 1d));
+        MetaDataUtil.setTimeInterval(metadata, 0, MetaDataUtil.getTimeInterval(inputMeta, series, 1d));
+
+        final File file = new File(filePath);
+
+        // first delete the file else LOCI won't save it correctly
+        if (file.exists())
+            file.delete();
+        // ensure parent directory exist
+        FileUtil.ensureParentDirExist(file);
+
+        // specific to TIFF writer
+        if (writer instanceof TiffWriter)
+            // > 2GB --> use big tiff (important to do it before setId(..) call)
+            ((TiffWriter) writer).setBigTiff(MetaDataUtil.getDataSize(metadata, 0, 0) > 2000000000L);
+
+        writer.setMetadataRetrieve((MetadataRetrieve) metadata);
+        // no interleave (XP default viewer want interleaved channel to correctly read image)
+        writer.setInterleaved(false);
+        writer.setId(filePath);
+        writer.setSeries(0);
+        // usually give better save performance
+        writer.setWriteSequentially(true);
+    }
+
+    /**
+     * Add a batch listener
+     */
+    public void addListener(BatchListener listener)
+    {
+        synchronized (listeners)
+        {
+            listeners.add(listener);
+        }
+    }
+
+    /**
+     * Remove a batch listener
+     */
+    public void removeListener(BatchListener listener)
+    {
+        synchronized (listeners)
+        {
+            listeners.remove(listener);
+        }
+    }
+
+    void fireFileProcessedEvent(FileResult result)
+    {
+        final List<BatchListener> list;
+
+        synchronized (listeners)
+        {
+            list = new ArrayList<BatchListener>(listeners);
+        }
+
+        for (BatchListener listener : list)
+            listener.fileProcessed(this, result);
+    }
+}
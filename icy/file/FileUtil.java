@@ -22,6 +22,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
@@ -45,6 +46,22 @@ public class FileUtil
 
     public static final String APPLICATION_DIRECTORY = getApplicationDirectory();
 
+    /**
+     * File system types considered as network storage
+     */
+    private static final String[] NETWORK_FS_TYPES = {"nfs", "nfs4", "cifs", "smbfs", "smb3", "afs", "ncpfs",
+            "davfs", "fuse.sshfs", "glusterfs", "ceph", "lustre", "9p"};
+    /**
+     * Mount table refresh interval (ms)
+     */
+    private static final long MOUNTS_REFRESH_INTERVAL = 60000L;
+
+    /**
+     * Network mount points (Linux only, lazily loaded from /proc/mounts)
+     */
+    private static List<String> networkMounts = null;
+    private static long networkMountsTime = 0L;
+
     /**
      * Cleanup the file path (replace some problematic character by "_")
      */
@@ -1311,6 +1328,95 @@ public class FileUtil
         return !canon.getCanonicalFile().getAbsolutePath().equalsIgnoreCase(canon.getAbsolutePath());
     }
 
+    /**
+     * Return true if the specified path (or URL) is located on a network storage (network share, mounted remote file
+     * system or URL).<br>
+     * This is only a heuristic: UNC paths and URLs are always detected while remote mount points are only detected on
+     * Linux (from the mount table). It returns <code>false</code> when unsure.
+     */
+    public static boolean isNetworkPath(String path)
+    {
+        if (StringUtil.isEmpty(path))
+            return false;
+
+        // URL (http, ftp...) except local file URL
+        if ((path.indexOf("://") != -1) && !path.startsWith("file:"))
+            return true;
+        // UNC path
+        if (path.startsWith("\\\\") || path.startsWith("//"))
+            return true;
+
+        if (SystemUtil.isUnix() && !SystemUtil.isMac())
+        {
+            final String genericPath = getGenericPath(new File(path).getAbsolutePath());
+
+            for (String mount : getNetworkMounts())
+                if (genericPath.equals(mount) || genericPath.startsWith(mount + separator))
+                    return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns network mount points from the system mount table (Linux only)
+     */
+    private static synchronized List<String> getNetworkMounts()
+    {
+        final long time = System.currentTimeMillis();
+
+        if ((networkMounts != null) && ((time - networkMountsTime) < MOUNTS_REFRESH_INTERVAL))
+            return networkMounts;
+
+        final List<String> result = new ArrayList<String>();
+        final File mounts = new File("/proc/mounts");
+
+        if (mounts.exists())
+        {
+            try
+            {
+                final BufferedReader reader = new BufferedReader(new FileReader(mounts));
+
+                try
+                {
+                    String line;
+
+                    // format: device mount_point fs_type options dump pass
+                    while ((line = reader.readLine()) != null)
+                    {
+                        final String[] fields = line.split(" ");
+
+                        if ((fields.length > 2) && isNetworkFileSystem(fields[2]))
+                            // mount point use octal escaped space
+                            result.add(fields[1].replace("\\040", " "));
+                    }
+                }
+                finally
+                {
+                    reader.close();
+                }
+            }
+            catch (IOException e)
+            {
+                // ignore, consider local storage
+            }
+        }
+
+        networkMounts = result;
+        networkMountsTime = time;
+
+        return result;
+    }
+
+    private static boolean isNetworkFileSystem(String fsType)
+    {
+        for (String type : NETWORK_FS_TYPES)
+            if (type.equals(fsType))
+                return true;
+
+        return false;
+    }
+
     public static boolean delete(String path, boolean recursive)
     {
         return delete(new File(getGenericPath(path)), recursive);
@@ -523,7 +523,7 @@ public class Saver
     /**
      * Return the separate channel flag from specified writer and color space
      */
-    private static boolean getSeparateChannelFlag(IFormatWriter writer, int numChannel, DataType dataType)
+    static boolean getSeparateChannelFlag(IFormatWriter writer, int numChannel, DataType dataType)
     {
         return getSeparateChannelFlag(getImageFileFormat(writer, ImageFileFormat.TIFF), numChannel, dataType);
     }
@@ -23,9 +23,13 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Image;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -33,10 +37,10 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -51,9 +55,14 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.KeyStroke;
 import javax.swing.ListSelectionModel;
+import javax.swing.RowSorter.SortKey;
 import javax.swing.ScrollPaneConstants;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
+import javax.swing.event.RowSorterEvent;
+import javax.swing.event.RowSorterListener;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.JTableHeader;
 import javax.swing.table.TableColumn;
@@ -72,6 +81,7 @@ import icy.action.RoiActions;
 import icy.canvas.IcyCanvas;
 import icy.canvas.IcyCanvas2D;
 import icy.canvas.IcyCanvas3D;
+import icy.common.listener.ProgressListener;
 import icy.gui.component.IcyTextField.TextChangeListener;
 import icy.gui.component.button.IcyButton;
 import icy.gui.component.renderer.ImageTableCellRenderer;
@@ -89,6 +99,8 @@ import icy.plugin.interface_.PluginROIDescriptor;
 import icy.preferences.XMLPreferences;
 import icy.roi.ROI;
 import icy.roi.ROIDescriptor;
+import icy.roi.ROIDescriptorExporter;
+import icy.roi.ROIDescriptorStore;
 import icy.roi.ROIEvent;
 import icy.roi.ROIEvent.ROIEventType;
 import icy.roi.ROIListener;
@@ -97,6 +109,7 @@ import icy.sequence.Sequence;
 import icy.sequence.SequenceEvent;
 import icy.sequence.SequenceEvent.SequenceEventSourceType;
 import icy.system.IcyExceptionHandler;
+import icy.system.SystemUtil;
 import icy.system.thread.InstanceProcessor;
 import icy.system.thread.ThreadUtil;
 import icy.type.rectangle.Rectangle5D;
@@ -256,9 +269,7 @@ public abstract class AbstractRoisPanel extends ExternalizablePanel
     protected final Runnable columnInfoListRefresher;
     protected final InstanceProcessor processor;
 
-    protected final DescriptorComputer primaryDescriptorComputer;
-    protected final DescriptorComputer basicDescriptorComputer;
-    protected final DescriptorComputer advancedDescriptorComputer;
+    protected final DescriptorComputer descriptorComputer;
 
     protected long lastTableDataRefresh;
 
@@ -373,12 +384,8 @@ public abstract class AbstractRoisPanel extends ExternalizablePanel
         processor.setThreadName("ROI panel GUI refresher");
         processor.setKeepAliveTime(30, TimeUnit.SECONDS);
 
-        primaryDescriptorComputer = new DescriptorComputer(DescriptorType.PRIMARY);
-        basicDescriptorComputer = new DescriptorComputer(DescriptorType.BASIC);
-        advancedDescriptorComputer = new DescriptorComputer(DescriptorType.EXTERNAL);
-        primaryDescriptorComputer.start();
-        basicDescriptorComputer.start();
-        advancedDescriptorComputer.start();
+        // keep a core for the GUI
+        descriptorComputer = new DescriptorComputer(SystemUtil.getNumberOfCPUs() - 1);
 
         // update descriptors list (this rebuild the column model of the tree table)
         refreshDescriptorList();
@@ -446,12 +453,31 @@ public abstract class AbstractRoisPanel extends ExternalizablePanel
         roiSelectionModel.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
 
         roiTable.setRowSorter(new ROITableSortController<ROITableModel>());
+        roiTable.getRowSorter().addRowSorterListener(new RowSorterListener()
+        {
+            @Override
+            public void sorterChanged(RowSorterEvent e)
+            {
+                // sorted column or visible rows changed
+                refreshComputationPriority();
+            }
+        });
 
         final JPanel middlePanel = new JPanel(new BorderLayout(0, 0));
 
         middlePanel.add(roiTable.getTableHeader(), BorderLayout.NORTH);
-        middlePanel.add(new JScrollPane(roiTable, ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS,
-                ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER), BorderLayout.CENTER);
+        final JScrollPane scrollPane = new JScrollPane(roiTable, ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS,
+                ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+        scrollPane.getViewport().addChangeListener(new ChangeListener()
+        {
+            @Override
+            public void stateChanged(ChangeEvent e)
+            {
+                // visible rows changed
+                refreshComputationPriority();
+            }
+        });
+        middlePanel.add(scrollPane, BorderLayout.CENTER);
 
         final IcyButton settingButton = new IcyButton(RoiActions.settingAction);
         settingButton.setHideActionText(true);
@@ -613,6 +639,29 @@ public abstract class AbstractRoisPanel extends ExternalizablePanel
         nameFilter.setText(name);
     }
 
+    /**
+     * Fill the specified result from the sequence descriptor store if it contains a valid result.<br>
+     * Returns <code>true</code> if the result has been filled.
+     */
+    protected boolean getStoredResult(ROIResults roiResults, Sequence seq, ColumnInfo columnInfo,
+            DescriptorResult result)
+    {
+        if (seq == null)
+            return false;
+
+        final ROIDescriptor descriptor = columnInfo.descriptor;
+        final ROIDescriptorStore.Result stored = seq.getROIDescriptorStore().get(roiResults.roi,
+                descriptor.separateChannel() ? columnInfo.channel : -1, descriptor);
+
+        if (stored == null)
+            return false;
+
+        result.setValue(stored.getValue());
+        result.setOutdated(false);
+
+        return true;
+    }
+
     protected boolean computeROIResults(ROIResults roiResults, Sequence seq, ColumnInfo columnInfo)
     {
         final Map<ColumnInfo, DescriptorResult> results = roiResults.descriptorResults;
@@ -628,6 +677,10 @@ public abstract class AbstractRoisPanel extends ExternalizablePanel
         // need to refresh this column result
         if ((result != null) && result.isOutdated())
         {
+            // valid result already computed ?
+            if (getStoredResult(roiResults, seq, columnInfo, result))
+                return true;
+
             // get the corresponding plugin
             final PluginROIDescriptor plugin;
 
@@ -639,6 +692,9 @@ public abstract class AbstractRoisPanel extends ExternalizablePanel
             if (plugin != null)
             {
                 final Map<ROIDescriptor, Object> newResults;
+                // versions before computation
+                final long roiVersion = roiResults.roi.getVersion();
+                final long seqVersion = seq.getVersion();
 
                 try
                 {
@@ -659,6 +715,13 @@ public abstract class AbstractRoisPanel extends ExternalizablePanel
 
                     for (Entry<ROIDescriptor, Object> entryNewResult : newResults.entrySet())
                     {
+                        final ROIDescriptor resultDescriptor = entryNewResult.getKey();
+
+                        // store result so it doesn't need to be computed again
+                        seq.getROIDescriptorStore().put(roiResults.roi,
+                                resultDescriptor.separateChannel() ? columnInfo.channel : -1, resultDescriptor,
+                                entryNewResult.getValue(), roiVersion, seqVersion);
+
                         // get the column for this result
                         final ColumnInfo resultColumnInfo = getColumnInfo(entryNewResult.getKey(), columnInfo.channel);
                         final DescriptorResult oResult;
@@ -1162,9 +1225,7 @@ public abstract class AbstractRoisPanel extends ExternalizablePanel
     protected void refreshTableDataInternal()
     {
         final long time = System.currentTimeMillis();
-        final boolean hasPendingTask = primaryDescriptorComputer.hasPendingComputation()
-                && basicDescriptorComputer.hasPendingComputation()
-                && advancedDescriptorComputer.hasPendingComputation();
+        final boolean hasPendingTask = descriptorComputer.hasPendingComputation();
 
         // still pending descriptor task ?
         if (hasPendingTask)
@@ -1309,43 +1370,98 @@ public abstract class AbstractRoisPanel extends ExternalizablePanel
     // }
     // }
 
-    // protected boolean hasPendingComputation(ROIResults results)
-    // {
-    // return primaryDescriptorComputer.hasPendingComputation(results)
-    // || basicDescriptorComputer.hasPendingComputation(results)
-    // || advancedDescriptorComputer.hasPendingComputation(results);
-    // }
+    protected boolean hasPendingComputation(ROIResults results)
+    {
+        return descriptorComputer.hasPendingComputation(results);
+    }
 
     protected void requestDescriptorComputation(ROIResults results)
     {
-        primaryDescriptorComputer.requestDescriptorComputation(results);
-        basicDescriptorComputer.requestDescriptorComputation(results);
-        advancedDescriptorComputer.requestDescriptorComputation(results);
+        descriptorComputer.requestDescriptorComputation(results, getSequence());
     }
 
     protected void cancelDescriptorComputation(ROIResults results)
     {
-        primaryDescriptorComputer.cancelDescriptorComputation(results);
-        basicDescriptorComputer.cancelDescriptorComputation(results);
-        advancedDescriptorComputer.cancelDescriptorComputation(results);
+        descriptorComputer.cancelDescriptorComputation(results);
     }
 
     protected void cancelDescriptorComputation(ROI roi)
     {
-        primaryDescriptorComputer.cancelDescriptorComputation(roi);
-        basicDescriptorComputer.cancelDescriptorComputation(roi);
-        advancedDescriptorComputer.cancelDescriptorComputation(roi);
+        descriptorComputer.cancelDescriptorComputation(roi);
     }
 
     protected void cancelAllDescriptorComputation()
     {
-        primaryDescriptorComputer.cancelAllDescriptorComputation();
-        basicDescriptorComputer.cancelAllDescriptorComputation();
-        advancedDescriptorComputer.cancelAllDescriptorComputation();
+        descriptorComputer.cancelAllDescriptorComputation();
+    }
+
+    /**
+     * Returns the descriptor computation throughput (number of computations per second).
+     */
+    public double getDescriptorComputationThroughput()
+    {
+        return descriptorComputer.getThroughput();
+    }
+
+    /**
+     * Returns the number of waiting descriptor computations.
+     */
+    public int getPendingDescriptorComputationCount()
+    {
+        return descriptorComputer.getPendingCount();
+    }
+
+    /**
+     * Update descriptor computation priorities from the visible rows and the sorted columns (should
+     * be called from the EDT).
+     */
+    protected void refreshComputationPriority()
+    {
+        // not yet initialized
+        if (descriptorComputer == null)
+            return;
+
+        final Set<ROIResults> visibleResults = new HashSet<ROIResults>();
+        final Set<DescriptorType> sortedTypes = new HashSet<DescriptorType>();
+
+        try
+        {
+            final Rectangle rect = roiTable.getVisibleRect();
+            final int first = roiTable.rowAtPoint(rect.getLocation());
+            int last = roiTable.rowAtPoint(new Point(rect.x, (rect.y + rect.height) - 1));
+
+            if (last == -1)
+                last = roiTable.getRowCount() - 1;
+
+            if (first != -1)
+            {
+                for (int i = first; i <= last; i++)
+                {
+                    final ROIResults roiResults = getRoiResults(roiTable.convertRowIndexToModel(i));
+
+                    if (roiResults != null)
+                        visibleResults.add(roiResults);
+                }
+            }
+
+            for (SortKey key : roiTable.getRowSorter().getSortKeys())
+            {
+                final ColumnInfo ci = getColumnInfo(key.getColumn());
+
+                if (ci != null)
+                    sortedTypes.add(ci.getDescriptorType());
+            }
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+            // table changed in the meantime, ignore
+        }
+
+        descriptorComputer.setPriority(visibleResults, sortedTypes);
     }
 
     /**
-     * @deprecated Use {@link #getCSVFormattedInfos()} instead.
+     * @deprecated Use {@link #exportInfos(File, ProgressListener)} instead.
      */
     @Deprecated
     public String getCSVFormattedInfosOfSelectedRois()
@@ -1403,12 +1519,78 @@ public abstract class AbstractRoisPanel extends ExternalizablePanel
     }
 
     /**
-     * Returns all ROI informations in CSV format (tab separated) immediately.
+     * Format the descriptor value for display / export (rounding, infinite and 'ALL' symbols).
      */
-    public String getCSVFormattedInfos()
+    protected Object formatValue(Object value, String id)
+    {
+        Object result = value;
+
+        // format result if needed
+        if (result instanceof Number)
+        {
+            final double doubleValue = ((Number) result).doubleValue();
+
+            // replace 'infinity' by infinite symbol
+            if (doubleValue == Double.POSITIVE_INFINITY)
+                result = MathUtil.INFINITE_STRING;
+            else if (doubleValue == Double.NEGATIVE_INFINITY)
+            {
+                // position descriptor ? negative infinite means 'ALL' here
+                if (id.equals(ROIPositionXDescriptor.ID) || id.equals(ROIPositionYDescriptor.ID)
+                        || id.equals(ROIPositionZDescriptor.ID) || id.equals(ROIPositionTDescriptor.ID)
+                        || id.equals(ROIPositionCDescriptor.ID) || id.equals(ROIMassCenterXDescriptor.ID)
+                        || id.equals(ROIMassCenterYDescriptor.ID) || id.equals(ROIMassCenterZDescriptor.ID)
+                        || id.equals(ROIMassCenterTDescriptor.ID) || id.equals(ROIMassCenterCDescriptor.ID))
+                    result = "ALL";
+                else
+                    result = "-" + MathUtil.INFINITE_STRING;
+            }
+            else if (doubleValue == -1d)
+            {
+                // position descriptor ? -1 means 'ALL' here
+                if (id.equals(ROIPositionXDescriptor.ID) || id.equals(ROIPositionYDescriptor.ID)
+                        || id.equals(ROIPositionZDescriptor.ID) || id.equals(ROIPositionTDescriptor.ID)
+                        || id.equals(ROIPositionCDescriptor.ID) || id.equals(ROIMassCenterXDescriptor.ID)
+                        || id.equals(ROIMassCenterYDescriptor.ID) || id.equals(ROIMassCenterZDescriptor.ID)
+                        || id.equals(ROIMassCenterTDescriptor.ID) || id.equals(ROIMassCenterCDescriptor.ID))
+                    result = "ALL";
+            }
+            else
+            {
+                // value not too large ?
+                if (Math.abs(doubleValue) < 10000000)
+                {
+                    // simple integer ? -> show it as integer
+                    if (doubleValue == (int) doubleValue)
+                        result = Integer.valueOf((int) doubleValue);
+                    // small integer value ?
+                    else if (Math.abs(doubleValue) < 100)
+                        result = Double.valueOf(MathUtil.roundSignificant(doubleValue, 5));
+                    // medium integer value ?
+                    else if (Math.abs(doubleValue) < 10000)
+                        result = Double.valueOf(MathUtil.round(doubleValue, 2));
+                    // medium large integer value ?
+                    else if (Math.abs(doubleValue) < 1000000)
+                        result = Double.valueOf(MathUtil.round(doubleValue, 1));
+                    else
+                        // large integer value ?
+                        result = Integer.valueOf((int) Math.round(doubleValue));
+                }
+                else
+                    // format double value
+                    result = Double.valueOf(MathUtil.roundSignificant(doubleValue, 5));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns export columns (depending export preferences).
+     */
+    protected List<ROIDescriptorExporter.Column> getExportColumns()
     {
         final List<ColumnInfo> exportColumnInfos = new ArrayList<ColumnInfo>();
-        final Sequence seq = getSequence();
         final int numChannel = getChannelCount();
 
         // get export column informations
@@ -1421,77 +1603,67 @@ public abstract class AbstractRoisPanel extends ExternalizablePanel
         // sort the list on order
         Collections.sort(exportColumnInfos);
 
-        final StringBuffer sbf = new StringBuffer();
+        final List<ROIDescriptorExporter.Column> result = new ArrayList<ROIDescriptorExporter.Column>();
 
-        // column title
         for (ColumnInfo columnInfo : exportColumnInfos)
-        {
             if (columnInfo.visible)
-            {
-                sbf.append(columnInfo.name);
-                sbf.append("\t");
-            }
-        }
-        sbf.append("\r\n");
+                result.add(new ROIDescriptorExporter.Column(columnInfo.descriptor, columnInfo.channel,
+                        columnInfo.name));
 
-        final List<ROI> rois = new ArrayList<ROI>(filteredRoiList);
+        return result;
+    }
 
-        // content
-        for (ROI roi : rois)
+    /**
+     * Returns an exporter for the visible ROIs informations (columns depending export preferences).
+     */
+    public ROIDescriptorExporter createExporter()
+    {
+        return new ROIDescriptorExporter(getSequence(), getExportColumns())
         {
-            final ROIResults results = createNewROIResults(roi);
-            final Map<ColumnInfo, DescriptorResult> descriptorResults = results.descriptorResults;
-
-            // compute results
-            for (ColumnInfo columnInfo : exportColumnInfos)
+            @Override
+            protected Object formatValue(ROI roi, Column column, Object value)
             {
-                if (columnInfo.visible)
-                {
-                    // try to retrieve result for this column
-                    final DescriptorResult result = descriptorResults.get(columnInfo);
-
-                    // not yet created/computed --> create it and compute it now
-                    if (result == null)
-                    {
-                        descriptorResults.put(columnInfo, new DescriptorResult(columnInfo));
-                        computeROIResults(results, seq, columnInfo);
-                    }
-                }
+                // same formatting than in the table
+                return super.formatValue(roi, column,
+                        AbstractRoisPanel.this.formatValue(value, column.descriptor.getId()));
             }
+        };
+    }
 
-            // display results
-            for (ColumnInfo columnInfo : exportColumnInfos)
-            {
-                if (columnInfo.visible)
-                {
-                    final DescriptorResult result = descriptorResults.get(columnInfo);
-                    final String id = columnInfo.descriptor.getId();
-                    final Object value;
-
-                    if (result != null)
-                        value = results.formatValue(result.getValue(), id);
-                    else
-                        value = null;
+    /**
+     * Export visible ROIs informations in the specified file (XLSX or CSV format depending file
+     * extension).
+     * 
+     * @return <code>false</code> if the export was canceled
+     * @see ROIDescriptorExporter#export(java.util.Collection, File, ProgressListener)
+     */
+    public boolean exportInfos(File file, ProgressListener progressListener) throws IOException
+    {
+        return createExporter().export(new ArrayList<ROI>(filteredRoiList), file, progressListener);
+    }
 
-                    if (value != null)
-                    {
-                        // special case of icon --> use the ROI class name
-                        if (StringUtil.equals(id, ROIIconDescriptor.ID))
-                            sbf.append(roi.getSimpleClassName());
-                        // special case of color --> use the color code
-                        else if (StringUtil.equals(id, ROIColorDescriptor.ID))
-                            sbf.append(String.format("%06X", Integer.valueOf(roi.getColor().getRGB() & 0xFFFFFF)));
-                        else
-                            sbf.append(value);
-                    }
+    /**
+     * Returns all ROI informations in CSV format (tab separated) immediately.
+     * 
+     * @deprecated Use {@link #exportInfos(File, ProgressListener)} or {@link #createExporter()} instead as the
+     *             whole table is stored in a String here.
+     */
+    @Deprecated
+    public String getCSVFormattedInfos()
+    {
+        final StringWriter result = new StringWriter();
 
-                    sbf.append("\t");
-                }
-            }
-            sbf.append("\r\n");
+        try
+        {
+            createExporter().exportCSV(new ArrayList<ROI>(filteredRoiList), result, null);
+        }
+        catch (IOException e)
+        {
+            // should not happen with StringWriter
+            IcyExceptionHandler.showErrorMessage(e, true);
         }
 
-        return sbf.toString();
+        return result.toString();
     }
 
     public void showSettingPanel()
@@ -1590,6 +1762,8 @@ public abstract class AbstractRoisPanel extends ExternalizablePanel
     @Override
     public void sequenceActivated(Sequence value)
     {
+        // stale computations
+        cancelAllDescriptorComputation();
         // refresh table columns
         refreshColumnInfoList();
         // refresh ROI list
@@ -1842,66 +2016,7 @@ public abstract class AbstractRoisPanel extends ExternalizablePanel
 
         public Object formatValue(Object value, String id)
         {
-            Object result = value;
-
-            // format result if needed
-            if (result instanceof Number)
-            {
-                final double doubleValue = ((Number) result).doubleValue();
-
-                // replace 'infinity' by infinite symbol
-                if (doubleValue == Double.POSITIVE_INFINITY)
-                    result = MathUtil.INFINITE_STRING;
-                else if (doubleValue == Double.NEGATIVE_INFINITY)
-                {
-                    // position descriptor ? negative infinite means 'ALL' here
-                    if (id.equals(ROIPositionXDescriptor.ID) || id.equals(ROIPositionYDescriptor.ID)
-                            || id.equals(ROIPositionZDescriptor.ID) || id.equals(ROIPositionTDescriptor.ID)
-                            || id.equals(ROIPositionCDescriptor.ID) || id.equals(ROIMassCenterXDescriptor.ID)
-                            || id.equals(ROIMassCenterYDescriptor.ID) || id.equals(ROIMassCenterZDescriptor.ID)
-                            || id.equals(ROIMassCenterTDescriptor.ID) || id.equals(ROIMassCenterCDescriptor.ID))
-                        result = "ALL";
-                    else
-                        result = "-" + MathUtil.INFINITE_STRING;
-                }
-                else if (doubleValue == -1d)
-                {
-                    // position descriptor ? -1 means 'ALL' here
-                    if (id.equals(ROIPositionXDescriptor.ID) || id.equals(ROIPositionYDescriptor.ID)
-                            || id.equals(ROIPositionZDescriptor.ID) || id.equals(ROIPositionTDescriptor.ID)
-                            || id.equals(ROIPositionCDescriptor.ID) || id.equals(ROIMassCenterXDescriptor.ID)
-                            || id.equals(ROIMassCenterYDescriptor.ID) || id.equals(ROIMassCenterZDescriptor.ID)
-                            || id.equals(ROIMassCenterTDescriptor.ID) || id.equals(ROIMassCenterCDescriptor.ID))
-                        result = "ALL";
-                }
-                else
-                {
-                    // value not too large ?
-                    if (Math.abs(doubleValue) < 10000000)
-                    {
-                        // simple integer ? -> show it as integer
-                        if (doubleValue == (int) doubleValue)
-                            result = Integer.valueOf((int) doubleValue);
-                        // small integer value ?
-                        else if (Math.abs(doubleValue) < 100)
-                            result = Double.valueOf(MathUtil.roundSignificant(doubleValue, 5));
-                        // medium integer value ?
-                        else if (Math.abs(doubleValue) < 10000)
-                            result = Double.valueOf(MathUtil.round(doubleValue, 2));
-                        // medium large integer value ?
-                        else if (Math.abs(doubleValue) < 1000000)
-                            result = Double.valueOf(MathUtil.round(doubleValue, 1));
-                        else
-                            // large integer value ?
-                            result = Integer.valueOf((int) Math.round(doubleValue));
-                    }
-                    else
-                        // format double value
-                        result = Double.valueOf(MathUtil.roundSignificant(doubleValue, 5));
-                }
-            }
-
-            return result;
+            return AbstractRoisPanel.this.formatValue(value, id);
         }
 
         /**
@@ -1937,8 +2052,8 @@ public abstract class AbstractRoisPanel extends ExternalizablePanel
             // get result for this descriptor
             final DescriptorResult result = getDescriptorResult(column);
 
-            // out dated result ? --> request for descriptor computation
-            if (result.isOutdated())
+            // out dated result ? --> use stored result or request for descriptor computation
+            if (result.isOutdated() && !getStoredResult(this, getSequence(), column, result))
                 requestDescriptorComputation(this);
 
             return formatValue(result.getValue(), column.descriptor.getId());
@@ -2053,124 +2168,445 @@ public abstract class AbstractRoisPanel extends ExternalizablePanel
         }
     }
 
-    protected class DescriptorComputer extends Thread
+    /**
+     * Descriptor computation request (ROI results and kind of descriptor to compute)
+     */
+    protected class DescriptorTask
     {
-        protected final LinkedHashSet<ROIResults> resultsToCompute;
-        protected final DescriptorType type;
+        public final ROIResults roiResults;
+        public final DescriptorType type;
+        // sequence for which the computation has been requested
+        public Sequence sequence;
+        // insertion order (first requested first computed for same priority)
+        long order;
+        // computation priority (lower value means higher priority)
+        int priority;
 
-        public DescriptorComputer(DescriptorType type)
+        public DescriptorTask(ROIResults roiResults, DescriptorType type)
         {
-            super("ROI " + type.toString() + " descriptor calculator");
+            super();
 
-            resultsToCompute = new LinkedHashSet<AbstractRoisPanel.ROIResults>(256);
+            this.roiResults = roiResults;
             this.type = type;
+        }
 
-            setPriority(Thread.MIN_PRIORITY);
+        @Override
+        public int hashCode()
+        {
+            return roiResults.hashCode() ^ type.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj instanceof DescriptorTask)
+            {
+                final DescriptorTask task = (DescriptorTask) obj;
+                return (task.roiResults == roiResults) && (task.type == type);
+            }
+
+            return super.equals(obj);
+        }
+    }
+
+    /**
+     * Pool of descriptor calculators.<br>
+     * Pending computations are ordered by priority: descriptors of visible rows first, then the ones
+     * of sorted columns (as sorting requires all values), then by descriptor type (primary, basic
+     * then external) and finally by request order.<br>
+     * A same task is never computed concurrently, which means a ROI can be computed by several
+     * workers only for different kind of descriptors.
+     */
+    protected class DescriptorComputer
+    {
+        protected final PriorityQueue<DescriptorTask> queue;
+        // queued + deferred tasks (to avoid duplicates)
+        protected final Set<DescriptorTask> pending;
+        // tasks currently computed
+        protected final Set<DescriptorTask> running;
+        // tasks requested again while being computed
+        protected final List<DescriptorTask> deferred;
+        protected final List<Thread> workers;
+        protected final int maxWorkers;
+
+        // priority informations
+        protected Set<ROIResults> priorityResults;
+        protected Set<DescriptorType> priorityTypes;
+        protected boolean priorityChanged;
+
+        protected long order;
+        protected int idleWorkers;
+
+        // throughput statistics
+        protected long computedCount;
+        protected long batchStart;
+        protected long batchCount;
+        protected double lastThroughput;
+
+        public DescriptorComputer(int maxWorkers)
+        {
+            super();
+
+            queue = new PriorityQueue<DescriptorTask>(256, new Comparator<DescriptorTask>()
+            {
+                @Override
+                public int compare(DescriptorTask t1, DescriptorTask t2)
+                {
+                    if (t1.priority != t2.priority)
+                        return (t1.priority < t2.priority) ? -1 : 1;
+                    if (t1.order != t2.order)
+                        return (t1.order < t2.order) ? -1 : 1;
+
+                    return 0;
+                }
+            });
+            pending = new HashSet<DescriptorTask>(256);
+            running = new HashSet<DescriptorTask>();
+            deferred = new ArrayList<DescriptorTask>();
+            workers = new ArrayList<Thread>();
+            this.maxWorkers = Math.max(1, maxWorkers);
+
+            priorityResults = new HashSet<ROIResults>();
+            priorityTypes = new HashSet<DescriptorType>();
+            priorityChanged = false;
+
+            order = 0L;
+            idleWorkers = 0;
+            computedCount = 0L;
+            batchStart = 0L;
+            batchCount = 0L;
+            lastThroughput = 0d;
+        }
+
+        /**
+         * Returns the maximum number of worker threads.
+         */
+        public int getMaxWorkers()
+        {
+            return maxWorkers;
         }
 
         public boolean hasPendingComputation()
         {
-            return resultsToCompute.size() > 0;
+            synchronized (queue)
+            {
+                return !pending.isEmpty() || !running.isEmpty();
+            }
         }
 
         public boolean hasPendingComputation(ROIResults results)
         {
-            synchronized (resultsToCompute)
+            synchronized (queue)
             {
-                return resultsToCompute.contains(results);
+                for (DescriptorTask task : pending)
+                    if (task.roiResults == results)
+                        return true;
+                for (DescriptorTask task : running)
+                    if (task.roiResults == results)
+                        return true;
             }
+
+            return false;
         }
 
-        public void requestDescriptorComputation(ROIResults results)
+        /**
+         * Returns the number of waiting computations.
+         */
+        public int getPendingCount()
         {
-            synchronized (resultsToCompute)
+            synchronized (queue)
             {
-                resultsToCompute.add(results);
-                resultsToCompute.notifyAll();
+                return pending.size();
             }
         }
 
-        public void cancelDescriptorComputation(ROIResults roiResults)
+        /**
+         * Returns the total number of computations done since the panel creation.
+         */
+        public long getComputedCount()
         {
-            synchronized (resultsToCompute)
+            synchronized (queue)
             {
-                resultsToCompute.remove(roiResults);
-                resultsToCompute.notifyAll();
+                return computedCount;
             }
         }
 
-        public void cancelDescriptorComputation(ROI roi)
+        /**
+         * Returns the computation throughput (number of computations per second) of the current
+         * computation batch, or of the last one if we are idle.
+         */
+        public double getThroughput()
+        {
+            synchronized (queue)
+            {
+                if (batchCount > 0)
+                {
+                    final long elapsed = System.currentTimeMillis() - batchStart;
+
+                    if (elapsed > 0)
+                        return (batchCount * 1000d) / elapsed;
+                }
+
+                return lastThroughput;
+            }
+        }
+
+        /**
+         * Set the rows (ROI results) and the kind of descriptors to compute in priority.
+         */
+        public void setPriority(Set<ROIResults> results, Set<DescriptorType> types)
         {
-            synchronized (resultsToCompute)
+            synchronized (queue)
             {
-                final Iterator<ROIResults> it = resultsToCompute.iterator();
+                priorityResults = results;
+                priorityTypes = types;
+                // priorities will be recomputed on next task retrieval
+                priorityChanged = true;
+            }
+        }
 
-                while (it.hasNext())
+        protected int getPriority(DescriptorTask task)
+        {
+            final int result;
+
+            if (priorityResults.contains(task.roiResults))
+                result = 0;
+            else if (priorityTypes.contains(task.type))
+                result = 1;
+            else
+                result = 2;
+
+            return (result * DescriptorType.values().length) + task.type.ordinal();
+        }
+
+        protected void addTask(DescriptorTask task)
+        {
+            task.order = order++;
+            task.priority = getPriority(task);
+            queue.add(task);
+        }
+
+        public void requestDescriptorComputation(ROIResults results, Sequence sequence)
+        {
+            synchronized (queue)
+            {
+                for (DescriptorType type : DescriptorType.values())
                 {
-                    final ROIResults roiResults = it.next();
+                    final DescriptorTask task = new DescriptorTask(results, type);
+
+                    task.sequence = sequence;
+
+                    if (pending.add(task))
+                    {
+                        // new batch started
+                        if (pending.size() == 1 && running.isEmpty())
+                        {
+                            batchStart = System.currentTimeMillis();
+                            batchCount = 0L;
+                        }
+
+                        addTask(task);
+                    }
+                }
+
+                // all workers busy ? --> add a new one if possible
+                if ((idleWorkers == 0) && (workers.size() < maxWorkers))
+                    startWorker();
 
-                    // remove all results for this ROI
-                    if (roiResults.roi == roi)
-                        it.remove();
+                queue.notifyAll();
+            }
+        }
+
+        protected void startWorker()
+        {
+            final Thread worker = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    work();
                 }
+            }, "ROI descriptor calculator #" + (workers.size() + 1));
 
-                resultsToCompute.notifyAll();
+            worker.setPriority(Thread.MIN_PRIORITY);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+
+        public void cancelDescriptorComputation(ROIResults roiResults)
+        {
+            synchronized (queue)
+            {
+                removeTasks(roiResults, null);
+                queue.notifyAll();
+            }
+        }
+
+        public void cancelDescriptorComputation(ROI roi)
+        {
+            synchronized (queue)
+            {
+                removeTasks(null, roi);
+                queue.notifyAll();
             }
         }
 
         public void cancelAllDescriptorComputation()
         {
-            synchronized (resultsToCompute)
+            synchronized (queue)
             {
-                resultsToCompute.clear();
-                resultsToCompute.notifyAll();
+                queue.clear();
+                pending.clear();
+                deferred.clear();
+                queue.notifyAll();
             }
         }
 
-        @Override
-        public void run()
+        protected void removeTasks(ROIResults roiResults, ROI roi)
         {
-            while (!Thread.interrupted())
+            final Iterator<DescriptorTask> it = pending.iterator();
+
+            while (it.hasNext())
             {
-                final ROIResults[] roiResultsList;
+                final DescriptorTask task = it.next();
 
-                synchronized (resultsToCompute)
+                // remove all tasks for this results / ROI
+                if ((task.roiResults == roiResults) || (task.roiResults.roi == roi))
                 {
-                    try
-                    {
-                        while (resultsToCompute.isEmpty())
-                            resultsToCompute.wait();
-                    }
-                    catch (InterruptedException e)
+                    it.remove();
+                    queue.remove(task);
+                    deferred.remove(task);
+                }
+            }
+        }
+
+        /**
+         * Wait for the next task to compute (returns <code>null</code> if interrupted)
+         */
+        protected DescriptorTask takeTask()
+        {
+            synchronized (queue)
+            {
+                try
+                {
+                    while (true)
                     {
-                        // ignore and just interrupt now
-                        Thread.currentThread().interrupt();
+                        // visible rows or sorted columns changed --> update priorities
+                        if (priorityChanged)
+                        {
+                            final List<DescriptorTask> tasks = new ArrayList<DescriptorTask>(queue);
+
+                            queue.clear();
+                            for (DescriptorTask task : tasks)
+                            {
+                                task.priority = getPriority(task);
+                                queue.add(task);
+                            }
+
+                            priorityChanged = false;
+                        }
+
+                        final DescriptorTask task = queue.poll();
+
+                        if (task != null)
+                        {
+                            // already computed by another worker --> do it later
+                            if (running.contains(task))
+                                deferred.add(task);
+                            else
+                            {
+                                pending.remove(task);
+                                running.add(task);
+                                return task;
+                            }
+                        }
+                        else
+                        {
+                            idleWorkers++;
+                            try
+                            {
+                                queue.wait();
+                            }
+                            finally
+                            {
+                                idleWorkers--;
+                            }
+                        }
                     }
+                }
+                catch (InterruptedException e)
+                {
+                    return null;
+                }
+            }
+        }
+
+        protected void taskDone(DescriptorTask task)
+        {
+            final boolean batchDone;
+
+            synchronized (queue)
+            {
+                running.remove(task);
+                computedCount++;
+                batchCount++;
+
+                // task requested again during computation ? --> queue it again
+                final int index = deferred.indexOf(task);
+                if (index != -1)
+                    queue.add(deferred.remove(index));
+
+                // end of batch ?
+                batchDone = pending.isEmpty() && running.isEmpty();
 
-                    // get results to compute
-                    roiResultsList = resultsToCompute.toArray(new ROIResults[resultsToCompute.size()]);
-                    // and remove them
-                    resultsToCompute.clear();
+                if (batchDone)
+                {
+                    final long elapsed = System.currentTimeMillis() - batchStart;
+
+                    if (elapsed > 0)
+                        lastThroughput = (batchCount * 1000d) / elapsed;
+
+                    batchCount = 0L;
                 }
 
-                final Sequence seq = getSequence();
+                queue.notifyAll();
+            }
+
+            // last refresh requests may have been throttled while computation was still pending
+            if (batchDone)
+                refreshTableData();
+        }
+
+        protected void work()
+        {
+            while (!Thread.currentThread().isInterrupted())
+            {
+                final DescriptorTask task = takeTask();
+
+                if (task == null)
+                    return;
 
-                if (seq != null)
+                try
                 {
-                    // start with primaries descriptors
-                    for (ROIResults roiResults : roiResultsList)
-                    {
-                        // active sequence changed ? --> quickly discard other calculations
-                        if (seq != getSequence())
-                            break;
+                    final Sequence seq = getSequence();
 
-                        computeROIResults(roiResults, seq);
-                    }
+                    // active sequence changed since the request ? --> discard
+                    if ((seq != null) && (seq == task.sequence))
+                        computeROIResults(task.roiResults, seq, task.type);
+                }
+                catch (Throwable t)
+                {
+                    IcyExceptionHandler.showErrorMessage(t, true);
+                }
+                finally
+                {
+                    taskDone(task);
                 }
             }
         }
 
-        protected void computeROIResults(ROIResults roiResults, Sequence seq)
+        protected void computeROIResults(ROIResults roiResults, Sequence seq, DescriptorType type)
         {
             final Map<ColumnInfo, DescriptorResult> results = roiResults.descriptorResults;
             final ColumnInfo[] columnInfos;
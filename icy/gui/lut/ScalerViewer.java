@@ -651,6 +651,7 @@ public class ScalerViewer extends JPanel implements SequenceListener, LUTChannel
                 }
 
                 final int c = lutChannel.getChannel();
+                final double[] buffer = new double[0x1000];
 
                 for (; t <= maxT; t++)
                 {
@@ -664,16 +665,18 @@ public class ScalerViewer extends JPanel implements SequenceListener, LUTChannel
                             final DataType dataType = seq.getDataType_();
                             final int len = Array.getLength(data);
 
-                            for (int i = 0; i < len; i++)
+                            // convert data by block (type is resolved once per block)
+                            for (int i = 0; i < len; i += buffer.length)
                             {
-                                if ((i & 0xFFF) == 0)
-                                {
-                                    // need to be recalculated so don't waste time here...
-                                    if (ThreadUtil.hasWaitingBgSingleTask(histoUpdater))
-                                        return;
-                                }
-
-                                histo.addValue(Array1DUtil.getValue(data, i, dataType));
+                                // need to be recalculated so don't waste time here...
+                                if (ThreadUtil.hasWaitingBgSingleTask(histoUpdater))
+                                    return;
+
+                                final int n = Math.min(buffer.length, len - i);
+
+                                Array1DUtil.getValues(data, i, buffer, 0, n, dataType);
+                                for (int j = 0; j < n; j++)
+                                    histo.addValue(buffer[j]);
                             }
                         }
                     }
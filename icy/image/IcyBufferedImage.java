@@ -42,6 +42,7 @@ import java.lang.reflect.Field;
 import java.nio.channels.ClosedByInterruptException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
@@ -59,6 +60,7 @@ import icy.common.UpdateEventHandler;
 import icy.common.exception.TooLargeArrayException;
 import icy.common.exception.UnsupportedFormatException;
 import icy.common.listener.ChangeListener;
+import icy.file.FileUtil;
 import icy.image.IcyBufferedImageEvent.IcyBufferedImageEventType;
 import icy.image.cache.ImageCache;
 import icy.image.colormap.IcyColorMap;
@@ -239,22 +241,72 @@ public class IcyBufferedImage extends BufferedImage implements IcyColorModelList
 
     private static class ImageDataLoader
     {
-        final ThreadPoolExecutor executor;
+        /**
+         * executor for images stored on local storage (mostly CPU bound as decoding dominates)
+         */
+        final ThreadPoolExecutor localExecutor;
+        /**
+         * executor for images stored on network storage (latency bound so we want more concurrent requests)
+         */
+        final ThreadPoolExecutor networkExecutor;
 
         public ImageDataLoader()
         {
             super();
 
-            int numWorker = SystemUtil.getNumberOfCPUs();
-            executor = new ThreadPoolExecutor(numWorker, numWorker * 2, 5L, TimeUnit.SECONDS,
+            final int numWorker = SystemUtil.getNumberOfCPUs();
+
+            localExecutor = createExecutor(numWorker);
+            networkExecutor = createExecutor(Math.max(8, numWorker * 2));
+        }
+
+        private static ThreadPoolExecutor createExecutor(int numWorker)
+        {
+            return new ThreadPoolExecutor(numWorker, numWorker * 2, 5L, TimeUnit.SECONDS,
                     new LinkedBlockingQueue<Runnable>());
         }
 
-        Object loadImageData(IcyBufferedImage image) throws ExecutionException, InterruptedException
+        /**
+         * Returns the executor to use depending the storage type of the image source
+         */
+        ThreadPoolExecutor getExecutor(IcyBufferedImage image)
+        {
+            final ImageSourceInfo info = image.imageSourceInfo;
+
+            if ((info != null) && FileUtil.isNetworkPath(info.imp.getOpened()))
+                return networkExecutor;
+
+            return localExecutor;
+        }
+
+        /**
+         * Returns the number of images which can be loaded concurrently for the specified image source
+         */
+        int getNumWorker(IcyBufferedImage image)
+        {
+            return getExecutor(image).getCorePoolSize();
+        }
+
+        /**
+         * Submit image data loading task and returns it
+         */
+        ImageDataLoaderTask submit(IcyBufferedImage image)
         {
             final ImageDataLoaderTask task = new ImageDataLoaderTask(new ImageDataLoaderWorker(image));
 
-            executor.execute(task);
+            getExecutor(image).execute(task);
+
+            return task;
+        }
+
+        Object loadImageData(IcyBufferedImage image) throws ExecutionException, InterruptedException
+        {
+            // use prefetch task if any
+            ImageDataLoaderTask task = image.prefetchTask;
+            image.prefetchTask = null;
+
+            if ((task == null) || task.isCancelled())
+                task = submit(image);
 
             try
             {
@@ -263,7 +315,7 @@ public class IcyBufferedImage extends BufferedImage implements IcyColorModelList
             catch (InterruptedException e)
             {
                 // process interrupted ? remove task from executor queue if possible
-                executor.remove(task);
+                getExecutor(image).remove(task);
                 // cancel the task (without interrupting current running task as this close the importer)
                 task.cancel(false);
 
@@ -273,6 +325,12 @@ public class IcyBufferedImage extends BufferedImage implements IcyColorModelList
         }
 
         void cancelTasks(IcyBufferedImage image)
+        {
+            cancelTasks(localExecutor, image);
+            cancelTasks(networkExecutor, image);
+        }
+
+        private static void cancelTasks(ThreadPoolExecutor executor, IcyBufferedImage image)
         {
             final List<ImageDataLoaderTask> tasks = new ArrayList<ImageDataLoaderTask>();
             final BlockingQueue<Runnable> queue = executor.getQueue();
@@ -725,9 +783,15 @@ public class IcyBufferedImage extends BufferedImage implements IcyColorModelList
      * data initialized state
      */
     protected boolean dataInitialized;
+    /**
+     * pending data loading task started ahead of time (see {@link #loadData(List)})
+     */
+    volatile ImageDataLoaderTask prefetchTask;
 
     // internal lock counter
     protected int lockedCount = 0;
+    // data modification counter (see getDataVersion())
+    protected volatile long dataVersion;
     // internal constructed state (needed for proper data initialization)
     private boolean constructed = false;
 
@@ -1262,6 +1326,53 @@ public class IcyBufferedImage extends BufferedImage implements IcyColorModelList
             getRaster();
     }
 
+    /**
+     * Force loading data for all the specified images.<br>
+     * Images data is loaded concurrently from the importer (a bounded number of images are loaded ahead of time) so
+     * this is much faster than calling {@link #loadData()} on each image.
+     * 
+     * @param images
+     *        images to load (can contain <code>null</code> entries)
+     */
+    public static void loadData(List<IcyBufferedImage> images)
+    {
+        final LinkedList<IcyBufferedImage> pending = new LinkedList<IcyBufferedImage>();
+        final int size = images.size();
+        int maxPending = 1;
+        int index = 0;
+
+        while ((index < size) || !pending.isEmpty())
+        {
+            // start loading next images
+            while ((index < size) && (pending.size() < maxPending))
+            {
+                final IcyBufferedImage image = images.get(index++);
+
+                if ((image == null) || image.isDataInitialized())
+                    continue;
+
+                if ((image.imageSourceInfo != null) && (image.prefetchTask == null))
+                {
+                    // adapt number of pending images to the image source storage
+                    maxPending = Math.max(maxPending, imageDataLoader.getNumWorker(image) * 2);
+                    image.prefetchTask = imageDataLoader.submit(image);
+                }
+
+                pending.add(image);
+            }
+
+            // then get them in order
+            if (!pending.isEmpty())
+            {
+                final IcyBufferedImage image = pending.removeFirst();
+
+                image.loadData();
+                // release task (if not used)
+                image.prefetchTask = null;
+            }
+        }
+    }
+
     protected synchronized WritableRaster getRaster(boolean retain)
     {
         // always try first from parent
@@ -4920,11 +5031,32 @@ public class IcyBufferedImage extends BufferedImage implements IcyColorModelList
         setColorMap(channel, map, true);
     }
 
+    /**
+     * Returns the data version of the image.<br>
+     * It is incremented each time image data is declared as modified ({@link #dataChanged()} or
+     * {@link #updateDataVersion()}) so values cached from image data can be validated.
+     */
+    public long getDataVersion()
+    {
+        return dataVersion;
+    }
+
+    /**
+     * Increments and returns the data version without sending any event.<br>
+     * Should be called when data is modified and {@link #dataChanged()} will only be called later
+     * (as when {@link #releaseRaster(boolean)} is used).
+     */
+    public synchronized long updateDataVersion()
+    {
+        return ++dataVersion;
+    }
+
     /**
      * notify image data has changed
      */
     public void dataChanged()
     {
+        updateDataVersion();
         updater.changed(new IcyBufferedImageEvent(this, IcyBufferedImageEventType.DATA_CHANGED));
     }
 
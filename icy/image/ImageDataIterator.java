@@ -57,6 +57,19 @@ public class ImageDataIterator implements DataIterator
     protected boolean changed;
     protected boolean done;
     protected Object data;
+    /**
+     * current row values (read in a single pass from <code>rowStart</code> to <code>rowEnd</code>) and
+     * image data version when read
+     */
+    protected double[] rowData;
+    protected int rowY;
+    protected int rowStart;
+    protected int rowEnd;
+    protected long rowVersion;
+    /**
+     * current row has been modified (data version is updated when we leave the row)
+     */
+    protected boolean rowModified;
 
     /**
      * Create a new ImageData iterator to iterate data through the specified XY region and channel.
@@ -231,10 +244,14 @@ public class ImageDataIterator implements DataIterator
     {
         done = (image == null) || (c < 0) || (c >= image.getSizeC()) || finalBounds.isEmpty();
 
+        // commit pending row changes
+        rowDone();
+
         if (!done)
         {
             // get data
             data = image.getDataXY(c);
+            rowY = -1;
 
             // reset position
             y = 0;
@@ -275,6 +292,7 @@ public class ImageDataIterator implements DataIterator
             maskOff++;
             if (++x >= w)
             {
+                rowDone();
                 x = 0;
                 imgOff += imageBounds.width - finalBounds.width;
                 maskOff += regionBounds.width - finalBounds.width;
@@ -288,6 +306,7 @@ public class ImageDataIterator implements DataIterator
             imgOff++;
             if (++x >= w)
             {
+                rowDone();
                 x = 0;
                 imgOff += imageBounds.width - finalBounds.width;
 
@@ -297,6 +316,37 @@ public class ImageDataIterator implements DataIterator
         }
     }
 
+    /**
+     * Called when we leave the current row: update image data version once for the whole row if
+     * it has been modified (invalidate row values cached by other readers).
+     */
+    protected void rowDone()
+    {
+        if (rowModified)
+        {
+            image.updateDataVersion();
+            rowModified = false;
+        }
+    }
+
+    /**
+     * Returns the end (exclusive) of the current row span to read: last point contained in mask.
+     */
+    protected int getRowEnd()
+    {
+        if (mask == null)
+            return w;
+
+        final boolean[] maskData = mask.mask;
+        final int rowMaskOff = maskOff - x;
+
+        for (int i = w - 1; i > x; i--)
+            if (maskData[rowMaskOff + i])
+                return i + 1;
+
+        return x + 1;
+    }
+
     @Override
     public boolean done()
     {
@@ -309,7 +359,25 @@ public class ImageDataIterator implements DataIterator
         if (done)
             throw new NoSuchElementException(null);
 
-        return Array1DUtil.getValue(data, imgOff, dataType);
+        final long version = image.getDataVersion();
+
+        // read the row span covered by the region at once rather than converting value per value
+        // (again if data changed)
+        if ((rowY != y) || (x < rowStart) || (x >= rowEnd) || (rowVersion != version))
+        {
+            final int end = getRowEnd();
+
+            if (rowData == null)
+                rowData = new double[w];
+
+            Array1DUtil.getValues(data, imgOff, rowData, 0, end - x, dataType);
+            rowY = y;
+            rowStart = x;
+            rowEnd = end;
+            rowVersion = version;
+        }
+
+        return rowData[x - rowStart];
     }
 
     @Override
@@ -319,6 +387,12 @@ public class ImageDataIterator implements DataIterator
             throw new NoSuchElementException(null);
 
         Array1DUtil.setValue(data, imgOff, dataType, value);
+
+        // keep our row values in sync (data version is updated once we leave the row)
+        if ((rowY == y) && (x >= rowStart) && (x < rowEnd))
+            rowData[x - rowStart] = Array1DUtil.getValue(data, imgOff, dataType);
+
+        rowModified = true;
         changed = true;
     }
 
@@ -375,9 +449,13 @@ public class ImageDataIterator implements DataIterator
 
     public void flush()
     {
-        // release image raster and save changes to cache
         if (image != null)
+        {
+            // commit pending row changes
+            rowDone();
+            // release image raster and save changes to cache
             image.releaseRaster(changed);
+        }
         changed = false;
     }
 }
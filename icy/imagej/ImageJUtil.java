@@ -16,12 +16,10 @@ package icy.imagej;
 
 import icy.common.listener.ProgressListener;
 import icy.image.IcyBufferedImage;
-import icy.math.ArrayMath;
 import icy.roi.ROI;
 import icy.roi.ROI2D;
 import icy.sequence.Sequence;
 import icy.system.thread.ThreadUtil;
-import icy.type.DataType;
 import icy.type.collection.array.Array1DUtil;
 import icy.type.collection.array.Array2DUtil;
 import icy.type.collection.array.ArrayUtil;
@@ -48,7 +46,6 @@ import ij.gui.ShapeRoi;
 import ij.measure.Calibration;
 import ij.plugin.frame.RoiManager;
 import ij.process.FloatPolygon;
-import ij.process.ImageProcessor;
 import plugins.kernel.roi.roi2d.ROI2DArea;
 import plugins.kernel.roi.roi2d.ROI2DEllipse;
 import plugins.kernel.roi.roi2d.ROI2DLine;
@@ -189,43 +186,95 @@ public class ImageJUtil
     }
 
     /**
-     * Convert the ImageJ {@link ImagePlus} image at position [Z,T] into an Icy image
+     * Convert the ImageJ {@link ImagePlus} image at position [Z,T] into an Icy image.<br>
+     * When <code>shareData</code> is <code>true</code> the Icy image directly uses the ImageJ stack
+     * arrays (no copy) so modifications done on one side are visible on the other side.<br>
+     * Data sharing is only possible for 8 bits, 16 bits (unsigned) and 32 bits float images, others
+     * cases are always converted:
+     * <ul>
+     * <li>16 bits signed (signed calibration): 32768 is subtracted to get signed short data</li>
+     * <li>RGB color: each packed RGB channel is split in 3 unsigned byte channels (R, G, B)</li>
+     * <li>8 bits indexed color: LUT is applied (RGB image)</li>
+     * </ul>
      */
     public static IcyBufferedImage convertToIcyBufferedImage(ImagePlus image, int z, int t, int sizeX, int sizeY,
-            int sizeC, int type, boolean signed16)
+            int sizeC, int type, boolean signed16, boolean shareData)
     {
-        // set position
-        image.setPosition(1, z + 1, t + 1);
-
         // directly use the buffered image to do the conversion...
-        if ((sizeC == 1) && ((type == ImagePlus.COLOR_256) || (type == ImagePlus.COLOR_RGB)))
+        if ((sizeC == 1) && (type == ImagePlus.COLOR_256))
+        {
+            // set position
+            image.setPosition(1, z + 1, t + 1);
             return IcyBufferedImage.createFrom(image.getBufferedImage());
+        }
+
+        final ImageStack stack = image.getStack();
 
-        final ImageProcessor ip = image.getProcessor();
-        final Object data = Array1DUtil.copyOf(ip.getPixels());
-        final DataType dataType = ArrayUtil.getDataType(data);
-        final Object[] datas = Array2DUtil.createArray(dataType, sizeC);
+        // packed RGB --> 3 channels per ImageJ channel
+        if (type == ImagePlus.COLOR_RGB)
+        {
+            final int len = sizeX * sizeY;
+            final byte[][] datas = new byte[sizeC * 3][len];
 
-        // first channel data (get a copy)
-        datas[0] = data;
-        // special case of 16 bits signed data --> subtract 32768
-        if (signed16)
-            datas[0] = ArrayMath.subtract(datas[0], Double.valueOf(32768));
+            for (int c = 0; c < sizeC; c++)
+            {
+                final int[] rgb = (int[]) stack.getPixels(image.getStackIndex(c + 1, z + 1, t + 1));
+                final byte[] r = datas[(c * 3) + 0];
+                final byte[] g = datas[(c * 3) + 1];
+                final byte[] b = datas[(c * 3) + 2];
+
+                for (int i = 0; i < len; i++)
+                {
+                    final int v = rgb[i];
+
+                    r[i] = (byte) (v >> 16);
+                    g[i] = (byte) (v >> 8);
+                    b[i] = (byte) v;
+                }
+            }
+
+            return new IcyBufferedImage(sizeX, sizeY, datas);
+        }
 
-        // others channels data
-        for (int c = 1; c < sizeC; c++)
+        Object[] datas = null;
+
+        for (int c = 0; c < sizeC; c++)
         {
-            image.setPosition(c + 1, z + 1, t + 1);
-            datas[c] = Array1DUtil.copyOf(image.getProcessor().getPixels());
+            final Object pixels = stack.getPixels(image.getStackIndex(c + 1, z + 1, t + 1));
+
+            if (datas == null)
+                datas = Array2DUtil.createArray(ArrayUtil.getDataType(pixels), sizeC);
+
             // special case of 16 bits signed data --> subtract 32768
             if (signed16)
-                datas[c] = ArrayMath.subtract(datas, Double.valueOf(32768));
+            {
+                final short[] in = (short[]) pixels;
+                final short[] out = new short[in.length];
+
+                for (int i = 0; i < in.length; i++)
+                    out[i] = (short) ((in[i] & 0xFFFF) - 32768);
+
+                datas[c] = out;
+            }
+            else if (shareData)
+                datas[c] = pixels;
+            else
+                datas[c] = Array1DUtil.copyOf(pixels);
         }
 
         // create a single image from all channels
         return new IcyBufferedImage(sizeX, sizeY, datas, signed16);
     }
 
+    /**
+     * Convert the ImageJ {@link ImagePlus} image at position [Z,T] into an Icy image
+     */
+    public static IcyBufferedImage convertToIcyBufferedImage(ImagePlus image, int z, int t, int sizeX, int sizeY,
+            int sizeC, int type, boolean signed16)
+    {
+        return convertToIcyBufferedImage(image, z, t, sizeX, sizeY, sizeC, type, signed16, false);
+    }
+
     /**
      * Convert the ImageJ {@link ImagePlus} image at position [Z,T] into an Icy image
      */
@@ -238,9 +287,12 @@ public class ImageJUtil
     }
 
     /**
-     * Convert the specified ImageJ {@link ImagePlus} object to Icy {@link Sequence}
+     * Convert the specified ImageJ {@link ImagePlus} object to Icy {@link Sequence}.<br>
+     * When <code>shareData</code> is <code>true</code> the sequence directly uses the ImageJ stack
+     * arrays when possible (see
+     * {@link #convertToIcyBufferedImage(ImagePlus, int, int, int, int, int, int, boolean, boolean)}).
      */
-    public static Sequence convertToIcySequence(ImagePlus image, ProgressListener progressListener)
+    public static Sequence convertToIcySequence(ImagePlus image, boolean shareData, ProgressListener progressListener)
     {
         final Sequence result = new Sequence(image.getTitle());
         final int[] dim = image.getDimensions(true);
@@ -268,7 +320,8 @@ public class ImageJUtil
                     if (progressListener != null)
                         progressListener.notifyProgress(position, len);
 
-                    result.setImage(t, z, convertToIcyBufferedImage(image, z, t, sizeX, sizeY, sizeC, type, signed16));
+                    result.setImage(t, z,
+                            convertToIcyBufferedImage(image, z, t, sizeX, sizeY, sizeC, type, signed16, shareData));
 
                     position++;
                 }
@@ -314,13 +367,35 @@ public class ImageJUtil
     }
 
     /**
-     * Convert the specified Icy {@link Sequence} object to ImageJ {@link ImagePlus}
+     * Convert the specified ImageJ {@link ImagePlus} object to Icy {@link Sequence}
      */
-    public static ImagePlus convertToImageJImage(Sequence sequence, boolean useRoiManager,
+    public static Sequence convertToIcySequence(ImagePlus image, ProgressListener progressListener)
+    {
+        return convertToIcySequence(image, false, progressListener);
+    }
+
+    /**
+     * Convert the specified Icy {@link Sequence} object to ImageJ {@link ImagePlus}.<br>
+     * When <code>shareData</code> is <code>true</code> the returned image is a view on the sequence
+     * using a {@link SequenceStack}: slices are retrieved on demand and directly share sequence
+     * data when possible, ImageJ modifications are pushed back to the sequence when the image is
+     * updated (see {@link SequenceStack} for data conversion details).
+     */
+    public static ImagePlus convertToImageJImage(Sequence sequence, boolean useRoiManager, boolean shareData,
             ProgressListener progressListener)
     {
+        final ImagePlus result;
+
         // create the image
-        final ImagePlus result = createImagePlus(sequence, progressListener);
+        if (shareData)
+        {
+            result = new ImagePlus(sequence.getName(), new SequenceStack(sequence));
+            // signed data use ImageJ signed 16 bits representation
+            if (SequenceStack.isSigned16(sequence.getDataType_()))
+                result.getCalibration().setSigned16BitCalibration();
+        }
+        else
+            result = createImagePlus(sequence, progressListener);
         // calibrate
         calibrateImageJImage(result, sequence);
 
@@ -356,12 +431,29 @@ public class ImageJUtil
             result.setRoi(ijRois.get(0));
         }
 
+        final ImagePlus image;
+
         if (result.getNChannels() > 4)
-            return new CompositeImage(result, CompositeImage.COLOR);
+            image = new CompositeImage(result, CompositeImage.COLOR);
         else if (result.getNChannels() > 1)
-            return new CompositeImage(result, CompositeImage.COMPOSITE);
+            image = new CompositeImage(result, CompositeImage.COMPOSITE);
+        else
+            image = result;
 
-        return result;
+        // push back ImageJ modifications to the sequence
+        if (image.getStack() instanceof SequenceStack)
+            ((SequenceStack) image.getStack()).attach(image);
+
+        return image;
+    }
+
+    /**
+     * Convert the specified Icy {@link Sequence} object to ImageJ {@link ImagePlus}
+     */
+    public static ImagePlus convertToImageJImage(Sequence sequence, boolean useRoiManager,
+            ProgressListener progressListener)
+    {
+        return convertToImageJImage(sequence, useRoiManager, false, progressListener);
     }
 
     /**
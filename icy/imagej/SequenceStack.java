@@ -0,0 +1,504 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Icy. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package icy.imagej;
+
+import icy.image.IcyBufferedImage;
+import icy.sequence.Sequence;
+import icy.sequence.SequenceUtil;
+import icy.type.DataType;
+import icy.type.collection.array.Array1DUtil;
+import icy.type.collection.array.ArrayUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import ij.ImageListener;
+import ij.ImagePlus;
+import ij.LookUpTable;
+import ij.VirtualStack;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * ImageJ virtual {@link ij.ImageStack} giving a view on an Icy {@link Sequence} without copying it.<br>
+ * Slices are ordered as ImageJ hyperstacks expect them (C first, then Z, then T) and are
+ * retrieved from the sequence images only when ImageJ request them.<br>
+ * <br>
+ * Data conversion depends on the sequence data type:
+ * <ul>
+ * <li>unsigned 8 bits, unsigned 16 bits and float: ImageJ processors directly share the
+ * {@link IcyBufferedImage} channel arrays (no copy).</li>
+ * <li>signed 8 and 16 bits: data is converted to 16 bits with a +32768 offset (ImageJ signed 16 bits
+ * representation), the image should use a signed 16 bits calibration (see
+ * {@link ImageJUtil#convertToImageJImage(Sequence, boolean, boolean, icy.common.listener.ProgressListener)}).</li>
+ * <li>32 / 64 bits integer and double: data is converted to float (values which can't be
+ * represented in float precision are rounded).</li>
+ * </ul>
+ * RGB sequences are exposed as 3 separate channels (ImageJ composite image), no packing is done.<br>
+ * <br>
+ * Modifications done from ImageJ are pushed back to the sequence (converted back if needed) and
+ * notified with {@link IcyBufferedImage#dataChanged()} when the ImagePlus is updated, when slice
+ * pixels are set or when {@link #flush()} is called. Only slices which have been handed out to
+ * ImageJ (or set by ImageJ) since the last flush are notified.<br>
+ * The sequence dimensions should not be modified while the view is in use (see
+ * {@link #deleteSlice(int)}) and {@link #close()} should be called when the ImageJ image is
+ * disposed without being closed.
+ * 
+ * @author Stephane
+ */
+public class SequenceStack extends VirtualStack implements ImageListener
+{
+    /**
+     * Maximum number of slices kept referenced (raster locked for volatile images)
+     */
+    private static final int MAX_PLANES = 16;
+
+    private class Plane
+    {
+        final IcyBufferedImage image;
+        final int c;
+        Object pixels;
+        /**
+         * pixels were set by ImageJ or ImageJ reported a modification since last flush
+         */
+        boolean dirty;
+
+        public Plane(IcyBufferedImage image, int c, Object pixels)
+        {
+            super();
+
+            this.image = image;
+            this.c = c;
+            this.pixels = pixels;
+            dirty = false;
+
+            if (image != null)
+                image.lockRaster();
+        }
+
+        /**
+         * Push back ImageJ data into the Icy image
+         */
+        void flush()
+        {
+            if (image == null)
+                return;
+
+            if (shared)
+            {
+                // data are shared so we can only rely on ImageJ notifications here
+                if (!dirty)
+                    return;
+
+                dirty = false;
+
+                // ImageJ array was replaced
+                if (pixels != image.getDataXY(c))
+                    System.arraycopy(pixels, 0, image.getDataXY(c), 0, ArrayUtil.getLength(pixels));
+
+                image.dataChanged();
+            }
+            else
+            {
+                final Object data = image.getDataXY(c);
+
+                dirty = false;
+
+                // only if ImageJ really modified the data (pixels may be modified without notification)
+                if (!equals(toImageJ(data, dataType), pixels))
+                {
+                    fromImageJ(pixels, data, dataType);
+                    image.dataChanged();
+                }
+            }
+        }
+
+        void release()
+        {
+            if (image != null)
+                image.releaseRaster(true);
+        }
+
+        private boolean equals(Object a1, Object a2)
+        {
+            if (a1 instanceof short[])
+                return Arrays.equals((short[]) a1, (short[]) a2);
+            if (a1 instanceof float[])
+                return Arrays.equals((float[]) a1, (float[]) a2);
+
+            return false;
+        }
+    }
+
+    private final Sequence sequence;
+    private final int sizeC;
+    private int sizeZ;
+    private int sizeT;
+    private final DataType dataType;
+    /**
+     * ImageJ processors directly share Icy arrays
+     */
+    final boolean shared;
+    /**
+     * referenced planes (slice index --> plane)
+     */
+    private final LinkedHashMap<Integer, Plane> planes;
+    /**
+     * attached ImageJ image
+     */
+    private ImagePlus imagePlus;
+
+    public SequenceStack(Sequence sequence)
+    {
+        super(sequence.getSizeX(), sequence.getSizeY(), LookUpTable.createGrayscaleColorModel(false), null);
+
+        this.sequence = sequence;
+        sizeC = sequence.getSizeC();
+        sizeZ = sequence.getSizeZ();
+        sizeT = sequence.getSizeT();
+        dataType = sequence.getDataType_();
+        shared = isShareable(dataType);
+        imagePlus = null;
+
+        planes = new LinkedHashMap<Integer, Plane>(MAX_PLANES, 0.75f, true)
+        {
+            private static final long serialVersionUID = -2946118497621254870L;
+
+            @Override
+            protected boolean removeEldestEntry(Entry<Integer, Plane> eldest)
+            {
+                if (size() > MAX_PLANES)
+                {
+                    final Plane plane = eldest.getValue();
+
+                    plane.flush();
+                    plane.release();
+
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns <code>true</code> if ImageJ can directly use arrays of the specified data type.
+     */
+    public static boolean isShareable(DataType dataType)
+    {
+        return (dataType == DataType.UBYTE) || (dataType == DataType.USHORT) || (dataType == DataType.FLOAT);
+    }
+
+    /**
+     * Returns <code>true</code> if the specified data type is exposed as ImageJ signed 16 bits data
+     * (+32768 offset).
+     */
+    public static boolean isSigned16(DataType dataType)
+    {
+        return (dataType == DataType.BYTE) || (dataType == DataType.SHORT);
+    }
+
+    /**
+     * Convert Icy data array to ImageJ representation (see class description).
+     */
+    public static Object toImageJ(Object data, DataType dataType)
+    {
+        if (isShareable(dataType))
+            return data;
+
+        if (isSigned16(dataType))
+        {
+            final int len = ArrayUtil.getLength(data);
+            final short[] result = new short[len];
+
+            if (data instanceof byte[])
+            {
+                final byte[] in = (byte[]) data;
+                for (int i = 0; i < len; i++)
+                    result[i] = (short) (in[i] + 32768);
+            }
+            else
+            {
+                final short[] in = (short[]) data;
+                for (int i = 0; i < len; i++)
+                    result[i] = (short) (in[i] + 32768);
+            }
+
+            return result;
+        }
+
+        return Array1DUtil.arrayToFloatArray(data, dataType.isSigned());
+    }
+
+    /**
+     * Convert ImageJ data array back to the specified Icy data array (see class description).<br>
+     * Out of range values are clamped.
+     */
+    public static void fromImageJ(Object pixels, Object data, DataType dataType)
+    {
+        if (isShareable(dataType))
+        {
+            if (pixels != data)
+                System.arraycopy(pixels, 0, data, 0, ArrayUtil.getLength(data));
+        }
+        else if (isSigned16(dataType))
+        {
+            final short[] in = (short[]) pixels;
+            final int len = in.length;
+
+            if (data instanceof byte[])
+            {
+                final byte[] out = (byte[]) data;
+                for (int i = 0; i < len; i++)
+                    out[i] = (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, (in[i] & 0xFFFF) - 32768));
+            }
+            else
+            {
+                final short[] out = (short[]) data;
+                for (int i = 0; i < len; i++)
+                    out[i] = (short) ((in[i] & 0xFFFF) - 32768);
+            }
+        }
+        else
+            Array1DUtil.floatArrayToSafeArray((float[]) pixels, data, dataType.isSigned());
+    }
+
+    /**
+     * Attach this stack to the specified ImageJ image so ImageJ modifications are pushed back to
+     * the sequence each time the image is updated.<br>
+     * Referenced planes are released when the image is closed.
+     */
+    public void attach(ImagePlus image)
+    {
+        if (image == imagePlus)
+            return;
+
+        if (imagePlus != null)
+            ImagePlus.removeImageListener(this);
+
+        imagePlus = image;
+
+        if (image != null)
+            ImagePlus.addImageListener(this);
+    }
+
+    /**
+     * Returns the viewed sequence.
+     */
+    public Sequence getSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * Returns <code>true</code> if ImageJ processors directly share sequence data arrays.
+     */
+    public boolean isShared()
+    {
+        return shared;
+    }
+
+    private synchronized Plane getPlane(int n)
+    {
+        if ((n < 1) || (n > getSize()))
+            throw new IllegalArgumentException("Slice index " + n + " out of range [1.." + getSize() + "]");
+
+        final Integer key = Integer.valueOf(n);
+        Plane result = planes.get(key);
+
+        if (result == null)
+        {
+            final int index = n - 1;
+            final int c = index % sizeC;
+            final int z = (index / sizeC) % sizeZ;
+            final int t = index / (sizeC * sizeZ);
+            final IcyBufferedImage image = sequence.getImage(t, z);
+
+            if (image == null)
+                result = new Plane(null, c, toImageJ(Array1DUtil.createArray(dataType, getWidth() * getHeight()),
+                        dataType));
+            else
+                result = new Plane(image, c, toImageJ(image.getDataXY(c), dataType));
+
+            planes.put(key, result);
+        }
+
+        return result;
+    }
+
+    @Override
+    public int getSize()
+    {
+        return sizeC * sizeZ * sizeT;
+    }
+
+    @Override
+    public String getSliceLabel(int n)
+    {
+        return null;
+    }
+
+    @Override
+    public synchronized Object getPixels(int n)
+    {
+        return getPlane(n).pixels;
+    }
+
+    @Override
+    public void setPixels(Object pixels, int n)
+    {
+        final Plane plane = getPlane(n);
+
+        synchronized (this)
+        {
+            plane.pixels = pixels;
+            plane.dirty = true;
+            plane.flush();
+        }
+    }
+
+    @Override
+    public ImageProcessor getProcessor(int n)
+    {
+        final Object pixels = getPixels(n);
+        final int w = getWidth();
+        final int h = getHeight();
+
+        if (pixels instanceof byte[])
+            return new ByteProcessor(w, h, (byte[]) pixels, getColorModel());
+        if (pixels instanceof short[])
+            return new ShortProcessor(w, h, (short[]) pixels, getColorModel());
+
+        return new FloatProcessor(w, h, (float[]) pixels, getColorModel());
+    }
+
+    /**
+     * Remove the specified slice from the sequence.<br>
+     * A slice can be removed only when it is a whole sequence image (single channel sequence)
+     * and when the sequence is a simple Z or T stack, otherwise the sequence would not be uniform
+     * anymore (a channel can't be removed from a single image and a Z slice can't be removed from
+     * a single T frame) and an {@link UnsupportedOperationException} is thrown.
+     */
+    @Override
+    public synchronized void deleteSlice(int n)
+    {
+        if ((n < 1) || (n > getSize()))
+            throw new IllegalArgumentException("Slice index " + n + " out of range [1.." + getSize() + "]");
+        if ((sizeC > 1) || ((sizeZ > 1) && (sizeT > 1)))
+            throw new UnsupportedOperationException(
+                    "Can't remove a single slice from a multi channel or 4D sequence view.");
+
+        // slice indexes are shifted so release all planes first
+        release();
+
+        if (sizeT > 1)
+        {
+            SequenceUtil.removeTAndShift(sequence, n - 1);
+            sizeT--;
+        }
+        else
+        {
+            SequenceUtil.removeZAndShift(sequence, n - 1);
+            sizeZ--;
+        }
+    }
+
+    /**
+     * Push back ImageJ modifications of the specified slice to the sequence.
+     */
+    public synchronized void flush(int n)
+    {
+        final Plane plane = planes.get(Integer.valueOf(n));
+
+        if (plane != null)
+            plane.flush();
+    }
+
+    /**
+     * Push back ImageJ modifications of all referenced slices to the sequence.
+     */
+    public synchronized void flush()
+    {
+        for (Plane plane : planes.values())
+            plane.flush();
+    }
+
+    /**
+     * Push back modifications and release all referenced slices.
+     */
+    public synchronized void release()
+    {
+        final List<Plane> toRelease = new ArrayList<Plane>(planes.values());
+
+        planes.clear();
+
+        for (Plane plane : toRelease)
+        {
+            plane.flush();
+            plane.release();
+        }
+    }
+
+    /**
+     * Detach this stack from the ImageJ image (removing the image listener), push back
+     * modifications and release all referenced slices.<br>
+     * Automatically done when the attached ImageJ image is closed.
+     */
+    public void close()
+    {
+        attach(null);
+        release();
+    }
+
+    @Override
+    public void imageOpened(ImagePlus imp)
+    {
+        // nothing to do here
+    }
+
+    @Override
+    public void imageUpdated(ImagePlus imp)
+    {
+        if ((imp != null) && (imp == imagePlus))
+        {
+            final int n = imp.getCurrentSlice();
+
+            synchronized (this)
+            {
+                final Plane plane = planes.get(Integer.valueOf(n));
+
+                // ImageJ reports a modification of the current slice
+                if (plane != null)
+                {
+                    plane.dirty = true;
+                    plane.flush();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void imageClosed(ImagePlus imp)
+    {
+        if ((imp != null) && (imp == imagePlus))
+            close();
+    }
+}
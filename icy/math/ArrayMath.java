@@ -18,10 +18,20 @@
  */
 package icy.math;
 
+import icy.system.SystemUtil;
+import icy.system.thread.Processor;
+import icy.type.DataType;
 import icy.type.TypeUtil;
 import icy.type.collection.array.Array1DUtil;
 import icy.type.collection.array.ArrayUtil;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 /**
  * Class defining basic arithmetic and statistic operations on 1D double arrays.
  * 
@@ -29,6 +39,48 @@ import icy.type.collection.array.ArrayUtil;
  */
 public class ArrayMath
 {
+    /**
+     * Arrays containing at least this number of elements are reduced (sum, mean, var, std, correlation) in
+     * parallel using compensated (Kahan) summation.
+     */
+    public static final int PARALLEL_THRESHOLD = 1 << 20;
+
+    /**
+     * number of elements reduced by a single task (fixed so the result doesn't depend on the number of CPU)
+     */
+    private static final int REDUCTION_CHUNK = 1 << 18;
+    /**
+     * conversion buffer size for reduction of non double array
+     */
+    private static final int REDUCTION_BLOCK = 4096;
+
+    /**
+     * reduction processor (created on first use)
+     */
+    private static Processor processor = null;
+
+    private static synchronized Processor getProcessor()
+    {
+        if (processor == null)
+        {
+            processor = new Processor(Math.max(1, SystemUtil.getNumberOfCPUs()));
+            processor.setThreadName("Array reduction");
+        }
+
+        return processor;
+    }
+
+    /**
+     * Partial reduction of an array range
+     */
+    private static abstract class ChunkReducer
+    {
+        /**
+         * Returns the partial sums for the [from, to[ range
+         */
+        abstract double[] reduce(int from, int to);
+    }
+
     /**
      * Element-wise addition of two arrays
      * 
@@ -2446,11 +2498,15 @@ public class ArrayMath
      * 
      * @param input
      * @param preserveData
-     *        set to true if the given array should not be changed (a copy will be made)
+     *        set to true if the given array should not be changed (no copy is done, the median is
+     *        directly selected from the data)
      */
     public static double median(double[] input, boolean preserveData)
     {
-        return select(input.length / 2, preserveData ? input.clone() : input);
+        if (preserveData)
+            return median(input);
+
+        return select((input.length + 1) / 2, input);
     }
 
     /**
@@ -2462,19 +2518,13 @@ public class ArrayMath
      */
     public static double mad(double[] input, boolean normalPopulation)
     {
-        double[] temp = new double[input.length];
-        double median = median(input, true);
+        final double median = median(input);
+        final double result = orderStatisticOfDeviations(input, median, (input.length - 1) / 2);
 
         if (normalPopulation)
-            for (int i = 0; i < input.length; i++)
-                temp[i] = 1.4826f * (input[i] - median);
-        else
-            for (int i = 0; i < input.length; i++)
-                temp[i] = (input[i] - median);
-
-        abs(temp, true);
+            return 1.4826d * result;
 
-        return median(temp, false);
+        return result;
     }
 
     /**
@@ -2564,265 +2614,1094 @@ public class ArrayMath
     }
 
     /**
-     * Computes the sum of all values from the specified input array.
-     * 
-     * @param array
-     *        an array
-     * @param signed
-     *        signed / unsigned flag
-     * @return the sum of all values from the array
+     * Returns the sortable (unsigned order) integer key of the specified float value.
      */
-    public static double sum(Object array, boolean signed)
+    private static int sortableKey(float value)
     {
-        switch (ArrayUtil.getDataType(array))
-        {
-            case BYTE:
-                return sum((byte[]) array, signed);
-            case SHORT:
-                return sum((short[]) array, signed);
-            case INT:
-                return sum((int[]) array, signed);
-            case LONG:
-                return sum((long[]) array, signed);
-            case FLOAT:
-                return sum((float[]) array);
-            case DOUBLE:
-                return sum((double[]) array);
-            default:
-                return 0d;
-        }
+        final int bits = Float.floatToIntBits(value);
+        return bits ^ ((bits >> 31) | 0x80000000);
     }
 
     /**
-     * Computes the sum of all values in the input array
-     * 
-     * @param input
-     *        the array to sum up
-     * @param signed
-     *        signed / unsigned flag
+     * Returns the float value from its sortable key.
      */
-    public static double sum(byte[] input, boolean signed)
+    private static float fromSortableKey(int key)
     {
-        double sum = 0;
+        return Float.intBitsToFloat(key ^ (((~key) >> 31) | 0x80000000));
+    }
 
-        if (signed)
-        {
-            for (byte b : input)
-                sum += b;
+    /**
+     * Returns the sortable (unsigned order) long key of the specified double value.
+     */
+    private static long sortableKey(double value)
+    {
+        final long bits = Double.doubleToLongBits(value);
+        return bits ^ ((bits >> 63) | 0x8000000000000000L);
+    }
 
-        }
-        else
-        {
-            for (byte b : input)
-                sum += TypeUtil.unsign(b);
-        }
+    /**
+     * Returns the double value from its sortable key.
+     */
+    private static double fromSortableKey(long key)
+    {
+        return Double.longBitsToDouble(key ^ (((~key) >> 63) | 0x8000000000000000L));
+    }
 
-        return sum;
+    private static void checkRank(int length, int k) throws IllegalArgumentException
+    {
+        if ((k < 0) || (k >= length))
+            throw new IllegalArgumentException("Rank " + k + " is out of range [0.." + (length - 1) + "]");
+    }
+
+    private static int getQuantileRank(int length, double q) throws IllegalArgumentException
+    {
+        if ((q < 0d) || (q > 1d))
+            throw new IllegalArgumentException("Quantile should be in [0..1] range");
+
+        return (int) Math.floor(q * (length - 1));
     }
 
     /**
-     * Computes the sum of all values in the input array
-     * 
-     * @param input
-     *        the array to sum up
-     * @param signed
-     *        signed / unsigned flag
+     * Returns the histogram bin containing the element of rank <code>rank[0]</code> and update
+     * <code>rank[0]</code> to the rank of the element inside the bin.
      */
-    public static double sum(short[] input, boolean signed)
+    private static int findBin(int[] histo, int[] rank)
     {
-        double sum = 0;
+        int k = rank[0];
 
-        if (signed)
+        for (int i = 0; i < histo.length; i++)
         {
-            for (short s : input)
-                sum += s;
+            final int count = histo[i];
 
-        }
-        else
-        {
-            for (short s : input)
-                sum += TypeUtil.unsign(s);
+            if (k < count)
+            {
+                rank[0] = k;
+                return i;
+            }
+
+            k -= count;
         }
 
-        return sum;
+        // should not happen
+        throw new IllegalArgumentException("Rank is out of range");
     }
 
-    /**
-     * Computes the sum of all values in the input array
-     * 
-     * @param input
-     *        the array to sum up
-     * @param signed
-     *        signed / unsigned flag
-     */
-    public static double sum(int[] input, boolean signed)
+    private static int[] getHistogram(byte[] input, boolean signed)
     {
-        double sum = 0;
+        final int[] result = new int[0x100];
 
         if (signed)
         {
-            for (int i : input)
-                sum += i;
-
+            for (byte v : input)
+                result[v + 0x80]++;
         }
         else
         {
-            for (int i : input)
-                sum += TypeUtil.unsign(i);
+            for (byte v : input)
+                result[v & 0xFF]++;
         }
 
-        return sum;
+        return result;
     }
 
-    /**
-     * Computes the sum of all values in the input array
-     * 
-     * @param input
-     *        the array to sum up
-     * @param signed
-     *        signed / unsigned flag
-     */
-    public static double sum(long[] input, boolean signed)
+    private static int[] getHistogram(short[] input, boolean signed)
     {
-        double sum = 0;
+        final int[] result = new int[0x10000];
 
         if (signed)
         {
-            for (long l : input)
-                sum += l;
-
+            for (short v : input)
+                result[v + 0x8000]++;
         }
         else
         {
-            for (long l : input)
-                sum += TypeUtil.unsign(l);
+            for (short v : input)
+                result[v & 0xFFFF]++;
         }
 
-        return sum;
+        return result;
     }
 
     /**
-     * Computes the sum of all values in the input array
-     * 
-     * @param input
-     *        the array to sum up
+     * Returns the median deviation (bin unit) from the specified histogram and median bin.
      */
-    public static double sum(float[] input)
+    private static int getMedianDeviation(int[] histo, int medianBin, int length)
     {
-        double sum = 0;
+        final int[] deviations = new int[histo.length];
 
-        for (float f : input)
-            sum += f;
+        for (int i = 0; i < histo.length; i++)
+            deviations[Math.abs(i - medianBin)] += histo[i];
 
-        return sum;
+        return findBin(deviations, new int[] {(length - 1) / 2});
     }
 
     /**
-     * Computes the sum of all values in the input array
+     * Returns the k-th smallest value (0 based) of the given array.<br>
+     * The array is not modified, selection is done through histogram (linear time, no copy).
      * 
      * @param input
-     *        the array to sum up
+     *        an array
+     * @param k
+     *        rank of the wanted value (0 = minimum, length - 1 = maximum)
+     * @param signed
+     *        signed / unsigned flag
+     * @throws IllegalArgumentException
+     *         if <code>k</code> is out of range
      */
-    public static double sum(double[] input)
+    public static int orderStatistic(byte[] input, int k, boolean signed) throws IllegalArgumentException
     {
-        double sum = 0;
-        for (double d : input)
-            sum += d;
-        return sum;
+        checkRank(input.length, k);
+
+        final int bin = findBin(getHistogram(input, signed), new int[] {k});
+
+        return signed ? bin - 0x80 : bin;
     }
 
     /**
-     * Computes the mean value of the given array
+     * Returns the k-th smallest value (0 based) of the given array.<br>
+     * The array is not modified, selection is done through histogram (linear time, no copy).
      * 
      * @param input
+     *        an array
+     * @param k
+     *        rank of the wanted value (0 = minimum, length - 1 = maximum)
+     * @param signed
+     *        signed / unsigned flag
+     * @throws IllegalArgumentException
+     *         if <code>k</code> is out of range
      */
-    public static double mean(double[] input)
+    public static int orderStatistic(short[] input, int k, boolean signed) throws IllegalArgumentException
     {
-        return sum(input) / input.length;
+        checkRank(input.length, k);
+
+        final int bin = findBin(getHistogram(input, signed), new int[] {k});
+
+        return signed ? bin - 0x8000 : bin;
     }
 
     /**
-     * Computes the unbiased variance of the given array
+     * Returns the k-th smallest value (0 based) of the given array.<br>
+     * The array is not modified, selection is done through 2 passes of 16 bits histogram (linear
+     * time, no copy).
      * 
      * @param input
-     * @param unbiased
-     *        set to true if the result should be normalized by the population size minus 1
+     *        an array
+     * @param k
+     *        rank of the wanted value (0 = minimum, length - 1 = maximum)
+     * @param signed
+     *        signed / unsigned flag
+     * @throws IllegalArgumentException
+     *         if <code>k</code> is out of range
      */
-    public static double var(double[] input, boolean unbiased)
+    public static long orderStatistic(int[] input, int k, boolean signed) throws IllegalArgumentException
     {
-        double var = 0, mean = mean(input);
-        for (double f : input)
-            var += (f - mean) * (f - mean);
-        return var / (unbiased ? input.length - 1 : input.length);
+        checkRank(input.length, k);
+
+        final int flip = signed ? 0x80000000 : 0;
+        final int[] histo = new int[0x10000];
+        final int[] rank = new int[] {k};
+
+        for (int v : input)
+            histo[(v ^ flip) >>> 16]++;
+        final int high = findBin(histo, rank);
+
+        Arrays.fill(histo, 0);
+        for (int v : input)
+        {
+            final int key = v ^ flip;
+            if ((key >>> 16) == high)
+                histo[key & 0xFFFF]++;
+        }
+        final int low = findBin(histo, rank);
+
+        final int result = ((high << 16) | low) ^ flip;
+
+        return signed ? result : TypeUtil.unsign(result);
     }
 
     /**
-     * Computes the standard deviation of the given array (the variance square root)
+     * Returns the k-th smallest value (0 based) of the given array.<br>
+     * The array is not modified, selection is done through 4 passes of 16 bits histogram (linear
+     * time, no copy).
      * 
      * @param input
-     * @param unbiased
-     *        set to true if the variance should be unbiased
-     * @return the square root of the variance
+     *        an array
+     * @param k
+     *        rank of the wanted value (0 = minimum, length - 1 = maximum)
+     * @param signed
+     *        signed / unsigned flag
+     * @return the k-th smallest value (need to be interpreted as unsigned if <code>signed</code> is
+     *         false)
+     * @throws IllegalArgumentException
+     *         if <code>k</code> is out of range
      */
-    public static double std(double[] input, boolean unbiased)
+    public static long orderStatistic(long[] input, int k, boolean signed) throws IllegalArgumentException
     {
-        return Math.sqrt(var(input, unbiased));
+        checkRank(input.length, k);
+
+        final long flip = signed ? 0x8000000000000000L : 0L;
+        final int[] histo = new int[0x10000];
+        final int[] rank = new int[] {k};
+        long prefix = 0L;
+
+        for (int shift = 48; shift >= 0; shift -= 16)
+        {
+            Arrays.fill(histo, 0);
+
+            for (long v : input)
+            {
+                final long key = v ^ flip;
+                if ((shift == 48) || ((key >>> (shift + 16)) == prefix))
+                    histo[(int) ((key >>> shift) & 0xFFFF)]++;
+            }
+
+            prefix = (prefix << 16) | findBin(histo, rank);
+        }
+
+        return prefix ^ flip;
     }
 
     /**
-     * Rescales the given array to [newMin,newMax]. Nothing is done if the input is constant or if
-     * the new bounds equal the old ones.
+     * Returns the k-th smallest value (0 based) of the given array.<br>
+     * The array is not modified, selection is done through 2 passes of 16 bits histogram on float
+     * bits (linear time, no copy). NaN values are considered greater than any other value.
      * 
      * @param input
-     *        the input array
-     * @param newMin
-     *        the new min bound
-     * @param newMax
-     *        the new max bound
-     * @param overwrite
-     *        true overwrites the input data, false returns the result in a new structure
+     *        an array
+     * @param k
+     *        rank of the wanted value (0 = minimum, length - 1 = maximum)
+     * @throws IllegalArgumentException
+     *         if <code>k</code> is out of range
      */
-    public static double[] rescale(double[] input, double newMin, double newMax, boolean overwrite)
+    public static float orderStatistic(float[] input, int k) throws IllegalArgumentException
     {
-        double min = min(input), max = max(input);
-
-        if (min == max || (min == newMin && max == newMax))
-            return input;
+        checkRank(input.length, k);
 
-        double[] result = overwrite ? input : new double[input.length];
+        final int[] histo = new int[0x10000];
+        final int[] rank = new int[] {k};
 
-        double ratio = (newMax - newMin) / (max - min);
-        double base = newMin - (min * ratio);
+        for (float v : input)
+            histo[sortableKey(v) >>> 16]++;
+        final int high = findBin(histo, rank);
 
-        for (int i = 0; i < input.length; i++)
-            result[i] = base + input[i] * ratio;
+        Arrays.fill(histo, 0);
+        for (float v : input)
+        {
+            final int key = sortableKey(v);
+            if ((key >>> 16) == high)
+                histo[key & 0xFFFF]++;
+        }
+        final int low = findBin(histo, rank);
 
-        return result;
+        return fromSortableKey((high << 16) | low);
     }
 
     /**
-     * Standardize the input data by subtracting the mean value and dividing by the standard
-     * deviation
+     * Returns the k-th smallest value (0 based) of the given array.<br>
+     * The array is not modified, selection is done through 4 passes of 16 bits histogram on double
+     * bits (linear time, no copy). NaN values are considered greater than any other value.
      * 
      * @param input
-     *        the data to standardize
-     * @param overwrite
-     *        true if the output should overwrite the input, false if a new array should be returned
-     * @return the standardized data
+     *        an array
+     * @param k
+     *        rank of the wanted value (0 = minimum, length - 1 = maximum)
+     * @throws IllegalArgumentException
+     *         if <code>k</code> is out of range
      */
-    public static double[] standardize(double[] input, boolean overwrite)
+    public static double orderStatistic(double[] input, int k) throws IllegalArgumentException
     {
-        double[] output = overwrite ? input : new double[input.length];
+        checkRank(input.length, k);
 
-        subtract(input, mean(input), output);
-        divide(output, std(output, true), output);
+        final int[] histo = new int[0x10000];
+        final int[] rank = new int[] {k};
+        long prefix = 0L;
 
-        return output;
-    }
+        for (int shift = 48; shift >= 0; shift -= 16)
+        {
+            Arrays.fill(histo, 0);
 
-    /**
-     * Computes the classical correlation coefficient between 2 populations.<br>
-     * This coefficient is given by:<br>
+            for (double v : input)
+            {
+                final long key = sortableKey(v);
+                if ((shift == 48) || ((key >>> (shift + 16)) == prefix))
+                    histo[(int) ((key >>> shift) & 0xFFFF)]++;
+            }
+
+            prefix = (prefix << 16) | findBin(histo, rank);
+        }
+
+        return fromSortableKey(prefix);
+    }
+
+    /**
+     * Returns the k-th smallest value (0 based) of the given generic array.<br>
+     * The array is not modified.
+     * 
+     * @param array
+     *        an array
+     * @param k
+     *        rank of the wanted value (0 = minimum, length - 1 = maximum)
+     * @param signed
+     *        signed / unsigned flag
+     * @throws IllegalArgumentException
+     *         if <code>k</code> is out of range
+     */
+    public static double orderStatistic(Object array, int k, boolean signed) throws IllegalArgumentException
+    {
+        switch (ArrayUtil.getDataType(array))
+        {
+            case BYTE:
+                return orderStatistic((byte[]) array, k, signed);
+            case SHORT:
+                return orderStatistic((short[]) array, k, signed);
+            case INT:
+                return orderStatistic((int[]) array, k, signed);
+            case LONG:
+                if (signed)
+                    return orderStatistic((long[]) array, k, signed);
+                return TypeUtil.unsign(orderStatistic((long[]) array, k, signed));
+            case FLOAT:
+                return orderStatistic((float[]) array, k);
+            case DOUBLE:
+                return orderStatistic((double[]) array, k);
+            default:
+                return 0d;
+        }
+    }
+
+    /**
+     * Returns the (lower) median value of the given array without modifying it.
+     * 
+     * @param input
+     *        an array
+     * @param signed
+     *        signed / unsigned flag
+     */
+    public static int median(byte[] input, boolean signed)
+    {
+        return orderStatistic(input, (input.length - 1) / 2, signed);
+    }
+
+    /**
+     * Returns the (lower) median value of the given array without modifying it.
+     * 
+     * @param input
+     *        an array
+     * @param signed
+     *        signed / unsigned flag
+     */
+    public static int median(short[] input, boolean signed)
+    {
+        return orderStatistic(input, (input.length - 1) / 2, signed);
+    }
+
+    /**
+     * Returns the (lower) median value of the given array without modifying it.
+     * 
+     * @param input
+     *        an array
+     * @param signed
+     *        signed / unsigned flag
+     */
+    public static long median(int[] input, boolean signed)
+    {
+        return orderStatistic(input, (input.length - 1) / 2, signed);
+    }
+
+    /**
+     * Returns the (lower) median value of the given array without modifying it.
+     * 
+     * @param input
+     *        an array
+     * @param signed
+     *        signed / unsigned flag
+     * @return the median value (need to be interpreted as unsigned if <code>signed</code> is false)
+     */
+    public static long median(long[] input, boolean signed)
+    {
+        return orderStatistic(input, (input.length - 1) / 2, signed);
+    }
+
+    /**
+     * Returns the (lower) median value of the given array without modifying it.
+     * 
+     * @param input
+     *        an array
+     */
+    public static float median(float[] input)
+    {
+        return orderStatistic(input, (input.length - 1) / 2);
+    }
+
+    /**
+     * Returns the (lower) median value of the given array without modifying it.
+     * 
+     * @param input
+     *        an array
+     */
+    public static double median(double[] input)
+    {
+        return orderStatistic(input, (input.length - 1) / 2);
+    }
+
+    /**
+     * Returns the (lower) median value of the given generic array without modifying it.
+     * 
+     * @param array
+     *        an array
+     * @param signed
+     *        signed / unsigned flag
+     */
+    public static double median(Object array, boolean signed)
+    {
+        return orderStatistic(array, (ArrayUtil.getLength(array) - 1) / 2, signed);
+    }
+
+    /**
+     * Returns the specified quantile (lower nearest rank) of the given array without modifying it.
+     * 
+     * @param input
+     *        an array
+     * @param q
+     *        quantile in [0..1] range (0.5 = median)
+     * @param signed
+     *        signed / unsigned flag
+     */
+    public static int quantile(byte[] input, double q, boolean signed)
+    {
+        return orderStatistic(input, getQuantileRank(input.length, q), signed);
+    }
+
+    /**
+     * Returns the specified quantile (lower nearest rank) of the given array without modifying it.
+     * 
+     * @param input
+     *        an array
+     * @param q
+     *        quantile in [0..1] range (0.5 = median)
+     * @param signed
+     *        signed / unsigned flag
+     */
+    public static int quantile(short[] input, double q, boolean signed)
+    {
+        return orderStatistic(input, getQuantileRank(input.length, q), signed);
+    }
+
+    /**
+     * Returns the specified quantile (lower nearest rank) of the given array without modifying it.
+     * 
+     * @param input
+     *        an array
+     * @param q
+     *        quantile in [0..1] range (0.5 = median)
+     * @param signed
+     *        signed / unsigned flag
+     */
+    public static long quantile(int[] input, double q, boolean signed)
+    {
+        return orderStatistic(input, getQuantileRank(input.length, q), signed);
+    }
+
+    /**
+     * Returns the specified quantile (lower nearest rank) of the given array without modifying it.
+     * 
+     * @param input
+     *        an array
+     * @param q
+     *        quantile in [0..1] range (0.5 = median)
+     * @param signed
+     *        signed / unsigned flag
+     * @return the quantile value (need to be interpreted as unsigned if <code>signed</code> is false)
+     */
+    public static long quantile(long[] input, double q, boolean signed)
+    {
+        return orderStatistic(input, getQuantileRank(input.length, q), signed);
+    }
+
+    /**
+     * Returns the specified quantile (lower nearest rank) of the given array without modifying it.
+     * 
+     * @param input
+     *        an array
+     * @param q
+     *        quantile in [0..1] range (0.5 = median)
+     */
+    public static float quantile(float[] input, double q)
+    {
+        return orderStatistic(input, getQuantileRank(input.length, q));
+    }
+
+    /**
+     * Returns the specified quantile (lower nearest rank) of the given array without modifying it.
+     * 
+     * @param input
+     *        an array
+     * @param q
+     *        quantile in [0..1] range (0.5 = median)
+     */
+    public static double quantile(double[] input, double q)
+    {
+        return orderStatistic(input, getQuantileRank(input.length, q));
+    }
+
+    /**
+     * Returns the specified quantile (lower nearest rank) of the given generic array without
+     * modifying it.
+     * 
+     * @param array
+     *        an array
+     * @param q
+     *        quantile in [0..1] range (0.5 = median)
+     * @param signed
+     *        signed / unsigned flag
+     */
+    public static double quantile(Object array, double q, boolean signed)
+    {
+        return orderStatistic(array, getQuantileRank(ArrayUtil.getLength(array), q), signed);
+    }
+
+    /**
+     * Computes the Maximum Absolute Deviation aka MAD of the given array.<br>
+     * Both medians are obtained from a single histogram (no copy).
+     * 
+     * @param input
+     *        an array
+     * @param signed
+     *        signed / unsigned flag
+     * @param normalPopulation
+     *        normalizes the population by 1.4826
+     */
+    public static double mad(byte[] input, boolean signed, boolean normalPopulation)
+    {
+        checkRank(input.length, 0);
+
+        final int[] histo = getHistogram(input, signed);
+        final int median = findBin(histo, new int[] {(input.length - 1) / 2});
+        final double result = getMedianDeviation(histo, median, input.length);
+
+        return normalPopulation ? 1.4826d * result : result;
+    }
+
+    /**
+     * Computes the Maximum Absolute Deviation aka MAD of the given array.<br>
+     * Both medians are obtained from a single histogram (no copy).
+     * 
+     * @param input
+     *        an array
+     * @param signed
+     *        signed / unsigned flag
+     * @param normalPopulation
+     *        normalizes the population by 1.4826
+     */
+    public static double mad(short[] input, boolean signed, boolean normalPopulation)
+    {
+        checkRank(input.length, 0);
+
+        final int[] histo = getHistogram(input, signed);
+        final int median = findBin(histo, new int[] {(input.length - 1) / 2});
+        final double result = getMedianDeviation(histo, median, input.length);
+
+        return normalPopulation ? 1.4826d * result : result;
+    }
+
+    /**
+     * Computes the Maximum Absolute Deviation aka MAD of the given array (no copy).
+     * 
+     * @param input
+     *        an array
+     * @param signed
+     *        signed / unsigned flag
+     * @param normalPopulation
+     *        normalizes the population by 1.4826
+     */
+    public static double mad(int[] input, boolean signed, boolean normalPopulation)
+    {
+        final long median = median(input, signed);
+        final int[] histo = new int[0x10000];
+        final int[] rank = new int[] {(input.length - 1) / 2};
+        long prefix = 0L;
+
+        // deviations fit in 33 bits
+        for (int shift = 32; shift >= 0; shift -= 16)
+        {
+            Arrays.fill(histo, 0);
+
+            for (int v : input)
+            {
+                final long key = Math.abs((signed ? v : TypeUtil.unsign(v)) - median);
+                if ((shift == 32) || ((key >>> (shift + 16)) == prefix))
+                    histo[(int) ((key >>> shift) & 0xFFFF)]++;
+            }
+
+            prefix = (prefix << 16) | findBin(histo, rank);
+        }
+
+        final double result = prefix;
+
+        return normalPopulation ? 1.4826d * result : result;
+    }
+
+    /**
+     * Computes the Maximum Absolute Deviation aka MAD of the given array (no copy).
+     * 
+     * @param input
+     *        an array
+     * @param signed
+     *        signed / unsigned flag
+     * @param normalPopulation
+     *        normalizes the population by 1.4826
+     */
+    public static double mad(long[] input, boolean signed, boolean normalPopulation)
+    {
+        final long median = median(input, signed);
+        final int[] histo = new int[0x10000];
+        final int[] rank = new int[] {(input.length - 1) / 2};
+        long prefix = 0L;
+
+        for (int shift = 48; shift >= 0; shift -= 16)
+        {
+            Arrays.fill(histo, 0);
+
+            for (long v : input)
+            {
+                // unsigned absolute difference
+                final long key;
+                if (signed ? (v >= median) : ((v ^ Long.MIN_VALUE) >= (median ^ Long.MIN_VALUE)))
+                    key = v - median;
+                else
+                    key = median - v;
+
+                if ((shift == 48) || ((key >>> (shift + 16)) == prefix))
+                    histo[(int) ((key >>> shift) & 0xFFFF)]++;
+            }
+
+            prefix = (prefix << 16) | findBin(histo, rank);
+        }
+
+        final double result = TypeUtil.unsign(prefix);
+
+        return normalPopulation ? 1.4826d * result : result;
+    }
+
+    /**
+     * Computes the Maximum Absolute Deviation aka MAD of the given array (no copy).
+     * 
+     * @param input
+     *        an array
+     * @param normalPopulation
+     *        normalizes the population by 1.4826
+     */
+    public static double mad(float[] input, boolean normalPopulation)
+    {
+        final double median = median(input);
+        final int[] histo = new int[0x10000];
+        final int[] rank = new int[] {(input.length - 1) / 2};
+        long prefix = 0L;
+
+        for (int shift = 48; shift >= 0; shift -= 16)
+        {
+            Arrays.fill(histo, 0);
+
+            for (float v : input)
+            {
+                final long key = sortableKey(Math.abs(v - median));
+                if ((shift == 48) || ((key >>> (shift + 16)) == prefix))
+                    histo[(int) ((key >>> shift) & 0xFFFF)]++;
+            }
+
+            prefix = (prefix << 16) | findBin(histo, rank);
+        }
+
+        final double result = fromSortableKey(prefix);
+
+        return normalPopulation ? 1.4826d * result : result;
+    }
+
+    /**
+     * Returns the k-th smallest absolute deviation from the given value (no copy).
+     */
+    private static double orderStatisticOfDeviations(double[] input, double value, int k)
+    {
+        checkRank(input.length, k);
+
+        final int[] histo = new int[0x10000];
+        final int[] rank = new int[] {k};
+        long prefix = 0L;
+
+        for (int shift = 48; shift >= 0; shift -= 16)
+        {
+            Arrays.fill(histo, 0);
+
+            for (double v : input)
+            {
+                final long key = sortableKey(Math.abs(v - value));
+                if ((shift == 48) || ((key >>> (shift + 16)) == prefix))
+                    histo[(int) ((key >>> shift) & 0xFFFF)]++;
+            }
+
+            prefix = (prefix << 16) | findBin(histo, rank);
+        }
+
+        return fromSortableKey(prefix);
+    }
+
+    /**
+     * Computes the Maximum Absolute Deviation aka MAD of the given generic array (no copy).
+     * 
+     * @param array
+     *        an array
+     * @param signed
+     *        signed / unsigned flag
+     * @param normalPopulation
+     *        normalizes the population by 1.4826
+     */
+    public static double mad(Object array, boolean signed, boolean normalPopulation)
+    {
+        switch (ArrayUtil.getDataType(array))
+        {
+            case BYTE:
+                return mad((byte[]) array, signed, normalPopulation);
+            case SHORT:
+                return mad((short[]) array, signed, normalPopulation);
+            case INT:
+                return mad((int[]) array, signed, normalPopulation);
+            case LONG:
+                return mad((long[]) array, signed, normalPopulation);
+            case FLOAT:
+                return mad((float[]) array, normalPopulation);
+            case DOUBLE:
+                return mad((double[]) array, normalPopulation);
+            default:
+                return 0d;
+        }
+    }
+
+    /**
+     * Computes the sum of all values from the specified input array.
+     * 
+     * @param array
+     *        an array
+     * @param signed
+     *        signed / unsigned flag
+     * @return the sum of all values from the array
+     */
+    public static double sum(Object array, boolean signed)
+    {
+        switch (ArrayUtil.getDataType(array))
+        {
+            case BYTE:
+                return sum((byte[]) array, signed);
+            case SHORT:
+                return sum((short[]) array, signed);
+            case INT:
+                return sum((int[]) array, signed);
+            case LONG:
+                return sum((long[]) array, signed);
+            case FLOAT:
+                return sum((float[]) array);
+            case DOUBLE:
+                return sum((double[]) array);
+            default:
+                return 0d;
+        }
+    }
+
+    /**
+     * Computes the sum of all values in the input array
+     * 
+     * @param input
+     *        the array to sum up
+     * @param signed
+     *        signed / unsigned flag
+     */
+    public static double sum(byte[] input, boolean signed)
+    {
+        if (input.length >= PARALLEL_THRESHOLD)
+            return compensatedSum(input, signed);
+
+        double sum = 0;
+
+        if (signed)
+        {
+            for (byte b : input)
+                sum += b;
+
+        }
+        else
+        {
+            for (byte b : input)
+                sum += TypeUtil.unsign(b);
+        }
+
+        return sum;
+    }
+
+    /**
+     * Computes the sum of all values in the input array
+     * 
+     * @param input
+     *        the array to sum up
+     * @param signed
+     *        signed / unsigned flag
+     */
+    public static double sum(short[] input, boolean signed)
+    {
+        if (input.length >= PARALLEL_THRESHOLD)
+            return compensatedSum(input, signed);
+
+        double sum = 0;
+
+        if (signed)
+        {
+            for (short s : input)
+                sum += s;
+
+        }
+        else
+        {
+            for (short s : input)
+                sum += TypeUtil.unsign(s);
+        }
+
+        return sum;
+    }
+
+    /**
+     * Computes the sum of all values in the input array
+     * 
+     * @param input
+     *        the array to sum up
+     * @param signed
+     *        signed / unsigned flag
+     */
+    public static double sum(int[] input, boolean signed)
+    {
+        if (input.length >= PARALLEL_THRESHOLD)
+            return compensatedSum(input, signed);
+
+        double sum = 0;
+
+        if (signed)
+        {
+            for (int i : input)
+                sum += i;
+
+        }
+        else
+        {
+            for (int i : input)
+                sum += TypeUtil.unsign(i);
+        }
+
+        return sum;
+    }
+
+    /**
+     * Computes the sum of all values in the input array
+     * 
+     * @param input
+     *        the array to sum up
+     * @param signed
+     *        signed / unsigned flag
+     */
+    public static double sum(long[] input, boolean signed)
+    {
+        if (input.length >= PARALLEL_THRESHOLD)
+            return compensatedSum(input, signed);
+
+        double sum = 0;
+
+        if (signed)
+        {
+            for (long l : input)
+                sum += l;
+
+        }
+        else
+        {
+            for (long l : input)
+                sum += TypeUtil.unsign(l);
+        }
+
+        return sum;
+    }
+
+    /**
+     * Computes the sum of all values in the input array
+     * 
+     * @param input
+     *        the array to sum up
+     */
+    public static double sum(float[] input)
+    {
+        if (input.length >= PARALLEL_THRESHOLD)
+            return compensatedSum(input, true);
+
+        double sum = 0;
+
+        for (float f : input)
+            sum += f;
+
+        return sum;
+    }
+
+    /**
+     * Computes the sum of all values in the input array
+     * 
+     * @param input
+     *        the array to sum up
+     */
+    public static double sum(double[] input)
+    {
+        if (input.length >= PARALLEL_THRESHOLD)
+            return compensatedSum(input, true);
+
+        double sum = 0;
+        for (double d : input)
+            sum += d;
+        return sum;
+    }
+
+    /**
+     * Computes the mean value of the given array
+     * 
+     * @param input
+     */
+    public static double mean(double[] input)
+    {
+        return sum(input) / input.length;
+    }
+
+    /**
+     * Computes the mean value of the given array
+     * 
+     * @param array
+     *        an array
+     * @param signed
+     *        signed / unsigned flag
+     */
+    public static double mean(Object array, boolean signed)
+    {
+        return sum(array, signed) / ArrayUtil.getLength(array);
+    }
+
+    /**
+     * Computes the unbiased variance of the given array
+     * 
+     * @param input
+     * @param unbiased
+     *        set to true if the result should be normalized by the population size minus 1
+     */
+    public static double var(double[] input, boolean unbiased)
+    {
+        if (input.length >= PARALLEL_THRESHOLD)
+            return compensatedVar(input, true, unbiased);
+
+        double var = 0, mean = mean(input);
+        for (double f : input)
+            var += (f - mean) * (f - mean);
+        return var / (unbiased ? input.length - 1 : input.length);
+    }
+
+    /**
+     * Computes the standard deviation of the given array (the variance square root)
+     * 
+     * @param input
+     * @param unbiased
+     *        set to true if the variance should be unbiased
+     * @return the square root of the variance
+     */
+    public static double std(double[] input, boolean unbiased)
+    {
+        return Math.sqrt(var(input, unbiased));
+    }
+
+    /**
+     * Computes the variance of the given array (compensated summation, computed in parallel for large
+     * array)
+     * 
+     * @param array
+     *        an array
+     * @param signed
+     *        signed / unsigned flag
+     * @param unbiased
+     *        set to true if the result should be normalized by the population size minus 1
+     */
+    public static double var(Object array, boolean signed, boolean unbiased)
+    {
+        return compensatedVar(array, signed, unbiased);
+    }
+
+    /**
+     * Computes the standard deviation of the given array (the variance square root)
+     * 
+     * @param array
+     *        an array
+     * @param signed
+     *        signed / unsigned flag
+     * @param unbiased
+     *        set to true if the variance should be unbiased
+     * @return the square root of the variance
+     */
+    public static double std(Object array, boolean signed, boolean unbiased)
+    {
+        return Math.sqrt(var(array, signed, unbiased));
+    }
+
+    /**
+     * Rescales the given array to [newMin,newMax]. Nothing is done if the input is constant or if
+     * the new bounds equal the old ones.
+     * 
+     * @param input
+     *        the input array
+     * @param newMin
+     *        the new min bound
+     * @param newMax
+     *        the new max bound
+     * @param overwrite
+     *        true overwrites the input data, false returns the result in a new structure
+     */
+    public static double[] rescale(double[] input, double newMin, double newMax, boolean overwrite)
+    {
+        double min = min(input), max = max(input);
+
+        if (min == max || (min == newMin && max == newMax))
+            return input;
+
+        double[] result = overwrite ? input : new double[input.length];
+
+        double ratio = (newMax - newMin) / (max - min);
+        double base = newMin - (min * ratio);
+
+        for (int i = 0; i < input.length; i++)
+            result[i] = base + input[i] * ratio;
+
+        return result;
+    }
+
+    /**
+     * Standardize the input data by subtracting the mean value and dividing by the standard
+     * deviation
+     * 
+     * @param input
+     *        the data to standardize
+     * @param overwrite
+     *        true if the output should overwrite the input, false if a new array should be returned
+     * @return the standardized data
+     */
+    public static double[] standardize(double[] input, boolean overwrite)
+    {
+        double[] output = overwrite ? input : new double[input.length];
+
+        subtract(input, mean(input), output);
+        divide(output, std(output, true), output);
+
+        return output;
+    }
+
+    /**
+     * Computes the classical correlation coefficient between 2 populations.<br>
+     * This coefficient is given by:<br>
      * 
      * <pre>
      *                       sum(a[i] * b[i])
@@ -2843,6 +3722,12 @@ public class ArrayMath
         if (a.length != b.length)
             throw new IllegalArgumentException("Populations must have same size");
 
+        if (a.length >= PARALLEL_THRESHOLD)
+        {
+            final double[] sums = compensatedProductSums(a, b, 0d, 0d);
+            return sums[0] / Math.sqrt(sums[1] * sums[2]);
+        }
+
         double sum = 0, sqsum_a = 0, sqsum_b = 0;
 
         double ai, bi;
@@ -2881,10 +3766,218 @@ public class ArrayMath
         if (a.length != b.length)
             throw new IllegalArgumentException("Populations must have same size");
 
+        if (a.length >= PARALLEL_THRESHOLD)
+        {
+            // centered sums (same coefficient, more accurate)
+            final double[] sums = compensatedProductSums(a, b, mean(a), mean(b));
+            return sums[0] / Math.sqrt(sums[1] * sums[2]);
+        }
+
         double sum = 0;
         for (int i = 0; i < a.length; i++)
             sum += a[i] * b[i];
 
         return (sum - a.length * mean(a) * mean(b)) / ((a.length - 1) * std(a, true) * std(b, true));
     }
+
+    /**
+     * Reduces the [0, length[ range with the specified reducer.<br>
+     * Large range is split in chunks reduced in parallel and partial sums are combined (in order) with
+     * compensated summation. If the calling thread is interrupted while waiting, remaining chunks are reduced on the
+     * calling thread (same result) and the interrupt flag is restored.
+     */
+    private static double[] reduce(int length, int numSum, final ChunkReducer reducer)
+    {
+        // small array --> direct reduction
+        if (length < PARALLEL_THRESHOLD)
+            return reducer.reduce(0, length);
+
+        final Processor proc = getProcessor();
+        final List<Future<double[]>> results = new ArrayList<Future<double[]>>();
+        final double[] sums = new double[numSum];
+        final double[] comps = new double[numSum];
+
+        for (int from = 0; from < length; from += REDUCTION_CHUNK)
+        {
+            final int start = from;
+            final int end = Math.min(length, from + REDUCTION_CHUNK);
+
+            results.add(proc.submit(new Callable<double[]>()
+            {
+                @Override
+                public double[] call() throws Exception
+                {
+                    return reducer.reduce(start, end);
+                }
+            }));
+        }
+
+        int done = 0;
+
+        try
+        {
+            for (Future<double[]> future : results)
+            {
+                addPartialSums(sums, comps, future.get());
+                done++;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            for (Future<double[]> future : results)
+                future.cancel(true);
+
+            // finish on the calling thread
+            for (int from = done * REDUCTION_CHUNK; from < length; from += REDUCTION_CHUNK)
+                addPartialSums(sums, comps, reducer.reduce(from, Math.min(length, from + REDUCTION_CHUNK)));
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException(e.getCause());
+        }
+
+        return sums;
+    }
+
+    /**
+     * Adds partial sums to the given sums with compensated summation
+     */
+    private static void addPartialSums(double[] sums, double[] comps, double[] partial)
+    {
+        for (int i = 0; i < sums.length; i++)
+        {
+            final double y = partial[i] - comps[i];
+            final double t = sums[i] + y;
+            comps[i] = (t - sums[i]) - y;
+            sums[i] = t;
+        }
+    }
+
+    /**
+     * Compensated sum of all values of the given array
+     */
+    private static double compensatedSum(final Object array, boolean signed)
+    {
+        final DataType dataType = ArrayUtil.getDataType(array, signed);
+
+        return reduce(ArrayUtil.getLength(array), 1, new ChunkReducer()
+        {
+            @Override
+            double[] reduce(int from, int to)
+            {
+                final double[] buffer = new double[Math.min(REDUCTION_BLOCK, to - from)];
+                double sum = 0d;
+                double comp = 0d;
+
+                for (int off = from; off < to; off += buffer.length)
+                {
+                    final int len = Math.min(buffer.length, to - off);
+
+                    Array1DUtil.getValues(array, off, buffer, 0, len, dataType);
+
+                    for (int i = 0; i < len; i++)
+                    {
+                        final double y = buffer[i] - comp;
+                        final double t = sum + y;
+                        comp = (t - sum) - y;
+                        sum = t;
+                    }
+                }
+
+                return new double[] {sum};
+            }
+        })[0];
+    }
+
+    /**
+     * Compensated variance of the given array (corrected two pass algorithm)
+     */
+    private static double compensatedVar(final Object array, boolean signed, boolean unbiased)
+    {
+        final DataType dataType = ArrayUtil.getDataType(array, signed);
+        final int length = ArrayUtil.getLength(array);
+        final double mean = sum(array, signed) / length;
+
+        final double[] sums = reduce(length, 2, new ChunkReducer()
+        {
+            @Override
+            double[] reduce(int from, int to)
+            {
+                final double[] buffer = new double[Math.min(REDUCTION_BLOCK, to - from)];
+                double sq = 0d;
+                double sqComp = 0d;
+                double dev = 0d;
+                double devComp = 0d;
+
+                for (int off = from; off < to; off += buffer.length)
+                {
+                    final int len = Math.min(buffer.length, to - off);
+
+                    Array1DUtil.getValues(array, off, buffer, 0, len, dataType);
+
+                    for (int i = 0; i < len; i++)
+                    {
+                        final double d = buffer[i] - mean;
+
+                        final double ySq = (d * d) - sqComp;
+                        final double tSq = sq + ySq;
+                        sqComp = (tSq - sq) - ySq;
+                        sq = tSq;
+
+                        final double yDev = d - devComp;
+                        final double tDev = dev + yDev;
+                        devComp = (tDev - dev) - yDev;
+                        dev = tDev;
+                    }
+                }
+
+                return new double[] {sq, dev};
+            }
+        });
+
+        // remove rounding error of the mean
+        return (sums[0] - ((sums[1] * sums[1]) / length)) / (unbiased ? length - 1 : length);
+    }
+
+    /**
+     * Compensated sums of (a - meanA) * (b - meanB), (a - meanA)^2 and (b - meanB)^2
+     */
+    private static double[] compensatedProductSums(final double[] a, final double[] b, final double meanA,
+            final double meanB)
+    {
+        return reduce(a.length, 3, new ChunkReducer()
+        {
+            @Override
+            double[] reduce(int from, int to)
+            {
+                double ab = 0d, abComp = 0d;
+                double aa = 0d, aaComp = 0d;
+                double bb = 0d, bbComp = 0d;
+
+                for (int i = from; i < to; i++)
+                {
+                    final double da = a[i] - meanA;
+                    final double db = b[i] - meanB;
+
+                    final double yAb = (da * db) - abComp;
+                    final double tAb = ab + yAb;
+                    abComp = (tAb - ab) - yAb;
+                    ab = tAb;
+
+                    final double yAa = (da * da) - aaComp;
+                    final double tAa = aa + yAa;
+                    aaComp = (tAa - aa) - yAa;
+                    aa = tAa;
+
+                    final double yBb = (db * db) - bbComp;
+                    final double tBb = bb + yBb;
+                    bbComp = (tBb - bb) - yBb;
+                    bb = tBb;
+                }
+
+                return new double[] {ab, aa, bb};
+            }
+        });
+    }
 }
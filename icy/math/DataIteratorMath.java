@@ -18,6 +18,7 @@
  */
 package icy.math;
 
+import icy.sequence.SequenceDataIterator;
 import icy.type.DataIterator;
 import icy.type.DataIteratorUtil;
 
@@ -37,6 +38,54 @@ public class DataIteratorMath
         return DataIteratorUtil.count(it);
     }
 
+    /**
+     * Computes statistics (count, min, max, sum, mean, variance...) of all values contained in the specified
+     * {@link DataIterator} in a single pass and accumulates them in <code>result</code>.<br>
+     * {@link SequenceDataIterator} uses bulk row access and parallel processing (see
+     * {@link SequenceDataIterator#getStatistics(StatisticsAccumulator)}).
+     * 
+     * @return <code>result</code>
+     */
+    public static StatisticsAccumulator getStatistics(DataIterator it, StatisticsAccumulator result)
+    {
+        if (it instanceof SequenceDataIterator)
+            return ((SequenceDataIterator) it).getStatistics(result);
+
+        final double[] buffer = new double[4096];
+        int n = 0;
+
+        it.reset();
+
+        while (!it.done())
+        {
+            buffer[n++] = it.get();
+
+            // flush buffer
+            if (n == buffer.length)
+            {
+                result.add(buffer, 0, n);
+                n = 0;
+            }
+
+            it.next();
+        }
+
+        result.add(buffer, 0, n);
+
+        return result;
+    }
+
+    /**
+     * Computes statistics (count, min, max, sum, mean, variance) of all values contained in the specified
+     * {@link DataIterator} in a single pass.
+     * 
+     * @see #getStatistics(DataIterator, StatisticsAccumulator)
+     */
+    public static StatisticsAccumulator getStatistics(DataIterator it)
+    {
+        return getStatistics(it, new StatisticsAccumulator());
+    }
+
     /**
      * Returns the sum of all values contained in the specified {@link DataIterator}.
      * Returns <code>0</code> if no value in <code>DataIterator</code>.
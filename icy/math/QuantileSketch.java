@@ -0,0 +1,368 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Streaming quantile estimator with bounded memory (KLL sketch).<br>
+ * Values are accumulated in a hierarchy of compactors: when a level is full it is sorted and one
+ * value out of two is promoted to the next level with a doubled weight.<br>
+ * Memory is about <code>3 * k</code> values whatever the number of accumulated values and the rank
+ * error is a small multiple of <code>1 / k</code> (k = 200 gives about 1 to 2% error).<br>
+ * Sketches can be merged so data can be accumulated per plane (or per thread) then combined.<br>
+ * <br>
+ * Example of robust background estimation over a whole stack:
+ * 
+ * <pre>
+ * final QuantileSketch sketch = new QuantileSketch();
+ * for (each plane)
+ *     sketch.add(planeData);
+ * final double background = sketch.getMedian();
+ * </pre>
+ * 
+ * @author Stephane
+ */
+public class QuantileSketch
+{
+    public static final int DEFAULT_K = 200;
+
+    private static final int MIN_CAPACITY = 8;
+
+    /**
+     * accuracy parameter
+     */
+    private final int k;
+    /**
+     * compactor levels (level h values have a weight of 2^h)
+     */
+    private final List<float[]> levels;
+    private final List<Integer> sizes;
+    /**
+     * alternate compaction offset (unbiased but deterministic)
+     */
+    private boolean offset;
+
+    private long count;
+    private float min;
+    private float max;
+
+    /**
+     * Create a new sketch with the specified accuracy parameter.
+     * 
+     * @param k
+     *        accuracy parameter (memory is about 3 * k values)
+     */
+    public QuantileSketch(int k)
+    {
+        super();
+
+        if (k < MIN_CAPACITY)
+            throw new IllegalArgumentException("Sketch accuracy parameter should be >= " + MIN_CAPACITY);
+
+        this.k = k;
+        levels = new ArrayList<float[]>();
+        sizes = new ArrayList<Integer>();
+        offset = false;
+
+        clear();
+    }
+
+    /**
+     * Create a new sketch with default accuracy.
+     */
+    public QuantileSketch()
+    {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * Clear all accumulated values.
+     */
+    public void clear()
+    {
+        levels.clear();
+        sizes.clear();
+        addLevel();
+
+        count = 0;
+        min = Float.POSITIVE_INFINITY;
+        max = Float.NEGATIVE_INFINITY;
+    }
+
+    private void addLevel()
+    {
+        levels.add(new float[MIN_CAPACITY]);
+        sizes.add(Integer.valueOf(0));
+    }
+
+    /**
+     * Returns the capacity of the specified level (higher levels have higher capacity)
+     */
+    private int getCapacity(int level)
+    {
+        final int depth = levels.size() - level - 1;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(2d / 3d, depth)));
+    }
+
+    private void addToLevel(int level, float value)
+    {
+        float[] values = levels.get(level);
+        final int size = sizes.get(level).intValue();
+
+        if (size == values.length)
+        {
+            values = Arrays.copyOf(values, size * 2);
+            levels.set(level, values);
+        }
+
+        values[size] = value;
+        sizes.set(level, Integer.valueOf(size + 1));
+    }
+
+    /**
+     * Compact levels (bottom up) until they all fit their capacity
+     */
+    private void compress()
+    {
+        boolean done = false;
+
+        while (!done)
+        {
+            done = true;
+
+            for (int level = 0; level < levels.size(); level++)
+            {
+                final int size = sizes.get(level).intValue();
+
+                if (size >= getCapacity(level))
+                {
+                    compact(level, size);
+                    done = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sort the specified level and promote one value out of two to the next level
+     */
+    private void compact(int level, int size)
+    {
+        if ((level + 1) == levels.size())
+            addLevel();
+
+        final float[] values = levels.get(level);
+
+        Arrays.sort(values, 0, size);
+
+        // keep the last value if odd size
+        final int end = size & ~1;
+        for (int i = offset ? 1 : 0; i < end; i += 2)
+            addToLevel(level + 1, values[i]);
+        offset = !offset;
+
+        if ((size & 1) != 0)
+        {
+            values[0] = values[size - 1];
+            sizes.set(level, Integer.valueOf(1));
+        }
+        else
+            sizes.set(level, Integer.valueOf(0));
+    }
+
+    /**
+     * Add a value to the sketch (NaN values are ignored).
+     */
+    public void add(float value)
+    {
+        if (Float.isNaN(value))
+            return;
+
+        if (value < min)
+            min = value;
+        if (value > max)
+            max = value;
+        count++;
+
+        addToLevel(0, value);
+
+        if (sizes.get(0).intValue() >= getCapacity(0))
+            compress();
+    }
+
+    /**
+     * Add values from the specified array range.
+     */
+    public void add(float[] values, int offset, int length)
+    {
+        for (int i = offset; i < (offset + length); i++)
+            add(values[i]);
+    }
+
+    /**
+     * Add all values from the specified array.
+     */
+    public void add(float[] values)
+    {
+        add(values, 0, values.length);
+    }
+
+    /**
+     * Add all values from the specified array (values are stored in float precision).
+     */
+    public void add(double[] values)
+    {
+        for (double v : values)
+            add((float) v);
+    }
+
+    /**
+     * Merge the specified sketch into this one.
+     */
+    public void merge(QuantileSketch sketch)
+    {
+        if (sketch.count == 0)
+            return;
+
+        while (levels.size() < sketch.levels.size())
+            addLevel();
+
+        for (int level = 0; level < sketch.levels.size(); level++)
+        {
+            final float[] values = sketch.levels.get(level);
+            final int size = sketch.sizes.get(level).intValue();
+
+            for (int i = 0; i < size; i++)
+                addToLevel(level, values[i]);
+        }
+
+        count += sketch.count;
+        min = Math.min(min, sketch.min);
+        max = Math.max(max, sketch.max);
+
+        compress();
+    }
+
+    /**
+     * Returns the number of accumulated values.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the exact minimum of accumulated values (NaN if empty).
+     */
+    public double getMin()
+    {
+        return (count == 0) ? Double.NaN : min;
+    }
+
+    /**
+     * Returns the exact maximum of accumulated values (NaN if empty).
+     */
+    public double getMax()
+    {
+        return (count == 0) ? Double.NaN : max;
+    }
+
+    /**
+     * Returns the estimated quantile of accumulated values (NaN if empty).
+     * 
+     * @param q
+     *        quantile in [0..1] range (0.5 = median)
+     */
+    public double getQuantile(double q)
+    {
+        if ((q < 0d) || (q > 1d))
+            throw new IllegalArgumentException("Quantile should be in [0..1] range");
+        if (count == 0)
+            return Double.NaN;
+        if (q == 0d)
+            return min;
+        if (q == 1d)
+            return max;
+
+        // gather weighted values
+        int total = 0;
+        for (int level = 0; level < levels.size(); level++)
+            total += sizes.get(level).intValue();
+
+        final float[] values = new float[total];
+        final long[] weights = new long[total];
+        int ind = 0;
+
+        for (int level = 0; level < levels.size(); level++)
+        {
+            final float[] levelValues = levels.get(level);
+            final int size = sizes.get(level).intValue();
+
+            Arrays.sort(levelValues, 0, size);
+
+            for (int i = 0; i < size; i++)
+            {
+                values[ind] = levelValues[i];
+                weights[ind] = 1L << level;
+                ind++;
+            }
+        }
+
+        // sort values with their weight
+        final Integer[] order = new Integer[total];
+        for (int i = 0; i < total; i++)
+            order[i] = Integer.valueOf(i);
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer o1, Integer o2)
+            {
+                return Float.compare(values[o1.intValue()], values[o2.intValue()]);
+            }
+        });
+
+        long weight = 0;
+        for (int i = 0; i < total; i++)
+            weight += weights[i];
+
+        final double rank = q * weight;
+        long cumul = 0;
+
+        for (Integer i : order)
+        {
+            cumul += weights[i.intValue()];
+            if (cumul >= rank)
+                return values[i.intValue()];
+        }
+
+        return max;
+    }
+
+    /**
+     * Returns the estimated median of accumulated values (NaN if empty).
+     */
+    public double getMedian()
+    {
+        return getQuantile(0.5d);
+    }
+}
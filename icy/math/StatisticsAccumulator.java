@@ -0,0 +1,342 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.math;
+
+/**
+ * One pass statistics accumulator: count, minimum, maximum, sum, mean and variance (Welford / Chan
+ * algorithm so it stays accurate for large number of values).<br>
+ * It can optionally accumulate an histogram and a {@link QuantileSketch} at the same time.<br>
+ * Accumulators can be merged so values can be accumulated per plane (or per thread) then combined
+ * (see {@link #createEmpty()} and {@link #merge(StatisticsAccumulator)}).<br>
+ * <br>
+ * Example:
+ * 
+ * <pre>
+ * final StatisticsAccumulator stats = new StatisticsAccumulator(0, 255, 256, true, true);
+ * new SequenceDataIterator(sequence, roi).getStatistics(stats);
+ * System.out.println(stats.getMean() + &quot; +/- &quot; + stats.getStandardDeviation(true));
+ * System.out.println(&quot;median = &quot; + stats.getQuantileSketch().getMedian());
+ * </pre>
+ * 
+ * @author Stephane
+ */
+public class StatisticsAccumulator
+{
+    // histogram parameters
+    protected final double histogramMin;
+    protected final double histogramMax;
+    protected final int histogramBins;
+    protected final boolean histogramInteger;
+    protected final boolean quantiles;
+
+    protected final Histogram histogram;
+    protected final QuantileSketch sketch;
+
+    protected long count;
+    protected double min;
+    protected double max;
+    protected double sum;
+    protected double mean;
+    // sum of squared differences from the mean
+    protected double m2;
+
+    /**
+     * Create a new statistics accumulator.
+     * 
+     * @param histogramMin
+     *        histogram minimum value
+     * @param histogramMax
+     *        histogram maximum value
+     * @param histogramBins
+     *        number of histogram bins (0 to disable histogram)
+     * @param histogramInteger
+     *        integer values histogram (see {@link Histogram#Histogram(double, double, int, boolean)})
+     * @param quantiles
+     *        accumulate values in a {@link QuantileSketch} (to retrieve median or any quantile)
+     */
+    public StatisticsAccumulator(double histogramMin, double histogramMax, int histogramBins,
+            boolean histogramInteger, boolean quantiles)
+    {
+        super();
+
+        this.histogramMin = histogramMin;
+        this.histogramMax = histogramMax;
+        this.histogramBins = histogramBins;
+        this.histogramInteger = histogramInteger;
+        this.quantiles = quantiles;
+
+        if (histogramBins > 0)
+            histogram = new Histogram(histogramMin, histogramMax, histogramBins, histogramInteger);
+        else
+            histogram = null;
+        if (quantiles)
+            sketch = new QuantileSketch();
+        else
+            sketch = null;
+
+        clear();
+    }
+
+    /**
+     * Create a new statistics accumulator (no histogram).
+     * 
+     * @param quantiles
+     *        accumulate values in a {@link QuantileSketch} (to retrieve median or any quantile)
+     */
+    public StatisticsAccumulator(boolean quantiles)
+    {
+        this(0d, 0d, 0, false, quantiles);
+    }
+
+    /**
+     * Create a new statistics accumulator (no histogram nor quantiles).
+     */
+    public StatisticsAccumulator()
+    {
+        this(false);
+    }
+
+    /**
+     * Returns a new empty accumulator with the same parameters (histogram and quantiles).
+     */
+    public StatisticsAccumulator createEmpty()
+    {
+        return new StatisticsAccumulator(histogramMin, histogramMax, histogramBins, histogramInteger, quantiles);
+    }
+
+    /**
+     * Reset the accumulator
+     */
+    public void clear()
+    {
+        count = 0L;
+        min = Double.MAX_VALUE;
+        max = -Double.MAX_VALUE;
+        sum = 0d;
+        mean = 0d;
+        m2 = 0d;
+
+        if (histogram != null)
+            histogram.reset();
+        if (sketch != null)
+            sketch.clear();
+    }
+
+    /**
+     * Add a value
+     */
+    public void add(double value)
+    {
+        count++;
+        sum += value;
+        if (value < min)
+            min = value;
+        if (value > max)
+            max = value;
+
+        final double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+
+        if (histogram != null)
+            histogram.addValue(value);
+        if (sketch != null)
+            sketch.add((float) value);
+    }
+
+    /**
+     * Add <code>length</code> values from <code>values</code> starting at <code>offset</code>.<br>
+     * Values are first reduced as a block then combined with the current statistics which is faster
+     * than adding them one by one.
+     */
+    public void add(double[] values, int offset, int length)
+    {
+        if (length <= 0)
+            return;
+
+        final int end = offset + length;
+        double bSum = 0d;
+        double bMin = Double.MAX_VALUE;
+        double bMax = -Double.MAX_VALUE;
+
+        for (int i = offset; i < end; i++)
+        {
+            final double value = values[i];
+
+            bSum += value;
+            if (value < bMin)
+                bMin = value;
+            if (value > bMax)
+                bMax = value;
+        }
+
+        final double bMean = bSum / length;
+        double bM2 = 0d;
+
+        for (int i = offset; i < end; i++)
+        {
+            final double delta = values[i] - bMean;
+            bM2 += delta * delta;
+        }
+
+        combine(length, bMin, bMax, bSum, bMean, bM2);
+
+        if (histogram != null)
+        {
+            for (int i = offset; i < end; i++)
+                histogram.addValue(values[i]);
+        }
+        if (sketch != null)
+        {
+            for (int i = offset; i < end; i++)
+                sketch.add((float) values[i]);
+        }
+    }
+
+    /**
+     * Add all values from the specified array
+     */
+    public void add(double[] values)
+    {
+        add(values, 0, values.length);
+    }
+
+    /**
+     * Merge the specified accumulator into this one (accumulators should have the same parameters).
+     */
+    public void merge(StatisticsAccumulator stats)
+    {
+        if ((stats == null) || (stats.count == 0L))
+            return;
+
+        combine(stats.count, stats.min, stats.max, stats.sum, stats.mean, stats.m2);
+
+        if ((histogram != null) && (stats.histogram != null))
+        {
+            final int[] dst = histogram.bins;
+            final int[] src = stats.histogram.bins;
+
+            for (int i = 0; i < Math.min(dst.length, src.length); i++)
+                dst[i] += src[i];
+        }
+        if ((sketch != null) && (stats.sketch != null))
+            sketch.merge(stats.sketch);
+    }
+
+    /**
+     * Combine the current statistics with the specified partial ones (Chan et al. parallel algorithm)
+     */
+    protected void combine(long n, double nMin, double nMax, double nSum, double nMean, double nM2)
+    {
+        final long total = count + n;
+        final double delta = nMean - mean;
+
+        if (nMin < min)
+            min = nMin;
+        if (nMax > max)
+            max = nMax;
+        sum += nSum;
+        mean += (delta * n) / total;
+        m2 += nM2 + (((delta * delta) * count) * n) / total;
+        count = total;
+    }
+
+    /**
+     * Returns the number of accumulated values.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the minimum value (<code>Double.MAX_VALUE</code> if no value).
+     */
+    public double getMin()
+    {
+        return min;
+    }
+
+    /**
+     * Returns the maximum value (<code>-Double.MAX_VALUE</code> if no value).
+     */
+    public double getMax()
+    {
+        return max;
+    }
+
+    /**
+     * Returns the sum of values.
+     */
+    public double getSum()
+    {
+        return sum;
+    }
+
+    /**
+     * Returns the mean value (<code>0</code> if no value).
+     */
+    public double getMean()
+    {
+        return mean;
+    }
+
+    /**
+     * Returns the variance of values.
+     * 
+     * @param unbiased
+     *        if true the unbiased (sample) variance is returned
+     */
+    public double getVariance(boolean unbiased)
+    {
+        final long n = unbiased ? count - 1 : count;
+
+        if (n <= 0)
+            return 0d;
+
+        return m2 / n;
+    }
+
+    /**
+     * Returns the standard deviation of values.
+     * 
+     * @param unbiased
+     *        if true the unbiased (sample) standard deviation is returned
+     */
+    public double getStandardDeviation(boolean unbiased)
+    {
+        return Math.sqrt(getVariance(unbiased));
+    }
+
+    /**
+     * Returns the histogram (<code>null</code> if disabled).
+     */
+    public Histogram getHistogram()
+    {
+        return histogram;
+    }
+
+    /**
+     * Returns the quantile sketch (<code>null</code> if disabled).
+     */
+    public QuantileSketch getQuantileSketch()
+    {
+        return sketch;
+    }
+}
@@ -0,0 +1,577 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.network;
+
+import icy.file.FileUtil;
+import icy.system.IcyExceptionHandler;
+import icy.util.StringUtil;
+import icy.util.XMLUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.w3c.dom.Document;
+
+/**
+ * Disk cache for online resources (repository lists, plugin descriptors, images...).<br>
+ * A cached resource is revalidated with a HTTP conditional request (<code>If-None-Match</code> and
+ * <code>If-Modified-Since</code> headers) so it is downloaded again only if it changed on the server side. The cached
+ * copy is also used when the server can't be reached.<br>
+ * Only HTTP(S) resources are cached, any other location is directly accessed.
+ * 
+ * @author Stephane
+ */
+public class NetworkCache
+{
+    /**
+     * cache directory
+     */
+    public static final String CACHE_DIRECTORY = FileUtil.APPLICATION_DIRECTORY + FileUtil.separator + "cache"
+            + FileUtil.separator + "network";
+
+    /**
+     * Delay (in ms) during which a resource already revalidated in this session is considered as up to date (avoid
+     * to send again the same request when a resource is accessed several times in a row).
+     */
+    public static final long FRESH_DELAY = 60 * 1000L;
+
+    private static final String EXT_DATA = ".dat";
+    private static final String EXT_INFO = ".info";
+
+    private static final String ID_URL = "url";
+    private static final String ID_ETAG = "etag";
+    private static final String ID_LAST_MODIFIED = "lastModified";
+
+    private static final int MAX_REDIRECT = 5;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * entry locks (avoid concurrent update of the same entry)
+     */
+    private static final Object[] locks = new Object[32];
+    /**
+     * last validation time of entries (current session)
+     */
+    private static final Map<String, Long> validated = new HashMap<String, Long>();
+
+    private static boolean enabled = true;
+    private static long downloadCount = 0L;
+    private static long notModifiedCount = 0L;
+
+    static
+    {
+        for (int i = 0; i < locks.length; i++)
+            locks[i] = new Object();
+    }
+
+    /**
+     * Returns true if the cache is enabled.
+     */
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Enable or disable the cache (when disabled resources are always downloaded).
+     */
+    public static void setEnabled(boolean value)
+    {
+        enabled = value;
+    }
+
+    /**
+     * Returns the number of full download done since application start.
+     */
+    public static long getDownloadCount()
+    {
+        synchronized (validated)
+        {
+            return downloadCount;
+        }
+    }
+
+    /**
+     * Returns the number of resource revalidated without download (not modified) since application start.
+     */
+    public static long getNotModifiedCount()
+    {
+        synchronized (validated)
+        {
+            return notModifiedCount;
+        }
+    }
+
+    /**
+     * Returns true if the specified URL can be cached (HTTP or HTTPS protocol).
+     */
+    public static boolean isCacheable(URL url)
+    {
+        if (url == null)
+            return false;
+
+        final String protocol = url.getProtocol();
+
+        return "http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol);
+    }
+
+    /**
+     * Returns the up to date local copy of the specified online resource (<code>null</code> if the resource cannot be
+     * retrieved).<br>
+     * The returned file should be considered as read only.
+     * 
+     * @param url
+     *        resource URL (should use HTTP or HTTPS protocol)
+     * @param auth
+     *        authentication informations (can be <code>null</code>)
+     * @param displayError
+     *        display error message in console if something wrong happen
+     */
+    public static File getFile(URL url, AuthenticationInfo auth, boolean displayError)
+    {
+        if (url == null)
+        {
+            if (displayError)
+                System.out.println("NetworkCache.getFile(...) error: URL is null !");
+
+            return null;
+        }
+
+        final String login;
+        final String pass;
+
+        if ((auth != null) && auth.isEnabled())
+        {
+            login = auth.getLogin();
+            pass = auth.getPassword();
+        }
+        else
+        {
+            login = null;
+            pass = null;
+        }
+
+        final String key = getKey(url, login);
+        final File data = new File(CACHE_DIRECTORY, key + EXT_DATA);
+        final File info = new File(CACHE_DIRECTORY, key + EXT_INFO);
+
+        synchronized (getLock(key))
+        {
+            final Properties props = loadInfo(info, data, url);
+
+            // recently revalidated --> use it directly
+            if ((props != null) && isFresh(key))
+                return data;
+
+            try
+            {
+                fetch(url, login, pass, props, data, info);
+                setValidated(key);
+
+                return data;
+            }
+            catch (IOException e)
+            {
+                // use cached copy if possible
+                if (props != null)
+                {
+                    if (displayError)
+                        System.out.println("Can't access '" + url + "', cached copy is used.");
+
+                    return data;
+                }
+
+                if (displayError)
+                {
+                    if (!NetworkUtil.hasInternetAccess())
+                        System.out.println("Can't connect to '" + url + "' (no internet connection).");
+                    else
+                    {
+                        System.out.println("NetworkCache.getFile('" + url + "') error:");
+                        IcyExceptionHandler.showErrorMessage(e, false, false);
+                    }
+                }
+
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Returns a new {@link InputStream} on the up to date local copy of the specified resource (<code>null</code> if
+     * an error occurred).<br>
+     * Resource which cannot be cached are directly accessed.
+     * 
+     * @param url
+     *        resource URL
+     * @param auth
+     *        authentication informations (can be <code>null</code>)
+     * @param displayError
+     *        display error message in console if something wrong happen
+     */
+    public static InputStream getInputStream(URL url, AuthenticationInfo auth, boolean displayError)
+    {
+        if (!enabled || !isCacheable(url))
+            return NetworkUtil.getInputStream(url, auth, true, displayError);
+
+        final File file = getFile(url, auth, displayError);
+
+        if (file != null)
+        {
+            try
+            {
+                return new FileInputStream(file);
+            }
+            catch (FileNotFoundException e)
+            {
+                // entry removed meanwhile --> direct access
+                return NetworkUtil.getInputStream(url, auth, true, displayError);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Load XML Document from specified path with specified authentication (online documents are cached).<br>
+     * Return null if no document can be loaded.
+     * 
+     * @see XMLUtil#loadDocument(String, AuthenticationInfo, boolean)
+     */
+    public static Document loadDocument(String path, AuthenticationInfo auth, boolean showError)
+    {
+        final URL url = StringUtil.isEmpty(path) ? null : URLUtil.getURL(path);
+
+        if (isCacheable(url))
+            return loadDocument(url, auth, showError);
+
+        return XMLUtil.loadDocument(path, auth, showError);
+    }
+
+    /**
+     * Load XML Document from specified URL with specified authentication (online documents are cached).<br>
+     * Return null if no document can be loaded.
+     * 
+     * @see XMLUtil#loadDocument(URL, AuthenticationInfo, boolean)
+     */
+    public static Document loadDocument(URL url, AuthenticationInfo auth, boolean showError)
+    {
+        if (!enabled || !isCacheable(url))
+            return XMLUtil.loadDocument(url, auth, showError);
+
+        final File file = getFile(url, auth, showError);
+
+        if (file == null)
+        {
+            if (showError)
+                System.err.println("NetworkCache.loadDocument('" + url + "') failed.");
+
+            return null;
+        }
+
+        final Document result = XMLUtil.loadDocument(file, showError);
+
+        if (result != null)
+            return result;
+
+        // invalid cached document --> remove it and try direct access
+        remove(url, auth);
+
+        return XMLUtil.loadDocument(url, auth, showError);
+    }
+
+    /**
+     * Remove the specified resource from the cache.
+     */
+    public static void remove(URL url, AuthenticationInfo auth)
+    {
+        final String key = getKey(url, ((auth != null) && auth.isEnabled()) ? auth.getLogin() : null);
+
+        synchronized (getLock(key))
+        {
+            new File(CACHE_DIRECTORY, key + EXT_INFO).delete();
+            new File(CACHE_DIRECTORY, key + EXT_DATA).delete();
+
+            synchronized (validated)
+            {
+                validated.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Clear the whole cache.
+     */
+    public static void clear()
+    {
+        synchronized (validated)
+        {
+            validated.clear();
+        }
+
+        FileUtil.delete(CACHE_DIRECTORY, true);
+    }
+
+    private static void fetch(URL url, String login, String pass, Properties props, File data, File info)
+            throws IOException
+    {
+        URL location = url;
+        HttpURLConnection uc;
+        int redirect = 0;
+
+        while (true)
+        {
+            final URLConnection c = NetworkUtil.openConnection(location, login, pass, true, false);
+
+            if (!(c instanceof HttpURLConnection))
+                throw new IOException("Can't open HTTP connection to '" + location + "'");
+
+            uc = (HttpURLConnection) c;
+
+            // conditional request
+            if (props != null)
+            {
+                final String etag = props.getProperty(ID_ETAG, "");
+                final long lastModified = StringUtil.parseLong(props.getProperty(ID_LAST_MODIFIED, ""), 0L);
+
+                if (!StringUtil.isEmpty(etag))
+                    uc.setRequestProperty("If-None-Match", etag);
+                if (lastModified > 0L)
+                    uc.setIfModifiedSince(lastModified);
+            }
+
+            final int respCode = uc.getResponseCode();
+
+            // redirection (can change protocol so it is not automatically followed)
+            if ((respCode == HttpURLConnection.HTTP_MOVED_PERM) || (respCode == HttpURLConnection.HTTP_MOVED_TEMP)
+                    || (respCode == HttpURLConnection.HTTP_SEE_OTHER))
+            {
+                final String newLocation = uc.getHeaderField("Location");
+
+                uc.disconnect();
+
+                if (StringUtil.isEmpty(newLocation) || (++redirect > MAX_REDIRECT))
+                    throw new IOException("Invalid redirection from '" + location + "'");
+
+                location = new URL(location, newLocation);
+                continue;
+            }
+
+            // cached copy is up to date
+            if ((respCode == HttpURLConnection.HTTP_NOT_MODIFIED) && (props != null))
+            {
+                uc.disconnect();
+
+                synchronized (validated)
+                {
+                    notModifiedCount++;
+                }
+
+                return;
+            }
+
+            if (respCode != HttpURLConnection.HTTP_OK)
+                throw new IOException("Server returned HTTP response code " + respCode + " for '" + location + "'");
+
+            break;
+        }
+
+        if (!FileUtil.createDir(CACHE_DIRECTORY))
+            throw new IOException("Can't create cache directory '" + CACHE_DIRECTORY + "'");
+
+        // download in a temporary file first
+        final File tmp = File.createTempFile("download", ".tmp", new File(CACHE_DIRECTORY));
+
+        try
+        {
+            final long length = uc.getContentLength();
+            final InputStream in = uc.getInputStream();
+            long total = 0L;
+
+            try
+            {
+                final OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+
+                try
+                {
+                    final byte[] buffer = new byte[BUFFER_SIZE];
+                    int len;
+
+                    while ((len = in.read(buffer)) != -1)
+                    {
+                        out.write(buffer, 0, len);
+                        total += len;
+                    }
+                }
+                finally
+                {
+                    out.close();
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+
+            if ((length != -1L) && (total != length))
+                throw new EOFException("Incomplete download of '" + location + "' (" + total + " / " + length
+                        + " bytes)");
+
+            // replace data first so info always refers to valid data
+            if (!FileUtil.rename(tmp, data, true))
+                throw new IOException("Can't write '" + data + "'");
+
+            final Properties newProps = new Properties();
+
+            newProps.setProperty(ID_URL, url.toString());
+            newProps.setProperty(ID_ETAG, (uc.getHeaderField("ETag") != null) ? uc.getHeaderField("ETag") : "");
+            newProps.setProperty(ID_LAST_MODIFIED, Long.toString(uc.getLastModified()));
+
+            saveInfo(info, newProps);
+
+            synchronized (validated)
+            {
+                downloadCount++;
+            }
+        }
+        finally
+        {
+            if (tmp.exists())
+                tmp.delete();
+        }
+    }
+
+    /**
+     * Load entry informations, returns <code>null</code> if the entry does not exist or is not valid
+     */
+    private static Properties loadInfo(File info, File data, URL url)
+    {
+        if (!enabled || !info.exists() || !data.exists())
+            return null;
+
+        final Properties result = new Properties();
+
+        try
+        {
+            final InputStream in = new FileInputStream(info);
+
+            try
+            {
+                result.load(in);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+
+        // key collision ?
+        if (!url.toString().equals(result.getProperty(ID_URL)))
+            return null;
+
+        return result;
+    }
+
+    private static void saveInfo(File info, Properties props) throws IOException
+    {
+        final File tmp = new File(info.getPath() + ".tmp");
+        final OutputStream out = new FileOutputStream(tmp);
+
+        try
+        {
+            props.store(out, null);
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if (!FileUtil.rename(tmp, info, true))
+            throw new IOException("Can't write '" + info + "'");
+    }
+
+    private static boolean isFresh(String key)
+    {
+        synchronized (validated)
+        {
+            final Long time = validated.get(key);
+
+            return (time != null) && ((System.currentTimeMillis() - time.longValue()) < FRESH_DELAY);
+        }
+    }
+
+    private static void setValidated(String key)
+    {
+        synchronized (validated)
+        {
+            validated.put(key, Long.valueOf(System.currentTimeMillis()));
+        }
+    }
+
+    private static Object getLock(String key)
+    {
+        return locks[(key.hashCode() & 0x7FFFFFFF) % locks.length];
+    }
+
+    /**
+     * Returns the cache key (file name) for the specified URL and login
+     */
+    private static String getKey(URL url, String login)
+    {
+        final String id = url.toString() + (StringUtil.isEmpty(login) ? "" : "#" + login);
+
+        try
+        {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(id.getBytes("UTF-8"));
+            final StringBuilder result = new StringBuilder(digest.length * 2);
+
+            for (byte b : digest)
+                result.append(StringUtil.toHexaString(b & 0xFF, 2));
+
+            return result.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            return StringUtil.toHexaString(id.hashCode(), 8);
+        }
+        catch (IOException e)
+        {
+            return StringUtil.toHexaString(id.hashCode(), 8);
+        }
+    }
+}
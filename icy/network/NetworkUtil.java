@@ -21,15 +21,18 @@ package icy.network;
 import java.awt.Desktop;
 import java.awt.Desktop.Action;
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Method;
 import java.net.Authenticator;
@@ -43,8 +46,11 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -68,6 +74,7 @@ import icy.system.IcyExceptionHandler;
 import icy.system.SystemUtil;
 import icy.system.audit.Audit;
 import icy.system.thread.ThreadUtil;
+import icy.util.Base64Util;
 import icy.util.StringUtil;
 
 /**
@@ -110,6 +117,12 @@ public class NetworkUtil
     public static final int SYSTEM_PROXY = 1;
     public static final int USER_PROXY = 2;
 
+    /**
+     * Number of attempts for resumable download (see {@link #download(URL, String, String, File, boolean,
+     * ProgressListener, boolean)})
+     */
+    public static final int DOWNLOAD_RETRY = 3;
+
     public interface InternetAccessListener
     {
         /**
@@ -930,6 +943,347 @@ public class NetworkUtil
         return download(in, -1, null);
     }
 
+    /**
+     * Download data from specified URL and save it to the specified file.<br>
+     * Data are directly streamed to the file (never fully loaded in memory) and verified:<br>
+     * - received length is compared to the length announced by the server.<br>
+     * - MD5 digest is compared to the <code>Content-MD5</code> header when the server provides it.<br>
+     * If <code>resume</code> is <code>true</code> and the file already exists (from a previous interrupted download),
+     * download restarts from the end of the file when the server supports HTTP range requests. Network errors are
+     * retried (resuming) up to {@link #DOWNLOAD_RETRY} times.<br>
+     * Process authentication process if login / pass fields are not null.<br>
+     * It returns <code>false</code> if an error occurred or if download has been canceled (partial file is then kept
+     * so download can be resumed later).
+     * 
+     * @see #download(URL, String, String, File, boolean, String, long, ProgressListener, boolean)
+     */
+    public static boolean download(URL url, String login, String pass, File file, boolean resume,
+            ProgressListener listener, boolean displayError)
+    {
+        return download(url, login, pass, file, resume, null, -1L, listener, displayError);
+    }
+
+    /**
+     * Download data from specified URL and save it to the specified file.<br>
+     * Data are directly streamed to the file (never fully loaded in memory) and verified:<br>
+     * - received length is compared to the length announced by the server.<br>
+     * - MD5 digest is compared to the <code>Content-MD5</code> header when the server provides it.<br>
+     * - whole file MD5 digest and size are compared to the specified ones when known (from a descriptor).<br>
+     * Corrupted files are deleted.<br>
+     * If <code>resume</code> is <code>true</code> and the file already exists (from a previous interrupted download),
+     * download restarts from the end of the file when the server supports HTTP range requests. The validator
+     * (<code>ETag</code> or <code>Last-Modified</code>) of the partial data is stored next to the file and sent with
+     * <code>If-Range</code> so data is appended only if the remote file did not change, and only if the returned
+     * <code>Content-Range</code> starts where the file ends (download restarts from the beginning otherwise). Network
+     * errors are retried (resuming) up to {@link #DOWNLOAD_RETRY} times.<br>
+     * Process authentication process if login / pass fields are not null.<br>
+     * It returns <code>false</code> if an error occurred or if download has been canceled (partial file is then kept
+     * so download can be resumed later).
+     * 
+     * @param md5
+     *        expected MD5 digest of the whole file (hexadecimal string), <code>null</code> if unknown
+     * @param size
+     *        expected size of the whole file, <code>-1</code> if unknown
+     */
+    public static boolean download(URL url, String login, String pass, File file, boolean resume, String md5,
+            long size, ProgressListener listener, boolean displayError)
+    {
+        if (url == null)
+        {
+            if (displayError)
+                System.out.println("NetworkUtil.download(...) error: URL is null !");
+
+            return false;
+        }
+
+        FileUtil.ensureParentDirExist(file);
+
+        int retry = 0;
+
+        while (true)
+        {
+            final long offset = (resume && file.exists()) ? file.length() : 0L;
+
+            try
+            {
+                return download(url, login, pass, file, offset, md5, size, listener);
+            }
+            catch (IOException e)
+            {
+                // retry (resuming) on error
+                if (resume && (++retry < DOWNLOAD_RETRY))
+                {
+                    ThreadUtil.sleep(500 * retry);
+                    continue;
+                }
+
+                if (displayError)
+                {
+                    System.out.println("Error while downloading '" + url + "' :");
+                    IcyExceptionHandler.showErrorMessage(e, false, false);
+                }
+
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Returns the file storing the validator (<code>ETag</code> or <code>Last-Modified</code> header) of the specified
+     * partially downloaded file.
+     */
+    public static File getValidatorFile(File file)
+    {
+        return new File(file.getPath() + ".validator");
+    }
+
+    /**
+     * Delete the specified downloaded file and its validator file (see {@link #getValidatorFile(File)}).
+     */
+    public static void deleteDownload(File file)
+    {
+        file.delete();
+        getValidatorFile(file).delete();
+    }
+
+    /**
+     * Returns the start position of the specified <code>Content-Range</code> header value (<code>-1</code> if not
+     * valid).
+     */
+    private static long getContentRangeStart(String contentRange)
+    {
+        if (contentRange == null)
+            return -1L;
+
+        // bytes start-end/total
+        final String value = contentRange.trim();
+        final int start = value.indexOf(' ');
+        final int end = value.indexOf('-', start + 1);
+
+        if ((start == -1) || (end == -1) || !value.substring(0, start).equalsIgnoreCase("bytes"))
+            return -1L;
+
+        return StringUtil.parseLong(value.substring(start + 1, end).trim(), -1L);
+    }
+
+    /**
+     * Returns MD5 digest of the specified file as hexadecimal string.
+     */
+    private static String getMD5(File file) throws IOException
+    {
+        final MessageDigest digest;
+
+        try
+        {
+            digest = MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IOException(e.getMessage());
+        }
+
+        final InputStream in = new FileInputStream(file);
+        final byte[] data = new byte[64 * 1024];
+
+        try
+        {
+            int count;
+
+            while ((count = in.read(data)) != -1)
+                digest.update(data, 0, count);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        final StringBuilder result = new StringBuilder();
+
+        for (byte b : digest.digest())
+        {
+            result.append(Character.forDigit((b >> 4) & 0xF, 16));
+            result.append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Download data from specified URL starting at given offset (append to file) and save it to the specified file.
+     */
+    private static boolean download(URL url, String login, String pass, File file, long offset, String md5,
+            long size, ProgressListener listener) throws IOException
+    {
+        final File validatorFile = getValidatorFile(file);
+        final InputStream in;
+        final long length;
+        final String contentMD5;
+        boolean append = false;
+
+        if (URLUtil.isFileURL(url))
+        {
+            try
+            {
+                final File src = new File(url.toURI());
+
+                in = new FileInputStream(src);
+                length = src.length();
+                contentMD5 = null;
+            }
+            catch (URISyntaxException e)
+            {
+                throw new IOException("Incorrect path: " + url);
+            }
+        }
+        else
+        {
+            final URLConnection uc = openConnection(url, login, pass, true, false, false);
+
+            if (uc == null)
+                throw new IOException("Can't open connection to " + url);
+
+            final byte[] validator = ((offset > 0) && validatorFile.exists()) ? FileUtil.load(validatorFile, false)
+                    : null;
+
+            // request only missing part, only if remote file did not change since partial data was downloaded
+            // (without validator we can't know so we restart from beginning)
+            if ((validator != null) && (validator.length > 0))
+            {
+                uc.setRequestProperty("Range", "bytes=" + offset + "-");
+                uc.setRequestProperty("If-Range", new String(validator, "UTF-8"));
+            }
+
+            uc.connect();
+
+            if (uc instanceof HttpURLConnection)
+            {
+                final HttpURLConnection huc = (HttpURLConnection) uc;
+                final int respCode = huc.getResponseCode();
+
+                // requested range not satisfiable (local file is not a valid partial file) --> restart from beginning
+                if ((respCode == 416) && (offset > 0))
+                {
+                    huc.disconnect();
+                    deleteDownload(file);
+                    if (file.exists())
+                        throw new IOException("Can't delete '" + file + "'");
+
+                    return download(url, login, pass, file, 0L, md5, size, listener);
+                }
+                if (respCode >= 0x400)
+                    throw new IOException("Server returned error " + respCode + " (" + huc.getResponseMessage()
+                            + ") for " + url);
+
+                // partial content --> we can append to existing data if it starts where our data ends
+                if (respCode == HttpURLConnection.HTTP_PARTIAL)
+                {
+                    if (getContentRangeStart(huc.getHeaderField("Content-Range")) != offset)
+                    {
+                        huc.disconnect();
+                        deleteDownload(file);
+
+                        return download(url, login, pass, file, 0L, md5, size, listener);
+                    }
+
+                    append = true;
+                }
+            }
+
+            // new data --> store its validator so download can be safely resumed
+            if (!append)
+            {
+                String value = uc.getHeaderField("ETag");
+                if (StringUtil.isEmpty(value))
+                    value = uc.getHeaderField("Last-Modified");
+
+                if (StringUtil.isEmpty(value))
+                    validatorFile.delete();
+                else
+                    FileUtil.save(validatorFile, value.getBytes("UTF-8"), false);
+            }
+
+            in = uc.getInputStream();
+            length = uc.getContentLength();
+            contentMD5 = uc.getHeaderField("Content-MD5");
+        }
+
+        MessageDigest digest = null;
+        byte[] expectedMD5 = null;
+
+        if (!StringUtil.isEmpty(contentMD5))
+        {
+            try
+            {
+                expectedMD5 = Base64Util.decode(contentMD5.trim());
+                digest = MessageDigest.getInstance("MD5");
+            }
+            catch (IllegalArgumentException e)
+            {
+                // invalid header --> cannot verify
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                // cannot verify
+            }
+        }
+
+        final long start = append ? offset : 0L;
+        final byte[] data = new byte[64 * 1024];
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(file, append));
+        long read = 0;
+
+        try
+        {
+            int count;
+
+            while ((count = in.read(data)) != -1)
+            {
+                out.write(data, 0, count);
+                if (digest != null)
+                    digest.update(data, 0, count);
+                read += count;
+
+                // download canceled ?
+                if ((listener != null) && !listener.notifyProgress(start + read, (length == -1) ? -1 : start + length))
+                    return false;
+            }
+        }
+        finally
+        {
+            out.close();
+            in.close();
+        }
+
+        // unexpected length
+        if ((length != -1) && (read != length))
+            throw new EOFException("Unexpected end of file at " + (start + read) + " (" + (start + length)
+                    + " expected)");
+
+        // verify checksum
+        if ((digest != null) && !Arrays.equals(digest.digest(), expectedMD5))
+        {
+            // corrupted data --> restart from beginning
+            deleteDownload(file);
+            throw new IOException("Checksum error while downloading " + url);
+        }
+        // verify whole file size and checksum when known
+        if ((size >= 0) && (file.length() != size))
+        {
+            deleteDownload(file);
+            throw new IOException("Size error while downloading " + url + " (" + size + " expected)");
+        }
+        if (!StringUtil.isEmpty(md5) && !md5.trim().equalsIgnoreCase(getMD5(file)))
+        {
+            deleteDownload(file);
+            throw new IOException("Checksum error while downloading " + url);
+        }
+
+        // download complete
+        validatorFile.delete();
+
+        return true;
+    }
+
     /**
      * Returns a new {@link URLConnection} from specified URL (null if an error occurred).
      * 
@@ -23,7 +23,7 @@ import icy.file.FileUtil;
 import icy.file.xml.XMLPersistent;
 import icy.file.xml.XMLPersistentHelper;
 import icy.image.ImageUtil;
-import icy.network.NetworkUtil;
+import icy.network.NetworkCache;
 import icy.network.URLUtil;
 import icy.plugin.abstract_.Plugin;
 import icy.plugin.interface_.PluginBundled;
@@ -78,6 +78,8 @@ public class PluginDescriptor implements XMLPersistent
     public static final String ID_NAME = "name";
 
     public static final String ID_JAR_URL = "jar_url";
+    public static final String ID_JAR_MD5 = "jar_md5";
+    public static final String ID_JAR_SIZE = "jar_size";
     public static final String ID_IMAGE_URL = "image_url";
     public static final String ID_ICON_URL = "icon_url";
     public static final String ID_AUTHOR = "author";
@@ -98,6 +100,8 @@ public class PluginDescriptor implements XMLPersistent
     protected String localXmlUrl;
     protected String xmlUrl;
     protected String jarUrl;
+    protected String jarMD5;
+    protected long jarSize;
     protected String imageUrl;
     protected String iconUrl;
     protected String author;
@@ -319,6 +323,8 @@ public class PluginDescriptor implements XMLPersistent
         name = "";
         ident = new PluginIdent();
         jarUrl = "";
+        jarMD5 = "";
+        jarSize = -1L;
         imageUrl = "";
         iconUrl = "";
         author = "";
@@ -463,7 +469,7 @@ public class PluginDescriptor implements XMLPersistent
      * Load descriptor informations (xmlUrl field should be correctly filled).<br>
      * Returns <code>false</code> if the operation failed.
      */
-    public boolean loadDescriptor(boolean reload)
+    public synchronized boolean loadDescriptor(boolean reload)
     {
         // already loaded ?
         if (descriptorLoaded && !reload)
@@ -473,7 +479,7 @@ public class PluginDescriptor implements XMLPersistent
         descriptorLoaded = true;
 
         // retrieve document
-        final Document document = XMLUtil.loadDocument(xmlUrl,
+        final Document document = NetworkCache.loadDocument(xmlUrl,
                 (repository != null) ? repository.getAuthenticationInfo() : null, true);
 
         if (document != null)
@@ -500,7 +506,7 @@ public class PluginDescriptor implements XMLPersistent
     /**
      * Load change log field (xmlUrl field should be correctly filled)
      */
-    public boolean loadChangeLog()
+    public synchronized boolean loadChangeLog()
     {
         // already loaded ?
         if (changeLogLoaded)
@@ -510,7 +516,7 @@ public class PluginDescriptor implements XMLPersistent
         changeLogLoaded = true;
 
         // retrieve document
-        final Document document = XMLUtil.loadDocument(xmlUrl,
+        final Document document = NetworkCache.loadDocument(xmlUrl,
                 (repository != null) ? repository.getAuthenticationInfo() : null, true);
 
         if (document != null)
@@ -535,7 +541,7 @@ public class PluginDescriptor implements XMLPersistent
     /**
      * Load 64x64 icon (icon url field should be correctly filled)
      */
-    public boolean loadIcon()
+    public synchronized boolean loadIcon()
     {
         // already loaded ?
         if (iconLoaded)
@@ -553,7 +559,7 @@ public class PluginDescriptor implements XMLPersistent
     /**
      * Load 256x256 image (image url field should be correctly filled)
      */
-    public boolean loadImage()
+    public synchronized boolean loadImage()
     {
         // already loaded ?
         if (imageLoaded)
@@ -655,8 +661,8 @@ public class PluginDescriptor implements XMLPersistent
     {
         // load icon
         if (url != null)
-            icon = ResourceUtil.getImageIcon(ImageUtil.load(NetworkUtil.getInputStream(url,
-                    (repository != null) ? repository.getAuthenticationInfo() : null, true, false), false), ICON_SIZE);
+            icon = ResourceUtil.getImageIcon(ImageUtil.load(NetworkCache.getInputStream(url,
+                    (repository != null) ? repository.getAuthenticationInfo() : null, false), false), ICON_SIZE);
 
         // get default icon
         if (icon == null)
@@ -674,8 +680,8 @@ public class PluginDescriptor implements XMLPersistent
         if (url != null)
             image = ImageUtil
                     .scale(ImageUtil.load(
-                            NetworkUtil.getInputStream(url,
-                                    (repository != null) ? repository.getAuthenticationInfo() : null, true, false),
+                            NetworkCache.getInputStream(url,
+                                    (repository != null) ? repository.getAuthenticationInfo() : null, false),
                             false), IMAGE_SIZE, IMAGE_SIZE);
 
         // get default image
@@ -727,6 +733,8 @@ public class PluginDescriptor implements XMLPersistent
         setName(XMLUtil.getElementValue(node, ID_NAME, ""));
         setXmlUrl(XMLUtil.getElementValue(node, ID_URL, ""));
         setJarUrl(XMLUtil.getElementValue(node, ID_JAR_URL, ""));
+        setJarMD5(XMLUtil.getElementValue(node, ID_JAR_MD5, ""));
+        setJarSize(XMLUtil.getElementLongValue(node, ID_JAR_SIZE, -1L));
         setImageUrl(XMLUtil.getElementValue(node, ID_IMAGE_URL, ""));
         setIconUrl(XMLUtil.getElementValue(node, ID_ICON_URL, ""));
         setAuthor(XMLUtil.getElementValue(node, ID_AUTHOR, ""));
@@ -772,6 +780,10 @@ public class PluginDescriptor implements XMLPersistent
         XMLUtil.setElementValue(node, ID_NAME, getName());
         XMLUtil.setElementValue(node, ID_URL, getXmlUrl());
         XMLUtil.setElementValue(node, ID_JAR_URL, getJarUrl());
+        if (!StringUtil.isEmpty(getJarMD5()))
+            XMLUtil.setElementValue(node, ID_JAR_MD5, getJarMD5());
+        if (getJarSize() >= 0)
+            XMLUtil.setElementLongValue(node, ID_JAR_SIZE, getJarSize());
         XMLUtil.setElementValue(node, ID_IMAGE_URL, getImageUrl());
         XMLUtil.setElementValue(node, ID_ICON_URL, getIconUrl());
         XMLUtil.setElementValue(node, ID_AUTHOR, getAuthor());
@@ -1118,6 +1130,41 @@ public class PluginDescriptor implements XMLPersistent
         this.jarUrl = jarUrl;
     }
 
+    /**
+     * Returns the MD5 digest (hexadecimal string) of the JAR file given by the repository descriptor (empty if
+     * unknown).
+     */
+    public String getJarMD5()
+    {
+        return jarMD5;
+    }
+
+    /**
+     * @param jarMD5
+     *        the JAR file MD5 digest (hexadecimal string) to set
+     */
+    public void setJarMD5(String jarMD5)
+    {
+        this.jarMD5 = jarMD5;
+    }
+
+    /**
+     * Returns the size of the JAR file given by the repository descriptor (-1 if unknown).
+     */
+    public long getJarSize()
+    {
+        return jarSize;
+    }
+
+    /**
+     * @param jarSize
+     *        the JAR file size to set
+     */
+    public void setJarSize(long jarSize)
+    {
+        this.jarSize = jarSize;
+    }
+
     /**
      * @return the imageUrl
      */
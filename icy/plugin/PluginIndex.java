@@ -0,0 +1,679 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.plugin;
+
+import icy.file.FileUtil;
+import icy.file.xml.XMLPersistent;
+import icy.file.xml.XMLPersistentHelper;
+import icy.plugin.abstract_.Plugin;
+import icy.system.IcyExceptionHandler;
+import icy.system.SystemUtil;
+import icy.system.thread.Processor;
+import icy.util.StringUtil;
+import icy.util.XMLUtil;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Plugin discovery index.<br>
+ * Reads class file headers (super class and interfaces) from the plugins directory without
+ * defining any class so we can find out which classes are plugins before loading them.<br>
+ * Headers are stored per container (JAR or class file) and persisted to disk with the container
+ * size and modification date so unchanged containers are not opened again on next startup (the
+ * class list is then directly given by the index, see {@link #getClassNames()}).
+ * 
+ * @author Stephane
+ */
+public class PluginIndex implements XMLPersistent
+{
+    private static final String INDEX_FILENAME = "icy_plugin_index.xml";
+    private static final int INDEX_VERSION = 1;
+
+    private static final String ID_VERSION = "version";
+    private static final String ID_CONTAINER = "container";
+    private static final String ID_PATH = "path";
+    private static final String ID_SIZE = "size";
+    private static final String ID_MODIFIED = "modified";
+    private static final String ID_CLASS = "class";
+    private static final String ID_NAME = "name";
+    private static final String ID_SUPER = "super";
+    private static final String ID_INTERFACES = "interfaces";
+    private static final String ID_ACCESS = "access";
+
+    private static final String PLUGIN_CLASS_NAME = Plugin.class.getName();
+
+    /**
+     * Class file header: class name, super class name, implemented interfaces and access flags.
+     */
+    public static class ClassHeader
+    {
+        public static final int ACC_PUBLIC = 0x0001;
+        public static final int ACC_INTERFACE = 0x0200;
+        public static final int ACC_ABSTRACT = 0x0400;
+
+        public final String name;
+        public final String superName;
+        public final String[] interfaces;
+        public final int access;
+
+        public ClassHeader(String name, String superName, String[] interfaces, int access)
+        {
+            super();
+
+            this.name = name;
+            this.superName = superName;
+            this.interfaces = interfaces;
+            this.access = access;
+        }
+
+        /**
+         * Read the class header from the specified class file stream.<br>
+         * Only the constant pool and the first class informations are read, the rest of the stream
+         * is left untouched.
+         * 
+         * @throws IOException
+         *         if the stream is not a valid class file
+         */
+        public static ClassHeader read(InputStream input) throws IOException
+        {
+            final DataInputStream in = new DataInputStream(input);
+
+            if (in.readInt() != 0xCAFEBABE)
+                throw new IOException("Not a class file");
+
+            // minor and major version
+            in.readUnsignedShort();
+            in.readUnsignedShort();
+
+            final int poolSize = in.readUnsignedShort();
+            // UTF8 strings and class name indexes
+            final String[] utf8 = new String[poolSize];
+            final int[] classes = new int[poolSize];
+
+            for (int i = 1; i < poolSize; i++)
+            {
+                final int tag = in.readUnsignedByte();
+
+                switch (tag)
+                {
+                    case 1: // Utf8
+                        utf8[i] = in.readUTF();
+                        break;
+
+                    case 7: // Class
+                        classes[i] = in.readUnsignedShort();
+                        break;
+
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        in.skipBytes(2);
+                        break;
+
+                    case 15: // MethodHandle
+                        in.skipBytes(3);
+                        break;
+
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        in.skipBytes(4);
+                        break;
+
+                    case 5: // Long
+                    case 6: // Double
+                        in.skipBytes(8);
+                        // take 2 entries
+                        i++;
+                        break;
+
+                    default:
+                        throw new IOException("Unknown constant pool tag: " + tag);
+                }
+            }
+
+            final int access = in.readUnsignedShort();
+            final String name = getClassName(utf8, classes, in.readUnsignedShort());
+            final String superName = getClassName(utf8, classes, in.readUnsignedShort());
+            final int numInterface = in.readUnsignedShort();
+            final String[] interfaces = new String[numInterface];
+
+            for (int i = 0; i < numInterface; i++)
+                interfaces[i] = getClassName(utf8, classes, in.readUnsignedShort());
+
+            return new ClassHeader(name, superName, interfaces, access);
+        }
+
+        private static String getClassName(String[] utf8, int[] classes, int index) throws IOException
+        {
+            // no class (java.lang.Object super class)
+            if (index == 0)
+                return "";
+            if ((index < 0) || (index >= classes.length))
+                throw new IOException("Invalid class index: " + index);
+
+            final String result = utf8[classes[index]];
+
+            if (result == null)
+                throw new IOException("Invalid class name index: " + classes[index]);
+
+            return result.replace('/', '.');
+        }
+
+        public boolean isAbstract()
+        {
+            return (access & ACC_ABSTRACT) != 0;
+        }
+
+        public boolean isInterface()
+        {
+            return (access & ACC_INTERFACE) != 0;
+        }
+
+        public boolean isPublic()
+        {
+            return (access & ACC_PUBLIC) != 0;
+        }
+    }
+
+    /**
+     * Indexed container (JAR or class file).
+     */
+    static class Container
+    {
+        final String path;
+        final long size;
+        final long modified;
+        final List<ClassHeader> classes;
+
+        Container(String path, long size, long modified)
+        {
+            super();
+
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            classes = new ArrayList<ClassHeader>();
+        }
+
+        boolean isUpToDate(File file)
+        {
+            return (file.length() == size) && (file.lastModified() == modified);
+        }
+    }
+
+    /**
+     * Scan task for a single container
+     */
+    static class ContainerScanner implements Callable<Container>
+    {
+        final File file;
+        final String packagePrefix;
+
+        ContainerScanner(File file, String packagePrefix)
+        {
+            super();
+
+            this.file = file;
+            this.packagePrefix = packagePrefix;
+        }
+
+        @Override
+        public Container call() throws Exception
+        {
+            final Container result = new Container(file.getPath(), file.length(), file.lastModified());
+
+            if (isJar(file))
+            {
+                final JarFile jarFile = new JarFile(file);
+
+                try
+                {
+                    final Enumeration<JarEntry> entries = jarFile.entries();
+
+                    while (entries.hasMoreElements())
+                    {
+                        final JarEntry entry = entries.nextElement();
+                        final String entryName = entry.getName();
+
+                        // we only care about classes of the plugin package
+                        if (!entry.isDirectory() && entryName.startsWith(packagePrefix)
+                                && entryName.endsWith(".class"))
+                        {
+                            final InputStream in = new BufferedInputStream(jarFile.getInputStream(entry));
+
+                            try
+                            {
+                                result.classes.add(ClassHeader.read(in));
+                            }
+                            catch (IOException e)
+                            {
+                                System.err.println("Cannot read class header of '" + entryName + "' in " + file
+                                        + " (" + e.getMessage() + ")");
+                            }
+                            finally
+                            {
+                                in.close();
+                            }
+                        }
+                    }
+                }
+                finally
+                {
+                    jarFile.close();
+                }
+            }
+            else
+            {
+                final InputStream in = new BufferedInputStream(new FileInputStream(file));
+
+                try
+                {
+                    result.classes.add(ClassHeader.read(in));
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+
+            return result;
+        }
+    }
+
+    static String join(String[] values, char separator)
+    {
+        final StringBuilder result = new StringBuilder();
+
+        for (int i = 0; i < values.length; i++)
+        {
+            if (i > 0)
+                result.append(separator);
+            result.append(values[i]);
+        }
+
+        return result.toString();
+    }
+
+    static boolean isJar(File file)
+    {
+        return FileUtil.getFileExtension(file.getName(), false).equalsIgnoreCase("jar");
+    }
+
+    static boolean isClass(File file)
+    {
+        return FileUtil.getFileExtension(file.getName(), false).equalsIgnoreCase("class");
+    }
+
+    /**
+     * Containers indexed by path
+     */
+    private final Map<String, Container> containers;
+    /**
+     * Class headers indexed by class name (built from containers)
+     */
+    private final Map<String, ClassHeader> headers;
+    /**
+     * Resolved plugin state
+     */
+    private final Map<String, Boolean> pluginStates;
+    /**
+     * number of containers scanned during last update
+     */
+    int scanned;
+    /**
+     * internal
+     */
+    private boolean modified;
+
+    public PluginIndex()
+    {
+        super();
+
+        containers = new HashMap<String, Container>();
+        headers = new HashMap<String, ClassHeader>();
+        pluginStates = new HashMap<String, Boolean>();
+        scanned = 0;
+        modified = false;
+    }
+
+    /**
+     * Returns the index file path (in the application directory as container paths are relative to it).
+     */
+    static String getIndexPath()
+    {
+        return FileUtil.getApplicationDirectory() + FileUtil.separator + INDEX_FILENAME;
+    }
+
+    /**
+     * Load the persisted index (if any) then update it from the specified plugin path.<br>
+     * Only new or modified containers are scanned, in parallel, and the index is saved back if
+     * something changed.
+     * 
+     * @param path
+     *        plugins directory
+     * @param packageName
+     *        plugin package name (only classes from this package are indexed)
+     */
+    public static PluginIndex load(String path, String packageName)
+    {
+        return load(path, packageName, getIndexPath());
+    }
+
+    /**
+     * Same as {@link #load(String, String)} using the specified index file.
+     */
+    static PluginIndex load(String path, String packageName, String indexPath)
+    {
+        final PluginIndex result = new PluginIndex();
+
+        try
+        {
+            XMLPersistentHelper.loadFromXML(result, indexPath);
+        }
+        catch (Exception e)
+        {
+            System.out.println("Warning: can't reload plugin index, full scan needed.");
+            IcyExceptionHandler.showErrorMessage(e, false, false);
+            result.containers.clear();
+        }
+
+        result.update(path, packageName);
+
+        if (result.modified)
+        {
+            try
+            {
+                XMLPersistentHelper.saveToXML(result, indexPath);
+            }
+            catch (Exception e)
+            {
+                System.out.println("Warning: can't save plugin index.");
+                IcyExceptionHandler.showErrorMessage(e, false, false);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Update the index from the specified plugin path
+     */
+    void update(String path, String packageName)
+    {
+        final String packagePath = StringUtil.isEmpty(packageName) ? "" : packageName.replace('.', '/') + '/';
+        final List<File> files = new ArrayList<File>();
+        final File dir = new File(path);
+
+        if (dir.isDirectory())
+            findContainers(dir, files);
+        else if (dir.exists())
+            files.add(dir);
+
+        final Map<String, Container> newContainers = new HashMap<String, Container>();
+        final List<Future<Container>> results = new ArrayList<Future<Container>>();
+        final Processor processor = new Processor(-1, Math.max(1, SystemUtil.getNumberOfCPUs()));
+
+        processor.setThreadName("Plugin index scanner");
+
+        try
+        {
+            for (File file : files)
+            {
+                final Container container = containers.get(file.getPath());
+
+                // unchanged container --> keep it
+                if ((container != null) && container.isUpToDate(file))
+                    newContainers.put(container.path, container);
+                else
+                    results.add(processor.submit(new ContainerScanner(file, packagePath)));
+            }
+
+            for (Future<Container> future : results)
+            {
+                try
+                {
+                    final Container container = future.get();
+                    newContainers.put(container.path, container);
+                }
+                catch (ExecutionException e)
+                {
+                    // just ignore the container, it will be rescanned next time
+                    System.err.println("Cannot index plugin container: " + e.getCause());
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            processor.shutdownNow();
+        }
+
+        scanned = results.size();
+        modified |= !results.isEmpty() || (newContainers.size() != containers.size());
+
+        containers.clear();
+        containers.putAll(newContainers);
+
+        // rebuild class headers map
+        headers.clear();
+        pluginStates.clear();
+        for (Container container : containers.values())
+            for (ClassHeader header : container.classes)
+                headers.put(header.name, header);
+    }
+
+    private static void findContainers(File directory, List<File> result)
+    {
+        final File[] files = directory.listFiles();
+
+        if (files == null)
+            return;
+
+        for (File file : files)
+        {
+            // files or directories starting with "." aren't allowed
+            if (file.getName().startsWith("."))
+                continue;
+
+            if (file.isDirectory())
+                findContainers(file, result);
+            else if (isJar(file) || isClass(file))
+                result.add(file);
+        }
+    }
+
+    /**
+     * Returns the name of all indexed classes.
+     */
+    public Set<String> getClassNames()
+    {
+        return new HashSet<String>(headers.keySet());
+    }
+
+    /**
+     * Returns <code>true</code> if the specified class is present in the index.
+     */
+    public boolean contains(String className)
+    {
+        return headers.containsKey(className);
+    }
+
+    /**
+     * Returns the header of the specified class (<code>null</code> if not indexed).
+     */
+    public ClassHeader getHeader(String className)
+    {
+        return headers.get(className);
+    }
+
+    /**
+     * Returns <code>false</code> if we are sure the specified class doesn't extend {@link Plugin}
+     * from class headers only.<br>
+     * When the class hierarchy cannot be fully resolved from the index, the super class is looked
+     * up (without initialization) through the specified class loader and we return
+     * <code>true</code> if it cannot be found so the class loading error is still reported.
+     */
+    public boolean isPlugin(String className, ClassLoader loader)
+    {
+        synchronized (pluginStates)
+        {
+            return isPluginInternal(className, loader, 0);
+        }
+    }
+
+    private boolean isPluginInternal(String className, ClassLoader loader, int depth)
+    {
+        if (StringUtil.isEmpty(className))
+            return false;
+        if (PLUGIN_CLASS_NAME.equals(className))
+            return true;
+
+        final Boolean state = pluginStates.get(className);
+        if (state != null)
+            return state.booleanValue();
+
+        final ClassHeader header = headers.get(className);
+        boolean result;
+
+        // we only need the super class chain as Plugin is a class
+        if (header != null)
+        {
+            // cyclic hierarchy (should never happen)
+            if (depth > 256)
+                result = false;
+            else
+                result = !header.isInterface() && isPluginInternal(header.superName, loader, depth + 1);
+        }
+        else
+        {
+            try
+            {
+                // not in index --> resolve it without initializing it
+                result = Plugin.class.isAssignableFrom(Class.forName(className, false, loader));
+            }
+            catch (Throwable t)
+            {
+                // let the plugin loader report the error
+                result = true;
+            }
+        }
+
+        pluginStates.put(className, Boolean.valueOf(result));
+
+        return result;
+    }
+
+    @Override
+    public boolean loadFromXML(Node node)
+    {
+        if (node == null)
+            return false;
+
+        containers.clear();
+
+        // incompatible index --> ignore it
+        if (XMLUtil.getAttributeIntValue((Element) node, ID_VERSION, 0) != INDEX_VERSION)
+            return false;
+
+        for (Element containerNode : XMLUtil.getElements(node, ID_CONTAINER))
+        {
+            final Container container = new Container(XMLUtil.getAttributeValue(containerNode, ID_PATH, ""),
+                    XMLUtil.getAttributeLongValue(containerNode, ID_SIZE, -1L),
+                    XMLUtil.getAttributeLongValue(containerNode, ID_MODIFIED, -1L));
+
+            for (Element classNode : XMLUtil.getElements(containerNode, ID_CLASS))
+            {
+                final String interfaces = XMLUtil.getAttributeValue(classNode, ID_INTERFACES, "");
+
+                container.classes.add(new ClassHeader(XMLUtil.getAttributeValue(classNode, ID_NAME, ""),
+                        XMLUtil.getAttributeValue(classNode, ID_SUPER, ""),
+                        StringUtil.isEmpty(interfaces) ? new String[0] : interfaces.split(";"),
+                        XMLUtil.getAttributeIntValue(classNode, ID_ACCESS, 0)));
+            }
+
+            containers.put(container.path, container);
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean saveToXML(Node node)
+    {
+        if (node == null)
+            return false;
+
+        XMLUtil.setAttributeIntValue((Element) node, ID_VERSION, INDEX_VERSION);
+
+        for (Container container : containers.values())
+        {
+            final Element containerNode = XMLUtil.addElement(node, ID_CONTAINER);
+
+            XMLUtil.setAttributeValue(containerNode, ID_PATH, container.path);
+            XMLUtil.setAttributeLongValue(containerNode, ID_SIZE, container.size);
+            XMLUtil.setAttributeLongValue(containerNode, ID_MODIFIED, container.modified);
+
+            for (ClassHeader header : container.classes)
+            {
+                final Element classNode = XMLUtil.addElement(containerNode, ID_CLASS);
+
+                XMLUtil.setAttributeValue(classNode, ID_NAME, header.name);
+                XMLUtil.setAttributeValue(classNode, ID_SUPER, header.superName);
+                if (header.interfaces.length > 0)
+                    XMLUtil.setAttributeValue(classNode, ID_INTERFACES, join(header.interfaces, ';'));
+                XMLUtil.setAttributeIntValue(classNode, ID_ACCESS, header.access);
+            }
+        }
+
+        modified = false;
+
+        return true;
+    }
+}
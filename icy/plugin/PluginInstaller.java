@@ -18,15 +18,23 @@
  */
 package icy.plugin;
 
+import java.io.File;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.EventListener;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.swing.event.EventListenerList;
 
+import icy.common.listener.ProgressListener;
 import icy.file.FileUtil;
 import icy.gui.dialog.ConfirmDialog;
 import icy.gui.frame.progress.AnnounceFrame;
@@ -40,6 +48,7 @@ import icy.network.URLUtil;
 import icy.plugin.PluginDescriptor.PluginIdent;
 import icy.preferences.RepositoryPreferences.RepositoryInfo;
 import icy.system.IcyExceptionHandler;
+import icy.system.thread.Processor;
 import icy.system.thread.ThreadUtil;
 import icy.update.Updater;
 import icy.util.StringUtil;
@@ -58,6 +67,18 @@ public class PluginInstaller implements Runnable
         public void pluginRemoved(PluginDescriptor plugin, boolean success);
     }
 
+    /**
+     * Final install step of a downloaded plugin
+     */
+    static interface PluginCommitter
+    {
+        /**
+         * Install the downloaded plugin files.<br>
+         * Return an empty string if no error else return error message
+         */
+        public String commit(PluginDescriptor plugin);
+    }
+
     private static class PluginInstallInfo
     {
         // final PluginRepositoryLoader loader;
@@ -90,6 +111,16 @@ public class PluginInstaller implements Runnable
 
     private static final String ERROR_DOWNLOAD = "Error while downloading ";
     private static final String ERROR_SAVE = "Error while saving";
+
+    /**
+     * temporary download directory (same volume than plugins so files can be atomically moved)
+     */
+    private static final String DOWNLOAD_DIRECTORY = FileUtil.APPLICATION_DIRECTORY + FileUtil.separator
+            + "download";
+    /**
+     * number of concurrent plugin downloads
+     */
+    private static final int DOWNLOAD_THREAD = 4;
     // private static final String INSTALL_CANCELED = "Plugin installation canceled by user.";
 
     /**
@@ -97,6 +128,11 @@ public class PluginInstaller implements Runnable
      */
     private static final PluginInstaller instance = new PluginInstaller();
 
+    /**
+     * download processor (created on first use)
+     */
+    private static Processor downloadProcessor = null;
+
     /**
      * plugin(s) to install FIFO
      */
@@ -136,6 +172,17 @@ public class PluginInstaller implements Runnable
         new Thread(this, "Plugin installer").start();
     }
 
+    private static synchronized Processor getDownloadProcessor()
+    {
+        if (downloadProcessor == null)
+        {
+            downloadProcessor = new Processor(DOWNLOAD_THREAD);
+            downloadProcessor.setThreadName("Plugin download");
+        }
+
+        return downloadProcessor;
+    }
+
     /**
      * Return true if install or desinstall is possible
      */
@@ -397,15 +444,28 @@ public class PluginInstaller implements Runnable
     }
 
     /**
-     * Return an empty string if no error else return error message
+     * Returns the temporary download directory of the specified plugin
      */
-    private static String downloadAndSavePlugin(PluginDescriptor plugin, DownloadFrame taskFrame)
+    private static String getDownloadDirectory(PluginDescriptor plugin)
     {
-        String result;
+        return DOWNLOAD_DIRECTORY + FileUtil.separator + plugin.getClassName() + "_" + plugin.getVersion();
+    }
 
-        if (taskFrame != null)
-            taskFrame.setMessage("Downloading " + plugin);
+    /**
+     * Returns the temporary download file for the specified plugin file
+     */
+    private static File getDownloadFile(String directory, String path)
+    {
+        return new File(directory, FileUtil.getFileName(path));
+    }
 
+    /**
+     * Download plugin files (JAR, XML, icon & image) in the temporary download directory.<br>
+     * Files are streamed to disk and download is resumed if a previous one has been interrupted.<br>
+     * Return an empty string if no error else return error message
+     */
+    private static String downloadPlugin(PluginDescriptor plugin, ProgressListener listener)
+    {
         // ensure descriptor is loaded
         plugin.loadDescriptor();
 
@@ -427,70 +487,220 @@ public class PluginInstaller implements Runnable
 
         // try to build the final path using base repository address and plugin relative address
         // (useful for local repository)
+        return downloadPlugin(plugin, FileUtil.getDirectory(repos.getLocation()), login, pass,
+                getDownloadDirectory(plugin), listener);
+    }
+
+    /**
+     * Download plugin files (JAR, XML, icon & image) from the specified repository base path in the specified
+     * directory.<br>
+     * JAR file is verified against the descriptor MD5 digest and size when known, optional files (icon & image) which
+     * can't be entirely downloaded are discarded.<br>
+     * Return an empty string if no error else return error message
+     */
+    static String downloadPlugin(PluginDescriptor plugin, String basePath, String login, String pass,
+            String directory, ProgressListener listener)
+    {
         URL url;
-        final String basePath = FileUtil.getDirectory(repos.getLocation());
-        // download and save JAR file
+        File file;
+
+        // download JAR file
         url = URLUtil.buildURL(basePath, plugin.getJarUrl());
-        result = downloadAndSave(url, plugin.getJarFilename(), login, pass, true, taskFrame);
-        if (!StringUtil.isEmpty(result))
-            return result;
+        file = getDownloadFile(directory, plugin.getJarFilename());
+        if (!NetworkUtil.download(url, login, pass, file, true, plugin.getJarMD5(), plugin.getJarSize(), listener,
+                true))
+            return ERROR_DOWNLOAD + url;
 
         // verify JAR file is not corrupted
-        if (!ZipUtil.isValid(plugin.getJarFilename(), false))
+        if (!ZipUtil.isValid(file.getPath(), false))
+        {
+            // don't try to resume it next time
+            NetworkUtil.deleteDownload(file);
             return "Downloaded JAR file '" + plugin.getJarFilename() + "' is corrupted !";
+        }
 
-        // download and save XML file
+        // download XML file
         url = URLUtil.buildURL(basePath, plugin.getUrl());
-        result = downloadAndSave(url, plugin.getXMLFilename(), login, pass, true, taskFrame);
-        if (!StringUtil.isEmpty(result))
-            return result;
+        file = getDownloadFile(directory, plugin.getXMLFilename());
+        if (!NetworkUtil.download(url, login, pass, file, true, listener, true))
+            return ERROR_DOWNLOAD + url;
 
         // verify XML file is not corrupted
-        if (XMLUtil.loadDocument(plugin.getXMLFilename()) == null)
+        if (XMLUtil.loadDocument(file.getPath()) == null)
+        {
+            NetworkUtil.deleteDownload(file);
             return "Downloaded XML file '" + plugin.getXMLFilename() + "' is corrupted !";
+        }
 
-        // download and save icon & image files
+        // download icon & image files (not mandatory)
         if (!StringUtil.isEmpty(plugin.getIconUrl()))
-        {
-            url = URLUtil.buildURL(basePath, plugin.getIconUrl());
-            downloadAndSave(url, plugin.getIconFilename(), login, pass, false, taskFrame);
-        }
+            downloadOptional(URLUtil.buildURL(basePath, plugin.getIconUrl()), login, pass,
+                    getDownloadFile(directory, plugin.getIconFilename()), listener);
         if (!StringUtil.isEmpty(plugin.getImageUrl()))
-        {
-            url = URLUtil.buildURL(basePath, plugin.getImageUrl());
-            downloadAndSave(url, plugin.getImageFilename(), login, pass, false, taskFrame);
-        }
+            downloadOptional(URLUtil.buildURL(basePath, plugin.getImageUrl()), login, pass,
+                    getDownloadFile(directory, plugin.getImageFilename()), listener);
 
         return "";
     }
 
     /**
+     * Download a not mandatory plugin file, the file is discarded if it can't be entirely downloaded so a partial file
+     * is never committed.
+     */
+    private static void downloadOptional(URL url, String login, String pass, File file, ProgressListener listener)
+    {
+        if (!NetworkUtil.download(url, login, pass, file, true, listener, false))
+            NetworkUtil.deleteDownload(file);
+    }
+
+    /**
+     * Move downloaded plugin files to their final location (plugin should be backuped first).<br>
      * Return an empty string if no error else return error message
      */
-    private static String downloadAndSave(URL downloadPath, String savePath, String login, String pass,
-            boolean displayError, DownloadFrame downloadFrame)
+    private static String commitPlugin(PluginDescriptor plugin)
     {
-        if (downloadFrame != null)
-            downloadFrame.setPath(FileUtil.getFileName(savePath));
+        for (String path : new String[] {plugin.getJarFilename(), plugin.getXMLFilename(), plugin.getIconFilename(),
+                plugin.getImageFilename()})
+        {
+            final File file = getDownloadFile(getDownloadDirectory(plugin), path);
+
+            // optional file not downloaded
+            if (!file.exists())
+                continue;
+
+            if (!FileUtil.rename(file, new File(path), true))
+            {
+                System.err.println("Can't write '" + path + "' !");
+                System.err.println("File may be locked or you don't own the rights to write files here.");
+                return ERROR_SAVE + path;
+            }
+        }
+
+        // delete temporary directory
+        FileUtil.delete(getDownloadDirectory(plugin), true);
 
-        // load data
-        final byte[] data = NetworkUtil.download(downloadPath, login, pass, downloadFrame, displayError);
-        if (data == null)
-            return ERROR_DOWNLOAD + downloadPath.toString();
+        return "";
+    }
 
-        // save data
-        if (!FileUtil.save(savePath, data, displayError))
+    /**
+     * Wait for download completion and return its result (empty string if no error else return error message)
+     */
+    private static String getDownloadResult(PluginDescriptor plugin, Future<String> download)
+    {
+        try
+        {
+            return download.get();
+        }
+        catch (CancellationException e)
+        {
+            return "Download of '" + plugin.getName() + "' canceled.";
+        }
+        catch (InterruptedException e)
         {
-            System.err.println("Can't write '" + savePath + "' !");
-            System.err.println("File may be locked or you don't own the rights to write files here.");
-            return ERROR_SAVE + savePath;
+            return "Download of '" + plugin.getName() + "' interrupted.";
         }
+        catch (ExecutionException e)
+        {
+            IcyExceptionHandler.showErrorMessage(e.getCause(), false, false);
+            return ERROR_DOWNLOAD + plugin.getName();
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if one of the dependencies of the specified plugin is in the specified failed plugin
+     * set (whatever is the version).
+     */
+    static boolean isDependencyFailed(PluginDescriptor plugin, Set<PluginDescriptor> failed)
+    {
+        for (PluginIdent ident : plugin.getRequired())
+            for (PluginDescriptor p : failed)
+                if (p.getClassName().equals(ident.getClassName()))
+                    return true;
 
-        return null;
+        return false;
+    }
+
+    /**
+     * Wait for plugin downloads and commit them in the specified order (dependencies should come first).<br>
+     * A plugin is not committed if its download or one of its dependencies failed. Remaining downloads are
+     * interrupted when done.
+     * 
+     * @param plugins
+     *        plugins to install (dependencies first)
+     * @param downloads
+     *        download task of each plugin (see {@link #downloadPlugin(PluginDescriptor, ProgressListener)})
+     * @param committer
+     *        install step of downloaded plugins
+     * @param pluginsOk
+     *        successfully installed plugins are added here
+     * @param pluginsNOk
+     *        plugins which failed are added here
+     * @param taskFrame
+     *        progress frame (installation is interrupted on cancel), can be <code>null</code>
+     */
+    static void commitPlugins(List<PluginDescriptor> plugins, Map<PluginDescriptor, Future<String>> downloads,
+            PluginCommitter committer, Set<PluginDescriptor> pluginsOk, Set<PluginDescriptor> pluginsNOk,
+            DownloadFrame taskFrame)
+    {
+        try
+        {
+            int done = 0;
+
+            for (PluginDescriptor plugin : plugins)
+            {
+                final Future<String> download = downloads.get(plugin);
+
+                // one of the dependencies was not correctly installed ? --> continue with the next one
+                if (isDependencyFailed(plugin, pluginsNOk))
+                {
+                    download.cancel(true);
+                    pluginsNOk.add(plugin);
+                    System.err.println("Can't install '" + plugin.getName() + "' as one of its dependencies failed.");
+                    continue;
+                }
+
+                final String plugDesc = plugin.getName() + " " + plugin.getVersion();
+
+                // wait for download completion
+                String error = getDownloadResult(plugin, download);
+
+                if (taskFrame != null)
+                {
+                    // cancel requested ? --> interrupt installation
+                    if (taskFrame.isCancelRequested())
+                        break;
+
+                    taskFrame.setMessage("Installing " + plugDesc + " (" + (++done) + " / " + plugins.size()
+                            + ")...");
+                }
+
+                // download ok --> install plugin
+                if (StringUtil.isEmpty(error))
+                    error = committer.commit(plugin);
+
+                if (StringUtil.isEmpty(error))
+                    pluginsOk.add(plugin);
+                else
+                {
+                    pluginsNOk.add(plugin);
+                    // print error
+                    System.err.println(error);
+                }
+            }
+        }
+        finally
+        {
+            // interrupt remaining downloads (canceled)
+            for (Future<String> download : downloads.values())
+                download.cancel(true);
+        }
     }
 
     private static boolean deletePlugin(PluginDescriptor plugin)
     {
+        // release JAR file so it can be deleted
+        PluginLoader.releaseJar(plugin.getJarFilename());
+
         if (!FileUtil.delete(plugin.getJarFilename(), false))
         {
             System.err.println("Can't delete '" + plugin.getJarFilename() + "' file !");
@@ -797,61 +1007,68 @@ public class PluginInstaller implements Runnable
             // clear backup folder
             FileUtil.delete(Updater.BACKUP_DIRECTORY, true);
 
-            // now we can proceed the installation itself
-            for (PluginDescriptor plugin : installingPlugins)
+            final DownloadFrame frame = taskFrame;
+            // used to interrupt downloads on cancel
+            final ProgressListener downloadListener = new ProgressListener()
             {
-                for (PluginIdent ident : plugin.getRequired())
+                @Override
+                public boolean notifyProgress(double position, double length)
                 {
-                    // one of the dependencies was not correctly installed ?
-                    if (PluginDescriptor.existInList(pluginsNOk, ident))
-                    {
-                        // we can't install the plugin, continue with the next one
-                        pluginsNOk.add(plugin);
-                        continue;
-                    }
+                    return (frame == null) || !frame.isCancelRequested();
                 }
+            };
+            final Map<PluginDescriptor, Future<String>> downloads = new HashMap<PluginDescriptor, Future<String>>();
 
-                final String plugDesc = plugin.getName() + " " + plugin.getVersion();
-
-                if (taskFrame != null)
+            // start all downloads now (in dependencies order), they are done concurrently in temporary files
+            for (final PluginDescriptor plugin : installingPlugins)
+            {
+                downloads.put(plugin, getDownloadProcessor().submit(new Callable<String>()
                 {
-                    // cancel requested ? --> interrupt installation
-                    if (taskFrame.isCancelRequested())
-                        break;
+                    @Override
+                    public String call() throws Exception
+                    {
+                        return downloadPlugin(plugin, downloadListener);
+                    }
+                }));
+            }
 
-                    taskFrame.setMessage("Installing " + plugDesc + "...");
-                }
+            if (taskFrame != null)
+                taskFrame.setMessage("Downloading plugin(s)...");
 
-                try
+            // now we can proceed the installation itself (dependencies are always committed first)
+            commitPlugins(installingPlugins, downloads, new PluginCommitter()
+            {
+                @Override
+                public String commit(PluginDescriptor plugin)
                 {
-                    // backup plugin
-                    error = backup(plugin);
+                    String result;
 
-                    // backup ok --> install plugin
-                    if (StringUtil.isEmpty(error))
+                    try
                     {
-                        error = downloadAndSavePlugin(plugin, taskFrame);
+                        // release current JAR file so it can be replaced
+                        PluginLoader.releaseJar(plugin.getJarFilename());
+                        // backup plugin
+                        result = backup(plugin);
+
+                        // backup ok --> move downloaded files
+                        if (StringUtil.isEmpty(result))
+                        {
+                            result = commitPlugin(plugin);
 
-                        // an error occurred ? --> restore
-                        if (!StringUtil.isEmpty(error))
-                            Updater.restore();
+                            // an error occurred ? --> restore
+                            if (!StringUtil.isEmpty(result))
+                                Updater.restore();
+                        }
+                    }
+                    finally
+                    {
+                        // delete backup
+                        FileUtil.delete(Updater.BACKUP_DIRECTORY, true);
                     }
-                }
-                finally
-                {
-                    // delete backup
-                    FileUtil.delete(Updater.BACKUP_DIRECTORY, true);
-                }
 
-                if (StringUtil.isEmpty(error))
-                    pluginsOk.add(plugin);
-                else
-                {
-                    pluginsNOk.add(plugin);
-                    // print error
-                    System.err.println(error);
+                    return result;
                 }
-            }
+            }, pluginsOk, pluginsNOk, taskFrame);
 
             // verify installed plugins
             if (taskFrame != null)
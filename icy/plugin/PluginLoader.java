@@ -35,6 +35,7 @@ import icy.system.thread.SingleProcessor;
 import icy.system.thread.ThreadUtil;
 import icy.util.ClassUtil;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -229,8 +230,6 @@ public class PluginLoader
         {
             // search for plugins in "Plugins" package (needed when working from JAR archive)
             ClassUtil.findClassNamesInPackage(PLUGIN_PACKAGE, true, classes);
-            // search for plugins in "Plugins" directory with default plugin package name
-            ClassUtil.findClassNamesInPath(PLUGIN_PATH, PLUGIN_PACKAGE, true, classes);
         }
         catch (IOException e)
         {
@@ -238,6 +237,13 @@ public class PluginLoader
             IcyExceptionHandler.showErrorMessage(e, true);
         }
 
+        // read class headers from plugins directory so we only load plugin classes (unchanged JAR files are not
+        // opened, their classes come from the persisted index)
+        final PluginIndex index = PluginIndex.load(PLUGIN_PATH, PLUGIN_PACKAGE);
+
+        // plugins from "Plugins" directory
+        classes.addAll(index.getClassNames());
+
         for (String className : classes)
         {
             // we only want to load classes from 'plugins' package
@@ -250,6 +256,9 @@ public class PluginLoader
             // no need to complete loading...
             if (processor.hasWaitingTasks())
                 return;
+            // class header tell us it is not a plugin --> don't load it
+            if (index.contains(className) && !index.isPlugin(className, newLoader))
+                continue;
 
             try
             {
@@ -424,6 +433,23 @@ public class PluginLoader
         return instance.loader;
     }
 
+    /**
+     * Close the specified plugin JAR file if it is opened by the plugin class loader so it can be
+     * replaced or deleted (loaded classes remain usable).
+     */
+    public static void releaseJar(String path)
+    {
+        final ClassLoader loader = instance.loader;
+
+        if (loader instanceof JarClassLoader)
+        {
+            synchronized (loader)
+            {
+                ((JarClassLoader) loader).releaseJar(new File(path));
+            }
+        }
+    }
+
     /**
      * Return all resources present in the Plugin class loader.
      */
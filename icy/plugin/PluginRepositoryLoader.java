@@ -19,6 +19,7 @@
 package icy.plugin;
 
 import icy.main.Icy;
+import icy.network.NetworkCache;
 import icy.network.NetworkUtil;
 import icy.network.URLUtil;
 import icy.plugin.PluginDescriptor.PluginIdent;
@@ -28,6 +29,7 @@ import icy.preferences.PluginPreferences;
 import icy.preferences.RepositoryPreferences;
 import icy.preferences.RepositoryPreferences.RepositoryInfo;
 import icy.system.IcyExceptionHandler;
+import icy.system.thread.Processor;
 import icy.system.thread.SingleProcessor;
 import icy.system.thread.ThreadUtil;
 import icy.util.XMLUtil;
@@ -38,6 +40,7 @@ import java.util.EventListener;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.swing.event.EventListenerList;
 
@@ -106,11 +109,19 @@ public class PluginRepositoryLoader
             // notify basic data has been loaded
             loaded = true;
             changed(null);
+
+            // then load descriptors in background (images are only loaded when needed)
+            loadDescriptors(newPlugins);
         }
     }
 
     private static final String ID_ROOT = "plugins";
     private static final String ID_PLUGIN = "plugin";
+
+    /**
+     * maximum number of concurrent descriptor loading
+     */
+    private static final int DESCRIPTOR_LOADER_THREAD = 8;
     // private static final String ID_PATH = "path";
 
     /**
@@ -136,6 +147,7 @@ public class PluginRepositoryLoader
 
     private final Loader loader;
     final SingleProcessor processor;
+    final Processor descriptorProcessor;
 
     /**
      * static class
@@ -149,6 +161,8 @@ public class PluginRepositoryLoader
 
         loader = new Loader();
         processor = new SingleProcessor(true, "Online Plugin Loader");
+        descriptorProcessor = new Processor(DESCRIPTOR_LOADER_THREAD);
+        descriptorProcessor.setThreadName("Online Plugin Descriptor Loader");
 
         loaded = false;
         // initial loading
@@ -178,7 +192,7 @@ public class PluginRepositoryLoader
         }
 
         // load the XML file
-        final Document document = XMLUtil.loadDocument(address, repos.getAuthenticationInfo(), false);
+        final Document document = NetworkCache.loadDocument(address, repos.getAuthenticationInfo(), false);
 
         // error
         if (document == null)
@@ -239,9 +253,40 @@ public class PluginRepositoryLoader
         loaded = false;
         failed = false;
 
+        // cancel pending descriptor loading
+        descriptorProcessor.getQueue().clear();
         processor.submit(loader);
     }
 
+    /**
+     * Load descriptors of specified plugins (concurrently) and notify when done.
+     */
+    void loadDescriptors(List<PluginDescriptor> plugins)
+    {
+        if (plugins.isEmpty())
+            return;
+
+        final AtomicInteger remaining = new AtomicInteger(plugins.size());
+
+        for (final PluginDescriptor plugin : plugins)
+        {
+            descriptorProcessor.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    // reload requested --> no need to load it
+                    if (!processor.hasWaitingTasks())
+                        plugin.loadDescriptor();
+
+                    // all descriptors loaded ? --> notify change
+                    if ((remaining.decrementAndGet() == 0) && !processor.hasWaitingTasks())
+                        changed(null);
+                }
+            });
+        }
+    }
+
     /**
      * Reload all plugins from all active repositories (old list is cleared).<br>
      * Asynchronous process, use {@link #waitLoaded()} method to wait for basic data to be loaded.
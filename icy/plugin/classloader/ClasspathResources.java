@@ -100,7 +100,7 @@ public class ClasspathResources extends JarResources
         final byte[] result = NetworkUtil.download(url.openStream());
 
         if (result != null)
-            loadedSize += result.length;
+            addLoadedSize(result.length);
 
         return result;
     }
@@ -240,23 +240,17 @@ public class ClasspathResources extends JarResources
     }
 
     @Override
-    protected void loadContent(String name, URL url) throws IOException
+    protected byte[] loadContent(String name, URL url) throws IOException
     {
         // JAR protocol
         if (url.getProtocol().equalsIgnoreCase(("jar")))
-            super.loadContent(name, url);
+            return super.loadContent(name, url);
         // FILE protocol
-        else if (url.getProtocol().equalsIgnoreCase(("file")))
-        {
-            final byte[] content = loadResourceContent(url);
-            setResourceContent(name, content);
-        }
+        if (url.getProtocol().equalsIgnoreCase(("file")))
+            return loadResourceContent(url);
+
         // try remote loading
-        else
-        {
-            final byte content[] = loadRemoteResourceContent(url);
-            setResourceContent(name, content);
-        }
+        return loadRemoteResourceContent(url);
     }
 
     /**
@@ -269,26 +263,35 @@ public class ClasspathResources extends JarResources
         final byte[] result = NetworkUtil.download(url.openStream());
 
         if (result != null)
-            loadedSize += result.length;
+            addLoadedSize(result.length);
 
         return result;
     }
 
     /**
-     * Removes the loaded resource
+     * Removes the specified resource (indexed entry and cached content)
      * 
      * @param resource
      */
     public void unload(String resource)
     {
-        if (entryContents.containsKey(resource))
+        final boolean found;
+
+        synchronized (zipFiles)
+        {
+            entryRefs.remove(resource);
+            found = (entryUrls.remove(resource) != null);
+        }
+        synchronized (entryContents)
         {
-            if (logger.isLoggable(Level.FINEST))
-                logger.finest("Removing resource " + resource);
             entryContents.remove(resource);
         }
-        else
+
+        if (!found)
             throw new ResourceNotFoundException(resource, "Resource not found in local ClasspathResources");
+
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest("Removing resource " + resource);
     }
 
     public boolean isCollisionAllowed()
@@ -30,6 +30,12 @@ public class Configuration {
     private static final String JCL_SUPPRESS_COLLISION_EXCEPTION = "jcl.suppressCollisionException";
     private static final String JCL_SUPPRESS_MISSING_RESOURCE_EXCEPTION = "jcl.suppressMissingResourceException";
     private static final String AUTO_PROXY = "jcl.autoProxy";
+    private static final String RESOURCE_CACHE_SIZE = "jcl.resourceCacheSize";
+
+    /**
+     * Default size (in bytes) of the loaded resources cache
+     */
+    public static final long DEFAULT_RESOURCE_CACHE_SIZE = 16 * 1024 * 1024;
 
     /**
      * OSGi boot delegation
@@ -60,6 +66,20 @@ public class Configuration {
         return Boolean.parseBoolean( System.getProperty( AUTO_PROXY ) );
     }
 
+    /**
+     * Returns the maximum size (in bytes) of loaded resources kept in memory by {@link JarResources}
+     */
+    public static long getResourceCacheSize() {
+        if (System.getProperty( RESOURCE_CACHE_SIZE ) == null)
+            return DEFAULT_RESOURCE_CACHE_SIZE;
+
+        try {
+            return Long.parseLong( System.getProperty( RESOURCE_CACHE_SIZE ) );
+        } catch (NumberFormatException e) {
+            return DEFAULT_RESOURCE_CACHE_SIZE;
+        }
+    }
+
     @SuppressWarnings("unchecked")
     public static boolean isLoaderEnabled(Class cls) {
         if (System.getProperty( cls.getName() ) == null)
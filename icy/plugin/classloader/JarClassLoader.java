@@ -24,6 +24,7 @@ import icy.plugin.classloader.exception.ResourceNotFoundException;
 import icy.system.IcyExceptionHandler;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -167,14 +168,25 @@ public class JarClassLoader extends AbstractClassLoader
         classpathResources.loadResource(url);
     }
 
+    /**
+     * Close the specified JAR file so it can be replaced or deleted.<br>
+     * Already loaded classes remain usable and resources from this JAR can still be loaded (slower).
+     * 
+     * @return <code>true</code> if the JAR file was opened
+     */
+    public boolean releaseJar(File file)
+    {
+        return classpathResources.release(file);
+    }
+
     /**
      * Release all loaded resources and classes.
      * The ClassLoader cannot be used anymore to load any new resource.
      */
     public void unloadAll()
     {
-        // unload resources
-        classpathResources.entryContents.clear();
+        // unload resources and release opened JAR files
+        classpathResources.close();
         // unload classes
         loadedClasses.clear();
     }
@@ -189,7 +201,8 @@ public class JarClassLoader extends AbstractClassLoader
      */
     protected byte[] getClassBytes(String className) throws IOException
     {
-        return classpathResources.getResourceContent(formatClassName(className));
+        // class bytes are only needed once, don't keep them in resource cache
+        return classpathResources.getResourceContent(formatClassName(className), false);
     }
 
     /**
@@ -24,40 +24,166 @@ import icy.network.URLUtil;
 import icy.plugin.classloader.exception.JclException;
 import icy.system.IcyExceptionHandler;
 
-import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.JarURLConnection;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.jar.JarEntry;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
 
 /**
- * JarResources reads jar files and loads the class content/bytes in a HashMap
+ * JarResources indexes jar files entries and reads the class content/bytes on demand.<br>
+ * Local jar files are kept opened so entries are directly read from their position in the archive,
+ * only the most recently used resources are kept in memory.
  * 
  * @author Kamran Zafar
  * @author Stephane Dallongeville
  */
 public class JarResources
 {
-    // <resourceName, content> map
+    /**
+     * Local JAR entry reference (archive + entry position)
+     */
+    protected static class JarEntryRef
+    {
+        final ZipFile zipFile;
+        final ZipEntry entry;
+
+        JarEntryRef(ZipFile zipFile, ZipEntry entry)
+        {
+            super();
+
+            this.zipFile = zipFile;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Local JAR file state when it was loaded (used to detect a replaced JAR file)
+     */
+    protected static class JarStamp
+    {
+        final File file;
+        final long size;
+        final long modified;
+
+        JarStamp(File file)
+        {
+            super();
+
+            this.file = file;
+            size = file.length();
+            modified = file.lastModified();
+        }
+
+        boolean isModified()
+        {
+            return (file.length() != size) || (file.lastModified() != modified);
+        }
+    }
+
+    /**
+     * LRU resource content cache bounded by total content size
+     */
+    protected static class ResourceCache extends LinkedHashMap<String, byte[]>
+    {
+        private static final long serialVersionUID = -2735867361095781413L;
+
+        final long maxSize;
+        long size;
+
+        public ResourceCache(long maxSize)
+        {
+            super(256, 0.75f, true);
+
+            this.maxSize = maxSize;
+            size = 0;
+        }
+
+        /**
+         * Returns <code>true</code> if the specified content can be cached
+         */
+        public boolean accept(byte[] content)
+        {
+            // don't let a single resource take more than a quarter of the cache
+            return content.length <= (maxSize / 4);
+        }
+
+        @Override
+        public byte[] put(String key, byte[] value)
+        {
+            final byte[] result = super.put(key, value);
+
+            if (result != null)
+                size -= result.length;
+            size += value.length;
+
+            // evict least recently used entries
+            final Iterator<Entry<String, byte[]>> it = entrySet().iterator();
+            while ((size > maxSize) && it.hasNext())
+            {
+                final Entry<String, byte[]> entry = it.next();
+
+                // don't remove the new one
+                if (entry.getKey().equals(key))
+                    continue;
+
+                size -= entry.getValue().length;
+                it.remove();
+            }
+
+            return result;
+        }
+
+        @Override
+        public byte[] remove(Object key)
+        {
+            final byte[] result = super.remove(key);
+
+            if (result != null)
+                size -= result.length;
+
+            return result;
+        }
+
+        @Override
+        public void clear()
+        {
+            super.clear();
+            size = 0;
+        }
+    }
+
+    // <resourceName, content> map (only recently used resources are kept)
     protected Map<String, byte[]> entryContents;
     // <resourceName, fileName> map
     protected Map<String, URL> entryUrls;
+    // <resourceName, local JAR entry> map
+    protected Map<String, JarEntryRef> entryRefs;
+    // opened local JAR files
+    protected List<ZipFile> zipFiles;
+    // <JAR file URL, state when loaded> map
+    protected Map<String, JarStamp> jarStamps;
 
     protected boolean collisionAllowed;
-    // keep trace of loaded resource size
+    // keep trace of loaded resource size (guarded by entryContents lock)
     protected int loadedSize;
 
     private static Logger logger = Logger.getLogger(JarResources.class.getName());
@@ -67,8 +193,11 @@ public class JarResources
      */
     public JarResources()
     {
-        entryContents = new HashMap<String, byte[]>();
+        entryContents = new ResourceCache(Configuration.getResourceCacheSize());
         entryUrls = new HashMap<String, URL>();
+        entryRefs = new HashMap<String, JarEntryRef>();
+        zipFiles = new ArrayList<ZipFile>();
+        jarStamps = new HashMap<String, JarStamp>();
         collisionAllowed = Configuration.suppressCollisionException();
         loadedSize = 0;
     }
@@ -80,7 +209,27 @@ public class JarResources
 
     public byte[] getResourceContent(String name) throws IOException
     {
-        byte content[] = entryContents.get(name);
+        return getResourceContent(name, true);
+    }
+
+    /**
+     * Returns the content of the specified resource.
+     * 
+     * @param name
+     *        resource name
+     * @param cache
+     *        if <code>true</code> the content is kept in the recently used resources cache (classes
+     *        bytes are only needed once so they don't need to be cached)
+     * @throws IOException
+     */
+    public byte[] getResourceContent(String name, boolean cache) throws IOException
+    {
+        byte content[];
+
+        synchronized (entryContents)
+        {
+            content = entryContents.get(name);
+        }
 
         // we load the content
         if (content == null)
@@ -90,35 +239,149 @@ public class JarResources
             if (url != null)
             {
                 // load content and return it
-                loadContent(name, url);
-                content = entryContents.get(name);
-
-                // try
-                // {
-                // // load content and return it
-                // loadContent(name, url);
-                // content = entryContents.get(name);
-                // }
-                // catch (IOException e)
-                // {
-                // // content cannot be loaded, remove the URL entry
-                // // better to not remove it after all, so we know why it failed next time
-                // // entryUrls.remove(name);
-                //
-                // // and throw exception
-                // throw e;
-                // }
+                content = loadContent(name, url);
+
+                if (cache && (content != null))
+                    setResourceContent(name, content);
             }
         }
 
         return content;
     }
 
-    protected void loadContent(String name, URL url) throws IOException
+    protected byte[] loadContent(String name, URL url) throws IOException
     {
+        final JarEntryRef ref;
+
+        synchronized (zipFiles)
+        {
+            ref = entryRefs.get(name);
+        }
+
+        // indexed local JAR entry --> direct read
+        if (ref != null)
+        {
+            try
+            {
+                final byte[] result = loadJarEntryContent(ref);
+                addLoadedSize(result.length);
+                return result;
+            }
+            catch (IllegalStateException e)
+            {
+                // archive has been closed, use URL instead
+            }
+        }
+
         // only support JAR resource here
-        final byte[] content = loadJarContent(url);
-        setResourceContent(name, content);
+        final byte[] result = loadJarContent(url);
+        addLoadedSize(result.length);
+        return result;
+    }
+
+    /**
+     * Increment the loaded resource size
+     */
+    protected void addLoadedSize(int size)
+    {
+        synchronized (entryContents)
+        {
+            loadedSize += size;
+        }
+    }
+
+    /**
+     * Returns the total size of resources loaded so far
+     */
+    public int getLoadedSize()
+    {
+        synchronized (entryContents)
+        {
+            return loadedSize;
+        }
+    }
+
+    /**
+     * Release opened JAR files and loaded resources.<br>
+     * Resources can still be accessed from their URL after this call (slower) as long as their JAR file is not
+     * replaced.
+     */
+    public void close()
+    {
+        synchronized (zipFiles)
+        {
+            for (ZipFile zipFile : zipFiles)
+            {
+                try
+                {
+                    zipFile.close();
+                }
+                catch (IOException e)
+                {
+                    // not important
+                    System.err.println("JarResources.close(" + zipFile.getName() + ") error:");
+                    IcyExceptionHandler.showErrorMessage(e, false, true);
+                }
+            }
+
+            zipFiles.clear();
+            entryRefs.clear();
+        }
+
+        synchronized (entryContents)
+        {
+            entryContents.clear();
+        }
+    }
+
+    /**
+     * Close the specified local JAR file (if opened by {@link #loadJar(File)}) so it can be replaced or
+     * deleted.<br>
+     * Its resources can still be accessed from their URL after this call (slower) until the JAR file is
+     * replaced: we never mix resources from different versions of a JAR file.
+     * 
+     * @return <code>true</code> if the JAR file was opened
+     */
+    public boolean release(File file)
+    {
+        final File absoluteFile = file.getAbsoluteFile();
+        ZipFile released = null;
+
+        synchronized (zipFiles)
+        {
+            for (ZipFile zipFile : zipFiles)
+            {
+                if (new File(zipFile.getName()).getAbsoluteFile().equals(absoluteFile))
+                {
+                    released = zipFile;
+                    break;
+                }
+            }
+
+            if (released == null)
+                return false;
+
+            zipFiles.remove(released);
+
+            // remove entry references of this archive
+            final Iterator<JarEntryRef> it = entryRefs.values().iterator();
+            while (it.hasNext())
+                if (it.next().zipFile == released)
+                    it.remove();
+        }
+
+        try
+        {
+            released.close();
+        }
+        catch (IOException e)
+        {
+            // not important
+            System.err.println("JarResources.release(" + released.getName() + ") error:");
+            IcyExceptionHandler.showErrorMessage(e, false, true);
+        }
+
+        return true;
     }
 
     /**
@@ -138,29 +401,36 @@ public class JarResources
     }
 
     /**
-     * Returns an immutable Map of all loaded jar resources
+     * Returns an immutable Map of loaded jar resources (only the most recently used resources are
+     * kept in memory)
      */
     public Map<String, byte[]> getLoadedResources()
     {
-        return Collections.unmodifiableMap(entryContents);
+        synchronized (entryContents)
+        {
+            return Collections.unmodifiableMap(new HashMap<String, byte[]>(entryContents));
+        }
     }
 
     /**
      * Loads the jar file from a specified File.<br>
-     * This method actually stores all contained URL in the specified JAR file.
+     * This method actually stores all contained URL in the specified JAR file and keeps the file
+     * opened so entries can be read on demand.
      * 
      * @throws IOException
      */
     public void loadJar(File file) throws IOException
     {
         final String filePath = file.getAbsolutePath();
-        final String urlPrefix = "jar:" + file.toURI().toString() + "!/";
+        final String fileUrl = file.toURI().toString();
+        final String urlPrefix = "jar:" + fileUrl + "!/";
 
         if (logger.isLoggable(Level.FINEST))
             logger.finest("Loading jar: " + filePath);
 
         // we don't care about JAR specific information so just use ZipFile here
         final ZipFile zipFile = new ZipFile(file);
+        boolean used = false;
 
         try
         {
@@ -192,27 +462,45 @@ public class JarResources
 
                 // add to internal resource HashMap
                 entryUrls.put(name, new URL(urlPrefix + name));
+                // and keep position in archive
+                synchronized (zipFiles)
+                {
+                    entryRefs.put(name, new JarEntryRef(zipFile, entry));
+                }
+                used = true;
             }
         }
         finally
         {
-            try
+            if (used)
             {
-                zipFile.close();
+                synchronized (zipFiles)
+                {
+                    zipFiles.add(zipFile);
+                    jarStamps.put(fileUrl, new JarStamp(file));
+                }
             }
-            catch (IOException e)
+            else
             {
-                // not important
-                System.err.println("JarResources.loadJar(" + filePath + ") error:");
-                IcyExceptionHandler.showErrorMessage(e, false, true);
+                try
+                {
+                    zipFile.close();
+                }
+                catch (IOException e)
+                {
+                    // not important
+                    System.err.println("JarResources.loadJar(" + filePath + ") error:");
+                    IcyExceptionHandler.showErrorMessage(e, false, true);
+                }
             }
         }
-
     }
 
     /**
      * Loads the jar file from a specified URL.<br>
-     * This method actually stores all contained URL in the specified JAR archive.
+     * This method actually stores all contained URL in the specified JAR archive.<br>
+     * Remote JAR file is downloaded once in a temporary file and then loaded as a local JAR file
+     * (see {@link #loadJar(File)}) so it is not downloaded again on each resource read.
      * 
      * @throws IOException
      */
@@ -239,86 +527,53 @@ public class JarResources
         if (logger.isLoggable(Level.FINEST))
             logger.finest("Loading jar: " + url.toString());
 
-        final String urlPrefix = "jar:" + url.toString() + "!/";
-        BufferedInputStream bis = null;
-        // we don't care about JAR specific information so just use ZipInputStream here
-        ZipInputStream zis = null;
+        final File file = File.createTempFile("jcl", ".jar");
+        file.deleteOnExit();
+
+        final InputStream in = url.openStream();
 
         try
         {
-            final InputStream in = url.openStream();
-
-            if (in instanceof BufferedInputStream)
-                bis = (BufferedInputStream) in;
-            else
-                bis = new BufferedInputStream(in);
+            final OutputStream out = new FileOutputStream(file);
 
-            zis = new ZipInputStream(bis);
-
-            ZipEntry entry = null;
-            while ((entry = zis.getNextEntry()) != null)
+            try
             {
-                if (logger.isLoggable(Level.FINEST))
-                    logger.finest(dump(entry));
-
-                if (entry.isDirectory())
-                    continue;
-
-                final String name = entry.getName();
-
-                // ignore manifest file
-                if (name.equals("META-INF/MANIFEST.MF"))
-                    continue;
-
-                if (entryUrls.containsKey(name))
-                {
-                    if (!collisionAllowed)
-                        throw new JclException("Class/Resource " + name + " already loaded");
+                final byte[] buffer = new byte[64 * 1024];
+                int len;
 
-                    if (logger.isLoggable(Level.FINEST))
-                        logger.finest("Class/Resource " + name + " already loaded; ignoring entry...");
-                    continue;
-                }
-
-                // add to internal resource HashMap
-                entryUrls.put(name, new URL(urlPrefix + name));
+                while ((len = in.read(buffer)) != -1)
+                    out.write(buffer, 0, len);
             }
+            finally
+            {
+                out.close();
+            }
+        }
+        catch (IOException e)
+        {
+            file.delete();
+            throw e;
         }
-        // catch (NullPointerException e)
-        // {
-        // if (logger.isLoggable(Level.FINEST))
-        // logger.finest("Done loading.");
-        // }
         finally
         {
-            if (zis != null)
-            {
-                try
-                {
-                    zis.close();
-                }
-                catch (IOException e)
-                {
-                    // not important
-                    System.err.println("JarResources.loadJar(" + url + ") error:");
-                    IcyExceptionHandler.showErrorMessage(e, false, true);
-                }
-            }
-
-            if (bis != null)
-            {
-                try
-                {
-                    bis.close();
-                }
-                catch (IOException e)
-                {
-                    // not important
-                    System.err.println("JarResources.loadJar(" + url + ") error:");
-                    IcyExceptionHandler.showErrorMessage(e, false, true);
-                }
-            }
+            in.close();
         }
+
+        loadJar(file);
+    }
+
+    /**
+     * Load the jar entry contents from the opened archive
+     * 
+     * @throws IOException
+     */
+    protected byte[] loadJarEntryContent(JarEntryRef ref) throws IOException
+    {
+        if (logger.isLoggable(Level.FINEST))
+            logger.finest(dump(ref.entry));
+
+        // ZipFile supports concurrent entry reading
+        return NetworkUtil.download(ref.zipFile.getInputStream(ref.entry), ref.entry.getSize(), null);
     }
 
     /**
@@ -329,6 +584,21 @@ public class JarResources
     protected byte[] loadJarContent(URL url) throws IOException
     {
         final JarURLConnection uc = (JarURLConnection) url.openConnection();
+        final JarStamp stamp;
+
+        synchronized (zipFiles)
+        {
+            stamp = jarStamps.get(uc.getJarFileURL().toString());
+        }
+
+        // JAR file replaced since it was loaded --> don't mix classes from different versions
+        if ((stamp != null) && stamp.isModified())
+            throw new IOException("JarResources.loadJarContent(" + url.toString() + ") error:\n"
+                    + stamp.file.getPath() + " has been replaced !");
+
+        // don't keep the archive opened (it would lock the file)
+        uc.setUseCaches(false);
+
         final JarEntry jarEntry = uc.getJarEntry();
 
         if (jarEntry != null)
@@ -344,21 +614,26 @@ public class JarResources
 
     protected void setResourceContent(String name, byte content[])
     {
-        if (entryContents.containsKey(name))
+        synchronized (entryContents)
         {
-            if (!collisionAllowed)
-                throw new JclException("Class/Resource " + name + " already loaded");
+            // content may have been loaded concurrently or evicted from cache
+            if (entryContents.containsKey(name))
+            {
+                if (logger.isLoggable(Level.FINEST))
+                    logger.finest("Class/Resource " + name + " already loaded; ignoring entry...");
+                return;
+            }
 
-            if (logger.isLoggable(Level.FINEST))
-                logger.finest("Class/Resource " + name + " already loaded; ignoring entry...");
-            return;
-        }
+            // too large to be cached
+            if ((entryContents instanceof ResourceCache) && !((ResourceCache) entryContents).accept(content))
+                return;
 
-        if (logger.isLoggable(Level.FINEST))
-            logger.finest("Entry Name: " + name + ", " + "Entry Size: " + content.length);
+            if (logger.isLoggable(Level.FINEST))
+                logger.finest("Entry Name: " + name + ", " + "Entry Size: " + content.length);
 
-        // add to internal resource HashMap
-        entryContents.put(name, content);
+            // add to internal resource cache
+            entryContents.put(name, content);
+        }
     }
 
     /**
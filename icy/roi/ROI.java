@@ -692,6 +692,25 @@ public abstract class ROI implements ChangeListener, XMLPersistent
             canBeRemoved = false;
         }
 
+        /**
+         * Returns the ROI attached to this painter.
+         */
+        public ROI getROI()
+        {
+            return ROI.this;
+        }
+
+        /**
+         * Returns <code>true</code> if the canvas can forward mouse events to this overlay only when
+         * they occur over (or near) the ROI bounds (the ROI still receives all events when
+         * selected, focused or in creation).<br>
+         * Override it and return <code>false</code> if the ROI need to receive all mouse events.
+         */
+        public boolean isMouseEventBoundsLimited()
+        {
+            return true;
+        }
+
         /**
          * Return the ROI painter stroke.
          */
@@ -1338,6 +1357,17 @@ public abstract class ROI implements ChangeListener, XMLPersistent
     protected boolean numberOfContourPointsInvalid;
     protected boolean numberOfPointsInvalid;
 
+    /**
+     * change version (incremented on each content or property change) and last version of each kind of change
+     */
+    protected long version;
+    protected final Map<String, Long> changeVersions;
+    /**
+     * mask version (incremented as soon as content or position changes) and cached masks (see {@link ROIMaskCache})
+     */
+    protected long maskVersion;
+    final Map<Object, ROIMaskCache.CacheEntry> maskCacheEntries;
+
     /**
      * listeners
      */
@@ -1369,6 +1399,11 @@ public abstract class ROI implements ChangeListener, XMLPersistent
         numberOfPointsInvalid = true;
         numberOfContourPointsInvalid = true;
 
+        version = 0L;
+        changeVersions = new HashMap<String, Long>();
+        maskVersion = 0L;
+        maskCacheEntries = ROIMaskCache.createEntries();
+
         listeners = new ArrayList<ROIListener>();
         updater = new UpdateEventHandler(this, false);
 
@@ -3282,6 +3317,8 @@ public abstract class ROI implements ChangeListener, XMLPersistent
     @Deprecated
     public void roiChanged(ROIPointEventType pointEventType, Object point)
     {
+        // cached masks are not anymore valid
+        maskChanged();
         // handle with updater
         updater.changed(new ROIEvent(this, ROIEventType.ROI_CHANGED, pointEventType, point));
     }
@@ -3294,6 +3331,8 @@ public abstract class ROI implements ChangeListener, XMLPersistent
      */
     public void roiChanged(boolean contentChanged)
     {
+        // cached masks are not anymore valid (position change also affects masks)
+        maskChanged();
         // handle with updater
         if (contentChanged)
             updater.changed(new ROIEvent(this, ROIEventType.ROI_CHANGED, ROI_CHANGED_ALL));
@@ -3411,15 +3450,126 @@ public abstract class ROI implements ChangeListener, XMLPersistent
         return updater.isUpdating();
     }
 
+    /**
+     * Returns the change version of the ROI.<br>
+     * It is incremented each time the ROI content or a property changes and can be used to identify a ROI state (see
+     * {@link #getChangesSince(long)}).
+     */
+    public long getVersion()
+    {
+        synchronized (changeVersions)
+        {
+            return version;
+        }
+    }
+
+    /**
+     * Returns the mask version of the ROI.<br>
+     * It is incremented as soon as the ROI content or position changes (even inside an update block) and once again
+     * when the change event is dispatched, so it can be used to validate a cached mask (see {@link ROIMaskCache}).
+     */
+    public long getMaskVersion()
+    {
+        synchronized (changeVersions)
+        {
+            return maskVersion;
+        }
+    }
+
+    /**
+     * Increment mask version and release cached masks
+     */
+    private void maskChanged()
+    {
+        synchronized (changeVersions)
+        {
+            maskVersion++;
+        }
+
+        ROIMaskCache.invalidate(this);
+    }
+
+    /**
+     * Returns the content change version of the ROI.<br>
+     * It corresponds to the last {@link #getVersion()} value where the ROI content or position changed (property
+     * changes are ignored) so it can be used to validate cached content data as the ROI mask.
+     */
+    public long getContentVersion()
+    {
+        long result = 0L;
+
+        synchronized (changeVersions)
+        {
+            for (Entry<String, Long> entry : changeVersions.entrySet())
+                if (entry.getKey().startsWith(ROIEventType.ROI_CHANGED.name()))
+                    result = Math.max(result, entry.getValue().longValue());
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns generic events describing the changes which happened since the specified version (see
+     * {@link #getVersion()}).<br>
+     * Only the last change of each kind is returned so this is mainly useful to test if a computed result (as a
+     * descriptor) is still valid (see {@link ROIDescriptor#needRecompute(ROIEvent)}).
+     */
+    public List<ROIEvent> getChangesSince(long version)
+    {
+        final List<ROIEvent> result = new ArrayList<ROIEvent>();
+
+        synchronized (changeVersions)
+        {
+            for (Entry<String, Long> entry : changeVersions.entrySet())
+            {
+                if (entry.getValue().longValue() > version)
+                {
+                    final String key = entry.getKey();
+                    final int sep = key.indexOf(':');
+                    final ROIEventType type = ROIEventType.valueOf(key.substring(0, sep));
+                    final String property = key.substring(sep + 1);
+
+                    // global property change --> consider all properties changed
+                    if ((type == ROIEventType.PROPERTY_CHANGED) && StringUtil.isEmpty(property))
+                    {
+                        for (String prop : new String[] {PROPERTY_NAME, PROPERTY_ID, PROPERTY_ICON, PROPERTY_CREATING,
+                                PROPERTY_READONLY, PROPERTY_SHOWNAME, PROPERTY_COLOR, PROPERTY_STROKE,
+                                PROPERTY_OPACITY})
+                            result.add(new ROIEvent(this, type, prop));
+                    }
+                    else
+                        result.add(new ROIEvent(this, type, property));
+                }
+            }
+        }
+
+        return result;
+    }
+
     @Override
     public void onChanged(CollapsibleEvent object)
     {
         final ROIEvent event = (ROIEvent) object;
 
+        // update change version
+        if ((event.getType() == ROIEventType.ROI_CHANGED) || (event.getType() == ROIEventType.PROPERTY_CHANGED))
+        {
+            final String property = event.getPropertyName();
+
+            synchronized (changeVersions)
+            {
+                version++;
+                changeVersions.put(event.getType().name() + ":" + ((property == null) ? "" : property),
+                        Long.valueOf(version));
+            }
+        }
+
         // do here global process on ROI change
         switch (event.getType())
         {
             case ROI_CHANGED:
+                // content may be rebuilt on event dispatch (as ROI shape) so cached masks are invalid again
+                maskChanged();
                 // cached properties need to be recomputed
                 boundsInvalid = true;
                 // need to recompute points
@@ -1243,13 +1243,24 @@ public abstract class ROI2D extends ROI
      */
     public BooleanMask2D getBooleanMask(boolean inclusive)
     {
+        // get version first so we never cache a mask computed from a newer content with an old version
+        final long maskVersion = getMaskVersion();
+        BooleanMask2D result = ROIMaskCache.getMask2D(this, -1, inclusive);
+
+        // use cached mask
+        if (result != null)
+            return result;
+
         final Rectangle bounds = getBounds();
 
         // empty ROI --> return empty mask
         if (bounds.isEmpty())
             return new BooleanMask2D(new Rectangle(), new boolean[0]);
 
-        return new BooleanMask2D(bounds, getBooleanMask(bounds, inclusive));
+        result = new BooleanMask2D(bounds, getBooleanMask(bounds, inclusive));
+        ROIMaskCache.putMask2D(this, -1, inclusive, maskVersion, result);
+
+        return result;
     }
 
     /**
@@ -23,6 +23,7 @@ import icy.canvas.IcyCanvas2D;
 import icy.canvas.IcyCanvas3D;
 import icy.gui.util.FontUtil;
 import icy.preferences.GeneralPreferences;
+import icy.roi.SurfaceNets.SurfaceArea;
 import icy.roi.edit.PositionROIEdit;
 import icy.sequence.Sequence;
 import icy.type.point.Point3D;
@@ -345,6 +346,13 @@ public abstract class ROI3D extends ROI
      */
     protected int c;
 
+    /**
+     * cached surface area (voxel unit) and the mask version it was computed for (guarded by
+     * <code>changeVersions</code>)
+     */
+    protected SurfaceArea cachedSurfaceArea;
+    protected long surfaceAreaVersion;
+
     public ROI3D()
     {
         super();
@@ -352,6 +360,9 @@ public abstract class ROI3D extends ROI
         // by default we consider no specific T and C attachment
         t = -1;
         c = -1;
+
+        cachedSurfaceArea = null;
+        surfaceAreaVersion = -1L;
     }
 
     @Override
@@ -539,6 +550,26 @@ public abstract class ROI3D extends ROI
                 if (roi3d.isEmpty())
                     return contains(roi3d.getPosition3D());
 
+                final Rectangle3D.Integer bounds = getBounds();
+                final Rectangle3D.Integer roiBounds = roi3d.getBounds();
+
+                // finite Z --> only test slices of the specified ROI
+                if (!bounds.isInfiniteZ() && !roiBounds.isInfiniteZ())
+                {
+                    // easy discard
+                    if ((roiBounds.z < bounds.z) || ((roiBounds.z + roiBounds.sizeZ) > (bounds.z + bounds.sizeZ)))
+                        return false;
+
+                    for (int z = roiBounds.z; z < (roiBounds.z + roiBounds.sizeZ); z++)
+                    {
+                        // test first only on content then on content and edge
+                        if (!containsMask2D(z, roi3d, false) || !containsMask2D(z, roi3d, true))
+                            return false;
+                    }
+
+                    return true;
+                }
+
                 BooleanMask3D mask;
                 BooleanMask3D roiMask;
 
@@ -648,6 +679,20 @@ public abstract class ROI3D extends ROI
         return intersects(x, y, z, sizeX, sizeY, sizeZ) && tok && cok;
     }
 
+    /**
+     * Returns <code>true</code> if the 2D mask of this ROI at the given Z position contains the 2D mask of the
+     * specified ROI.
+     */
+    private boolean containsMask2D(int z, ROI3D roi3d, boolean inclusive)
+    {
+        final BooleanMask2D roiMask = roi3d.getBooleanMask2D(z, inclusive);
+
+        if (roiMask.isEmpty())
+            return true;
+
+        return getBooleanMask2D(z, inclusive).contains(roiMask);
+    }
+
     /*
      * Generic implementation using the BooleanMask which is not accurate and slow.
      * Override this for specific ROI type.
@@ -660,7 +705,25 @@ public abstract class ROI3D extends ROI
             final ROI3D roi3d = (ROI3D) roi;
 
             if (onSamePos(roi3d, false))
+            {
+                final Rectangle3D.Integer bounds = getBounds();
+                final Rectangle3D.Integer roiBounds = roi3d.getBounds();
+
+                // finite Z --> only test slices in the overlapping Z range
+                if (!bounds.isInfiniteZ() && !roiBounds.isInfiniteZ())
+                {
+                    final int minZ = Math.max(bounds.z, roiBounds.z);
+                    final int maxZ = Math.min(bounds.z + bounds.sizeZ, roiBounds.z + roiBounds.sizeZ) - 1;
+
+                    for (int z = minZ; z <= maxZ; z++)
+                        if (getBooleanMask2D(z, true).intersects(roi3d.getBooleanMask2D(z, true)))
+                            return true;
+
+                    return false;
+                }
+
                 return getBooleanMask(true).intersects(roi3d.getBooleanMask(true));
+            }
         }
 
         // use default implementation
@@ -970,17 +1033,27 @@ public abstract class ROI3D extends ROI
      */
     public BooleanMask2D getBooleanMask2D(int z, boolean inclusive)
     {
+        // get version first so we never cache a mask computed from a newer content with an old version
+        final long maskVersion = getMaskVersion();
+        BooleanMask2D result = ROIMaskCache.getMask2D(this, z, inclusive);
+
+        // use cached mask
+        if (result != null)
+            return result;
+
         final Rectangle bounds = getBounds3D().toRectangle2D().getBounds();
 
         // empty ROI --> return empty mask
         if (bounds.isEmpty())
             return new BooleanMask2D(new Rectangle(), new boolean[0]);
 
-        final BooleanMask2D result = new BooleanMask2D(bounds, getBooleanMask2D(bounds, z, inclusive));
+        result = new BooleanMask2D(bounds, getBooleanMask2D(bounds, z, inclusive));
 
         // optimized bounds to optimize memory usage for this specific Z slice mask
         result.optimizeBounds();
 
+        ROIMaskCache.putMask2D(this, z, inclusive, maskVersion, result);
+
         return result;
     }
 
@@ -1037,6 +1110,63 @@ public abstract class ROI3D extends ROI
         return new BooleanMask3D(bounds, masks);
     }
 
+    /**
+     * Get the {@link BooleanMask3D} object representing the roi for the specified Z interval only (the interval is
+     * clipped to the ROI bounds so slices outside the ROI are never computed).<br>
+     * 
+     * @param minZ
+     *        minimum Z position (inclusive)
+     * @param maxZ
+     *        maximum Z position (inclusive)
+     * @param inclusive
+     *        If true then all partially contained (intersected) pixels are included in the mask.
+     */
+    public BooleanMask3D getBooleanMask(int minZ, int maxZ, boolean inclusive)
+    {
+        final Rectangle3D.Integer bounds = getBounds();
+        final int startZ;
+        final int endZ;
+
+        if (bounds.isInfiniteZ())
+        {
+            startZ = minZ;
+            endZ = maxZ;
+        }
+        else
+        {
+            startZ = Math.max(minZ, bounds.z);
+            endZ = Math.min(maxZ, (bounds.z + bounds.sizeZ) - 1);
+        }
+
+        // empty interval
+        if (endZ < startZ)
+            return new BooleanMask3D();
+
+        final BooleanMask2D masks[] = new BooleanMask2D[(endZ - startZ) + 1];
+        Rectangle xyBounds = null;
+
+        for (int z = 0; z < masks.length; z++)
+        {
+            final BooleanMask2D mask = getBooleanMask2D(startZ + z, inclusive);
+
+            if (!mask.isEmpty())
+            {
+                masks[z] = mask;
+
+                if (xyBounds == null)
+                    xyBounds = new Rectangle(mask.bounds);
+                else
+                    xyBounds.add(mask.bounds);
+            }
+        }
+
+        if (xyBounds == null)
+            return new BooleanMask3D();
+
+        return new BooleanMask3D(new Rectangle3D.Integer(xyBounds.x, xyBounds.y, startZ, xyBounds.width,
+                xyBounds.height, masks.length), masks);
+    }
+
     /*
      * Generic implementation for ROI3D using the BooleanMask object so the result is just an
      * approximation. This method should be overridden whenever possible to provide more optimal
@@ -1067,23 +1197,69 @@ public abstract class ROI3D extends ROI
 
     /**
      * Compute the surface area in um2 given the pixel size informations from the specified Sequence.<br>
-     * Generic implementation of surface area computation using the number of contour point (approximation).<br>
-     * This method should be overridden whenever possible to provide faster and accurate calculation.
+     * Generic implementation using the surface mesh of the boolean mask (see {@link #getSurfaceAreaInVoxel()}) scaled
+     * by the sequence pixel size.<br>
+     * This method can be overridden to provide faster or more accurate calculation.
      */
     public double computeSurfaceArea(Sequence sequence)
     {
-        return sequence.calculateSize(getNumberOfContourPoints(), 3, 2);
+        return getSurfaceAreaInVoxel().getArea(sequence.getPixelSizeX(), sequence.getPixelSizeY(),
+                sequence.getPixelSizeZ());
+    }
+
+    /**
+     * Compute the surface area of the ROI in voxel unit.<br>
+     * Generic implementation using a surface mesh built from the boolean mask (see {@link SurfaceNets}).
+     */
+    protected SurfaceArea computeSurfaceAreaInVoxel()
+    {
+        return SurfaceNets.computeSurfaceArea(getBooleanMask(true));
+    }
+
+    /**
+     * Returns surface area of the ROI in voxel unit.<br>
+     * Result is cached until ROI content changes and can be converted to any (anisotropic) pixel size with
+     * {@link SurfaceArea#getArea(double, double, double)}.
+     * 
+     * @see #computeSurfaceAreaInVoxel()
+     */
+    public SurfaceArea getSurfaceAreaInVoxel()
+    {
+        final long version;
+
+        synchronized (changeVersions)
+        {
+            version = maskVersion;
+
+            if ((cachedSurfaceArea != null) && (surfaceAreaVersion == version))
+                return cachedSurfaceArea;
+        }
+
+        // compute outside the lock as it can be long
+        final SurfaceArea result = computeSurfaceAreaInVoxel();
+
+        synchronized (changeVersions)
+        {
+            // ROI changed meanwhile ? --> don't cache a possibly outdated result
+            if (maskVersion == version)
+            {
+                cachedSurfaceArea = result;
+                surfaceAreaVersion = version;
+            }
+        }
+
+        return result;
     }
 
     /**
      * Returns surface area of the 3D ROI in um2 given the pixel size informations from the specified Sequence.
      * 
      * @see #computeSurfaceArea(Sequence)
-     * @see #getNumberOfContourPoints()
+     * @see #getSurfaceAreaInVoxel()
      */
     public double getSurfaceArea(Sequence sequence)
     {
-        // we cannot cache surface area as result depends from sequence metadata
+        // result depends from sequence metadata but voxel surface area is cached
         return computeSurfaceArea(sequence);
     }
 
@@ -1201,21 +1377,6 @@ public abstract class ROI3D extends ROI
         return ((getT() == -1) || (t == -1) || (getT() == t)) && ((getC() == -1) || (c == -1) || (getC() == c));
     }
 
-    // @Override
-    // public void onChanged(CollapsibleEvent object)
-    // {
-    // super.onChanged(object);
-    //
-    // final ROIEvent event = (ROIEvent) object;
-    //
-    // if (event.getType() == ROIEventType.ROI_CHANGED)
-    // {
-    // // need to recompute surface area
-    // if (StringUtil.equals(event.getPropertyName(), ROI_CHANGED_ALL))
-    // surfaceAreaInvalid = true;
-    // }
-    // }
-
     /**
      * Returns true if specified point coordinates overlap the ROI edge.<br>
      * Use {@link #contains(Point3D)} to test for content overlap instead.
@@ -100,7 +100,9 @@ public abstract class ROIDescriptor
 
     /**
      * Computes the specified descriptor from the input {@link ROIDescriptor} set on given ROI
-     * and returns the result (or <code>null</code> if the descriptor is not found).
+     * and returns the result (or <code>null</code> if the descriptor is not found).<br>
+     * When a sequence is specified, a previously stored result is returned if still valid (see
+     * {@link ROIDescriptorStore}).
      * 
      * @param roiDescriptors
      *        the input {@link ROIDescriptor} set (see {@link #getDescriptors()} method)
@@ -124,7 +126,13 @@ public abstract class ROIDescriptor
         final ROIDescriptor roiDescriptor = getDescriptor(roiDescriptors, descriptorId);
 
         if (roiDescriptor != null)
+        {
+            // use sequence stored results when possible
+            if (sequence != null)
+                return sequence.getROIDescriptorStore().compute(roiDescriptor, roi);
+
             return roiDescriptor.compute(roi, sequence);
+        }
 
         return null;
     }
@@ -0,0 +1,573 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.roi;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import icy.common.listener.ProgressListener;
+import icy.file.FileUtil;
+import icy.plugin.interface_.PluginROIDescriptor;
+import icy.sequence.Sequence;
+import icy.system.IcyExceptionHandler;
+import icy.system.SystemUtil;
+import icy.system.thread.Processor;
+import icy.util.ClassUtil;
+import icy.util.StringUtil;
+import icy.util.XLSXWriter;
+import plugins.kernel.roi.descriptor.property.ROIColorDescriptor;
+import plugins.kernel.roi.descriptor.property.ROIIconDescriptor;
+import plugins.kernel.roi.descriptor.property.ROINameDescriptor;
+import plugins.kernel.roi.descriptor.property.ROIOpacityDescriptor;
+
+/**
+ * Streaming export of ROI descriptor values (one row per ROI, one column per descriptor / channel)
+ * in CSV or XLSX format.<br>
+ * Descriptors are computed in parallel (or retrieved from the sequence
+ * {@link ROIDescriptorStore} when already computed) and rows are written in ROI order as soon as
+ * they are available. Only a limited number of rows is kept in memory so the export can handle
+ * any number of ROIs. It does not require any GUI and can be used from scripts or batch
+ * processing:
+ * 
+ * <pre>
+ * ROIDescriptorExporter.export(sequence, sequence.getROIs(), new File(&quot;result.xlsx&quot;), null);
+ * </pre>
+ * 
+ * @author Stephane
+ */
+public class ROIDescriptorExporter
+{
+    /**
+     * Export column
+     */
+    public static class Column
+    {
+        public final ROIDescriptor descriptor;
+        /**
+         * channel for per channel descriptor (see {@link ROIDescriptor#separateChannel()}), ignored
+         * otherwise
+         */
+        public final int channel;
+        public final String name;
+
+        public Column(ROIDescriptor descriptor, int channel, String name)
+        {
+            super();
+
+            this.descriptor = descriptor;
+            this.channel = channel;
+            this.name = name;
+        }
+
+        /**
+         * Returns the channel used for descriptor computation (-1 if the descriptor does not
+         * separate channels)
+         */
+        public int getComputeChannel()
+        {
+            return descriptor.separateChannel() ? channel : -1;
+        }
+    }
+
+    /**
+     * Row writer used by the export
+     */
+    protected static interface RowWriter
+    {
+        public void writeRow(Object[] values) throws IOException;
+    }
+
+    /**
+     * Default CSV separator
+     */
+    public static final char DEFAULT_SEPARATOR = '\t';
+
+    protected final Sequence sequence;
+    protected final List<Column> columns;
+    protected final Map<ROIDescriptor, PluginROIDescriptor> plugins;
+    protected char separator;
+    protected int numThread;
+
+    /**
+     * Create a new exporter.
+     * 
+     * @param sequence
+     *        sequence used for descriptor computation (pixel size, intensities...), can be
+     *        <code>null</code> in which case descriptors requiring it will be empty
+     * @param columns
+     *        exported columns (see {@link #getDefaultColumns(Sequence)})
+     */
+    public ROIDescriptorExporter(Sequence sequence, List<Column> columns)
+    {
+        super();
+
+        this.sequence = sequence;
+        this.columns = new ArrayList<Column>(columns);
+        plugins = ROIUtil.getROIDescriptors();
+        separator = DEFAULT_SEPARATOR;
+        numThread = SystemUtil.getNumberOfCPUs();
+    }
+
+    /**
+     * Create a new exporter for default columns (see {@link #getDefaultColumns(Sequence)})
+     */
+    public ROIDescriptorExporter(Sequence sequence)
+    {
+        this(sequence, getDefaultColumns(sequence));
+    }
+
+    /**
+     * Returns default export columns: all descriptors returning a number or a string value (one
+     * column per channel for per channel descriptors).
+     */
+    public static List<Column> getDefaultColumns(Sequence sequence)
+    {
+        final List<ROIDescriptor> descriptors = new ArrayList<ROIDescriptor>(ROIUtil.getROIDescriptors().keySet());
+        final List<Column> result = new ArrayList<Column>();
+        final int numChannel = (sequence != null) ? sequence.getSizeC() : 1;
+
+        // name first then alphabetical order
+        Collections.sort(descriptors, new Comparator<ROIDescriptor>()
+        {
+            @Override
+            public int compare(ROIDescriptor d1, ROIDescriptor d2)
+            {
+                final boolean n1 = StringUtil.equals(d1.getId(), ROINameDescriptor.ID);
+                final boolean n2 = StringUtil.equals(d2.getId(), ROINameDescriptor.ID);
+
+                if (n1 != n2)
+                    return n1 ? -1 : 1;
+
+                return d1.getName().compareToIgnoreCase(d2.getName());
+            }
+        });
+
+        for (ROIDescriptor descriptor : descriptors)
+        {
+            final Class<?> type = descriptor.getType();
+
+            if (StringUtil.equals(descriptor.getId(), ROIOpacityDescriptor.ID))
+                continue;
+            if (!ClassUtil.isSubClass(type, String.class) && !ClassUtil.isSubClass(type, Number.class))
+                continue;
+
+            for (int ch = 0; ch < (descriptor.separateChannel() ? numChannel : 1); ch++)
+                result.add(new Column(descriptor, ch, getColumnName(sequence, descriptor, ch)));
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns default column name for the specified descriptor and channel (name, unit and channel
+     * name).
+     */
+    public static String getColumnName(Sequence sequence, ROIDescriptor descriptor, int channel)
+    {
+        String result = descriptor.getName();
+        final String unit = descriptor.getUnit(sequence);
+
+        if (!StringUtil.isEmpty(unit))
+            result += " (" + unit + ")";
+        if (descriptor.separateChannel() && (sequence != null) && (channel < sequence.getSizeC()))
+            result += " (" + sequence.getChannelName(channel) + ")";
+
+        return result;
+    }
+
+    /**
+     * Returns exported columns
+     */
+    public List<Column> getColumns()
+    {
+        return new ArrayList<Column>(columns);
+    }
+
+    /**
+     * Returns the CSV separator (tabulation by default)
+     */
+    public char getSeparator()
+    {
+        return separator;
+    }
+
+    /**
+     * Set the CSV separator (tabulation by default)
+     */
+    public void setSeparator(char value)
+    {
+        separator = value;
+    }
+
+    /**
+     * Returns the number of thread used for descriptor computation
+     */
+    public int getNumThread()
+    {
+        return numThread;
+    }
+
+    /**
+     * Set the number of thread used for descriptor computation (number of CPU by default)
+     */
+    public void setNumThread(int value)
+    {
+        numThread = Math.max(1, value);
+    }
+
+    /**
+     * Export descriptors of the specified ROIs in the specified file.<br>
+     * The format depends on the file extension: XLSX for <i>.xls</i> and <i>.xlsx</i> files, CSV
+     * otherwise (a <i>.xls</i> extension is replaced by <i>.xlsx</i>).
+     * 
+     * @return <code>false</code> if the export was canceled
+     */
+    public boolean export(Collection<? extends ROI> rois, File file, ProgressListener progressListener)
+            throws IOException
+    {
+        final String ext = FileUtil.getFileExtension(file.getPath(), false).toLowerCase();
+
+        if (ext.startsWith("xls"))
+        {
+            File f = file;
+
+            if (!StringUtil.equals(ext, XLSXWriter.FILE_EXTENSION))
+                f = new File(FileUtil.setExtension(file.getPath(), XLSXWriter.FILE_DOT_EXTENSION));
+
+            return exportXLSX(rois, new FileOutputStream(f), "ROIS", progressListener);
+        }
+
+        return exportCSV(rois, new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), progressListener);
+    }
+
+    /**
+     * Export descriptors of the specified ROIs in the specified file with default columns.
+     * 
+     * @see #export(Collection, File, ProgressListener)
+     */
+    public static boolean export(Sequence sequence, Collection<? extends ROI> rois, File file,
+            ProgressListener progressListener) throws IOException
+    {
+        return new ROIDescriptorExporter(sequence).export(rois, file, progressListener);
+    }
+
+    /**
+     * Export descriptors of the specified ROIs in CSV format (the writer is closed at the end).
+     * 
+     * @return <code>false</code> if the export was canceled
+     */
+    public boolean exportCSV(Collection<? extends ROI> rois, Writer writer, ProgressListener progressListener)
+            throws IOException
+    {
+        final Writer out = new BufferedWriter(writer, 65536);
+        final StringBuilder line = new StringBuilder(1024);
+
+        try
+        {
+            return export(rois, new RowWriter()
+            {
+                @Override
+                public void writeRow(Object[] values) throws IOException
+                {
+                    line.setLength(0);
+
+                    for (int i = 0; i < values.length; i++)
+                    {
+                        if (i > 0)
+                            line.append(separator);
+                        if (values[i] != null)
+                            line.append(toCSV(values[i].toString()));
+                    }
+
+                    line.append("\r\n");
+                    out.write(line.toString());
+                }
+            }, progressListener);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Export descriptors of the specified ROIs in XLSX format (the stream is closed at the end).
+     * 
+     * @return <code>false</code> if the export was canceled
+     */
+    public boolean exportXLSX(Collection<? extends ROI> rois, OutputStream stream, String sheetName,
+            ProgressListener progressListener) throws IOException
+    {
+        final XLSXWriter out = new XLSXWriter(stream);
+
+        try
+        {
+            out.newSheet(sheetName);
+
+            return export(rois, new RowWriter()
+            {
+                @Override
+                public void writeRow(Object[] values) throws IOException
+                {
+                    out.addRow(values);
+                }
+            }, progressListener);
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Quote the value if needed (contains separator, quote or line break)
+     */
+    protected String toCSV(String value)
+    {
+        if ((value.indexOf(separator) == -1) && (value.indexOf('"') == -1) && (value.indexOf('\n') == -1)
+                && (value.indexOf('\r') == -1))
+            return value;
+
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    protected boolean export(Collection<? extends ROI> rois, RowWriter out, ProgressListener progressListener)
+            throws IOException
+    {
+        final int numColumn = columns.size();
+        final Object[] header = new Object[numColumn];
+
+        for (int i = 0; i < numColumn; i++)
+            header[i] = columns.get(i).name;
+        out.writeRow(header);
+
+        final int numRow = rois.size();
+
+        if (numRow == 0)
+            return true;
+
+        final Processor processor = new Processor(Processor.DEFAULT_MAX_WAITING, numThread, Processor.MIN_PRIORITY);
+        // number of rows computed in advance (bounds memory usage)
+        final int window = Math.min(numThread * 16, Processor.DEFAULT_MAX_WAITING);
+        final LinkedList<Future<Object[]>> futures = new LinkedList<Future<Object[]>>();
+        final Iterator<? extends ROI> it = rois.iterator();
+        int done = 0;
+
+        processor.setThreadName("ROI descriptor export");
+
+        try
+        {
+            while (it.hasNext() || !futures.isEmpty())
+            {
+                // fill computation window
+                while (it.hasNext() && (futures.size() < window))
+                {
+                    final ROI roi = it.next();
+
+                    futures.add(processor.submit(new Callable<Object[]>()
+                    {
+                        @Override
+                        public Object[] call() throws Exception
+                        {
+                            return computeRow(roi);
+                        }
+                    }));
+                }
+
+                // write rows in order
+                try
+                {
+                    out.writeRow(futures.removeFirst().get());
+                }
+                catch (ExecutionException e)
+                {
+                    throw new IOException("ROI descriptor computation failed", e.getCause());
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+
+                done++;
+
+                if ((progressListener != null) && !progressListener.notifyProgress(done, numRow))
+                    return false;
+            }
+        }
+        finally
+        {
+            processor.shutdownNow();
+        }
+
+        return true;
+    }
+
+    /**
+     * Compute (or retrieve) and format the column values for the specified ROI
+     */
+    protected Object[] computeRow(ROI roi)
+    {
+        final Object[] result = new Object[columns.size()];
+        // values computed for this ROI (plugins compute several descriptors at once)
+        final Map<String, Object> values = new HashMap<String, Object>();
+
+        for (int i = 0; i < result.length; i++)
+        {
+            final Column column = columns.get(i);
+            result[i] = formatValue(roi, column, getValue(roi, column, values));
+        }
+
+        return result;
+    }
+
+    private static String getKey(ROIDescriptor descriptor, int channel)
+    {
+        return descriptor.getId() + ":" + channel;
+    }
+
+    protected Object getValue(ROI roi, Column column, Map<String, Object> values)
+    {
+        final ROIDescriptor descriptor = column.descriptor;
+        final int channel = column.getComputeChannel();
+        final String key = getKey(descriptor, channel);
+
+        if (values.containsKey(key))
+            return values.get(key);
+
+        // already computed ?
+        if (sequence != null)
+        {
+            final ROIDescriptorStore.Result stored = sequence.getROIDescriptorStore().get(roi, channel, descriptor);
+
+            if (stored != null)
+                return stored.getValue();
+        }
+
+        final PluginROIDescriptor plugin = plugins.get(descriptor);
+
+        if (plugin == null)
+            return null;
+
+        final long roiVersion = roi.getVersion();
+        final long sequenceVersion = (sequence != null) ? sequence.getVersion() : 0L;
+
+        try
+        {
+            final ROI target = (channel != -1) ? roi.getSubROI(-1, -1, channel) : roi;
+
+            if (target == null)
+                throw new UnsupportedOperationException("Can't retrieve sub ROI for channel " + channel);
+
+            final Map<ROIDescriptor, Object> results = plugin.compute(target, sequence);
+
+            for (Entry<ROIDescriptor, Object> entry : results.entrySet())
+            {
+                final ROIDescriptor resultDescriptor = entry.getKey();
+                final int resultChannel = resultDescriptor.separateChannel() ? column.channel : -1;
+
+                values.put(getKey(resultDescriptor, resultChannel), entry.getValue());
+
+                // store result so it doesn't need to be computed again
+                if (sequence != null)
+                    sequence.getROIDescriptorStore().put(roi, resultChannel, resultDescriptor, entry.getValue(),
+                            roiVersion, sequenceVersion);
+            }
+        }
+        catch (Throwable t)
+        {
+            // not an UnsupportedOperationException --> show the error
+            if (!(t instanceof UnsupportedOperationException))
+                IcyExceptionHandler.showErrorMessage(t, true);
+
+            final List<ROIDescriptor> descriptors = plugin.getDescriptors();
+
+            // set results as empty
+            if (descriptors != null)
+            {
+                for (ROIDescriptor desc : descriptors)
+                    values.put(getKey(desc, desc.separateChannel() ? column.channel : -1), null);
+            }
+        }
+
+        // descriptor not returned by its plugin
+        if (!values.containsKey(key))
+            values.put(key, null);
+
+        return values.get(key);
+    }
+
+    /**
+     * Format the descriptor value for export.<br>
+     * Override it to change the exported values.
+     */
+    protected Object formatValue(ROI roi, Column column, Object value)
+    {
+        if (value == null)
+            return null;
+
+        final String id = column.descriptor.getId();
+
+        // special case of icon --> use the ROI class name
+        if (StringUtil.equals(id, ROIIconDescriptor.ID))
+            return roi.getSimpleClassName();
+        // special case of color --> use the color code
+        if (StringUtil.equals(id, ROIColorDescriptor.ID))
+            return String.format("%06X", Integer.valueOf(roi.getColor().getRGB() & 0xFFFFFF));
+
+        // special case of double array
+        if (value instanceof double[])
+        {
+            final double[] darray = (double[]) value;
+            final StringBuilder result = new StringBuilder();
+
+            for (int l = 0; l < darray.length; l++)
+            {
+                if (l > 0)
+                    result.append(" ");
+                result.append(darray[l]);
+            }
+
+            return result.toString();
+        }
+
+        if ((value instanceof Number) || (value instanceof Boolean))
+            return value;
+
+        return value.toString();
+    }
+}
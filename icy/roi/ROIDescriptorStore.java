@@ -0,0 +1,507 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.roi;
+
+import icy.file.xml.XMLPersistent;
+import icy.sequence.Sequence;
+import icy.sequence.SequenceEvent;
+import icy.util.StringUtil;
+import icy.util.XMLUtil;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Store of ROI descriptor results for a {@link Sequence}.<br>
+ * Results are identified by ROI id, channel and descriptor id and remember the ROI and sequence versions they were
+ * computed from (see {@link ROI#getVersion()} and {@link Sequence#getVersion()}).<br>
+ * A result remains valid as long as changes which happened since its computation don't require the descriptor to be
+ * recomputed (see {@link ROIDescriptor#needRecompute(ROIEvent)} and
+ * {@link ROIDescriptor#needRecompute(SequenceEvent)}).<br>
+ * <br>
+ * The store is shared by the ROI panel and
+ * {@link ROIDescriptor#computeDescriptor(Collection, String, ROI, Sequence)} (so {@link ROIUtil} and scripts). It is
+ * saved with the sequence XML persistent data so unchanged ROIs don't need to be measured again when the sequence is
+ * reopened (only for simple result type: number, boolean and string).
+ * 
+ * @author Stephane
+ */
+public class ROIDescriptorStore implements XMLPersistent
+{
+    public static final String ID_RESULT = "result";
+    public static final String ID_ROI = "roi";
+    public static final String ID_CHANNEL = "channel";
+    public static final String ID_DESCRIPTOR = "descriptor";
+    public static final String ID_TYPE = "type";
+    public static final String ID_SIGNATURE = "signature";
+
+    /**
+     * Descriptor result with the ROI and sequence versions used to compute it.
+     */
+    public static class Result
+    {
+        final Object value;
+        final long roiVersion;
+        final long sequenceVersion;
+        /**
+         * descriptor which computed the result (<code>null</code> if loaded from XML and not yet accessed)
+         */
+        final ROIDescriptor descriptor;
+
+        Result(Object value, long roiVersion, long sequenceVersion, ROIDescriptor descriptor)
+        {
+            super();
+
+            this.value = value;
+            this.roiVersion = roiVersion;
+            this.sequenceVersion = sequenceVersion;
+            this.descriptor = descriptor;
+        }
+
+        public Object getValue()
+        {
+            return value;
+        }
+    }
+
+    private static class Key
+    {
+        final int roiId;
+        final int channel;
+        final String descriptorId;
+
+        Key(int roiId, int channel, String descriptorId)
+        {
+            super();
+
+            this.roiId = roiId;
+            this.channel = channel;
+            this.descriptorId = descriptorId;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj instanceof Key)
+            {
+                final Key key = (Key) obj;
+
+                return (key.roiId == roiId) && (key.channel == channel)
+                        && StringUtil.equals(key.descriptorId, descriptorId);
+            }
+
+            return false;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (roiId * 31 + channel) * 31 + descriptorId.hashCode();
+        }
+    }
+
+    private final Sequence sequence;
+    private final Map<Key, Result> results;
+
+    public ROIDescriptorStore(Sequence sequence)
+    {
+        super();
+
+        this.sequence = sequence;
+        results = new HashMap<Key, Result>();
+    }
+
+    /**
+     * Returns <code>true</code> if no change since the specified result computation requires the descriptor to be
+     * recomputed.
+     */
+    private boolean isValid(Result result, ROI roi, ROIDescriptor descriptor)
+    {
+        for (ROIEvent event : roi.getChangesSince(result.roiVersion))
+            if (descriptor.needRecompute(event))
+                return false;
+        for (SequenceEvent event : sequence.getChangesSince(result.sequenceVersion))
+            if (descriptor.needRecompute(event))
+                return false;
+
+        return true;
+    }
+
+    /**
+     * Returns the stored result of the descriptor for the specified ROI and channel, or <code>null</code> if there is
+     * no valid result.
+     * 
+     * @param roi
+     *        the ROI
+     * @param channel
+     *        the channel for per channel descriptor (see {@link ROIDescriptor#separateChannel()}) or -1
+     * @param descriptor
+     *        the descriptor
+     */
+    public Result get(ROI roi, int channel, ROIDescriptor descriptor)
+    {
+        final Key key = new Key(roi.getId(), channel, descriptor.getId());
+        final Result result;
+
+        synchronized (results)
+        {
+            result = results.get(key);
+        }
+
+        if (result == null)
+            return null;
+
+        return validate(key, result, roi, descriptor);
+    }
+
+    /**
+     * Returns the specified stored result if it is still valid for the current ROI and sequence state (versions are
+     * then updated for faster check next time) or <code>null</code> otherwise (result is removed).
+     */
+    private Result validate(Key key, Result result, ROI roi, ROIDescriptor descriptor)
+    {
+        final long roiVersion = roi.getVersion();
+        final long sequenceVersion = sequence.getVersion();
+
+        // ROI or sequence changed since computation ?
+        if ((result.roiVersion != roiVersion) || (result.sequenceVersion != sequenceVersion))
+        {
+            if (!isValid(result, roi, descriptor))
+            {
+                synchronized (results)
+                {
+                    if (results.get(key) == result)
+                        results.remove(key);
+                }
+
+                return null;
+            }
+
+            // still valid --> update versions for faster check next time
+            final Result newResult = new Result(result.value, roiVersion, sequenceVersion, descriptor);
+
+            synchronized (results)
+            {
+                if (results.get(key) == result)
+                    results.put(key, newResult);
+            }
+
+            return newResult;
+        }
+
+        return result;
+    }
+
+    /**
+     * Store the result of the descriptor for the specified ROI and channel.
+     * 
+     * @param roi
+     *        the ROI
+     * @param channel
+     *        the channel for per channel descriptor (see {@link ROIDescriptor#separateChannel()}) or -1
+     * @param descriptor
+     *        the descriptor
+     * @param value
+     *        the descriptor result
+     * @param roiVersion
+     *        ROI version (see {@link ROI#getVersion()}) retrieved <b>before</b> the computation
+     * @param sequenceVersion
+     *        sequence version (see {@link Sequence#getVersion()}) retrieved <b>before</b> the computation
+     */
+    public void put(ROI roi, int channel, ROIDescriptor descriptor, Object value, long roiVersion,
+            long sequenceVersion)
+    {
+        final Key key = new Key(roi.getId(), channel, descriptor.getId());
+
+        synchronized (results)
+        {
+            results.put(key, new Result(value, roiVersion, sequenceVersion, descriptor));
+        }
+    }
+
+    /**
+     * Store the results of several descriptors for the specified ROI and channel.
+     * 
+     * @see #put(ROI, int, ROIDescriptor, Object, long, long)
+     */
+    public void putAll(ROI roi, int channel, Map<ROIDescriptor, Object> values, long roiVersion,
+            long sequenceVersion)
+    {
+        synchronized (results)
+        {
+            for (Map.Entry<ROIDescriptor, Object> entry : values.entrySet())
+                results.put(new Key(roi.getId(), channel, entry.getKey().getId()),
+                        new Result(entry.getValue(), roiVersion, sequenceVersion, entry.getKey()));
+        }
+    }
+
+    /**
+     * Returns the result of the descriptor for the specified ROI, computing and storing it only if there is no valid
+     * stored result.
+     * 
+     * @throws UnsupportedOperationException
+     *         if the descriptor does not support the ROI (see {@link ROIDescriptor#compute(ROI, Sequence)})
+     */
+    public Object compute(ROIDescriptor descriptor, ROI roi) throws UnsupportedOperationException
+    {
+        final Result stored = get(roi, -1, descriptor);
+
+        if (stored != null)
+            return stored.getValue();
+
+        final long roiVersion = roi.getVersion();
+        final long sequenceVersion = sequence.getVersion();
+        final Object result = descriptor.compute(roi, sequence);
+
+        put(roi, -1, descriptor, result, roiVersion, sequenceVersion);
+
+        return result;
+    }
+
+    /**
+     * Remove all results of the specified ROI.
+     */
+    public void remove(ROI roi)
+    {
+        final int id = roi.getId();
+
+        synchronized (results)
+        {
+            final Iterator<Key> it = results.keySet().iterator();
+
+            while (it.hasNext())
+                if (it.next().roiId == id)
+                    it.remove();
+        }
+    }
+
+    /**
+     * Remove results of all ROIs which are not in the specified collection.
+     */
+    public void retain(Collection<ROI> rois)
+    {
+        final Set<Integer> ids = new HashSet<Integer>();
+
+        for (ROI roi : rois)
+            ids.add(Integer.valueOf(roi.getId()));
+
+        synchronized (results)
+        {
+            final Iterator<Key> it = results.keySet().iterator();
+
+            while (it.hasNext())
+                if (!ids.contains(Integer.valueOf(it.next().roiId)))
+                    it.remove();
+        }
+    }
+
+    /**
+     * Remove all results.
+     */
+    public void clear()
+    {
+        synchronized (results)
+        {
+            results.clear();
+        }
+    }
+
+    /**
+     * Returns the number of stored results.
+     */
+    public int size()
+    {
+        synchronized (results)
+        {
+            return results.size();
+        }
+    }
+
+    /**
+     * Returns the sequence signature used to check persistent results are consistent with the sequence data
+     */
+    private String getSignature()
+    {
+        return sequence.getSizeX() + "," + sequence.getSizeY() + "," + sequence.getSizeZ() + ","
+                + sequence.getSizeT() + "," + sequence.getSizeC() + "," + sequence.getDataType_();
+    }
+
+    private static Object parseValue(String type, String value)
+    {
+        try
+        {
+            if (StringUtil.equals(type, Double.class.getSimpleName()))
+                return Double.valueOf(value);
+            if (StringUtil.equals(type, Float.class.getSimpleName()))
+                return Float.valueOf(value);
+            if (StringUtil.equals(type, Long.class.getSimpleName()))
+                return Long.valueOf(value);
+            if (StringUtil.equals(type, Integer.class.getSimpleName()))
+                return Integer.valueOf(value);
+            if (StringUtil.equals(type, Short.class.getSimpleName()))
+                return Short.valueOf(value);
+            if (StringUtil.equals(type, Byte.class.getSimpleName()))
+                return Byte.valueOf(value);
+            if (StringUtil.equals(type, Boolean.class.getSimpleName()))
+                return Boolean.valueOf(value);
+            if (StringUtil.equals(type, String.class.getSimpleName()))
+                return value;
+        }
+        catch (NumberFormatException e)
+        {
+            // ignore
+        }
+
+        // not supported
+        return null;
+    }
+
+    private static boolean isPersistent(Object value)
+    {
+        return (value instanceof Double) || (value instanceof Float) || (value instanceof Long)
+                || (value instanceof Integer) || (value instanceof Short) || (value instanceof Byte)
+                || (value instanceof Boolean) || (value instanceof String);
+    }
+
+    /**
+     * Load results from XML.<br>
+     * Sequence ROIs should be already loaded as results are bound to the current ROIs and sequence versions.
+     */
+    @Override
+    public boolean loadFromXML(Node node)
+    {
+        if (node == null)
+            return false;
+
+        // results computed on different data --> ignore them
+        if (!StringUtil.equals(XMLUtil.getAttributeValue((Element) node, ID_SIGNATURE, ""), getSignature()))
+            return true;
+
+        final Map<Integer, ROI> rois = new HashMap<Integer, ROI>();
+        for (ROI roi : sequence.getROIs())
+            rois.put(Integer.valueOf(roi.getId()), roi);
+
+        final long sequenceVersion = sequence.getVersion();
+
+        synchronized (results)
+        {
+            for (Element element : XMLUtil.getElements(node, ID_RESULT))
+            {
+                final ROI roi = rois.get(Integer.valueOf(XMLUtil.getAttributeIntValue(element, ID_ROI, -1)));
+                final String descriptorId = XMLUtil.getAttributeValue(element, ID_DESCRIPTOR, "");
+                final String type = XMLUtil.getAttributeValue(element, ID_TYPE, "");
+
+                if ((roi == null) || StringUtil.isEmpty(descriptorId) || StringUtil.isEmpty(type))
+                    continue;
+
+                final Object value = parseValue(type, XMLUtil.getValue(element, ""));
+
+                if (value != null)
+                    results.put(new Key(roi.getId(), XMLUtil.getAttributeIntValue(element, ID_CHANNEL, -1),
+                            descriptorId), new Result(value, roi.getVersion(), sequenceVersion, null));
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Save results of current sequence ROIs to XML.<br>
+     * Only results valid for the current ROIs and sequence state are saved (changes which don't require the
+     * descriptor to be recomputed, as a sequence name change, don't invalidate results).
+     */
+    @Override
+    public boolean saveToXML(Node node)
+    {
+        if (node == null)
+            return false;
+
+        XMLUtil.removeAllChildren(node);
+        XMLUtil.setAttributeValue((Element) node, ID_SIGNATURE, getSignature());
+
+        final Map<Integer, ROI> rois = new HashMap<Integer, ROI>();
+        for (ROI roi : sequence.getROIs())
+            rois.put(Integer.valueOf(roi.getId()), roi);
+
+        final long sequenceVersion = sequence.getVersion();
+        final List<Map.Entry<Key, Result>> entries;
+        // <descriptor id, descriptor> map (only retrieved if needed)
+        Map<String, ROIDescriptor> descriptors = null;
+
+        synchronized (results)
+        {
+            entries = new ArrayList<Map.Entry<Key, Result>>(results.entrySet());
+        }
+
+        for (Map.Entry<Key, Result> entry : entries)
+        {
+            final Key key = entry.getKey();
+            Result result = entry.getValue();
+            final ROI roi = rois.get(Integer.valueOf(key.roiId));
+
+            if ((roi == null) || !isPersistent(result.value))
+                continue;
+
+            // ROI or sequence changed since computation --> check result is still valid
+            if ((result.roiVersion != roi.getVersion()) || (result.sequenceVersion != sequenceVersion))
+            {
+                ROIDescriptor descriptor = result.descriptor;
+
+                // result loaded from XML --> find the descriptor from its id
+                if (descriptor == null)
+                {
+                    if (descriptors == null)
+                    {
+                        descriptors = new HashMap<String, ROIDescriptor>();
+                        for (ROIDescriptor d : ROIDescriptor.getDescriptors().keySet())
+                            descriptors.put(d.getId(), d);
+                    }
+
+                    descriptor = descriptors.get(key.descriptorId);
+                }
+
+                // can't check it
+                if (descriptor == null)
+                    continue;
+
+                result = validate(key, result, roi, descriptor);
+                if (result == null)
+                    continue;
+            }
+
+            final Element element = XMLUtil.addElement(node, ID_RESULT, result.value.toString());
+
+            XMLUtil.setAttributeIntValue(element, ID_ROI, key.roiId);
+            XMLUtil.setAttributeIntValue(element, ID_CHANNEL, key.channel);
+            XMLUtil.setAttributeValue(element, ID_DESCRIPTOR, key.descriptorId);
+            XMLUtil.setAttributeValue(element, ID_TYPE, result.value.getClass().getSimpleName());
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.roi;
+
+import icy.system.SystemUtil;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Global cache for ROI boolean masks.<br>
+ * Masks are stored per ROI (inclusive and exclusive masks, for each Z slice if needed) and validated with the ROI
+ * mask version (see {@link ROI#getMaskVersion()}) so a cached mask is never returned once the ROI content or position
+ * changed. Entries are also released as soon as {@link ROI#roiChanged(boolean)} is called.<br>
+ * The whole cache is memory bounded: least recently used masks are evicted when the memory budget is exceeded (see
+ * {@link #setMaxMemory(long)}).<br>
+ * All methods are thread safe, returned masks are copies so they can be freely modified.
+ * 
+ * @author Stephane
+ */
+public class ROIMaskCache
+{
+    /**
+     * Cached mask
+     */
+    static class CacheEntry
+    {
+        final Map<Object, CacheEntry> owner;
+        final Object key;
+        final long version;
+        final BooleanMask2D mask;
+        final long size;
+
+        CacheEntry(Map<Object, CacheEntry> owner, Object key, long version, BooleanMask2D mask)
+        {
+            super();
+
+            this.owner = owner;
+            this.key = key;
+            this.version = version;
+            this.mask = mask;
+            // boolean array + object overhead
+            size = mask.mask.length + 64;
+        }
+    }
+
+    /**
+     * Cache key for a mask
+     */
+    private static class MaskKey
+    {
+        final int z;
+        final boolean inclusive;
+
+        MaskKey(int z, boolean inclusive)
+        {
+            super();
+
+            this.z = z;
+            this.inclusive = inclusive;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj instanceof MaskKey)
+            {
+                final MaskKey key = (MaskKey) obj;
+                return (key.z == z) && (key.inclusive == inclusive);
+            }
+
+            return false;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (z * 2) + (inclusive ? 1 : 0);
+        }
+    }
+
+    /**
+     * global LRU list (access ordered) of cached entries
+     */
+    private static final LinkedHashMap<CacheEntry, CacheEntry> entries = new LinkedHashMap<CacheEntry, CacheEntry>(
+            256, 0.75f, true);
+    private static long maxMemory = Math.min(256L * 1024L * 1024L, SystemUtil.getJavaMaxMemory() / 16);
+    private static long usedMemory = 0L;
+    private static long hits = 0L;
+    private static long misses = 0L;
+
+    /**
+     * Returns the maximum memory (in bytes) used by the mask cache.
+     */
+    public static synchronized long getMaxMemory()
+    {
+        return maxMemory;
+    }
+
+    /**
+     * Sets the maximum memory (in bytes) used by the mask cache (0 to disable the cache).
+     */
+    public static synchronized void setMaxMemory(long value)
+    {
+        maxMemory = Math.max(0L, value);
+        evict();
+    }
+
+    /**
+     * Returns the memory (in bytes) currently used by the mask cache.
+     */
+    public static synchronized long getUsedMemory()
+    {
+        return usedMemory;
+    }
+
+    /**
+     * Returns the number of cache hit since the cache creation.
+     */
+    public static synchronized long getHitCount()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the number of cache miss since the cache creation.
+     */
+    public static synchronized long getMissCount()
+    {
+        return misses;
+    }
+
+    /**
+     * Returns a copy of the cached 2D mask of the specified ROI (and Z slice, use -1 for 2D ROI) or <code>null</code>
+     * if not cached or not anymore valid.
+     */
+    public static BooleanMask2D getMask2D(ROI roi, int z, boolean inclusive)
+    {
+        final long version = roi.getMaskVersion();
+        final BooleanMask2D result;
+
+        synchronized (ROIMaskCache.class)
+        {
+            final Map<Object, CacheEntry> roiEntries = roi.maskCacheEntries;
+            final CacheEntry entry = roiEntries.get(new MaskKey(z, inclusive));
+
+            // not cached
+            if (entry == null)
+            {
+                misses++;
+                return null;
+            }
+            // obsolete
+            if (entry.version != version)
+            {
+                remove(entry);
+                misses++;
+                return null;
+            }
+
+            // update access order
+            entries.get(entry);
+            hits++;
+            result = entry.mask;
+        }
+
+        // copy outside lock
+        return (BooleanMask2D) result.clone();
+    }
+
+    /**
+     * Store a copy of the specified 2D mask for the given ROI (and Z slice, use -1 for 2D ROI).
+     * 
+     * @param version
+     *        ROI mask version ({@link ROI#getMaskVersion()}) retrieved <b>before</b> the mask has been computed
+     */
+    public static void putMask2D(ROI roi, int z, boolean inclusive, long version, BooleanMask2D mask)
+    {
+        // ROI changed meanwhile or cache disabled --> don't store
+        if ((version != roi.getMaskVersion()) || (getMaxMemory() == 0L))
+            return;
+
+        final BooleanMask2D copy = (BooleanMask2D) mask.clone();
+
+        synchronized (ROIMaskCache.class)
+        {
+            final Map<Object, CacheEntry> roiEntries = roi.maskCacheEntries;
+            final MaskKey key = new MaskKey(z, inclusive);
+            final CacheEntry entry = new CacheEntry(roiEntries, key, version, copy);
+
+            // too large
+            if (entry.size > maxMemory)
+                return;
+
+            final CacheEntry old = roiEntries.get(key);
+            if (old != null)
+                remove(old);
+
+            roiEntries.put(key, entry);
+            entries.put(entry, entry);
+            usedMemory += entry.size;
+
+            evict();
+        }
+    }
+
+    /**
+     * Release all cached masks of the specified ROI
+     */
+    public static void invalidate(ROI roi)
+    {
+        synchronized (ROIMaskCache.class)
+        {
+            final Map<Object, CacheEntry> roiEntries = roi.maskCacheEntries;
+
+            if (roiEntries.isEmpty())
+                return;
+
+            for (CacheEntry entry : new ArrayList<CacheEntry>(roiEntries.values()))
+                remove(entry);
+        }
+    }
+
+    /**
+     * Release all cached masks
+     */
+    public static void clear()
+    {
+        synchronized (ROIMaskCache.class)
+        {
+            final List<CacheEntry> all = new ArrayList<CacheEntry>(entries.keySet());
+
+            for (CacheEntry entry : all)
+                remove(entry);
+        }
+    }
+
+    /**
+     * Create the per ROI entry map (internal use only)
+     */
+    static Map<Object, CacheEntry> createEntries()
+    {
+        return new HashMap<Object, CacheEntry>(4);
+    }
+
+    // should be called inside lock
+    private static void remove(CacheEntry entry)
+    {
+        if (entries.remove(entry) != null)
+            usedMemory -= entry.size;
+        if (entry.owner.get(entry.key) == entry)
+            entry.owner.remove(entry.key);
+    }
+
+    // should be called inside lock
+    private static void evict()
+    {
+        final Iterator<CacheEntry> it = entries.keySet().iterator();
+
+        // remove least recently used entries
+        while ((usedMemory > maxMemory) && it.hasNext())
+        {
+            final CacheEntry entry = it.next();
+
+            it.remove();
+            usedMemory -= entry.size;
+            if (entry.owner.get(entry.key) == entry)
+                entry.owner.remove(entry.key);
+        }
+    }
+}
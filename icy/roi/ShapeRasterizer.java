@@ -0,0 +1,771 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.roi;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.PathIterator;
+import java.util.Arrays;
+
+/**
+ * Scanline rasterizer converting a {@link Shape} into horizontal pixel spans without any image rendering.<br>
+ * Rasterization is deterministic and follows these rules:<br>
+ * - <b>fill</b>: pixel (x,y) is inside if the point (x,y) is inside the (implicitly closed) shape according to its
+ * winding rule (left / top edges included, right / bottom edges excluded).<br>
+ * - <b>edge</b>: outline is drawn as 1 pixel thin lines, one pixel per step along the major axis of each segment.<br>
+ * Result is very close to Java2D (non antialiased, pure stroke) rendering with pixel centers at integer coordinates.
+ * Curves are flattened (see {@link #FLATNESS}) except for ellipse fill which is computed analytically.
+ * 
+ * @author Stephane
+ */
+public class ShapeRasterizer
+{
+    /**
+     * Flatness used to convert curves into line segments
+     */
+    public static final double FLATNESS = 0.1d;
+
+    static final int[] EMPTY_ROW = new int[0];
+
+    /**
+     * Pixel spans of a rasterized shape.<br>
+     * <code>rows[j]</code> contains the sorted and disjoint spans of row <code>(y + j)</code> stored as
+     * <code>[start, end)</code> X coordinate pairs.
+     */
+    public static class Spans
+    {
+        /**
+         * first row
+         */
+        public final int y;
+        /**
+         * spans for each row
+         */
+        public final int[][] rows;
+
+        private Rectangle bounds;
+        private int numPoints;
+
+        public Spans(int y, int[][] rows)
+        {
+            super();
+
+            this.y = y;
+            this.rows = rows;
+            bounds = null;
+            numPoints = -1;
+        }
+
+        /**
+         * Create empty spans
+         */
+        public Spans()
+        {
+            this(0, new int[0][]);
+        }
+
+        /**
+         * Returns <code>true</code> if spans do not contain any pixel
+         */
+        public boolean isEmpty()
+        {
+            return getNumberOfPoints() == 0;
+        }
+
+        /**
+         * Returns the number of pixel contained in the spans
+         */
+        public int getNumberOfPoints()
+        {
+            if (numPoints == -1)
+            {
+                int result = 0;
+
+                for (int[] row : rows)
+                    for (int i = 0; i < row.length; i += 2)
+                        result += row[i + 1] - row[i];
+
+                numPoints = result;
+            }
+
+            return numPoints;
+        }
+
+        /**
+         * Returns the bounds of the spans
+         */
+        public Rectangle getBounds()
+        {
+            if (bounds == null)
+            {
+                int minX = Integer.MAX_VALUE;
+                int maxX = Integer.MIN_VALUE;
+                int minY = Integer.MAX_VALUE;
+                int maxY = Integer.MIN_VALUE;
+
+                for (int j = 0; j < rows.length; j++)
+                {
+                    final int[] row = rows[j];
+
+                    if (row.length > 0)
+                    {
+                        if (row[0] < minX)
+                            minX = row[0];
+                        if (row[row.length - 1] > maxX)
+                            maxX = row[row.length - 1];
+                        if (minY == Integer.MAX_VALUE)
+                            minY = y + j;
+                        maxY = y + j;
+                    }
+                }
+
+                if (minY == Integer.MAX_VALUE)
+                    bounds = new Rectangle();
+                else
+                    bounds = new Rectangle(minX, minY, maxX - minX, (maxY - minY) + 1);
+            }
+
+            return new Rectangle(bounds);
+        }
+
+        /**
+         * Returns <code>true</code> if spans contain the specified pixel
+         */
+        public boolean contains(int x, int y)
+        {
+            final int j = y - this.y;
+
+            if ((j < 0) || (j >= rows.length))
+                return false;
+
+            final int[] row = rows[j];
+
+            for (int i = 0; i < row.length; i += 2)
+            {
+                if (x < row[i])
+                    return false;
+                if (x < row[i + 1])
+                    return true;
+            }
+
+            return false;
+        }
+
+        /**
+         * Set to <code>true</code> the pixels of the given mask (representing the specified region) which are contained
+         * in the spans.
+         */
+        public void fill(int x, int y, int width, int height, boolean[] mask)
+        {
+            final int startRow = Math.max(0, y - this.y);
+            final int endRow = Math.min(rows.length, (y + height) - this.y);
+            final int endX = x + width;
+
+            for (int j = startRow; j < endRow; j++)
+            {
+                final int[] row = rows[j];
+                final int offset = (((this.y + j) - y) * width) - x;
+
+                for (int i = 0; i < row.length; i += 2)
+                {
+                    final int start = Math.max(x, row[i]);
+                    final int end = Math.min(endX, row[i + 1]);
+
+                    if (start < end)
+                        Arrays.fill(mask, offset + start, offset + end, true);
+                }
+            }
+        }
+
+        /**
+         * Returns the boolean mask of the specified region
+         */
+        public boolean[] getMask(int x, int y, int width, int height)
+        {
+            final boolean[] result = new boolean[Math.max(0, width) * Math.max(0, height)];
+
+            if (result.length > 0)
+                fill(x, y, width, height, result);
+
+            return result;
+        }
+
+        /**
+         * Returns the {@link BooleanMask2D} representing the spans
+         */
+        public BooleanMask2D getBooleanMask()
+        {
+            final Rectangle b = getBounds();
+
+            return new BooleanMask2D(b, getMask(b.x, b.y, b.width, b.height));
+        }
+
+        /**
+         * Returns the union of these spans with the specified ones
+         */
+        public Spans getUnion(Spans spans)
+        {
+            if (spans.rows.length == 0)
+                return this;
+            if (rows.length == 0)
+                return spans;
+
+            final int minY = Math.min(y, spans.y);
+            final int maxY = Math.max(y + rows.length, spans.y + spans.rows.length);
+            final int[][] result = new int[maxY - minY][];
+
+            for (int j = 0; j < result.length; j++)
+            {
+                final int j1 = (minY + j) - y;
+                final int j2 = (minY + j) - spans.y;
+                final int[] row1 = ((j1 >= 0) && (j1 < rows.length)) ? rows[j1] : EMPTY_ROW;
+                final int[] row2 = ((j2 >= 0) && (j2 < spans.rows.length)) ? spans.rows[j2] : EMPTY_ROW;
+
+                if (row2.length == 0)
+                    result[j] = row1;
+                else if (row1.length == 0)
+                    result[j] = row2;
+                else
+                    result[j] = union(row1, row2);
+            }
+
+            return new Spans(minY, result);
+        }
+
+        private static int[] union(int[] row1, int[] row2)
+        {
+            final int[] result = new int[row1.length + row2.length];
+            int len = 0;
+            int i1 = 0;
+            int i2 = 0;
+
+            while ((i1 < row1.length) || (i2 < row2.length))
+            {
+                final int start, end;
+
+                // take the span starting first
+                if ((i2 >= row2.length) || ((i1 < row1.length) && (row1[i1] <= row2[i2])))
+                {
+                    start = row1[i1];
+                    end = row1[i1 + 1];
+                    i1 += 2;
+                }
+                else
+                {
+                    start = row2[i2];
+                    end = row2[i2 + 1];
+                    i2 += 2;
+                }
+
+                // merge with previous span ?
+                if ((len > 0) && (start <= result[len - 1]))
+                {
+                    if (end > result[len - 1])
+                        result[len - 1] = end;
+                }
+                else
+                {
+                    result[len++] = start;
+                    result[len++] = end;
+                }
+            }
+
+            return (len == result.length) ? result : Arrays.copyOf(result, len);
+        }
+
+        /**
+         * Returns these spans minus the specified ones
+         */
+        public Spans getSubtraction(Spans spans)
+        {
+            final int[][] result = new int[rows.length][];
+
+            for (int j = 0; j < rows.length; j++)
+            {
+                final int js = (y + j) - spans.y;
+
+                if ((js < 0) || (js >= spans.rows.length) || (spans.rows[js].length == 0))
+                    result[j] = rows[j];
+                else
+                    result[j] = subtract(rows[j], spans.rows[js]);
+            }
+
+            return new Spans(y, result);
+        }
+
+        private static int[] subtract(int[] row, int[] sub)
+        {
+            final int[] result = new int[row.length + sub.length];
+            int len = 0;
+            int k = 0;
+
+            for (int i = 0; i < row.length; i += 2)
+            {
+                int start = row[i];
+                final int end = row[i + 1];
+
+                // skip subtracted spans before
+                while ((k < sub.length) && (sub[k + 1] <= start))
+                    k += 2;
+
+                int s = k;
+                while ((s < sub.length) && (sub[s] < end))
+                {
+                    if (sub[s] > start)
+                    {
+                        result[len++] = start;
+                        result[len++] = sub[s];
+                    }
+
+                    start = Math.max(start, sub[s + 1]);
+                    s += 2;
+                }
+
+                if (start < end)
+                {
+                    result[len++] = start;
+                    result[len++] = end;
+                }
+            }
+
+            if (len == 0)
+                return EMPTY_ROW;
+
+            return Arrays.copyOf(result, len);
+        }
+    }
+
+    /**
+     * Returns the flattened segments of the shape as {x0, y0, x1, y1} values.<br>
+     * The number of values is stored in <code>size[0]</code>.
+     * 
+     * @param close
+     *        if <code>true</code> sub paths are implicitly closed
+     */
+    private static double[] getSegments(Shape shape, boolean close, int[] size)
+    {
+        final PathIterator it = shape.getPathIterator(null, FLATNESS);
+        final double[] coords = new double[6];
+        double[] result = new double[64];
+        int len = 0;
+        double startX = 0d, startY = 0d;
+        double lastX = 0d, lastY = 0d;
+
+        while (true)
+        {
+            final boolean done = it.isDone();
+            final int type = done ? PathIterator.SEG_CLOSE : it.currentSegment(coords);
+            double x, y;
+
+            if (type == PathIterator.SEG_LINETO)
+            {
+                x = coords[0];
+                y = coords[1];
+            }
+            else
+            {
+                // implicitly close current sub path
+                x = startX;
+                y = startY;
+            }
+
+            if (((type == PathIterator.SEG_LINETO) || (!done && (type == PathIterator.SEG_CLOSE)) || close)
+                    && ((x != lastX) || (y != lastY)))
+            {
+                if ((len + 4) > result.length)
+                    result = Arrays.copyOf(result, result.length * 2);
+
+                result[len++] = lastX;
+                result[len++] = lastY;
+                result[len++] = x;
+                result[len++] = y;
+            }
+
+            if (done)
+                break;
+
+            if (type == PathIterator.SEG_MOVETO)
+            {
+                startX = coords[0];
+                startY = coords[1];
+                x = startX;
+                y = startY;
+            }
+
+            lastX = x;
+            lastY = y;
+            it.next();
+        }
+
+        size[0] = len;
+        return result;
+    }
+
+    /**
+     * Returns the fill spans of the specified shape (sub paths are implicitly closed).
+     */
+    public static Spans getFillSpans(Shape shape)
+    {
+        if (shape instanceof Ellipse2D)
+            return getFillSpans((Ellipse2D) shape);
+
+        final int[] size = new int[1];
+        final double[] segs = getSegments(shape, true, size);
+
+        return getFillSpans(segs, size[0] / 4,
+                shape.getPathIterator(null).getWindingRule() == PathIterator.WIND_EVEN_ODD);
+    }
+
+    /**
+     * Scanline fill of the given closed edges
+     */
+    private static Spans getFillSpans(double[] segs, int numSeg, boolean evenOdd)
+    {
+        // build edge table (only non horizontal edges) sorted on first row
+        final int[] edgeFirst = new int[numSeg];
+        final int[] edgeLast = new int[numSeg];
+        final long[] order = new long[numSeg];
+        int numEdge = 0;
+        int minRow = Integer.MAX_VALUE;
+        int maxRow = Integer.MIN_VALUE;
+
+        for (int s = 0; s < numSeg; s++)
+        {
+            final double y0 = segs[(s * 4) + 1];
+            final double y1 = segs[(s * 4) + 3];
+            // edge crosses rows (integer Y) such as ymin <= y < ymax
+            final int first = (int) Math.ceil(Math.min(y0, y1));
+            final int last = (int) Math.ceil(Math.max(y0, y1));
+
+            if (first < last)
+            {
+                edgeFirst[s] = first;
+                edgeLast[s] = last;
+                order[numEdge++] = ((long) first << 32) | s;
+                if (first < minRow)
+                    minRow = first;
+                if (last > maxRow)
+                    maxRow = last;
+            }
+        }
+
+        if (numEdge == 0)
+            return new Spans();
+
+        Arrays.sort(order, 0, numEdge);
+
+        final int[][] rows = new int[maxRow - minRow][];
+        final int[] active = new int[numEdge];
+        final double[] xs = new double[numEdge];
+        final int[] dirs = new int[numEdge];
+        final int[] buffer = new int[numEdge + 2];
+        int numActive = 0;
+        int next = 0;
+
+        for (int row = minRow; row < maxRow; row++)
+        {
+            // remove finished edges
+            int n = 0;
+            for (int i = 0; i < numActive; i++)
+                if (edgeLast[active[i]] > row)
+                    active[n++] = active[i];
+            numActive = n;
+
+            // add new edges
+            while ((next < numEdge) && (edgeFirst[(int) order[next]] <= row))
+                active[numActive++] = (int) order[next++];
+
+            // compute crossings
+            for (int i = 0; i < numActive; i++)
+            {
+                final int off = active[i] * 4;
+                final double x0 = segs[off + 0];
+                final double y0 = segs[off + 1];
+                final double x1 = segs[off + 2];
+                final double y1 = segs[off + 3];
+                final double x = x0 + (((row - y0) * (x1 - x0)) / (y1 - y0));
+                final int dir = (y1 > y0) ? 1 : -1;
+
+                // insertion sort
+                int k = i;
+                while ((k > 0) && (xs[k - 1] > x))
+                {
+                    xs[k] = xs[k - 1];
+                    dirs[k] = dirs[k - 1];
+                    k--;
+                }
+                xs[k] = x;
+                dirs[k] = dir;
+            }
+
+            // emit spans (crossings are sorted so spans are sorted too)
+            int len = 0;
+            int winding = 0;
+            int start = 0;
+
+            for (int i = 0; i < numActive; i++)
+            {
+                final boolean wasInside = evenOdd ? ((winding & 1) != 0) : (winding != 0);
+
+                winding += dirs[i];
+
+                final boolean inside = evenOdd ? ((winding & 1) != 0) : (winding != 0);
+
+                // entering
+                if (!wasInside && inside)
+                    start = (int) Math.ceil(xs[i]);
+                // leaving
+                else if (wasInside && !inside)
+                {
+                    final int end = (int) Math.ceil(xs[i]);
+
+                    if (start < end)
+                    {
+                        // merge with previous span ?
+                        if ((len > 0) && (start <= buffer[len - 1]))
+                            buffer[len - 1] = end;
+                        else
+                        {
+                            buffer[len++] = start;
+                            buffer[len++] = end;
+                        }
+                    }
+                }
+            }
+
+            rows[row - minRow] = (len == 0) ? EMPTY_ROW : Arrays.copyOf(buffer, len);
+        }
+
+        return new Spans(minRow, rows);
+    }
+
+    /**
+     * Analytic fill spans for ellipse
+     */
+    private static Spans getFillSpans(Ellipse2D ellipse)
+    {
+        final double rx = ellipse.getWidth() / 2d;
+        final double ry = ellipse.getHeight() / 2d;
+
+        if ((rx <= 0d) || (ry <= 0d))
+            return new Spans();
+
+        final double cx = ellipse.getCenterX();
+        final double cy = ellipse.getCenterY();
+        // rows (integer Y) such as (cy - ry) <= y < (cy + ry)
+        final int minRow = (int) Math.ceil(cy - ry);
+        final int maxRow = (int) Math.ceil(cy + ry);
+        final int[][] rows = new int[Math.max(0, maxRow - minRow)][];
+
+        for (int row = minRow; row < maxRow; row++)
+        {
+            final double dy = (row - cy) / ry;
+            final double half = rx * Math.sqrt(Math.max(0d, 1d - (dy * dy)));
+            final int start = (int) Math.ceil(cx - half);
+            final int end = (int) Math.ceil(cx + half);
+
+            rows[row - minRow] = (start < end) ? new int[] {start, end} : EMPTY_ROW;
+        }
+
+        return new Spans(minRow, rows);
+    }
+
+    /**
+     * Returns the edge (outline) spans of the specified shape as 1 pixel thin (8-connected) lines: each segment sets
+     * one pixel per step along its major axis, pixel being the one containing the segment point at this step (close
+     * to {@link java.awt.Graphics2D#draw(Shape)} result with default stroke).
+     */
+    public static Spans getEdgeSpans(Shape shape)
+    {
+        final int[] size = new int[1];
+        final double[] segs = getSegments(shape, false, size);
+        final int len = size[0];
+
+        if (len == 0)
+            return new Spans();
+
+        int minRow = Integer.MAX_VALUE;
+        int maxRow = Integer.MIN_VALUE;
+
+        for (int i = 1; i < len; i += 2)
+        {
+            final int row = round(segs[i]);
+
+            if (row < minRow)
+                minRow = row;
+            if (row > maxRow)
+                maxRow = row;
+        }
+
+        final long[][] data = new long[(maxRow - minRow) + 1][];
+        final int[] sizes = new int[data.length];
+
+        for (int off = 0; off < len; off += 4)
+        {
+            final double x0 = segs[off + 0];
+            final double y0 = segs[off + 1];
+            final double x1 = segs[off + 2];
+            final double y1 = segs[off + 3];
+            final double dx = x1 - x0;
+            final double dy = y1 - y0;
+
+            // X major axis --> one pixel per column, consecutive columns on same row form a span
+            if (Math.abs(dx) >= Math.abs(dy))
+            {
+                final double xmin = Math.min(x0, x1);
+                final double xmax = Math.max(x0, x1);
+                final int start = round(xmin);
+                final int end = round(xmax);
+                int spanStart = start;
+                int spanRow = round(y0 + ((dy * (xmin - x0)) / dx));
+
+                for (int c = start + 1; c <= end; c++)
+                {
+                    final double x = Math.min(xmax, c);
+                    final int row = round(y0 + ((dy * (x - x0)) / dx));
+
+                    if (row != spanRow)
+                    {
+                        addSpan(data, sizes, spanRow - minRow, spanStart, c);
+                        spanStart = c;
+                        spanRow = row;
+                    }
+                }
+
+                addSpan(data, sizes, spanRow - minRow, spanStart, end + 1);
+            }
+            // Y major axis --> one pixel per row
+            else
+            {
+                final double ymin = Math.min(y0, y1);
+                final double ymax = Math.max(y0, y1);
+                final int start = round(ymin);
+                final int end = round(ymax);
+
+                for (int row = start; row <= end; row++)
+                {
+                    final double y = Math.max(ymin, Math.min(ymax, row));
+                    final int col = round(x0 + ((dx * (y - y0)) / dy));
+
+                    addSpan(data, sizes, row - minRow, col, col + 1);
+                }
+            }
+        }
+
+        // sort and merge spans
+        final int[][] rows = new int[data.length][];
+
+        for (int j = 0; j < data.length; j++)
+        {
+            final int n = sizes[j];
+
+            if (n == 0)
+            {
+                rows[j] = EMPTY_ROW;
+                continue;
+            }
+
+            final long[] values = data[j];
+            final int[] row = new int[n * 2];
+            int rowLen = 0;
+
+            Arrays.sort(values, 0, n);
+
+            for (int i = 0; i < n; i++)
+            {
+                final int start = (int) (values[i] >> 32);
+                final int end = (int) values[i];
+
+                // merge with previous span ?
+                if ((rowLen > 0) && (start <= row[rowLen - 1]))
+                {
+                    if (end > row[rowLen - 1])
+                        row[rowLen - 1] = end;
+                }
+                else
+                {
+                    row[rowLen++] = start;
+                    row[rowLen++] = end;
+                }
+            }
+
+            rows[j] = (rowLen == row.length) ? row : Arrays.copyOf(row, rowLen);
+        }
+
+        return new Spans(minRow, rows);
+    }
+
+    private static int round(double value)
+    {
+        return (int) Math.floor(value + 0.5d);
+    }
+
+    /**
+     * Add the [start, end) span to the specified row (spans are packed in long to be sorted on start)
+     */
+    private static void addSpan(long[][] data, int[] sizes, int row, int start, int end)
+    {
+        long[] values = data[row];
+        final int n = sizes[row];
+
+        if (values == null)
+        {
+            values = new long[4];
+            data[row] = values;
+        }
+        else if (n == values.length)
+        {
+            values = Arrays.copyOf(values, n * 2);
+            data[row] = values;
+        }
+
+        values[n] = ((long) start << 32) | (end & 0xFFFFFFFFL);
+        sizes[row] = n + 1;
+    }
+
+    /**
+     * Returns the spans of the specified shape.
+     * 
+     * @param fill
+     *        if <code>true</code> the shape interior is filled (sub paths are implicitly closed) otherwise only the
+     *        outline is considered.
+     * @param inclusive
+     *        if <code>true</code> outline pixels are included in the result, otherwise they are excluded (and result is
+     *        empty for a not filled shape).
+     */
+    public static Spans getSpans(Shape shape, boolean fill, boolean inclusive)
+    {
+        if (!fill)
+        {
+            if (inclusive)
+                return getEdgeSpans(shape);
+
+            return new Spans();
+        }
+
+        final Spans result = getFillSpans(shape);
+        final Spans edge = getEdgeSpans(shape);
+
+        if (inclusive)
+            return result.getUnion(edge);
+
+        return result.getSubtraction(edge);
+    }
+}
@@ -0,0 +1,560 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.roi;
+
+import icy.system.SystemUtil;
+import icy.system.thread.Processor;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Pure Java surface mesh engine (naive surface nets) working on {@link BooleanMask3D}.<br>
+ * Each 2x2x2 voxels cell crossed by the object boundary gets a vertex placed at the average of
+ * its crossing edges midpoints, each pair of adjacent voxels with different state produces a
+ * quad joining the vertices of the 4 cells sharing that voxel edge.<br>
+ * <br>
+ * The surface area is computed in voxel unit as a set of quad area vectors, so the area for any
+ * (anisotropic) pixel size can be computed later without meshing again (see
+ * {@link SurfaceArea#getArea(double, double, double)}).<br>
+ * Large masks are processed by Z slabs in parallel.
+ * 
+ * @author Stephane
+ */
+public class SurfaceNets
+{
+    /**
+     * Surface area of a mesh in voxel unit.<br>
+     * Stores the absolute components of quad area vectors with their number of occurrences.
+     */
+    public static class SurfaceArea
+    {
+        final double[] vectors;
+        final long[] counts;
+
+        SurfaceArea(double[] vectors, long[] counts)
+        {
+            super();
+
+            this.vectors = vectors;
+            this.counts = counts;
+        }
+
+        /**
+         * Returns the number of faces of the mesh.
+         */
+        public long getNumberOfFaces()
+        {
+            long result = 0;
+
+            for (long count : counts)
+                result += count;
+
+            return result;
+        }
+
+        /**
+         * Returns the surface area for the specified pixel size.
+         */
+        public double getArea(double pixelSizeX, double pixelSizeY, double pixelSizeZ)
+        {
+            // area vectors are scaled by the cofactors of the scaling matrix
+            final double sx = pixelSizeY * pixelSizeZ;
+            final double sy = pixelSizeX * pixelSizeZ;
+            final double sz = pixelSizeX * pixelSizeY;
+            double result = 0d;
+
+            for (int i = 0; i < counts.length; i++)
+            {
+                final double x = vectors[(i * 3) + 0] * sx;
+                final double y = vectors[(i * 3) + 1] * sy;
+                final double z = vectors[(i * 3) + 2] * sz;
+
+                result += counts[i] * Math.sqrt((x * x) + (y * y) + (z * z));
+            }
+
+            return result;
+        }
+
+        /**
+         * Returns the surface area in voxel unit.
+         */
+        public double getArea()
+        {
+            return getArea(1d, 1d, 1d);
+        }
+    }
+
+    /**
+     * Masks with more voxels are processed in parallel
+     */
+    private static final long PARALLEL_THRESHOLD = 1L << 21;
+    /**
+     * minimum number of slices per slab
+     */
+    private static final int MIN_SLAB_SIZE = 8;
+    /**
+     * area vectors quantization (merging)
+     */
+    private static final double QUANTIZATION = 1 << 20;
+
+    /**
+     * vertex position inside cell for each cell configuration
+     */
+    private static final double[] VERTEX_OFFSET = new double[256 * 3];
+
+    static
+    {
+        for (int config = 1; config < 255; config++)
+        {
+            double x = 0d;
+            double y = 0d;
+            double z = 0d;
+            int n = 0;
+
+            // 12 cell edges
+            for (int corner = 0; corner < 8; corner++)
+            {
+                for (int bit = 1; bit < 8; bit <<= 1)
+                {
+                    if ((corner & bit) != 0)
+                        continue;
+
+                    final int other = corner | bit;
+
+                    // edge crossed by the surface
+                    if (((config >> corner) & 1) != ((config >> other) & 1))
+                    {
+                        // edge midpoint
+                        x += ((corner & 1) + (other & 1)) * 0.5d;
+                        y += (((corner >> 1) & 1) + ((other >> 1) & 1)) * 0.5d;
+                        z += (((corner >> 2) & 1) + ((other >> 2) & 1)) * 0.5d;
+                        n++;
+                    }
+                }
+            }
+
+            VERTEX_OFFSET[(config * 3) + 0] = x / n;
+            VERTEX_OFFSET[(config * 3) + 1] = y / n;
+            VERTEX_OFFSET[(config * 3) + 2] = z / n;
+        }
+    }
+
+    private static Processor processor = null;
+
+    private static synchronized Processor getProcessor()
+    {
+        if (processor == null)
+        {
+            processor = new Processor(Math.max(1, SystemUtil.getNumberOfCPUs()));
+            processor.setThreadName("Surface nets");
+        }
+
+        return processor;
+    }
+
+    /**
+     * Padded voxel grid of the mask (one empty voxel border so the surface is closed)
+     */
+    private static class Grid
+    {
+        final BooleanMask3D mask;
+        final int minX;
+        final int minY;
+        final int minZ;
+        // padded sizes
+        final int sizeX;
+        final int sizeY;
+        final int sizeZ;
+
+        Grid(BooleanMask3D mask, Rectangle bounds, int minZ, int maxZ)
+        {
+            super();
+
+            this.mask = mask;
+            minX = bounds.x - 1;
+            minY = bounds.y - 1;
+            this.minZ = minZ - 1;
+            sizeX = bounds.width + 2;
+            sizeY = bounds.height + 2;
+            sizeZ = (maxZ - minZ) + 3;
+        }
+
+        /**
+         * Returns voxels of padded slice z
+         */
+        boolean[] getPlane(int z)
+        {
+            final boolean[] result = new boolean[sizeX * sizeY];
+            final BooleanMask2D mask2d = mask.mask.get(Integer.valueOf(minZ + z));
+
+            if (mask2d != null)
+            {
+                final Rectangle b = mask2d.bounds;
+                final boolean[] m = mask2d.mask;
+                final int offX = b.x - minX;
+                final int offY = b.y - minY;
+
+                for (int y = 0; y < b.height; y++)
+                {
+                    int in = y * b.width;
+                    int out = ((y + offY) * sizeX) + offX;
+
+                    for (int x = 0; x < b.width; x++)
+                        result[out++] = m[in++];
+                }
+            }
+
+            return result;
+        }
+
+        /**
+         * Returns cells configuration between 2 voxel planes
+         */
+        int[] getCells(boolean[] p0, boolean[] p1)
+        {
+            final int cw = sizeX - 1;
+            final int ch = sizeY - 1;
+            final int[] result = new int[cw * ch];
+
+            for (int y = 0; y < ch; y++)
+            {
+                int off = y * sizeX;
+                int c = y * cw;
+
+                for (int x = 0; x < cw; x++, off++, c++)
+                {
+                    int config = 0;
+
+                    if (p0[off])
+                        config |= 1;
+                    if (p0[off + 1])
+                        config |= 2;
+                    if (p0[off + sizeX])
+                        config |= 4;
+                    if (p0[off + sizeX + 1])
+                        config |= 8;
+                    if (p1[off])
+                        config |= 16;
+                    if (p1[off + 1])
+                        config |= 32;
+                    if (p1[off + sizeX])
+                        config |= 64;
+                    if (p1[off + sizeX + 1])
+                        config |= 128;
+
+                    result[c] = config;
+                }
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Area vectors accumulator
+     */
+    private static class Accumulator
+    {
+        final Map<List<Long>, long[]> map;
+        final Map<List<Long>, double[]> vectors;
+
+        Accumulator()
+        {
+            super();
+
+            map = new HashMap<List<Long>, long[]>();
+            vectors = new HashMap<List<Long>, double[]>();
+        }
+
+        void add(double x, double y, double z, long count)
+        {
+            final double ax = Math.abs(x);
+            final double ay = Math.abs(y);
+            final double az = Math.abs(z);
+            final List<Long> key = new ArrayList<Long>(3);
+
+            key.add(Long.valueOf(Math.round(ax * QUANTIZATION)));
+            key.add(Long.valueOf(Math.round(ay * QUANTIZATION)));
+            key.add(Long.valueOf(Math.round(az * QUANTIZATION)));
+
+            final long[] c = map.get(key);
+
+            if (c == null)
+            {
+                map.put(key, new long[] {count});
+                vectors.put(key, new double[] {ax, ay, az});
+            }
+            else
+                c[0] += count;
+        }
+
+        void add(Accumulator acc)
+        {
+            for (Map.Entry<List<Long>, long[]> entry : acc.map.entrySet())
+            {
+                final double[] v = acc.vectors.get(entry.getKey());
+                add(v[0], v[1], v[2], entry.getValue()[0]);
+            }
+        }
+
+        SurfaceArea toSurfaceArea()
+        {
+            final double[] v = new double[map.size() * 3];
+            final long[] c = new long[map.size()];
+            int i = 0;
+
+            for (Map.Entry<List<Long>, long[]> entry : map.entrySet())
+            {
+                System.arraycopy(vectors.get(entry.getKey()), 0, v, i * 3, 3);
+                c[i] = entry.getValue()[0];
+                i++;
+            }
+
+            return new SurfaceArea(v, c);
+        }
+    }
+
+    /**
+     * Quads accumulator for a slab (cell configurations of the 4 quad vertices --> count)
+     */
+    private static class SlabProcessor implements Callable<Accumulator>
+    {
+        final Grid grid;
+        final int startZ;
+        final int endZ;
+        // quad key (axis + 4 cell configs) --> count
+        final Map<Long, long[]> quads;
+
+        SlabProcessor(Grid grid, int startZ, int endZ)
+        {
+            super();
+
+            this.grid = grid;
+            this.startZ = startZ;
+            this.endZ = endZ;
+            quads = new HashMap<Long, long[]>();
+        }
+
+        private void addQuad(int axis, int ca, int cb, int cc, int cd)
+        {
+            final Long key = Long.valueOf((((long) axis) << 32) | (((long) ca) << 24) | (cb << 16) | (cc << 8) | cd);
+            final long[] count = quads.get(key);
+
+            if (count == null)
+                quads.put(key, new long[] {1});
+            else
+                count[0]++;
+        }
+
+        @Override
+        public Accumulator call()
+        {
+            final int sx = grid.sizeX;
+            final int sy = grid.sizeY;
+            final int cw = sx - 1;
+            final int last = Math.min(endZ, grid.sizeZ - 1);
+
+            boolean[] p1 = grid.getPlane(startZ);
+            int[] cPrev = (startZ > 0) ? grid.getCells(grid.getPlane(startZ - 1), p1) : null;
+
+            for (int z = startZ; z < last; z++)
+            {
+                final boolean[] p2 = grid.getPlane(z + 1);
+                final int[] cCur = grid.getCells(p1, p2);
+
+                if (cPrev != null)
+                {
+                    // X edges
+                    for (int y = 1; y < (sy - 1); y++)
+                    {
+                        final int off = y * sx;
+
+                        for (int x = 0; x < (sx - 1); x++)
+                        {
+                            if (p1[off + x] != p1[off + x + 1])
+                                addQuad(0, cPrev[((y - 1) * cw) + x], cPrev[(y * cw) + x], cCur[(y * cw) + x],
+                                        cCur[((y - 1) * cw) + x]);
+                        }
+                    }
+                    // Y edges
+                    for (int y = 0; y < (sy - 1); y++)
+                    {
+                        final int off = y * sx;
+
+                        for (int x = 1; x < (sx - 1); x++)
+                        {
+                            if (p1[off + x] != p1[off + sx + x])
+                                addQuad(1, cPrev[(y * cw) + x - 1], cPrev[(y * cw) + x], cCur[(y * cw) + x],
+                                        cCur[(y * cw) + x - 1]);
+                        }
+                    }
+                }
+
+                // Z edges
+                for (int y = 1; y < (sy - 1); y++)
+                {
+                    final int off = y * sx;
+
+                    for (int x = 1; x < (sx - 1); x++)
+                    {
+                        if (p1[off + x] != p2[off + x])
+                            addQuad(2, cCur[((y - 1) * cw) + x - 1], cCur[((y - 1) * cw) + x], cCur[(y * cw) + x],
+                                    cCur[(y * cw) + x - 1]);
+                    }
+                }
+
+                p1 = p2;
+                cPrev = cCur;
+            }
+
+            // convert quads to area vectors
+            final Accumulator result = new Accumulator();
+
+            for (Map.Entry<Long, long[]> entry : quads.entrySet())
+            {
+                final long key = entry.getKey().longValue();
+                final int axis = (int) (key >> 32);
+                final double[] v = getAreaVector(axis, (int) ((key >> 24) & 0xFF), (int) ((key >> 16) & 0xFF),
+                        (int) ((key >> 8) & 0xFF), (int) (key & 0xFF));
+
+                result.add(v[0], v[1], v[2], entry.getValue()[0]);
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Returns the area vector of a quad given its axis and the 4 cell configurations (cells
+     * positions relative to the quad are implicit from the axis).
+     */
+    static double[] getAreaVector(int axis, int ca, int cb, int cc, int cd)
+    {
+        // cell positions (relative to cell C)
+        final int[] pos;
+
+        switch (axis)
+        {
+            case 0:
+                pos = new int[] {0, -1, -1, 0, 0, -1, 0, 0, 0, 0, -1, 0};
+                break;
+            case 1:
+                pos = new int[] {-1, 0, -1, 0, 0, -1, 0, 0, 0, -1, 0, 0};
+                break;
+            default:
+                pos = new int[] {-1, -1, 0, 0, -1, 0, 0, 0, 0, -1, 0, 0};
+                break;
+        }
+
+        final int[] configs = new int[] {ca, cb, cc, cd};
+        final double[] v = new double[12];
+
+        for (int i = 0; i < 4; i++)
+            for (int j = 0; j < 3; j++)
+                v[(i * 3) + j] = pos[(i * 3) + j] + VERTEX_OFFSET[(configs[i] * 3) + j];
+
+        // diagonals
+        final double d1x = v[6] - v[0];
+        final double d1y = v[7] - v[1];
+        final double d1z = v[8] - v[2];
+        final double d2x = v[9] - v[3];
+        final double d2y = v[10] - v[4];
+        final double d2z = v[11] - v[5];
+
+        return new double[] {((d1y * d2z) - (d1z * d2y)) * 0.5d, ((d1z * d2x) - (d1x * d2z)) * 0.5d,
+                ((d1x * d2y) - (d1y * d2x)) * 0.5d};
+    }
+
+    /**
+     * Computes the surface area (in voxel unit) of the specified 3D boolean mask.
+     * 
+     * @throws UnsupportedOperationException
+     *         if the mask is infinite
+     */
+    public static SurfaceArea computeSurfaceArea(BooleanMask3D mask) throws UnsupportedOperationException
+    {
+        if (mask.bounds.sizeZ == Integer.MAX_VALUE)
+            throw new UnsupportedOperationException("Cannot compute surface area of an infinite mask !");
+        if (mask.mask.isEmpty())
+            return new SurfaceArea(new double[0], new long[0]);
+
+        // XY bounds from 2D masks
+        Rectangle bounds = null;
+        for (BooleanMask2D mask2d : mask.mask.values())
+        {
+            if (bounds == null)
+                bounds = new Rectangle(mask2d.bounds);
+            else
+                bounds.add(mask2d.bounds);
+        }
+
+        if ((bounds.width >= (Integer.MAX_VALUE / 4)) || (bounds.height >= (Integer.MAX_VALUE / 4)))
+            throw new UnsupportedOperationException("Cannot compute surface area of an infinite mask !");
+
+        final Grid grid = new Grid(mask, bounds, mask.mask.firstKey().intValue(), mask.mask.lastKey().intValue());
+        final long numVoxel = (long) grid.sizeX * (long) grid.sizeY * (long) grid.sizeZ;
+        final int numSlab = (int) Math.min(SystemUtil.getNumberOfCPUs(), grid.sizeZ / MIN_SLAB_SIZE);
+
+        // single thread processing
+        if ((numVoxel < PARALLEL_THRESHOLD) || (numSlab < 2))
+            return new SlabProcessor(grid, 0, grid.sizeZ).call().toSurfaceArea();
+
+        final Processor proc = getProcessor();
+        final List<Future<Accumulator>> results = new ArrayList<Future<Accumulator>>();
+        final int slabSize = (grid.sizeZ + numSlab - 1) / numSlab;
+
+        for (int z = 0; z < grid.sizeZ; z += slabSize)
+            results.add(proc.submit(new SlabProcessor(grid, z, Math.min(grid.sizeZ, z + slabSize))));
+
+        final Accumulator result = new Accumulator();
+        int done = 0;
+
+        try
+        {
+            for (Future<Accumulator> future : results)
+            {
+                result.add(future.get());
+                done++;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            for (Future<Accumulator> future : results)
+                future.cancel(true);
+
+            // finish on the calling thread (partial area would be cached as the ROI surface area)
+            for (int z = done * slabSize; z < grid.sizeZ; z += slabSize)
+                result.add(new SlabProcessor(grid, z, Math.min(grid.sizeZ, z + slabSize)).call());
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException(e.getCause());
+        }
+
+        return result.toSurfaceArea();
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * N-gram inverted index used by {@link SearchResultProducer} to find elements containing a search
+ * word without scanning all of them.<br>
+ * Each element is identified by a key and has one or more text fields which are stored in lower
+ * case so producers can compute their ranking without converting texts again.<br>
+ * Grams of 1 to {@link #GRAM_SIZE} characters are indexed: words up to {@link #GRAM_SIZE}
+ * characters are direct lookups, longer words are resolved by grams intersection then verified.
+ * Results of the last searched words are cached so a word extending a previous one (typing) is
+ * only verified against the previous matches.
+ * 
+ * @author Stephane
+ */
+public class SearchIndex<K>
+{
+    public static final int GRAM_SIZE = 3;
+
+    private static final int CACHE_SIZE = 64;
+
+    /**
+     * gram --> keys containing the gram
+     */
+    private final Map<String, Set<K>> grams;
+    /**
+     * key --> lower case fields
+     */
+    private final Map<K, String[]> fields;
+    /**
+     * word --> matching keys (recent searches)
+     */
+    private final Map<String, Set<K>> cache;
+
+    public SearchIndex()
+    {
+        super();
+
+        grams = new HashMap<String, Set<K>>();
+        fields = new HashMap<K, String[]>();
+        cache = new LinkedHashMap<String, Set<K>>(CACHE_SIZE, 0.75f, true)
+        {
+            private static final long serialVersionUID = 6101726349017493587L;
+
+            @Override
+            protected boolean removeEldestEntry(Entry<String, Set<K>> eldest)
+            {
+                return size() > CACHE_SIZE;
+            }
+        };
+    }
+
+    /**
+     * Add or replace the specified element.<br>
+     * Fields are converted to lower case, <code>null</code> fields are considered empty.
+     */
+    public synchronized void put(K key, String... texts)
+    {
+        final String[] lcTexts = new String[texts.length];
+
+        for (int i = 0; i < texts.length; i++)
+            lcTexts[i] = (texts[i] == null) ? "" : texts[i].toLowerCase();
+
+        final String[] old = fields.get(key);
+
+        // nothing changed
+        if ((old != null) && Arrays.equals(old, lcTexts))
+            return;
+        if (old != null)
+            removeInternal(key, old);
+
+        fields.put(key, lcTexts);
+
+        for (String text : lcTexts)
+        {
+            final int len = text.length();
+
+            for (int i = 0; i < len; i++)
+            {
+                for (int n = 1; (n <= GRAM_SIZE) && ((i + n) <= len); n++)
+                {
+                    final String gram = text.substring(i, i + n);
+                    Set<K> keys = grams.get(gram);
+
+                    if (keys == null)
+                    {
+                        keys = new HashSet<K>();
+                        grams.put(gram, keys);
+                    }
+
+                    keys.add(key);
+                }
+            }
+        }
+
+        cache.clear();
+    }
+
+    /**
+     * Remove the specified element.
+     */
+    public synchronized void remove(K key)
+    {
+        final String[] old = fields.remove(key);
+
+        if (old != null)
+        {
+            removeInternal(key, old);
+            cache.clear();
+        }
+    }
+
+    private void removeInternal(K key, String[] texts)
+    {
+        for (String text : texts)
+        {
+            final int len = text.length();
+
+            for (int i = 0; i < len; i++)
+            {
+                for (int n = 1; (n <= GRAM_SIZE) && ((i + n) <= len); n++)
+                {
+                    final String gram = text.substring(i, i + n);
+                    final Set<K> keys = grams.get(gram);
+
+                    if (keys != null)
+                    {
+                        keys.remove(key);
+                        if (keys.isEmpty())
+                            grams.remove(gram);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all elements.
+     */
+    public synchronized void clear()
+    {
+        grams.clear();
+        fields.clear();
+        cache.clear();
+    }
+
+    /**
+     * Returns all indexed keys.
+     */
+    public synchronized Set<K> getKeys()
+    {
+        return new HashSet<K>(fields.keySet());
+    }
+
+    /**
+     * Returns the number of indexed elements.
+     */
+    public synchronized int size()
+    {
+        return fields.size();
+    }
+
+    /**
+     * Returns the lower case fields of the specified element (<code>null</code> if not indexed).
+     */
+    public synchronized String[] getFields(K key)
+    {
+        return fields.get(key);
+    }
+
+    /**
+     * Returns keys of elements having at least one field containing the specified word (case
+     * insensitive, leading and trailing spaces are ignored).
+     */
+    public synchronized Set<K> search(String word)
+    {
+        final String wordlc = word.trim().toLowerCase();
+
+        if (wordlc.length() == 0)
+            return Collections.emptySet();
+
+        Set<K> result = cache.get(wordlc);
+        if (result != null)
+            return result;
+
+        // direct lookup
+        if (wordlc.length() <= GRAM_SIZE)
+        {
+            final Set<K> keys = grams.get(wordlc);
+            result = (keys == null) ? new HashSet<K>() : new HashSet<K>(keys);
+        }
+        else
+        {
+            // use matches of the longest cached prefix when possible (typing)
+            Set<K> candidates = null;
+            for (int len = wordlc.length() - 1; (len > GRAM_SIZE) && (candidates == null); len--)
+                candidates = cache.get(wordlc.substring(0, len));
+
+            // else use grams intersection
+            if (candidates == null)
+                candidates = getGramCandidates(wordlc);
+
+            result = new HashSet<K>();
+            for (K key : candidates)
+                if (contains(fields.get(key), wordlc))
+                    result.add(key);
+        }
+
+        result = Collections.unmodifiableSet(result);
+        cache.put(wordlc, result);
+
+        return result;
+    }
+
+    /**
+     * Returns keys of elements matching any of the specified search words (reject words are
+     * ignored here as they can't produce results by themselves).
+     */
+    public Set<K> search(List<SearchResultProducer.SearchWord> words)
+    {
+        final Set<K> result = new HashSet<K>();
+
+        for (SearchResultProducer.SearchWord sw : words)
+            if (!sw.reject)
+                result.addAll(search(sw.word));
+
+        return result;
+    }
+
+    private Set<K> getGramCandidates(String wordlc)
+    {
+        final List<Set<K>> sets = new ArrayList<Set<K>>();
+
+        for (int i = 0; i <= (wordlc.length() - GRAM_SIZE); i++)
+        {
+            final Set<K> keys = grams.get(wordlc.substring(i, i + GRAM_SIZE));
+
+            // a gram is missing --> no match
+            if (keys == null)
+                return Collections.emptySet();
+
+            sets.add(keys);
+        }
+
+        // start from the smallest set
+        Set<K> smallest = sets.get(0);
+        for (Set<K> set : sets)
+            if (set.size() < smallest.size())
+                smallest = set;
+
+        final Set<K> result = new HashSet<K>(smallest);
+        for (Set<K> set : sets)
+            if (set != smallest)
+                result.retainAll(set);
+
+        return result;
+    }
+
+    private static boolean contains(String[] texts, String wordlc)
+    {
+        if (texts != null)
+            for (String text : texts)
+                if (text.indexOf(wordlc) >= 0)
+                    return true;
+
+        return false;
+    }
+}
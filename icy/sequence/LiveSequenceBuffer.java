@@ -0,0 +1,689 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.sequence;
+
+import icy.file.FileUtil;
+import icy.image.IcyBufferedImage;
+import icy.system.IcyExceptionHandler;
+import icy.type.DataType;
+import icy.type.collection.array.ArrayUtil;
+import icy.type.collection.array.ByteArrayConvert;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.EventListener;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import javax.swing.event.EventListenerList;
+
+/**
+ * Ring buffer for live acquisition into a {@link Sequence} with bounded memory.<br>
+ * The sequence contains a fixed number of preallocated planes (one per T position) which are reused in a circular way:
+ * frame <code>n</code> is copied in the plane at T position <code>n % capacity</code> so only the last
+ * <code>capacity</code> frames are kept in memory and no allocation is done while acquiring.<br>
+ * Older frames can be spilled to a raw disk file (see {@link #setSpillFile(File)}) and read back with
+ * {@link #getFrame(long)}. In this case a frame is dropped if the disk writer is late and didn't save yet the frame
+ * which should be overwritten.<br>
+ * Sequence events and listeners notifications are batched at display rate (see {@link #setDisplayRate(int)}) and
+ * channel bounds are not automatically updated.<br>
+ * <br>
+ * Example:<br>
+ * 
+ * <pre>
+ * final LiveSequenceBuffer buffer = new LiveSequenceBuffer(&quot;Camera&quot;, 512, 512, 1, DataType.USHORT, 100);
+ * Icy.getMainInterface().addSequence(buffer.getSequence());
+ * buffer.start();
+ * // for each frame from camera
+ * buffer.addFrame(data);
+ * ...
+ * buffer.stop();
+ * </pre>
+ * 
+ * @author Stephane
+ */
+public class LiveSequenceBuffer
+{
+    public static interface LiveSequenceBufferListener extends EventListener
+    {
+        /**
+         * Frames have been acquired (called at display rate).
+         * 
+         * @param source
+         *        the live buffer
+         * @param lastFrame
+         *        index of the last acquired frame
+         * @param count
+         *        number of frames acquired since last notification
+         */
+        public void framesAcquired(LiveSequenceBuffer source, long lastFrame, int count);
+    }
+
+    /**
+     * Write frames in the spill file
+     */
+    private class SpillWriter extends Thread
+    {
+        private final RandomAccessFile file;
+        private final byte[] buffer;
+        private volatile boolean stop;
+
+        public SpillWriter(RandomAccessFile file)
+        {
+            super("Live acquisition spill writer");
+
+            this.file = file;
+            buffer = new byte[planeSize * dataType.getSize()];
+            stop = false;
+
+            setDaemon(true);
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                while (true)
+                {
+                    final long frame = spilledCount;
+
+                    // nothing to save ?
+                    if (frame >= frameCount)
+                    {
+                        // end when everything has been saved
+                        if (stop)
+                            break;
+
+                        synchronized (this)
+                        {
+                            if (!stop && (frame >= frameCount))
+                                wait(100);
+                        }
+
+                        continue;
+                    }
+
+                    final Object[] data = planeData[getSlot(frame)];
+
+                    for (int c = 0; c < numChannel; c++)
+                    {
+                        ByteArrayConvert.toByteArray(data[c], 0, buffer, 0, false);
+                        file.write(buffer);
+                    }
+
+                    spilledCount = frame + 1;
+                }
+            }
+            catch (Exception e)
+            {
+                System.err.println("LiveSequenceBuffer: cannot write frame to '" + spillFile + "' (spill disabled)");
+                IcyExceptionHandler.showErrorMessage(e, false, false);
+                spillError = true;
+            }
+        }
+
+        /**
+         * Frame(s) available
+         */
+        public synchronized void wakeUp()
+        {
+            notify();
+        }
+
+        /**
+         * Stop the writer when all pending frames are saved
+         */
+        public void end()
+        {
+            stop = true;
+            wakeUp();
+
+            try
+            {
+                join();
+            }
+            catch (InterruptedException e)
+            {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * default display rate (number of notifications per second)
+     */
+    public static final int DEFAULT_DISPLAY_RATE = 25;
+
+    private final Sequence sequence;
+    private final int numChannel;
+    private final DataType dataType;
+    private final int capacity;
+    private final int planeSize;
+
+    /**
+     * preallocated planes and their data arrays ([slot][channel])
+     */
+    private final IcyBufferedImage[] planes;
+    final Object[][] planeData;
+
+    private final EventListenerList listeners;
+
+    int displayRate;
+    File spillFile;
+
+    // acquisition state
+    private Timer notifier;
+    private SpillWriter spillWriter;
+    private RandomAccessFile spillOutput;
+    volatile boolean spillError;
+
+    // counters
+    volatile long frameCount;
+    volatile long spilledCount;
+    private volatile long droppedCount;
+    private long notifiedCount;
+    private volatile long pendingSince;
+    private volatile double latency;
+    private volatile double maxLatency;
+    // incremented before and after each plane write (odd while a plane is being overwritten)
+    private volatile long writeSequence;
+
+    /**
+     * Create a new live buffer with its sequence.
+     * 
+     * @param name
+     *        sequence name
+     * @param sizeX
+     *        frame width
+     * @param sizeY
+     *        frame height
+     * @param numChannel
+     *        number of channel per frame
+     * @param dataType
+     *        frame data type
+     * @param capacity
+     *        number of frames kept in memory (number of T position of the sequence)
+     * @throws OutOfMemoryError
+     *         if there is not enough memory to preallocate the planes
+     */
+    public LiveSequenceBuffer(String name, int sizeX, int sizeY, int numChannel, DataType dataType, int capacity)
+            throws OutOfMemoryError
+    {
+        super();
+
+        if ((sizeX <= 0) || (sizeY <= 0) || (numChannel <= 0) || (capacity <= 0))
+            throw new IllegalArgumentException("LiveSequenceBuffer: invalid size (" + sizeX + ", " + sizeY + ", "
+                    + numChannel + ", " + capacity + ")");
+
+        this.numChannel = numChannel;
+        this.dataType = dataType;
+        this.capacity = capacity;
+        planeSize = sizeX * sizeY;
+
+        planes = new IcyBufferedImage[capacity];
+        planeData = new Object[capacity][];
+        listeners = new EventListenerList();
+
+        sequence = new Sequence(name);
+        // channel bounds are updated on demand only
+        sequence.setAutoUpdateChannelBounds(false);
+
+        sequence.beginUpdate();
+        try
+        {
+            for (int t = 0; t < capacity; t++)
+            {
+                final IcyBufferedImage image = new IcyBufferedImage(sizeX, sizeY, numChannel, dataType, false);
+
+                // we need strong references on data
+                if (image.isVolatile())
+                    image.setVolatile(false);
+                image.setAutoUpdateChannelBounds(false);
+
+                planes[t] = image;
+                planeData[t] = new Object[numChannel];
+                for (int c = 0; c < numChannel; c++)
+                    planeData[t][c] = image.getDataXY(c);
+
+                sequence.setImage(t, 0, image);
+            }
+        }
+        finally
+        {
+            sequence.endUpdate();
+        }
+
+        displayRate = DEFAULT_DISPLAY_RATE;
+        spillFile = null;
+        notifier = null;
+        spillWriter = null;
+        spillOutput = null;
+        spillError = false;
+
+        resetCounters();
+    }
+
+    /**
+     * Returns the sequence receiving frames.
+     */
+    public Sequence getSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * Returns the number of frames kept in memory.
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Returns the display rate (number of notifications per second).
+     */
+    public int getDisplayRate()
+    {
+        return displayRate;
+    }
+
+    /**
+     * Sets the display rate (number of notifications per second).<br>
+     * Takes effect on next {@link #start()}.
+     */
+    public void setDisplayRate(int value)
+    {
+        displayRate = Math.max(1, value);
+    }
+
+    /**
+     * Returns the file used to store frames which are not anymore in memory (<code>null</code> if disabled).
+     */
+    public File getSpillFile()
+    {
+        return spillFile;
+    }
+
+    /**
+     * Sets the file used to store frames which are not anymore in memory (<code>null</code> to disable).<br>
+     * Frames are stored in raw format (big endian), channels after channels. Takes effect on next {@link #start()}
+     * (file is overwritten).
+     */
+    public void setSpillFile(File value)
+    {
+        spillFile = value;
+    }
+
+    /**
+     * Returns true if acquisition is started.
+     */
+    public synchronized boolean isStarted()
+    {
+        return notifier != null;
+    }
+
+    /**
+     * Start acquisition (counters are reset).
+     * 
+     * @throws IOException
+     *         if the spill file cannot be created
+     */
+    public synchronized void start() throws IOException
+    {
+        if (isStarted())
+            return;
+
+        resetCounters();
+
+        if (spillFile != null)
+        {
+            FileUtil.ensureParentDirExist(spillFile);
+
+            spillOutput = new RandomAccessFile(spillFile, "rw");
+            spillOutput.setLength(0L);
+            spillError = false;
+            spillWriter = new SpillWriter(spillOutput);
+            spillWriter.start();
+        }
+
+        final long period = Math.max(1L, 1000L / displayRate);
+
+        notifier = new Timer("Live acquisition notifier", true);
+        notifier.scheduleAtFixedRate(new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                notifyFrames();
+            }
+        }, period, period);
+    }
+
+    /**
+     * Stop acquisition (pending frames are saved in the spill file).
+     */
+    public void stop()
+    {
+        final Timer timer;
+        final SpillWriter writer;
+        final RandomAccessFile output;
+
+        synchronized (this)
+        {
+            timer = notifier;
+            writer = spillWriter;
+            output = spillOutput;
+
+            notifier = null;
+            spillWriter = null;
+            spillOutput = null;
+        }
+
+        if (timer != null)
+        {
+            timer.cancel();
+            // last notification
+            notifyFrames();
+        }
+        if (writer != null)
+            writer.end();
+        if (output != null)
+        {
+            try
+            {
+                output.close();
+            }
+            catch (IOException e)
+            {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Add a single channel frame.
+     * 
+     * @see #addFrame(Object[])
+     */
+    public boolean addFrame(Object data) throws IllegalArgumentException
+    {
+        return addFrame(new Object[] {data});
+    }
+
+    /**
+     * Add a new frame.<br>
+     * Data is copied in the next plane of the ring buffer so the given arrays can be reused.
+     * 
+     * @param data
+     *        frame data, one array per channel (same type and size than the sequence planes)
+     * @return <code>false</code> if the frame has been dropped (disk writer is late)
+     * @throws IllegalArgumentException
+     *         if the frame data does not match the sequence format
+     */
+    public synchronized boolean addFrame(Object[] data) throws IllegalArgumentException
+    {
+        if ((data == null) || (data.length != numChannel))
+            throw new IllegalArgumentException("LiveSequenceBuffer.addFrame(..): " + numChannel
+                    + " channel(s) expected.");
+
+        final long frame = frameCount;
+
+        // spilling enabled and frame to overwrite not yet saved --> drop
+        if ((spillWriter != null) && !spillError && (spilledCount <= (frame - capacity)))
+        {
+            droppedCount++;
+            return false;
+        }
+
+        for (int c = 0; c < numChannel; c++)
+        {
+            final Object src = data[c];
+
+            if ((src == null) || (ArrayUtil.getDataType(src) != dataType.getJavaType())
+                    || (ArrayUtil.getLength(src) < planeSize))
+                throw new IllegalArgumentException("LiveSequenceBuffer.addFrame(..): channel " + c
+                        + " doesn't match sequence format.");
+        }
+
+        final Object[] dst = planeData[getSlot(frame)];
+
+        // oldest frame is being overwritten (see getFrame(long))
+        writeSequence++;
+        try
+        {
+            for (int c = 0; c < numChannel; c++)
+                System.arraycopy(data[c], 0, dst[c], 0, planeSize);
+
+            if (frame == notifiedCount)
+                pendingSince = System.nanoTime();
+
+            frameCount = frame + 1;
+        }
+        finally
+        {
+            writeSequence++;
+        }
+
+        if (spillWriter != null)
+            spillWriter.wakeUp();
+
+        return true;
+    }
+
+    /**
+     * Returns the T position of the specified frame in the sequence.
+     */
+    public int getSlot(long frame)
+    {
+        return (int) (frame % capacity);
+    }
+
+    /**
+     * Returns the plane containing the specified frame (<code>null</code> if the frame is not anymore in memory).
+     */
+    public IcyBufferedImage getImage(long frame)
+    {
+        if (isInMemory(frame))
+            return planes[getSlot(frame)];
+
+        return null;
+    }
+
+    /**
+     * Returns true if the specified frame is still in memory.
+     */
+    public boolean isInMemory(long frame)
+    {
+        final long count = frameCount;
+
+        return (frame >= 0) && (frame < count) && (frame >= (count - capacity));
+    }
+
+    /**
+     * Returns a copy of the specified frame data (one array per channel) from memory or from the spill file.<br>
+     * Returns <code>null</code> if the frame is not available anymore.<br>
+     * Reading from memory doesn't block acquisition: the copy is retried if a frame has been written meanwhile (the
+     * oldest frame may have been overwritten while being copied).
+     */
+    public Object[] getFrame(long frame)
+    {
+        final Object[] result = new Object[numChannel];
+
+        for (int c = 0; c < numChannel; c++)
+            result[c] = ArrayUtil.createArray(dataType, 1, planeSize);
+
+        while (isInMemory(frame))
+        {
+            final long sequence = writeSequence;
+
+            // frame being written --> wait for completion
+            if ((sequence & 1L) != 0L)
+            {
+                Thread.yield();
+                continue;
+            }
+
+            final Object[] src = planeData[getSlot(frame)];
+
+            for (int c = 0; c < numChannel; c++)
+                System.arraycopy(src[c], 0, result[c], 0, planeSize);
+
+            // no write during the copy --> data is consistent
+            if ((writeSequence == sequence) && isInMemory(frame))
+                return result;
+        }
+
+        // try from spill file
+        if ((spillFile != null) && (frame >= 0) && (frame < spilledCount))
+        {
+            final int frameSize = planeSize * dataType.getSize();
+            final byte[] buffer = new byte[frameSize];
+
+            try
+            {
+                final RandomAccessFile file = new RandomAccessFile(spillFile, "r");
+
+                try
+                {
+                    for (int c = 0; c < numChannel; c++)
+                    {
+                        file.seek(((frame * numChannel) + c) * frameSize);
+                        file.readFully(buffer);
+                        ByteArrayConvert.byteArrayTo(buffer, result[c], false);
+                    }
+                }
+                finally
+                {
+                    file.close();
+                }
+
+                return result;
+            }
+            catch (IOException e)
+            {
+                System.err.println("LiveSequenceBuffer.getFrame(" + frame + ") error:");
+                IcyExceptionHandler.showErrorMessage(e, false, false);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the number of acquired frames (dropped frames excepted).
+     */
+    public long getFrameCount()
+    {
+        return frameCount;
+    }
+
+    /**
+     * Returns the number of dropped frames.
+     */
+    public long getDroppedCount()
+    {
+        return droppedCount;
+    }
+
+    /**
+     * Returns the number of frames saved in the spill file.
+     */
+    public long getSpilledCount()
+    {
+        return spilledCount;
+    }
+
+    /**
+     * Returns the last notification latency in ms (delay between the frame arrival and its notification).
+     */
+    public double getLatency()
+    {
+        return latency;
+    }
+
+    /**
+     * Returns the maximum notification latency in ms since acquisition start.
+     */
+    public double getMaxLatency()
+    {
+        return maxLatency;
+    }
+
+    private synchronized void resetCounters()
+    {
+        frameCount = 0L;
+        spilledCount = 0L;
+        droppedCount = 0L;
+        notifiedCount = 0L;
+        pendingSince = 0L;
+        latency = 0d;
+        maxLatency = 0d;
+    }
+
+    /**
+     * Notify frames acquired since last notification (called at display rate)
+     */
+    void notifyFrames()
+    {
+        final long count;
+        final long since;
+        final int num;
+
+        synchronized (this)
+        {
+            count = frameCount;
+            since = pendingSince;
+            num = (int) Math.min(Integer.MAX_VALUE, count - notifiedCount);
+            notifiedCount = count;
+        }
+
+        if (num <= 0)
+            return;
+
+        final long last = count - 1;
+
+        // only last frame is refreshed
+        planes[getSlot(last)].dataChanged();
+
+        latency = (System.nanoTime() - since) / 1000000d;
+        if (latency > maxLatency)
+            maxLatency = latency;
+
+        for (LiveSequenceBufferListener listener : listeners.getListeners(LiveSequenceBufferListener.class))
+            listener.framesAcquired(this, last, num);
+    }
+
+    /**
+     * Add a listener
+     */
+    public void addListener(LiveSequenceBufferListener listener)
+    {
+        listeners.add(LiveSequenceBufferListener.class, listener);
+    }
+
+    /**
+     * Remove a listener
+     */
+    public void removeListener(LiveSequenceBufferListener listener)
+    {
+        listeners.remove(LiveSequenceBufferListener.class, listener);
+    }
+}
@@ -26,9 +26,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
@@ -69,6 +71,8 @@ import icy.preferences.GeneralPreferences;
 import icy.roi.ROI;
 import icy.roi.ROI2D;
 import icy.roi.ROI3D;
+import icy.roi.ROIDescriptor;
+import icy.roi.ROIDescriptorStore;
 import icy.roi.ROIEvent;
 import icy.roi.ROIListener;
 import icy.sequence.SequenceEvent.SequenceEventSourceType;
@@ -293,6 +297,16 @@ public class Sequence implements SequenceModel, IcyColorModelListener, IcyBuffer
      */
     protected boolean channelBoundsInvalid;
 
+    /**
+     * change version (incremented on each data, type or metadata change) and last version of each kind of change
+     */
+    protected long version;
+    protected final Map<String, Long> changeVersions;
+    /**
+     * ROI descriptor results
+     */
+    protected final ROIDescriptorStore descriptorStore;
+
     /**
      * Creates a new empty sequence with specified meta data object and name.
      */
@@ -367,6 +381,9 @@ public class Sequence implements SequenceModel, IcyColorModelListener, IcyBuffer
         rois = new HashSet<ROI>();
         persistent = new SequencePersistent(this);
         undoManager = new IcyUndoManager(this, GeneralPreferences.getHistorySize());
+        version = 0L;
+        changeVersions = new HashMap<String, Long>();
+        descriptorStore = new ROIDescriptorStore(this);
 
         updater = new UpdateEventHandler(this, false);
         listeners = new ArrayList<SequenceListener>();
@@ -2033,6 +2050,14 @@ public class Sequence implements SequenceModel, IcyColorModelListener, IcyBuffer
         return undoManager;
     }
 
+    /**
+     * Returns the ROI descriptor results store of this sequence.
+     */
+    public ROIDescriptorStore getROIDescriptorStore()
+    {
+        return descriptorStore;
+    }
+
     /**
      * @deprecated Use {@link #contains(Overlay)} instead.
      */
@@ -4610,9 +4635,8 @@ public class Sequence implements SequenceModel, IcyColorModelListener, IcyBuffer
      */
     public void loadAllData()
     {
-        for (IcyBufferedImage image : getAllImage())
-            if (image != null)
-                image.loadData();
+        // concurrent loading
+        IcyBufferedImage.loadData(getAllImage());
     }
 
     /**
@@ -7333,6 +7357,48 @@ public class Sequence implements SequenceModel, IcyColorModelListener, IcyBuffer
         roiChanged(event.getSource(), SequenceEventType.CHANGED);
     }
 
+    /**
+     * Returns the change version of the sequence.<br>
+     * It is incremented each time the sequence data, type or metadata changes and can be used to identify a
+     * sequence state (see {@link #getChangesSince(long)}).
+     */
+    public long getVersion()
+    {
+        synchronized (changeVersions)
+        {
+            return version;
+        }
+    }
+
+    /**
+     * Returns generic events describing the changes which happened since the specified version (see
+     * {@link #getVersion()}).<br>
+     * Only the last change of each kind is returned so this is mainly useful to test if a computed result (as a ROI
+     * descriptor) is still valid (see {@link ROIDescriptor#needRecompute(SequenceEvent)}).
+     */
+    public List<SequenceEvent> getChangesSince(long version)
+    {
+        final List<SequenceEvent> result = new ArrayList<SequenceEvent>();
+
+        synchronized (changeVersions)
+        {
+            for (Entry<String, Long> entry : changeVersions.entrySet())
+            {
+                if (entry.getValue().longValue() > version)
+                {
+                    final String key = entry.getKey();
+                    final int sep = key.indexOf(':');
+                    final SequenceEventSourceType type = SequenceEventSourceType.valueOf(key.substring(0, sep));
+                    final String metaName = key.substring(sep + 1);
+
+                    result.add(new SequenceEvent(this, type, StringUtil.isEmpty(metaName) ? null : metaName));
+                }
+            }
+        }
+
+        return result;
+    }
+
     /**
      * process on sequence change
      */
@@ -7341,6 +7407,31 @@ public class Sequence implements SequenceModel, IcyColorModelListener, IcyBuffer
     {
         final SequenceEvent event = (SequenceEvent) e;
 
+        // update change version
+        switch (event.getSourceType())
+        {
+            case SEQUENCE_DATA:
+            case SEQUENCE_TYPE:
+            case SEQUENCE_META:
+                final String metaName;
+
+                if ((event.getSourceType() == SequenceEventSourceType.SEQUENCE_META)
+                        && (event.getSource() instanceof String))
+                    metaName = (String) event.getSource();
+                else
+                    metaName = "";
+
+                synchronized (changeVersions)
+                {
+                    version++;
+                    changeVersions.put(event.getSourceType().name() + ":" + metaName, Long.valueOf(version));
+                }
+                break;
+
+            default:
+                break;
+        }
+
         switch (event.getSourceType())
         {
             // do here global process on sequence data change
@@ -7381,6 +7472,14 @@ public class Sequence implements SequenceModel, IcyColorModelListener, IcyBuffer
 
             // do here global process on sequence ROI change
             case SEQUENCE_ROI:
+                // release descriptor results of removed ROI(s)
+                if (event.getType() == SequenceEventType.REMOVED)
+                {
+                    if (event.getSource() instanceof ROI)
+                        descriptorStore.remove((ROI) event.getSource());
+                    else
+                        descriptorStore.retain(getROIs());
+                }
                 break;
         }
 
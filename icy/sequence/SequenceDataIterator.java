@@ -19,13 +19,23 @@
 package icy.sequence;
 
 import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import icy.image.IcyBufferedImage;
 import icy.image.ImageDataIterator;
+import icy.math.StatisticsAccumulator;
+import icy.roi.BooleanMask2D;
 import icy.roi.ROI;
+import icy.system.SystemUtil;
+import icy.system.thread.Processor;
 import icy.type.DataIterator;
 import icy.type.DataType;
+import icy.type.collection.array.Array1DUtil;
 import icy.type.rectangle.Rectangle5D;
 import icy.type.rectangle.Rectangle5D.Integer;
 
@@ -41,6 +51,22 @@ import icy.type.rectangle.Rectangle5D.Integer;
  */
 public class SequenceDataIterator implements DataIterator
 {
+    /**
+     * statistics processor (created on first use)
+     */
+    private static Processor processor = null;
+
+    private static synchronized Processor getProcessor()
+    {
+        if (processor == null)
+        {
+            processor = new Processor(Math.max(1, SystemUtil.getNumberOfCPUs()));
+            processor.setThreadName("Sequence statistics");
+        }
+
+        return processor;
+    }
+
     protected final Sequence sequence;
     protected final ROI roi;
 
@@ -312,31 +338,169 @@ public class SequenceDataIterator implements DataIterator
 
         // get the 2D mask for specified C
         if (roi != null)
+            imageIterator = new ImageDataIterator(img, getMask2D(z, t, c), c);
+        else
+            imageIterator = new ImageDataIterator(img, XYBounds, c);
+    }
+
+    /**
+     * Returns the ROI 2D mask for the specified position.
+     */
+    protected BooleanMask2D getMask2D(int z, int t, int c)
+    {
+        switch (roi.getDimension())
         {
-            switch (roi.getDimension())
+            case 2:
+                // ignore Z, T and C roi informations (wanted for fixed Z, T and C positions)
+                return roi.getBooleanMask2D(-1, -1, -1, inclusive);
+
+            case 3:
+                // ignore T and C roi informations (wanted for fixed T and C positions)
+                return roi.getBooleanMask2D(z, -1, -1, inclusive);
+
+            case 4:
+                // ignore C roi information (wanted for fixed C position)
+                return roi.getBooleanMask2D(z, t, -1, inclusive);
+
+            // assume 5D
+            default:
+                return roi.getBooleanMask2D(z, t, c, inclusive);
+        }
+    }
+
+    /**
+     * Computes statistics of all values covered by this iterator in a single pass and accumulates them in
+     * <code>result</code> (iterator position is not modified).<br>
+     * Data is read row by row (bulk access) and planes (Z, T, C) are processed in parallel.
+     * 
+     * @return <code>result</code>
+     */
+    public StatisticsAccumulator getStatistics(final StatisticsAccumulator result)
+    {
+        if ((sequence == null) || (startT > endT) || (startZ > endZ) || (startC > endC))
+            return result;
+
+        final int sizeZ = (endZ - startZ) + 1;
+        final int sizeC = (endC - startC) + 1;
+        final int numPlane = ((endT - startT) + 1) * sizeZ * sizeC;
+        final int numTask = Math.min(numPlane, Math.max(1, SystemUtil.getNumberOfCPUs()));
+
+        // single thread processing
+        if (numTask == 1)
+        {
+            for (int i = 0; i < numPlane; i++)
+                getPlaneStatistics(startT + (i / (sizeZ * sizeC)), startZ + ((i / sizeC) % sizeZ),
+                        startC + (i % sizeC), result);
+
+            return result;
+        }
+
+        final Processor proc = getProcessor();
+        final List<Future<StatisticsAccumulator>> results = new ArrayList<Future<StatisticsAccumulator>>();
+
+        for (int task = 0; task < numTask; task++)
+        {
+            final int first = task;
+
+            // each task accumulates one plane out of numTask
+            results.add(proc.submit(new Callable<StatisticsAccumulator>()
             {
-                case 2:
-                    // ignore Z, T and C roi informations (wanted for fixed Z, T and C positions)
-                    imageIterator = new ImageDataIterator(img, roi.getBooleanMask2D(-1, -1, -1, inclusive), c);
-                    break;
-
-                case 3:
-                    // ignore T and C roi informations (wanted for fixed T and C positions)
-                    imageIterator = new ImageDataIterator(img, roi.getBooleanMask2D(z, -1, -1, inclusive), c);
-                    break;
-
-                case 4:
-                    // ignore C roi information (wanted for fixed C position)
-                    imageIterator = new ImageDataIterator(img, roi.getBooleanMask2D(z, t, -1, inclusive), c);
-                    break;
-
-                // assume 5D
-                default:
-                    imageIterator = new ImageDataIterator(img, roi.getBooleanMask2D(z, t, c, inclusive), c);
+                @Override
+                public StatisticsAccumulator call() throws Exception
+                {
+                    final StatisticsAccumulator stats = result.createEmpty();
+
+                    for (int i = first; i < numPlane; i += numTask)
+                        getPlaneStatistics(startT + (i / (sizeZ * sizeC)), startZ + ((i / sizeC) % sizeZ),
+                                startC + (i % sizeC), stats);
+
+                    return stats;
+                }
+            }));
+        }
+
+        int done = 0;
+
+        try
+        {
+            for (Future<StatisticsAccumulator> future : results)
+            {
+                result.merge(future.get());
+                done++;
             }
         }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            for (Future<StatisticsAccumulator> future : results)
+                future.cancel(true);
+
+            // finish on the calling thread (don't return partial statistics)
+            for (int task = done; task < numTask; task++)
+                for (int i = task; i < numPlane; i += numTask)
+                    getPlaneStatistics(startT + (i / (sizeZ * sizeC)), startZ + ((i / sizeC) % sizeZ),
+                            startC + (i % sizeC), result);
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException(e.getCause());
+        }
+
+        return result;
+    }
+
+    /**
+     * Accumulates statistics of the specified plane
+     */
+    protected void getPlaneStatistics(int t, int z, int c, StatisticsAccumulator result)
+    {
+        final IcyBufferedImage img = sequence.getImage(t, z);
+
+        if (img == null)
+            return;
+
+        final BooleanMask2D mask = (roi != null) ? getMask2D(z, t, c) : null;
+        final Rectangle region;
+
+        if (roi != null)
+        {
+            if (mask == null)
+                return;
+
+            region = mask.bounds.intersection(img.getBounds());
+        }
         else
-            imageIterator = new ImageDataIterator(img, XYBounds, c);
+            region = XYBounds.intersection(img.getBounds());
+
+        if (region.isEmpty())
+            return;
+
+        final DataType dataType = img.getDataType_();
+        final Object data = img.getDataXY(c);
+        final int w = img.getWidth();
+        final double[] row = new double[region.width];
+        final double[] values = (mask != null) ? new double[region.width] : null;
+
+        for (int y = region.y; y < (region.y + region.height); y++)
+        {
+            // bulk row read
+            Array1DUtil.getValues(data, (y * w) + region.x, row, 0, region.width, dataType);
+
+            if (mask == null)
+                result.add(row, 0, region.width);
+            else
+            {
+                final boolean[] m = mask.mask;
+                final int off = ((y - mask.bounds.y) * mask.bounds.width) + (region.x - mask.bounds.x);
+                int n = 0;
+
+                for (int x = 0; x < region.width; x++)
+                    if (m[off + x])
+                        values[n++] = row[x];
+
+                result.add(values, 0, n);
+            }
+        }
     }
 
     @Override
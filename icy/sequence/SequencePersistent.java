@@ -24,17 +24,39 @@ import icy.image.lut.LUT;
 import icy.painter.Overlay;
 import icy.roi.ROI;
 import icy.system.IcyExceptionHandler;
+import icy.system.SystemUtil;
+import icy.system.thread.Processor;
 import icy.util.StringUtil;
 import icy.util.XMLUtil;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 /**
+ * Sequence XML persistence.<br>
+ * XML file is loaded / saved in streaming (StAX) mode: ROIs are created (or written) as their XML elements arrive
+ * so the ROI part is never entirely stored in memory, others parts are kept in the attached DOM document.
+ * 
  * @author Stephane
  */
 public class SequencePersistent implements XMLPersistent
@@ -43,6 +65,90 @@ public class SequencePersistent implements XMLPersistent
     private final static String ID_ROIS = "rois";
     private final static String ID_OVERLAYS = "overlays";
     private final static String ID_LUT = "lut";
+    private final static String ID_DESCRIPTORS = "descriptors";
+
+    /**
+     * Number of ROI decoded / encoded per task
+     */
+    private final static int ROI_BATCH_SIZE = 256;
+
+    /**
+     * ROI decoding / encoding task
+     */
+    private static class ROIBatch implements Callable<ROIBatch>
+    {
+        final Document document;
+        final List<Element> elements;
+        final List<ROI> rois;
+        final boolean save;
+
+        /**
+         * Create a ROI decoding batch (elements are added later)
+         */
+        ROIBatch()
+        {
+            super();
+
+            document = XMLUtil.createDocument(false);
+            elements = new ArrayList<Element>(ROI_BATCH_SIZE);
+            rois = new ArrayList<ROI>(ROI_BATCH_SIZE);
+            save = false;
+        }
+
+        /**
+         * Create a ROI encoding batch
+         */
+        ROIBatch(List<ROI> rois)
+        {
+            super();
+
+            document = XMLUtil.createDocument(false);
+            elements = new ArrayList<Element>(rois.size());
+            this.rois = rois;
+            save = true;
+        }
+
+        @Override
+        public ROIBatch call()
+        {
+            if (save)
+            {
+                for (ROI roi : rois)
+                {
+                    final Element element = document.createElement(ROI.ID_ROI);
+
+                    if (roi.saveToXML(element))
+                        elements.add(element);
+                    else
+                        System.err.println("Error: the roi " + roi.getName() + " was not correctly saved to XML !");
+                }
+            }
+            else
+            {
+                for (Element element : elements)
+                {
+                    final ROI roi = ROI.createFromXML(element);
+
+                    if (roi != null)
+                        rois.add(roi);
+                }
+
+                // release XML data
+                elements.clear();
+            }
+
+            return this;
+        }
+    }
+
+    /**
+     * ROI decoding / encoding processor
+     */
+    private static Processor roiProcessor = null;
+    /**
+     * Parallel ROI decoding / encoding
+     */
+    private static boolean parallelROIProcessing = true;
 
     private final Sequence sequence;
 
@@ -73,6 +179,36 @@ public class SequencePersistent implements XMLPersistent
         return baseName + XMLUtil.FILE_DOT_EXTENSION;
     }
 
+    private static synchronized Processor getROIProcessor()
+    {
+        if (roiProcessor == null)
+        {
+            roiProcessor = new Processor(SystemUtil.getNumberOfCPUs());
+            roiProcessor.setThreadName("Sequence XML ROI processor");
+        }
+
+        return roiProcessor;
+    }
+
+    /**
+     * Returns <code>true</code> if ROIs are decoded / encoded in parallel (by batches) when XML persistent data is
+     * loaded / saved.
+     */
+    public static boolean isParallelROIProcessing()
+    {
+        return parallelROIProcessing;
+    }
+
+    /**
+     * Enable or disable parallel (by batches) decoding / encoding of ROIs when XML persistent data is loaded / saved
+     * (enabled by default).<br>
+     * Disable it if some ROI classes do not support concurrent XML loading / saving.
+     */
+    public static void setParallelROIProcessing(boolean value)
+    {
+        parallelROIProcessing = value;
+    }
+
     /**
      * Load XML persistent data.<br>
      * Return true if XML data has been correctly loaded.
@@ -87,17 +223,8 @@ public class SequencePersistent implements XMLPersistent
         {
             try
             {
-                // load xml file into document
-                document = XMLUtil.loadDocument(xmlFilename, true);
-
-                // load data from XML document
-                if (document != null)
-                    result = loadFromXML(getRootNode());
-                else
-                {
-                    document = XMLUtil.createDocument(true);
-                    result = false;
-                }
+                // stream xml file (document only keeps non ROI data)
+                result = loadXMLData(new File(xmlFilename));
             }
             catch (Exception e)
             {
@@ -108,6 +235,11 @@ public class SequencePersistent implements XMLPersistent
             // an error occurred
             if (!result)
             {
+                // file could not be parsed --> restore empty document (otherwise keep the partially loaded document so
+                // its data is not lost on next save)
+                if (exc instanceof XMLStreamException)
+                    document = XMLUtil.createDocument(true);
+
                 // backup the problematic file
                 String backupName = FileUtil.backup(xmlFilename);
 
@@ -124,6 +256,170 @@ public class SequencePersistent implements XMLPersistent
         return true;
     }
 
+    /**
+     * Stream the specified XML file: ROIs are directly created and added to the sequence, others nodes are stored in
+     * the document then loaded.
+     */
+    private boolean loadXMLData(File file) throws Exception
+    {
+        final InputStream is = new BufferedInputStream(new FileInputStream(file));
+
+        try
+        {
+            final XMLStreamReader reader = XMLUtil.createStreamReader(is);
+
+            try
+            {
+                document = XMLUtil.createDocument(true);
+
+                // go to root element
+                while (reader.hasNext() && (reader.next() != XMLStreamConstants.START_ELEMENT))
+                    ;
+                if (!reader.isStartElement())
+                    return false;
+
+                final Element root = XMLUtil.getRootElement(document);
+                boolean result = true;
+
+                sequence.beginUpdate();
+                try
+                {
+                    // root children
+                    while (reader.hasNext())
+                    {
+                        final int event = reader.next();
+
+                        if (event == XMLStreamConstants.END_ELEMENT)
+                            break;
+                        if (event != XMLStreamConstants.START_ELEMENT)
+                            continue;
+
+                        if (ID_ROIS.equals(reader.getLocalName()))
+                        {
+                            // keep (empty) rois node
+                            XMLUtil.setElement(root, ID_ROIS);
+
+                            if (!loadROIs(reader))
+                                result = false;
+                        }
+                        else
+                            root.appendChild(XMLUtil.readElement(reader, document));
+                    }
+
+                    // then load others data (ROIs are already loaded)
+                    if (!loadFromXML(root, false))
+                        result = false;
+                }
+                finally
+                {
+                    sequence.endUpdate();
+                }
+
+                return result;
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    /**
+     * Create ROIs from the streamed rois node and add them to the sequence.<br>
+     * Returns <code>true</code> if all ROIs have been correctly loaded.
+     */
+    private boolean loadROIs(XMLStreamReader reader) throws Exception
+    {
+        final LinkedList<Future<ROIBatch>> pending = new LinkedList<Future<ROIBatch>>();
+        final boolean parallel = parallelROIProcessing;
+        final int maxPending = SystemUtil.getNumberOfCPUs() * 2;
+        ROIBatch batch = new ROIBatch();
+        int roiCount = 0;
+        int loaded = 0;
+
+        try
+        {
+            while (reader.hasNext())
+            {
+                final int event = reader.next();
+
+                // end of rois node
+                if (event == XMLStreamConstants.END_ELEMENT)
+                    break;
+                if (event != XMLStreamConstants.START_ELEMENT)
+                    continue;
+
+                final Element element = XMLUtil.readElement(reader, batch.document);
+
+                if (!ROI.ID_ROI.equals(element.getNodeName()))
+                    continue;
+
+                batch.elements.add(element);
+                roiCount++;
+
+                // batch complete ?
+                if (batch.elements.size() >= ROI_BATCH_SIZE)
+                {
+                    if (parallel)
+                    {
+                        // too many pending batches ? --> add the oldest one first
+                        if (pending.size() >= maxPending)
+                            loaded += addROIs(getResult(pending.removeFirst()));
+
+                        pending.add(getROIProcessor().submit(batch));
+                    }
+                    else
+                        loaded += addROIs(batch.call());
+
+                    batch = new ROIBatch();
+                }
+            }
+
+            // add remaining ROIs
+            while (!pending.isEmpty())
+                loaded += addROIs(getResult(pending.removeFirst()));
+            loaded += addROIs(batch.call());
+        }
+        finally
+        {
+            // interrupted by an error
+            for (Future<ROIBatch> future : pending)
+                future.cancel(true);
+        }
+
+        // return true if we got the expected number of ROI
+        return (roiCount == loaded);
+    }
+
+    private int addROIs(ROIBatch batch)
+    {
+        sequence.addROIs(batch.rois, false);
+        return batch.rois.size();
+    }
+
+    private static ROIBatch getResult(Future<ROIBatch> future) throws Exception
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (ExecutionException e)
+        {
+            final Throwable cause = e.getCause();
+
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+
+            throw e;
+        }
+    }
+
     /**
      * Save XML persistent data.<br>
      * Return true if XML data has been correctly saved.
@@ -135,11 +431,112 @@ public class SequencePersistent implements XMLPersistent
         if (xmlFilename == null)
             return false;
 
-        // rebuild document
-        refreshXMLData();
+        final Element root = XMLUtil.getRootElement(document);
+
+        // rebuild document except ROIs which are directly streamed
+        saveToXML(root, false);
+
+        final File file = new File(xmlFilename);
+        final File tmpFile = new File(xmlFilename + ".tmp");
+
+        // save xml file (write in temporary file first so we don't lose previous data on error)
+        final OutputStream os = new BufferedOutputStream(new FileOutputStream(tmpFile));
 
-        // save xml file
-        return XMLUtil.saveDocument(document, xmlFilename);
+        try
+        {
+            final XMLStreamWriter writer = XMLUtil.createStreamWriter(os);
+
+            try
+            {
+                writer.writeStartElement(root.getNodeName());
+
+                for (Node child = root.getFirstChild(); child != null; child = child.getNextSibling())
+                {
+                    if (child.getNodeType() != Node.ELEMENT_NODE)
+                        continue;
+
+                    writer.writeCharacters("\n");
+
+                    if (ID_ROIS.equals(child.getNodeName()))
+                        saveROIs(writer);
+                    else
+                        XMLUtil.writeNode(writer, child);
+                }
+
+                writer.writeCharacters("\n");
+                writer.writeEndElement();
+                writer.flush();
+            }
+            finally
+            {
+                writer.close();
+            }
+        }
+        catch (Exception e)
+        {
+            os.close();
+            tmpFile.delete();
+            throw e;
+        }
+
+        os.close();
+
+        return FileUtil.rename(tmpFile, file, true);
+    }
+
+    /**
+     * Stream sequence ROIs to the specified writer
+     */
+    private void saveROIs(XMLStreamWriter writer) throws Exception
+    {
+        // get sorted ROIs
+        final List<ROI> rois = sequence.getROIs(true);
+        final LinkedList<Future<ROIBatch>> pending = new LinkedList<Future<ROIBatch>>();
+        final boolean parallel = parallelROIProcessing && (rois.size() > ROI_BATCH_SIZE);
+        final int maxPending = SystemUtil.getNumberOfCPUs() * 2;
+
+        writer.writeStartElement(ID_ROIS);
+
+        try
+        {
+            for (int i = 0; i < rois.size(); i += ROI_BATCH_SIZE)
+            {
+                final ROIBatch batch = new ROIBatch(rois.subList(i, Math.min(rois.size(), i + ROI_BATCH_SIZE)));
+
+                if (parallel)
+                {
+                    // too many pending batches ? --> write the oldest one first
+                    if (pending.size() >= maxPending)
+                        writeROIs(writer, getResult(pending.removeFirst()));
+
+                    pending.add(getROIProcessor().submit(batch));
+                }
+                else
+                    writeROIs(writer, batch.call());
+            }
+
+            while (!pending.isEmpty())
+                writeROIs(writer, getResult(pending.removeFirst()));
+        }
+        finally
+        {
+            // interrupted by an error
+            for (Future<ROIBatch> future : pending)
+                future.cancel(true);
+        }
+
+        if (!rois.isEmpty())
+            writer.writeCharacters("\n");
+        writer.writeEndElement();
+    }
+
+    private static void writeROIs(XMLStreamWriter writer, ROIBatch batch) throws XMLStreamException
+    {
+        for (Element element : batch.elements)
+        {
+            writer.writeCharacters("\n");
+            XMLUtil.writeNode(writer, element);
+        }
     }
 
     public void refreshXMLData()
@@ -150,6 +547,11 @@ public class SequencePersistent implements XMLPersistent
 
     @Override
     public boolean loadFromXML(Node node)
+    {
+        return loadFromXML(node, true);
+    }
+
+    private boolean loadFromXML(Node node, boolean loadROIs)
     {
         boolean result = true;
         final String name = XMLUtil.getElementValue(node, Sequence.ID_NAME, "");
@@ -160,12 +562,14 @@ public class SequencePersistent implements XMLPersistent
 
         if (!loadMetaDataFromXML(node))
             result = false;
-        if (!loadROIsFromXML(node))
+        if (loadROIs && !loadROIsFromXML(node))
             result = false;
         // some overlays does not support persistence so we can ignore errors...
         loadOverlaysFromXML(node);
         if (!loadLUTFromXML(node))
             result = false;
+        // descriptor results are just a cache so we can ignore errors...
+        loadDescriptorsFromXML(node);
 
         return result;
     }
@@ -256,6 +660,23 @@ public class SequencePersistent implements XMLPersistent
         return (overlayCount == overlays.size());
     }
 
+    private boolean loadDescriptorsFromXML(Node node)
+    {
+        final Node nodeDescriptors = XMLUtil.getElement(node, ID_DESCRIPTORS);
+
+        // no node --> nothing to load...
+        if (nodeDescriptors == null)
+            return true;
+
+        // ROIs should be loaded first
+        final boolean result = sequence.getROIDescriptorStore().loadFromXML(nodeDescriptors);
+
+        // results are now stored in the descriptor store (and rebuilt on save) so we can release XML data
+        XMLUtil.removeAllChildren(nodeDescriptors);
+
+        return result;
+    }
+
     private boolean loadLUTFromXML(Node node)
     {
         final Node nodeLut = XMLUtil.getElement(node, ID_LUT);
@@ -275,11 +696,26 @@ public class SequencePersistent implements XMLPersistent
 
     @Override
     public boolean saveToXML(Node node)
+    {
+        return saveToXML(node, true);
+    }
+
+    private boolean saveToXML(Node node, boolean saveROIs)
     {
         XMLUtil.setElementValue(node, Sequence.ID_NAME, sequence.getName());
 
         saveMetaDataToXML(node);
-        saveROIsToXML(node);
+        if (saveROIs)
+            saveROIsToXML(node);
+        else
+        {
+            // ROIs are streamed, just keep an empty node
+            final Node nodeROIs = XMLUtil.setElement(node, ID_ROIS);
+
+            if (nodeROIs != null)
+                XMLUtil.removeAllChildren(nodeROIs);
+        }
+        saveDescriptorsToXML(node);
         saveOverlaysToXML(node);
         saveLUTToXML(node);
 
@@ -322,6 +758,14 @@ public class SequencePersistent implements XMLPersistent
         }
     }
 
+    private void saveDescriptorsToXML(Node node)
+    {
+        final Node nodeDescriptors = XMLUtil.setElement(node, ID_DESCRIPTORS);
+
+        if (nodeDescriptors != null)
+            sequence.getROIDescriptorStore().saveToXML(nodeDescriptors);
+    }
+
     private void saveOverlaysToXML(Node node)
     {
         final Node nodeOverlays = XMLUtil.setElement(node, ID_OVERLAYS);
@@ -409,7 +853,8 @@ public class SequencePersistent implements XMLPersistent
     }
 
     /**
-     * Returns <code>true</code> if the specified path represents a valid XML persistence file.
+     * Returns <code>true</code> if the specified path represents a valid XML persistence file.<br>
+     * Only root children names are checked (the file is streamed, no document is built).
      */
     public static boolean isValidXMLPersitence(String path)
     {
@@ -417,7 +862,59 @@ public class SequencePersistent implements XMLPersistent
         {
             try
             {
-                return isValidXMLPersitence(XMLUtil.loadDocument(path, true));
+                final InputStream is = new BufferedInputStream(new FileInputStream(path));
+
+                try
+                {
+                    final XMLStreamReader reader = XMLUtil.createStreamReader(is);
+
+                    try
+                    {
+                        boolean name = false;
+                        boolean meta = false;
+                        boolean rois = false;
+                        boolean overlays = false;
+                        int depth = 0;
+
+                        while (reader.hasNext())
+                        {
+                            final int event = reader.next();
+
+                            if (event == XMLStreamConstants.START_ELEMENT)
+                            {
+                                depth++;
+
+                                // root children
+                                if (depth == 2)
+                                {
+                                    final String id = reader.getLocalName();
+
+                                    if (Sequence.ID_NAME.equals(id))
+                                        name = true;
+                                    else if (ID_META.equals(id))
+                                        meta = true;
+                                    else if (ID_ROIS.equals(id))
+                                        rois = true;
+                                    else if (ID_OVERLAYS.equals(id))
+                                        overlays = true;
+
+                                    if (name && meta && rois && overlays)
+                                        return true;
+                                }
+                            }
+                            else if (event == XMLStreamConstants.END_ELEMENT)
+                                depth--;
+                        }
+                    }
+                    finally
+                    {
+                        reader.close();
+                    }
+                }
+                finally
+                {
+                    is.close();
+                }
             }
             catch (Exception e)
             {
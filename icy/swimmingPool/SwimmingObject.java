@@ -18,10 +18,23 @@
  */
 package icy.swimmingPool;
 
+import icy.file.FileUtil;
+import icy.sequence.Sequence;
+import icy.system.IcyExceptionHandler;
+import icy.type.collection.array.ArrayUtil;
 import icy.util.ClassUtil;
 import icy.util.DateUtil;
 import icy.util.StringUtil;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Date;
 
@@ -49,7 +62,65 @@ public class SwimmingObject
 
     private static int id_gen = 1;
 
-    private final Object object;
+    /**
+     * Returns true if the specified object can be spilled to disk (see {@link SwimmingPool#setMaxMemory(long)}).<br>
+     * Only {@link Sequence} and primitive arrays can be spilled.
+     */
+    public static boolean isSpillable(Object object)
+    {
+        if (object instanceof Sequence)
+            return true;
+        if (object == null)
+            return false;
+
+        Class<?> clazz = object.getClass();
+
+        if (!clazz.isArray())
+            return false;
+
+        while (clazz.isArray())
+            clazz = clazz.getComponentType();
+
+        return clazz.isPrimitive();
+    }
+
+    /**
+     * Returns the size (in bytes) of the specified primitive array (multi dimension array supported)
+     */
+    private static long getArraySize(Object array)
+    {
+        if (array == null)
+            return 0L;
+
+        final Class<?> component = array.getClass().getComponentType();
+        final int len = Array.getLength(array);
+
+        if (component.isPrimitive())
+            return (long) len * ArrayUtil.getDataType(array).getSize();
+
+        long result = 0L;
+        for (int i = 0; i < len; i++)
+            result += getArraySize(Array.get(array, i));
+
+        return result;
+    }
+
+    private Object object;
+    private final Class<?> objectClass;
+
+    /**
+     * pool containing the object (memory management)
+     */
+    SwimmingPool pool;
+    /**
+     * last access time (used to select objects to spill, updated without pool lock)
+     */
+    volatile long lastAccess;
+    /**
+     * spilled state and file containing spilled data (primitive array only)
+     */
+    private boolean spilled;
+    private File spillFile;
 
     private final String name;
     /** 32x32 icon */
@@ -69,6 +140,7 @@ public class SwimmingObject
         }
 
         this.object = object;
+        objectClass = (object != null) ? object.getClass() : null;
         if (StringUtil.isEmpty(name))
             this.name = DEFAULT_NAME + " " + id;
         else
@@ -79,7 +151,10 @@ public class SwimmingObject
             this.icon = icon;
         
         creationDate = DateUtil.now();
-        
+        lastAccess = System.nanoTime();
+        pool = null;
+        spilled = false;
+        spillFile = null;
     }
 
     public SwimmingObject(Object object, String name)
@@ -98,11 +173,210 @@ public class SwimmingObject
     }
 
     /**
-     * @return the object
+     * Returns the object.<br>
+     * If the object has been spilled to disk (see {@link SwimmingPool#setMaxMemory(long)}) it is transparently
+     * reloaded (note that a reloaded array is a new instance).
      */
     public Object getObject()
     {
-        return object;
+        final Object result;
+        final SwimmingPool p;
+
+        synchronized (this)
+        {
+            lastAccess = System.nanoTime();
+
+            if (!spilled)
+                return object;
+
+            restore();
+
+            result = object;
+            p = pool;
+        }
+
+        // memory usage changed
+        if (p != null)
+            p.checkMemory(this);
+
+        return result;
+    }
+
+    /**
+     * Returns the object class (<code>null</code> if object is <code>null</code>)
+     */
+    public Class<?> getObjectClass()
+    {
+        return objectClass;
+    }
+
+    /**
+     * Returns true if the object is currently spilled to disk (see {@link SwimmingPool#setMaxMemory(long)}).
+     */
+    public synchronized boolean isSpilled()
+    {
+        return spilled;
+    }
+
+    /**
+     * Returns the memory size (in bytes) used by the object if it can be spilled to disk, 0 otherwise (or if
+     * already spilled).
+     */
+    public synchronized long getMemorySize()
+    {
+        if (spilled)
+            return 0L;
+
+        if (object instanceof Sequence)
+        {
+            final Sequence sequence = (Sequence) object;
+
+            // already volatile
+            if (sequence.isEmpty() || sequence.isVolatile())
+                return 0L;
+
+            return (long) sequence.getSizeX() * sequence.getSizeY() * sequence.getSizeC() * sequence.getSizeZ()
+                    * sequence.getSizeT() * sequence.getDataType_().getSize();
+        }
+
+        if (isSpillable(object))
+            return getArraySize(object);
+
+        return 0L;
+    }
+
+    /**
+     * Spill object data to disk (sequence data are set volatile, arrays are saved in the specified directory).<br>
+     * Returns <code>true</code> if the operation succeed.
+     */
+    synchronized boolean spill(String directory)
+    {
+        if (spilled || (getMemorySize() == 0L))
+            return false;
+
+        if (object instanceof Sequence)
+        {
+            try
+            {
+                ((Sequence) object).setVolatile(true);
+            }
+            catch (UnsupportedOperationException e)
+            {
+                // image cache not available
+                return false;
+            }
+        }
+        else
+        {
+            File file = null;
+
+            try
+            {
+                FileUtil.createDir(directory);
+                file = File.createTempFile("object", ".tmp", new File(directory));
+                file.deleteOnExit();
+
+                final ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(
+                        file)));
+
+                try
+                {
+                    out.writeObject(object);
+                }
+                finally
+                {
+                    out.close();
+                }
+            }
+            catch (IOException e)
+            {
+                System.err.println("SwimmingObject.spill('" + name + "') error:");
+                IcyExceptionHandler.showErrorMessage(e, false, false);
+
+                if (file != null)
+                    file.delete();
+
+                return false;
+            }
+
+            // release data
+            object = null;
+            spillFile = file;
+        }
+
+        spilled = true;
+
+        return true;
+    }
+
+    // should be called inside lock
+    private void restore()
+    {
+        if (object instanceof Sequence)
+        {
+            try
+            {
+                ((Sequence) object).setVolatile(false);
+            }
+            catch (OutOfMemoryError e)
+            {
+                // not enough memory, keep it volatile (data remain accessible)
+                return;
+            }
+        }
+        else if (spillFile != null)
+        {
+            try
+            {
+                final ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(
+                        spillFile)));
+
+                try
+                {
+                    object = in.readObject();
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            catch (Exception e)
+            {
+                System.err.println("SwimmingObject.restore('" + name + "') error:");
+                IcyExceptionHandler.showErrorMessage(e, true);
+                return;
+            }
+
+            spillFile.delete();
+            spillFile = null;
+        }
+
+        spilled = false;
+    }
+
+    /**
+     * Called when the object is removed from its pool: the object is no longer under memory management so it gets
+     * back its original state (spilled sequence is set non volatile again).<br>
+     * Spilled array is reloaded if <code>keepData</code> is <code>true</code> (object is returned to the caller),
+     * otherwise the spill file is deleted and the array is released (object is discarded).
+     */
+    synchronized void release(boolean keepData)
+    {
+        if (!spilled)
+            return;
+
+        if (keepData || (object instanceof Sequence))
+            restore();
+        else
+        {
+            if (spillFile != null)
+            {
+                spillFile.delete();
+                spillFile = null;
+            }
+
+            spilled = false;
+        }
     }
 
     /**
@@ -115,8 +389,8 @@ public class SwimmingObject
 
     public String getObjectClassName()
     {
-        if (object != null)
-            return object.getClass().getName();
+        if (objectClass != null)
+            return objectClass.getName();
 
         return "";
     }
@@ -18,22 +18,149 @@
  */
 package icy.swimmingPool;
 
-import icy.util.StringUtil;
+import icy.file.FileUtil;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
 
 import javax.swing.event.EventListenerList;
 
+/**
+ * Pool used to share objects between plugins.<br>
+ * Objects are indexed by name (exact and prefix lookup) and by type. An optional memory budget can be defined (see
+ * {@link #setMaxMemory(long)}), large objects ({@link icy.sequence.Sequence} and primitive arrays) are then spilled to
+ * disk when the budget is exceeded and transparently reloaded on access (see {@link SwimmingObject#getObject()}).
+ */
 public class SwimmingPool
 {
-    private final ArrayList<SwimmingObject> objects;
+    /**
+     * Objects smaller than this size (in bytes) are never spilled to disk.
+     */
+    public static final long MIN_SPILL_SIZE = 1024 * 1024;
+
+    private static final String SPILL_DIRECTORY = FileUtil.getTempDirectory() + FileUtil.separator + "swimmingpool";
+
+    /**
+     * Sort objects on their insertion order
+     */
+    private static final Comparator<SwimmingObject> idComparator = new Comparator<SwimmingObject>()
+    {
+        @Override
+        public int compare(SwimmingObject o1, SwimmingObject o2)
+        {
+            final int id1 = o1.getId();
+            final int id2 = o2.getId();
+
+            if (id1 < id2)
+                return -1;
+            if (id1 > id2)
+                return 1;
+
+            return 0;
+        }
+    };
+
+    /**
+     * Object with its last access time copied when the spill candidates are collected (access time can change
+     * while we are sorting).
+     */
+    private static class AccessEntry
+    {
+        final SwimmingObject object;
+        final long lastAccess;
+        final long size;
+
+        AccessEntry(SwimmingObject object, long size)
+        {
+            super();
+
+            this.object = object;
+            this.size = size;
+            lastAccess = object.lastAccess;
+        }
+    }
+
+    /**
+     * Sort objects on their (copied) last access time
+     */
+    private static final Comparator<AccessEntry> accessComparator = new Comparator<AccessEntry>()
+    {
+        @Override
+        public int compare(AccessEntry o1, AccessEntry o2)
+        {
+            final long diff = o1.lastAccess - o2.lastAccess;
+
+            if (diff < 0L)
+                return -1;
+            if (diff > 0L)
+                return 1;
+
+            return 0;
+        }
+    };
+
+    // all objects (insertion order)
+    private final Set<SwimmingObject> objects;
+    // name index (sorted for prefix lookup)
+    private final TreeMap<String, Set<SwimmingObject>> nameIndex;
+    // object class index
+    private final Map<Class<?>, Set<SwimmingObject>> typeIndex;
     private final EventListenerList listeners;
 
+    /**
+     * memory budget (0 = disabled)
+     */
+    private long maxMemory;
+
     public SwimmingPool()
     {
-        objects = new ArrayList<SwimmingObject>();
+        objects = new LinkedHashSet<SwimmingObject>();
+        nameIndex = new TreeMap<String, Set<SwimmingObject>>();
+        typeIndex = new HashMap<Class<?>, Set<SwimmingObject>>();
         listeners = new EventListenerList();
+        maxMemory = 0L;
+    }
+
+    /**
+     * Returns the memory budget (in bytes) of the swimming pool (0 means no limit).
+     */
+    public long getMaxMemory()
+    {
+        return maxMemory;
+    }
+
+    /**
+     * Sets the memory budget (in bytes) of the swimming pool (0 means no limit).<br>
+     * When the memory used by the pool objects exceeds it, least recently accessed large objects are spilled to disk
+     * (sequence data are set volatile and primitive arrays are saved in a temporary file).<br>
+     * Spilled objects are transparently reloaded when accessed through {@link SwimmingObject#getObject()}.
+     */
+    public void setMaxMemory(long value)
+    {
+        maxMemory = Math.max(0L, value);
+        checkMemory(null);
+    }
+
+    /**
+     * Returns the memory (in bytes) used by objects which can be spilled to disk (and are not yet).
+     */
+    public long getUsedMemory()
+    {
+        long result = 0L;
+
+        for (SwimmingObject so : getObjects())
+            result += so.getMemorySize();
+
+        return result;
     }
 
     public void add(SwimmingObject object)
@@ -42,9 +169,17 @@ public class SwimmingPool
         {
             synchronized (objects)
             {
-                objects.add(object);
+                if (!objects.add(object))
+                    return;
+
+                addToIndex(nameIndex, object.getName(), object);
+                if (object.getObjectClass() != null)
+                    addToIndex(typeIndex, object.getObjectClass(), object);
+                object.pool = this;
             }
 
+            checkMemory(object);
+
             fireSwimmingPoolEvent(new SwimmingPoolEvent(SwimmingPoolEventType.ELEMENT_ADDED, object));
         }
     }
@@ -55,27 +190,37 @@ public class SwimmingPool
 
         synchronized (objects)
         {
-            b = objects.remove(object);
+            b = removeInternal(object);
         }
 
         if (b)
+        {
+            object.release(false);
             fireSwimmingPoolEvent(new SwimmingPoolEvent(SwimmingPoolEventType.ELEMENT_REMOVED, object));
+        }
     }
 
     public void removeAll()
     {
-        final boolean b;
+        final List<SwimmingObject> removed;
 
         synchronized (objects)
         {
-            b = !objects.isEmpty();
+            removed = new ArrayList<SwimmingObject>(objects);
+
+            for (SwimmingObject so : removed)
+                so.pool = null;
 
-            if (b)
-                objects.clear();
+            objects.clear();
+            nameIndex.clear();
+            typeIndex.clear();
         }
 
-        if (b)
+        if (!removed.isEmpty())
+        {
+            release(removed, false);
             fireSwimmingPoolEvent(new SwimmingPoolEvent(SwimmingPoolEventType.ELEMENT_REMOVED, null));
+        }
     }
 
     /**
@@ -83,15 +228,20 @@ public class SwimmingPool
      */
     public void removeAll(Collection<SwimmingObject> sos)
     {
-        final boolean b;
+        final List<SwimmingObject> removed = new ArrayList<SwimmingObject>();
 
         synchronized (objects)
         {
-            b = objects.removeAll(sos);
+            for (SwimmingObject so : sos)
+                if (removeInternal(so))
+                    removed.add(so);
         }
 
-        if (b)
+        if (!removed.isEmpty())
+        {
+            release(removed, false);
             fireSwimmingPoolEvent(new SwimmingPoolEvent(SwimmingPoolEventType.ELEMENT_REMOVED, null));
+        }
     }
 
     /**
@@ -99,35 +249,18 @@ public class SwimmingPool
      */
     public void removeAll(String name, boolean startWith)
     {
-        boolean b = false;
+        final ArrayList<SwimmingObject> removed;
 
         synchronized (objects)
         {
-            for (int i = objects.size() - 1; i >= 0; i--)
-            {
-                final SwimmingObject so = objects.get(i);
-
-                if (so != null)
-                {
-                    if (startWith)
-                    {
-                        if (so.getName().startsWith(name))
-                        {
-                            objects.remove(i);
-                            b = true;
-                        }
-                    }
-                    else if (StringUtil.equals(name, so.getName()))
-                    {
-                        objects.remove(i);
-                        b = true;
-                    }
-                }
-            }
+            removed = removeInternal(getByName(name, startWith));
         }
 
-        if (b)
+        if (!removed.isEmpty())
+        {
+            release(removed, false);
             fireSwimmingPoolEvent(new SwimmingPoolEvent(SwimmingPoolEventType.ELEMENT_REMOVED, null));
+        }
     }
 
     /**
@@ -135,29 +268,18 @@ public class SwimmingPool
      */
     public void removeAll(Class<?> objectType)
     {
-        boolean b = false;
+        final ArrayList<SwimmingObject> removed;
 
         synchronized (objects)
         {
-            for (int i = objects.size() - 1; i >= 0; i--)
-            {
-                final SwimmingObject so = objects.get(i);
-
-                if (so != null)
-                {
-                    final Object obj = so.getObject();
-
-                    if ((obj != null) && objectType.isInstance(obj))
-                    {
-                        objects.remove(i);
-                        b = true;
-                    }
-                }
-            }
+            removed = removeInternal(getByType(objectType));
         }
 
-        if (b)
+        if (!removed.isEmpty())
+        {
+            release(removed, false);
             fireSwimmingPoolEvent(new SwimmingPoolEvent(SwimmingPoolEventType.ELEMENT_REMOVED, null));
+        }
     }
 
     /**
@@ -165,7 +287,10 @@ public class SwimmingPool
      */
     public ArrayList<SwimmingObject> getObjects()
     {
-        return new ArrayList<SwimmingObject>(objects);
+        synchronized (objects)
+        {
+            return new ArrayList<SwimmingObject>(objects);
+        }
     }
 
     /**
@@ -173,26 +298,10 @@ public class SwimmingPool
      */
     public ArrayList<SwimmingObject> getObjects(String name, boolean startWith)
     {
-        final ArrayList<SwimmingObject> result = new ArrayList<SwimmingObject>();
-
         synchronized (objects)
         {
-            for (SwimmingObject so : objects)
-            {
-                if (so != null)
-                {
-                    if (startWith)
-                    {
-                        if (so.getName().startsWith(name))
-                            result.add(so);
-                    }
-                    else if (StringUtil.equals(name, so.getName()))
-                        result.add(so);
-                }
-            }
+            return getByName(name, startWith);
         }
-
-        return result;
     }
 
     /**
@@ -200,23 +309,10 @@ public class SwimmingPool
      */
     public ArrayList<SwimmingObject> getObjects(Class<?> objectType)
     {
-        final ArrayList<SwimmingObject> result = new ArrayList<SwimmingObject>();
-
         synchronized (objects)
         {
-            for (SwimmingObject so : objects)
-            {
-                if (so != null)
-                {
-                    final Object obj = so.getObject();
-
-                    if ((obj != null) && objectType.isInstance(obj))
-                        result.add(so);
-                }
-            }
+            return getByType(objectType);
         }
-
-        return result;
     }
 
     /**
@@ -224,33 +320,18 @@ public class SwimmingPool
      */
     public ArrayList<SwimmingObject> popObjects(String name, boolean startWith)
     {
-        final ArrayList<SwimmingObject> result = new ArrayList<SwimmingObject>();
+        final ArrayList<SwimmingObject> result;
 
         synchronized (objects)
         {
-            for (int i = objects.size() - 1; i >= 0; i--)
-            {
-                final SwimmingObject so = objects.get(i);
-
-                if (so != null)
-                {
-                    if (startWith)
-                    {
-                        if (so.getName().startsWith(name))
-                        {
-                            result.add(so);
-                            objects.remove(i);
-                        }
-                    }
-                    else if (StringUtil.equals(name, so.getName()))
-                    {
-                        result.add(so);
-                        objects.remove(i);
-                    }
-                }
-            }
+            result = removeInternal(getByName(name, startWith));
         }
 
+        // returned objects are no more managed by the pool
+        release(result, true);
+        // last inserted first
+        Collections.reverse(result);
+
         return result;
     }
 
@@ -259,27 +340,18 @@ public class SwimmingPool
      */
     public ArrayList<SwimmingObject> popObjects(Class<?> objectType)
     {
-        final ArrayList<SwimmingObject> result = new ArrayList<SwimmingObject>();
+        final ArrayList<SwimmingObject> result;
 
         synchronized (objects)
         {
-            for (int i = objects.size() - 1; i >= 0; i--)
-            {
-                final SwimmingObject so = objects.get(i);
-
-                if (so != null)
-                {
-                    final Object obj = so.getObject();
-
-                    if ((obj != null) && objectType.isInstance(obj))
-                    {
-                        result.add(so);
-                        objects.remove(i);
-                    }
-                }
-            }
+            result = removeInternal(getByType(objectType));
         }
 
+        // returned objects are no more managed by the pool
+        release(result, true);
+        // last inserted first
+        Collections.reverse(result);
+
         return result;
     }
 
@@ -289,24 +361,7 @@ public class SwimmingPool
      */
     public boolean hasObjects(String name, boolean startWith)
     {
-        synchronized (objects)
-        {
-            for (SwimmingObject so : objects)
-            {
-                if (so != null)
-                {
-                    if (startWith)
-                    {
-                        if (so.getName().startsWith(name))
-                            return true;
-                    }
-                    else if (StringUtil.equals(name, so.getName()))
-                        return true;
-                }
-            }
-        }
-
-        return false;
+        return getCount(name, startWith) > 0;
     }
 
     /**
@@ -316,16 +371,9 @@ public class SwimmingPool
     {
         synchronized (objects)
         {
-            for (SwimmingObject so : objects)
-            {
-                if (so != null)
-                {
-                    final Object obj = so.getObject();
-
-                    if ((obj != null) && objectType.isInstance(obj))
-                        return true;
-                }
-            }
+            for (Class<?> clazz : typeIndex.keySet())
+                if (objectType.isAssignableFrom(clazz))
+                    return true;
         }
 
         return false;
@@ -337,23 +385,30 @@ public class SwimmingPool
      */
     public int getCount(String name, boolean startWith)
     {
+        if (name == null)
+            return 0;
+
         int result = 0;
 
         synchronized (objects)
         {
-            for (SwimmingObject so : objects)
+            if (startWith)
             {
-                if (so != null)
+                for (Entry<String, Set<SwimmingObject>> entry : nameIndex.tailMap(name, true).entrySet())
                 {
-                    if (startWith)
-                    {
-                        if (so.getName().startsWith(name))
-                            result++;
-                    }
-                    else if (StringUtil.equals(name, so.getName()))
-                        result++;
+                    if (!entry.getKey().startsWith(name))
+                        break;
+
+                    result += entry.getValue().size();
                 }
             }
+            else
+            {
+                final Set<SwimmingObject> sos = nameIndex.get(name);
+
+                if (sos != null)
+                    result = sos.size();
+            }
         }
 
         return result;
@@ -368,21 +423,172 @@ public class SwimmingPool
 
         synchronized (objects)
         {
-            for (SwimmingObject so : objects)
+            for (Entry<Class<?>, Set<SwimmingObject>> entry : typeIndex.entrySet())
+                if (objectType.isAssignableFrom(entry.getKey()))
+                    result += entry.getValue().size();
+        }
+
+        return result;
+    }
+
+    /**
+     * Spill least recently accessed objects to disk while the memory budget is exceeded.
+     * 
+     * @param accessed
+     *        object which should not be spilled (currently accessed)
+     */
+    void checkMemory(SwimmingObject accessed)
+    {
+        final long max = maxMemory;
+
+        // no budget
+        if (max == 0L)
+            return;
+
+        final List<AccessEntry> candidates = new ArrayList<AccessEntry>();
+        long used = 0L;
+
+        for (SwimmingObject so : getObjects())
+        {
+            final long size = so.getMemorySize();
+
+            used += size;
+            if ((so != accessed) && (size >= MIN_SPILL_SIZE))
+                candidates.add(new AccessEntry(so, size));
+        }
+
+        if (used <= max)
+            return;
+
+        // spill least recently accessed first
+        Collections.sort(candidates, accessComparator);
+
+        for (AccessEntry entry : candidates)
+        {
+            if (used <= max)
+                break;
+
+            if (entry.object.spill(SPILL_DIRECTORY))
+                used -= entry.size;
+        }
+    }
+
+    // should be called inside lock
+    private ArrayList<SwimmingObject> getByName(String name, boolean startWith)
+    {
+        final ArrayList<SwimmingObject> result = new ArrayList<SwimmingObject>();
+
+        if (name == null)
+            return result;
+
+        if (startWith)
+        {
+            int count = 0;
+
+            for (Entry<String, Set<SwimmingObject>> entry : nameIndex.tailMap(name, true).entrySet())
             {
-                if (so != null)
-                {
-                    final Object obj = so.getObject();
+                if (!entry.getKey().startsWith(name))
+                    break;
 
-                    if ((obj != null) && objectType.isInstance(obj))
-                        result++;
-                }
+                result.addAll(entry.getValue());
+                count++;
+            }
+
+            // restore insertion order
+            if (count > 1)
+                Collections.sort(result, idComparator);
+        }
+        else
+        {
+            final Set<SwimmingObject> sos = nameIndex.get(name);
+
+            if (sos != null)
+                result.addAll(sos);
+        }
+
+        return result;
+    }
+
+    // should be called inside lock
+    private ArrayList<SwimmingObject> getByType(Class<?> objectType)
+    {
+        final ArrayList<SwimmingObject> result = new ArrayList<SwimmingObject>();
+        int count = 0;
+
+        for (Entry<Class<?>, Set<SwimmingObject>> entry : typeIndex.entrySet())
+        {
+            if (objectType.isAssignableFrom(entry.getKey()))
+            {
+                result.addAll(entry.getValue());
+                count++;
             }
         }
 
+        // restore insertion order
+        if (count > 1)
+            Collections.sort(result, idComparator);
+
         return result;
     }
 
+    // should be called inside lock
+    private boolean removeInternal(SwimmingObject object)
+    {
+        if (!objects.remove(object))
+            return false;
+
+        removeFromIndex(nameIndex, object.getName(), object);
+        if (object.getObjectClass() != null)
+            removeFromIndex(typeIndex, object.getObjectClass(), object);
+        object.pool = null;
+
+        return true;
+    }
+
+    // should be called inside lock
+    private ArrayList<SwimmingObject> removeInternal(ArrayList<SwimmingObject> sos)
+    {
+        for (SwimmingObject so : sos)
+            removeInternal(so);
+
+        return sos;
+    }
+
+    /**
+     * Release spilled data of removed objects (see {@link SwimmingObject#release(boolean)}), should be called outside
+     * lock as it can reload data.
+     */
+    private static void release(List<SwimmingObject> sos, boolean keepData)
+    {
+        for (SwimmingObject so : sos)
+            so.release(keepData);
+    }
+
+    private static <K> void addToIndex(Map<K, Set<SwimmingObject>> index, K key, SwimmingObject object)
+    {
+        Set<SwimmingObject> sos = index.get(key);
+
+        if (sos == null)
+        {
+            sos = new LinkedHashSet<SwimmingObject>();
+            index.put(key, sos);
+        }
+
+        sos.add(object);
+    }
+
+    private static <K> void removeFromIndex(Map<K, Set<SwimmingObject>> index, K key, SwimmingObject object)
+    {
+        final Set<SwimmingObject> sos = index.get(key);
+
+        if (sos != null)
+        {
+            sos.remove(object);
+            if (sos.isEmpty())
+                index.remove(key);
+        }
+    }
+
     public void addListener(SwimmingPoolListener listener)
     {
         listeners.add(SwimmingPoolListener.class, listener);
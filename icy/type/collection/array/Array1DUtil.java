@@ -846,6 +846,265 @@ public class Array1DUtil
         array[offset] = value;
     }
 
+    /**
+     * Read <code>length</code> values from <code>array</code> starting at <code>offset</code> and
+     * store them as double in <code>out</code> starting at <code>outOffset</code>.<br>
+     * This is the bulk version of {@link #getValue(Object, int, DataType)}: data type and sign are
+     * resolved once per call instead of once per value.
+     * 
+     * @param array
+     *        input array
+     * @param offset
+     *        position where we start read data from
+     * @param out
+     *        output array (allocated if <code>null</code>)
+     * @param outOffset
+     *        position where we start to write data to
+     * @param length
+     *        number of value to read (-1 means we will use the maximum possible length)
+     * @param dataType
+     *        data type of input array
+     */
+    public static double[] getValues(Object array, int offset, double[] out, int outOffset, int length,
+            DataType dataType)
+    {
+        final boolean signed = dataType.isSigned();
+
+        switch (dataType.getJavaType())
+        {
+            case BYTE:
+                return byteArrayToDoubleArray((byte[]) array, offset, out, outOffset, length, signed);
+            case SHORT:
+                return shortArrayToDoubleArray((short[]) array, offset, out, outOffset, length, signed);
+            case INT:
+                return intArrayToDoubleArray((int[]) array, offset, out, outOffset, length, signed);
+            case LONG:
+                return longArrayToDoubleArray((long[]) array, offset, out, outOffset, length, signed);
+            case FLOAT:
+                return floatArrayToDoubleArray((float[]) array, offset, out, outOffset, length);
+            case DOUBLE:
+                return doubleArrayToDoubleArray((double[]) array, offset, out, outOffset, length);
+            default:
+                return out;
+        }
+    }
+
+    /**
+     * Read <code>length</code> values from <code>array</code> starting at <code>offset</code> and
+     * store them as float in <code>out</code> starting at <code>outOffset</code>.<br>
+     * This is the bulk version of {@link #getValueAsFloat(Object, int, DataType)}.
+     * 
+     * @see #getValues(Object, int, double[], int, int, DataType)
+     */
+    public static float[] getValuesAsFloat(Object array, int offset, float[] out, int outOffset, int length,
+            DataType dataType)
+    {
+        final boolean signed = dataType.isSigned();
+
+        switch (dataType.getJavaType())
+        {
+            case BYTE:
+                return byteArrayToFloatArray((byte[]) array, offset, out, outOffset, length, signed);
+            case SHORT:
+                return shortArrayToFloatArray((short[]) array, offset, out, outOffset, length, signed);
+            case INT:
+                return intArrayToFloatArray((int[]) array, offset, out, outOffset, length, signed);
+            case LONG:
+                return longArrayToFloatArray((long[]) array, offset, out, outOffset, length, signed);
+            case FLOAT:
+                return floatArrayToFloatArray((float[]) array, offset, out, outOffset, length);
+            case DOUBLE:
+                return doubleArrayToFloatArray((double[]) array, offset, out, outOffset, length);
+            default:
+                return out;
+        }
+    }
+
+    /**
+     * Read <code>length</code> values from <code>array</code> starting at <code>offset</code> and
+     * store them as int in <code>out</code> starting at <code>outOffset</code>.<br>
+     * This is the bulk version of {@link #getValueAsInt(Object, int, DataType)}.
+     * 
+     * @see #getValues(Object, int, double[], int, int, DataType)
+     */
+    public static int[] getValuesAsInt(Object array, int offset, int[] out, int outOffset, int length,
+            DataType dataType)
+    {
+        final boolean signed = dataType.isSigned();
+
+        switch (dataType.getJavaType())
+        {
+            case BYTE:
+                return byteArrayToIntArray((byte[]) array, offset, out, outOffset, length, signed);
+            case SHORT:
+                return shortArrayToIntArray((short[]) array, offset, out, outOffset, length, signed);
+            case INT:
+                return intArrayToIntArray((int[]) array, offset, out, outOffset, length);
+            case LONG:
+                return longArrayToIntArray((long[]) array, offset, out, outOffset, length);
+            case FLOAT:
+                return floatArrayToIntArray((float[]) array, offset, out, outOffset, length);
+            case DOUBLE:
+                return doubleArrayToIntArray((double[]) array, offset, out, outOffset, length);
+            default:
+                return out;
+        }
+    }
+
+    /**
+     * Replace each value of the specified array range by the result of the specified operator.<br>
+     * Values are given to the operator as double (unsigned if <code>dataType</code> is unsigned)
+     * and stored back the same way {@link #setValue(Object, int, DataType, double)} does, data type
+     * and sign being resolved once per call.
+     * 
+     * @param array
+     *        array to modify
+     * @param offset
+     *        position of the first value to modify
+     * @param length
+     *        number of value to modify
+     * @param dataType
+     *        data type of the array
+     * @param op
+     *        operator to apply
+     */
+    public static void apply(Object array, int offset, int length, DataType dataType, DoubleOperator op)
+    {
+        final boolean signed = dataType.isSigned();
+
+        switch (dataType.getJavaType())
+        {
+            case BYTE:
+                apply((byte[]) array, offset, length, signed, op);
+                break;
+            case SHORT:
+                apply((short[]) array, offset, length, signed, op);
+                break;
+            case INT:
+                apply((int[]) array, offset, length, signed, op);
+                break;
+            case LONG:
+                apply((long[]) array, offset, length, signed, op);
+                break;
+            case FLOAT:
+                apply((float[]) array, offset, length, op);
+                break;
+            case DOUBLE:
+                apply((double[]) array, offset, length, op);
+                break;
+        }
+    }
+
+    /**
+     * Replace each value of the specified array range by the result of the specified operator.
+     * 
+     * @see #apply(Object, int, int, DataType, DoubleOperator)
+     */
+    public static void apply(byte[] array, int offset, int length, boolean signed, DoubleOperator op)
+    {
+        final int end = offset + length;
+
+        if (signed)
+        {
+            for (int i = offset; i < end; i++)
+                array[i] = (byte) op.apply(array[i]);
+        }
+        else
+        {
+            for (int i = offset; i < end; i++)
+                array[i] = (byte) op.apply(TypeUtil.unsign(array[i]));
+        }
+    }
+
+    /**
+     * Replace each value of the specified array range by the result of the specified operator.
+     * 
+     * @see #apply(Object, int, int, DataType, DoubleOperator)
+     */
+    public static void apply(short[] array, int offset, int length, boolean signed, DoubleOperator op)
+    {
+        final int end = offset + length;
+
+        if (signed)
+        {
+            for (int i = offset; i < end; i++)
+                array[i] = (short) op.apply(array[i]);
+        }
+        else
+        {
+            for (int i = offset; i < end; i++)
+                array[i] = (short) op.apply(TypeUtil.unsign(array[i]));
+        }
+    }
+
+    /**
+     * Replace each value of the specified array range by the result of the specified operator.
+     * 
+     * @see #apply(Object, int, int, DataType, DoubleOperator)
+     */
+    public static void apply(int[] array, int offset, int length, boolean signed, DoubleOperator op)
+    {
+        final int end = offset + length;
+
+        if (signed)
+        {
+            for (int i = offset; i < end; i++)
+                array[i] = (int) op.apply(array[i]);
+        }
+        else
+        {
+            for (int i = offset; i < end; i++)
+                array[i] = (int) op.apply(TypeUtil.unsign(array[i]));
+        }
+    }
+
+    /**
+     * Replace each value of the specified array range by the result of the specified operator.
+     * 
+     * @see #apply(Object, int, int, DataType, DoubleOperator)
+     */
+    public static void apply(long[] array, int offset, int length, boolean signed, DoubleOperator op)
+    {
+        final int end = offset + length;
+
+        if (signed)
+        {
+            for (int i = offset; i < end; i++)
+                array[i] = (long) op.apply(array[i]);
+        }
+        else
+        {
+            for (int i = offset; i < end; i++)
+                array[i] = (long) op.apply(TypeUtil.unsign(array[i]));
+        }
+    }
+
+    /**
+     * Replace each value of the specified array range by the result of the specified operator.
+     * 
+     * @see #apply(Object, int, int, DataType, DoubleOperator)
+     */
+    public static void apply(float[] array, int offset, int length, DoubleOperator op)
+    {
+        final int end = offset + length;
+
+        for (int i = offset; i < end; i++)
+            array[i] = (float) op.apply(array[i]);
+    }
+
+    /**
+     * Replace each value of the specified array range by the result of the specified operator.
+     * 
+     * @see #apply(Object, int, int, DataType, DoubleOperator)
+     */
+    public static void apply(double[] array, int offset, int length, DoubleOperator op)
+    {
+        final int end = offset + length;
+
+        for (int i = offset; i < end; i++)
+            array[i] = op.apply(array[i]);
+    }
+
     /**
      * Return true is the specified arrays are equals
      */
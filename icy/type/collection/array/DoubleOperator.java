@@ -0,0 +1,33 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.type.collection.array;
+
+/**
+ * Operation applied on each value of an array range by
+ * {@link Array1DUtil#apply(Object, int, int, icy.type.DataType, DoubleOperator)}.
+ * 
+ * @author Stephane
+ */
+public interface DoubleOperator
+{
+    /**
+     * Returns the new value for the specified input value.
+     */
+    public double apply(double value);
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the License, or (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with Icy. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package icy.util;
+
+/**
+ * Base64 encoding / decoding utilities (RFC 4648 standard alphabet with padding, no line separator).<br>
+ * Available whatever is the java version (java.util.Base64 requires java 8).
+ * 
+ * @author Stephane
+ */
+public class Base64Util
+{
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .toCharArray();
+    private static final int[] INDEXES = new int[128];
+
+    static
+    {
+        for (int i = 0; i < INDEXES.length; i++)
+            INDEXES[i] = -1;
+        for (int i = 0; i < ALPHABET.length; i++)
+            INDEXES[ALPHABET[i]] = i;
+    }
+
+    /**
+     * Encode the specified byte array to a Base64 string.
+     */
+    public static String encode(byte[] data)
+    {
+        return encode(data, 0, data.length);
+    }
+
+    /**
+     * Encode the specified part of the byte array to a Base64 string.
+     */
+    public static String encode(byte[] data, int offset, int length)
+    {
+        final char[] result = new char[((length + 2) / 3) * 4];
+        final int end = offset + length;
+        int in = offset;
+        int out = 0;
+
+        // full 3 bytes blocks
+        while ((in + 2) < end)
+        {
+            final int v = ((data[in++] & 0xFF) << 16) | ((data[in++] & 0xFF) << 8) | (data[in++] & 0xFF);
+
+            result[out++] = ALPHABET[(v >>> 18) & 0x3F];
+            result[out++] = ALPHABET[(v >>> 12) & 0x3F];
+            result[out++] = ALPHABET[(v >>> 6) & 0x3F];
+            result[out++] = ALPHABET[v & 0x3F];
+        }
+
+        // remaining bytes
+        final int remaining = end - in;
+
+        if (remaining > 0)
+        {
+            final int v = ((data[in] & 0xFF) << 16) | ((remaining == 2) ? ((data[in + 1] & 0xFF) << 8) : 0);
+
+            result[out++] = ALPHABET[(v >>> 18) & 0x3F];
+            result[out++] = ALPHABET[(v >>> 12) & 0x3F];
+            result[out++] = (remaining == 2) ? ALPHABET[(v >>> 6) & 0x3F] : '=';
+            result[out++] = '=';
+        }
+
+        return new String(result);
+    }
+
+    /**
+     * Decode the specified Base64 string.<br>
+     * White space characters are ignored and padding is optional.
+     * 
+     * @throws IllegalArgumentException
+     *         if the string contains invalid Base64 character
+     */
+    public static byte[] decode(String value) throws IllegalArgumentException
+    {
+        return decode(value, 0);
+    }
+
+    /**
+     * Decode the specified Base64 string starting at the given offset.<br>
+     * White space characters are ignored and padding is optional.
+     * 
+     * @throws IllegalArgumentException
+     *         if the string contains invalid Base64 character
+     */
+    public static byte[] decode(String value, int offset) throws IllegalArgumentException
+    {
+        final int len = value.length();
+        final byte[] buffer = new byte[((len - offset) * 3) / 4];
+        int out = 0;
+        int v = 0;
+        int n = 0;
+
+        for (int i = offset; i < len; i++)
+        {
+            final char c = value.charAt(i);
+
+            // padding --> end
+            if (c == '=')
+                break;
+            // ignore white space
+            if (Character.isWhitespace(c))
+                continue;
+
+            final int index = (c < 128) ? INDEXES[c] : -1;
+
+            if (index == -1)
+                throw new IllegalArgumentException("Invalid Base64 character '" + c + "' at position " + i);
+
+            v = (v << 6) | index;
+            n++;
+
+            if (n == 4)
+            {
+                buffer[out++] = (byte) (v >>> 16);
+                buffer[out++] = (byte) (v >>> 8);
+                buffer[out++] = (byte) v;
+                v = 0;
+                n = 0;
+            }
+        }
+
+        // remaining bits
+        if (n == 2)
+            buffer[out++] = (byte) (v >>> 4);
+        else if (n == 3)
+        {
+            buffer[out++] = (byte) (v >>> 10);
+            buffer[out++] = (byte) (v >>> 2);
+        }
+        else if (n == 1)
+            throw new IllegalArgumentException("Invalid Base64 string length");
+
+        if (out == buffer.length)
+            return buffer;
+
+        final byte[] result = new byte[out];
+        System.arraycopy(buffer, 0, result, 0, out);
+        return result;
+    }
+}
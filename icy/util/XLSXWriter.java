@@ -0,0 +1,393 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streaming XLSX (Office Open XML spreadsheet) writer.<br>
+ * Rows are directly written to the output stream as they are added so memory usage does not
+ * depend on the number of rows (contrary to {@link XLSUtil} which builds the whole workbook in
+ * memory and is limited to 65536 rows per sheet).<br>
+ * Strings are stored inline (no shared string table), {@link Number} and {@link Boolean} values are
+ * stored as numeric and boolean cells. When a sheet is full ({@link #MAX_ROWS} rows) a new sheet
+ * is automatically created.<br>
+ * <br>
+ * Usage:
+ * 
+ * <pre>
+ * final XLSXWriter writer = new XLSXWriter(new File(&quot;result.xlsx&quot;));
+ * writer.newSheet(&quot;ROIS&quot;);
+ * writer.addRow(new Object[] {&quot;Name&quot;, &quot;Area&quot;});
+ * writer.addRow(new Object[] {&quot;roi 1&quot;, Double.valueOf(12.5)});
+ * writer.close();
+ * </pre>
+ * 
+ * @author Stephane
+ */
+public class XLSXWriter implements Closeable
+{
+    public static final String FILE_EXTENSION = "xlsx";
+    public static final String FILE_DOT_EXTENSION = "." + FILE_EXTENSION;
+
+    /**
+     * Maximum number of row in a sheet
+     */
+    public static final int MAX_ROWS = 1048576;
+    /**
+     * Maximum length of a sheet name
+     */
+    public static final int MAX_SHEET_NAME_LENGTH = 31;
+
+    private final ZipOutputStream zip;
+    private final Writer writer;
+    private final List<String> sheetNames;
+
+    private String sheetName;
+    private int sheetPart;
+    private int row;
+    private boolean sheetOpened;
+    private boolean closed;
+
+    /**
+     * Creates a new XLSX writer on the specified stream.<br>
+     * The stream is closed when the writer is closed.
+     */
+    public XLSXWriter(OutputStream out)
+    {
+        super();
+
+        zip = new ZipOutputStream(out);
+        writer = new BufferedWriter(new OutputStreamWriter(zip, Charset.forName("UTF-8")), 65536);
+        sheetNames = new ArrayList<String>();
+
+        sheetName = null;
+        sheetPart = 0;
+        row = 0;
+        sheetOpened = false;
+        closed = false;
+    }
+
+    /**
+     * Creates a new XLSX writer on the specified file (existing file is overwritten).
+     */
+    public XLSXWriter(File file) throws IOException
+    {
+        this(new FileOutputStream(file));
+    }
+
+    /**
+     * Creates a new XLSX writer on the specified file (existing file is overwritten).
+     */
+    public XLSXWriter(String filename) throws IOException
+    {
+        this(new File(filename));
+    }
+
+    /**
+     * Returns the column reference (A, B, ..., Z, AA, AB...) for the specified column index.
+     */
+    public static String getColumnName(int column)
+    {
+        final StringBuilder result = new StringBuilder();
+        int c = column + 1;
+
+        while (c > 0)
+        {
+            final int rem = (c - 1) % 26;
+            result.insert(0, (char) ('A' + rem));
+            c = (c - 1) / 26;
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Escape the specified string for XML content (invalid XML characters are removed).
+     */
+    public static String escape(String text)
+    {
+        final int len = text.length();
+        final StringBuilder result = new StringBuilder(len + 16);
+
+        for (int i = 0; i < len; i++)
+        {
+            final char c = text.charAt(i);
+
+            switch (c)
+            {
+                case '&':
+                    result.append("&amp;");
+                    break;
+                case '<':
+                    result.append("&lt;");
+                    break;
+                case '>':
+                    result.append("&gt;");
+                    break;
+                case '"':
+                    result.append("&quot;");
+                    break;
+
+                default:
+                    // skip invalid XML characters
+                    if ((c >= 0x20) || (c == '\t') || (c == '\n') || (c == '\r'))
+                        result.append(c);
+                    break;
+            }
+        }
+
+        return result.toString();
+    }
+
+    private static String truncate(String value, int maxlen)
+    {
+        if (value.length() > maxlen)
+            return value.substring(0, maxlen);
+
+        return value;
+    }
+
+    private String getValidSheetName(String name, int index)
+    {
+        String result = StringUtil.isEmpty(name) ? "Sheet" : name.replaceAll("[\\[\\]\\*\\?:/\\\\]", "_");
+
+        // continuation sheet
+        if (index > 0)
+        {
+            final String suffix = " (" + (index + 1) + ")";
+            result = truncate(result, MAX_SHEET_NAME_LENGTH - suffix.length()) + suffix;
+        }
+        else
+            result = truncate(result, MAX_SHEET_NAME_LENGTH);
+
+        // sheet name should be unique
+        final String base = result;
+        int n = 1;
+        while (sheetNames.contains(result))
+        {
+            final String suffix = "_" + (n++);
+            result = truncate(base, MAX_SHEET_NAME_LENGTH - suffix.length()) + suffix;
+        }
+
+        return result;
+    }
+
+    private void checkNotClosed() throws IOException
+    {
+        if (closed)
+            throw new IOException("XLSX writer already closed.");
+    }
+
+    private void endSheet() throws IOException
+    {
+        if (sheetOpened)
+        {
+            writer.write("</sheetData></worksheet>");
+            writer.flush();
+            zip.closeEntry();
+            sheetOpened = false;
+        }
+    }
+
+    /**
+     * Start a new sheet, following rows will be written in this sheet.
+     */
+    public void newSheet(String name) throws IOException
+    {
+        checkNotClosed();
+        endSheet();
+
+        sheetName = name;
+        sheetPart = 0;
+        startSheet(getValidSheetName(name, 0));
+    }
+
+    private void startSheet(String name) throws IOException
+    {
+        sheetNames.add(name);
+
+        zip.putNextEntry(new ZipEntry("xl/worksheets/sheet" + sheetNames.size() + ".xml"));
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n");
+        writer.write("<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>");
+
+        row = 0;
+        sheetOpened = true;
+    }
+
+    /**
+     * Returns the number of rows written in the current sheet.
+     */
+    public int getRowCount()
+    {
+        return row;
+    }
+
+    /**
+     * Add a new row in the current sheet (a default sheet is created if needed).<br>
+     * <code>null</code> values are written as empty cells.
+     */
+    public void addRow(Object[] values) throws IOException
+    {
+        checkNotClosed();
+
+        if (!sheetOpened)
+            newSheet("Sheet1");
+        // current sheet is full --> continue in a new sheet
+        else if (row >= MAX_ROWS)
+        {
+            endSheet();
+            startSheet(getValidSheetName(sheetName, ++sheetPart));
+        }
+
+        row++;
+
+        writer.write("<row r=\"");
+        writer.write(Integer.toString(row));
+        writer.write("\">");
+
+        for (int i = 0; i < values.length; i++)
+        {
+            final Object value = values[i];
+
+            if (value == null)
+                continue;
+
+            writer.write("<c r=\"");
+            writer.write(getColumnName(i));
+            writer.write(Integer.toString(row));
+
+            if ((value instanceof Number) && !Double.isNaN(((Number) value).doubleValue())
+                    && !Double.isInfinite(((Number) value).doubleValue()))
+            {
+                writer.write("\"><v>");
+                writer.write(value.toString());
+                writer.write("</v></c>");
+            }
+            else if (value instanceof Boolean)
+            {
+                writer.write("\" t=\"b\"><v>");
+                writer.write(((Boolean) value).booleanValue() ? "1" : "0");
+                writer.write("</v></c>");
+            }
+            else
+            {
+                writer.write("\" t=\"inlineStr\"><is><t xml:space=\"preserve\">");
+                writer.write(escape(value.toString()));
+                writer.write("</t></is></c>");
+            }
+        }
+
+        writer.write("</row>");
+    }
+
+    private void writeEntry(String name, String content) throws IOException
+    {
+        zip.putNextEntry(new ZipEntry(name));
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n");
+        writer.write(content);
+        writer.flush();
+        zip.closeEntry();
+    }
+
+    /**
+     * Write the workbook structure and close the writer (and the underlying stream).
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (closed)
+            return;
+
+        try
+        {
+            // we need at least one sheet
+            if (sheetNames.isEmpty())
+                newSheet("Sheet1");
+
+            endSheet();
+
+            final int numSheet = sheetNames.size();
+            final StringBuilder contentTypes = new StringBuilder();
+            final StringBuilder workbook = new StringBuilder();
+            final StringBuilder workbookRels = new StringBuilder();
+
+            contentTypes.append("<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">");
+            contentTypes.append("<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>");
+            contentTypes.append("<Default Extension=\"xml\" ContentType=\"application/xml\"/>");
+            contentTypes.append("<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>");
+            contentTypes.append("<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>");
+
+            workbook.append("<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\"><sheets>");
+
+            workbookRels.append("<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">");
+
+            for (int i = 1; i <= numSheet; i++)
+            {
+                contentTypes.append("<Override PartName=\"/xl/worksheets/sheet" + i
+                        + ".xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>");
+                workbook.append("<sheet name=\"" + escape(sheetNames.get(i - 1)) + "\" sheetId=\"" + i + "\" r:id=\"rId"
+                        + i + "\"/>");
+                workbookRels.append("<Relationship Id=\"rId" + i
+                        + "\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/sheet"
+                        + i + ".xml\"/>");
+            }
+
+            contentTypes.append("</Types>");
+            workbook.append("</sheets></workbook>");
+            workbookRels.append("<Relationship Id=\"rId" + (numSheet + 1)
+                    + "\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/styles\" Target=\"styles.xml\"/>");
+            workbookRels.append("</Relationships>");
+
+            writeEntry("[Content_Types].xml", contentTypes.toString());
+            writeEntry("_rels/.rels",
+                    "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                            + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"xl/workbook.xml\"/>"
+                            + "</Relationships>");
+            writeEntry("xl/workbook.xml", workbook.toString());
+            writeEntry("xl/_rels/workbook.xml.rels", workbookRels.toString());
+            // minimal style sheet
+            writeEntry("xl/styles.xml",
+                    "<styleSheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">"
+                            + "<fonts count=\"1\"><font><sz val=\"11\"/><name val=\"Calibri\"/></font></fonts>"
+                            + "<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill><fill><patternFill patternType=\"gray125\"/></fill></fills>"
+                            + "<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>"
+                            + "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>"
+                            + "<cellXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/></cellXfs>"
+                            + "</styleSheet>");
+        }
+        finally
+        {
+            closed = true;
+            zip.close();
+        }
+    }
+}
@@ -18,12 +18,16 @@
  */
 package icy.util;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -40,6 +44,12 @@ import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.stream.StreamResult;
 
 import org.w3c.dom.Attr;
@@ -79,12 +89,57 @@ public class XMLUtil
     private static DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
     // static transformer factory
     private static TransformerFactory transformerFactory = TransformerFactory.newInstance();
-    // static Deflater
-    // private static Deflater deflater = new Deflater(2, true);
-    private static Deflater deflater = new Deflater(2);
-    // static Inflater
-    // private static Inflater inflater = new Inflater(true);
-    private static Inflater inflater = new Inflater();
+    /**
+     * Encoding used to store byte array values (see {@link #setBytesEncoding(BytesEncoding)}).
+     */
+    public static enum BytesEncoding
+    {
+        /**
+         * compressed data stored as colon separated decimal values (legacy format, readable by old versions)
+         */
+        DECIMAL,
+        /**
+         * compressed data stored as Base64 text (default)
+         */
+        BASE64,
+        /**
+         * uncompressed data stored as Base64 text (faster but larger)
+         */
+        BASE64_RAW
+    }
+
+    /**
+     * Prefix of Base64 encoded compressed byte array values
+     */
+    public static final String BYTES_BASE64_PREFIX = "B64:";
+    /**
+     * Prefix of Base64 encoded uncompressed byte array values
+     */
+    public static final String BYTES_BASE64_RAW_PREFIX = "R64:";
+
+    // per thread Deflater (avoid lock contention on parallel serialization)
+    private static ThreadLocal<Deflater> deflater = new ThreadLocal<Deflater>()
+    {
+        @Override
+        protected Deflater initialValue()
+        {
+            return new Deflater(2);
+        }
+    };
+    // per thread Inflater
+    private static ThreadLocal<Inflater> inflater = new ThreadLocal<Inflater>()
+    {
+        @Override
+        protected Inflater initialValue()
+        {
+            return new Inflater();
+        }
+    };
+
+    // byte array values encoding
+    private static BytesEncoding bytesEncoding = BytesEncoding.BASE64;
+    // byte array values compression level
+    private static int bytesCompressionLevel = 2;
 
     static
     {
@@ -488,6 +543,217 @@ public class XMLUtil
         return false;
     }
 
+    /**
+     * Create a streaming XML reader (StAX) for the specified input stream.<br>
+     * The reader uses the same settings as the DOM loader (no namespace, no validation) and coalesces text so it can
+     * be used with {@link #readElement(XMLStreamReader, Document)} to partially build a document.
+     */
+    public static XMLStreamReader createStreamReader(InputStream is) throws XMLStreamException
+    {
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_VALIDATING, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+
+        return factory.createXMLStreamReader(is);
+    }
+
+    /**
+     * Create a streaming XML writer (StAX) for the specified output stream (UTF-8 encoding, same as
+     * {@link #saveDocument(Document, File)}).
+     */
+    public static XMLStreamWriter createStreamWriter(OutputStream os) throws XMLStreamException
+    {
+        try
+        {
+            return XMLOutputFactory.newInstance().createXMLStreamWriter(
+                    new BufferedWriter(new OutputStreamWriter(os, "UTF-8")));
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            // should never happen
+            throw new XMLStreamException(e);
+        }
+    }
+
+    /**
+     * Build the DOM element corresponding to the current element of the specified streaming reader.<br>
+     * The reader should be positioned on a <code>START_ELEMENT</code> event, it is positioned on the matching
+     * <code>END_ELEMENT</code> event when the method returns.<br>
+     * Formatting white spaces between elements are ignored.
+     * 
+     * @param reader
+     *        streaming reader
+     * @param doc
+     *        document used to create the nodes (the returned element is not attached)
+     */
+    public static Element readElement(XMLStreamReader reader, Document doc) throws XMLStreamException
+    {
+        if (reader.getEventType() != XMLStreamConstants.START_ELEMENT)
+            throw new XMLStreamException("XMLUtil.readElement(..) error: reader is not positioned on an element.");
+
+        final Element result = createElement(reader, doc);
+        Element current = result;
+
+        while (reader.hasNext())
+        {
+            switch (reader.next())
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                    current = (Element) current.appendChild(createElement(reader, doc));
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    cleanFormattingText(current);
+
+                    if (current == result)
+                        return result;
+
+                    current = (Element) current.getParentNode();
+                    break;
+
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    current.appendChild(doc.createTextNode(reader.getText()));
+                    break;
+
+                case XMLStreamConstants.CDATA:
+                    current.appendChild(doc.createCDATASection(reader.getText()));
+                    break;
+
+                case XMLStreamConstants.COMMENT:
+                    current.appendChild(doc.createComment(reader.getText()));
+                    break;
+
+                default:
+                    // ignore others events
+                    break;
+            }
+        }
+
+        throw new XMLStreamException("XMLUtil.readElement(..) error: unexpected end of document.");
+    }
+
+    private static Element createElement(XMLStreamReader reader, Document doc)
+    {
+        final Element result = doc.createElement(getQualifiedName(reader.getPrefix(), reader.getLocalName()));
+
+        for (int i = 0; i < reader.getAttributeCount(); i++)
+            result.setAttribute(getQualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                    reader.getAttributeValue(i));
+
+        return result;
+    }
+
+    private static String getQualifiedName(String prefix, String localName)
+    {
+        if (StringUtil.isEmpty(prefix))
+            return localName;
+
+        return prefix + ":" + localName;
+    }
+
+    /**
+     * Remove white space text nodes from element containing child elements (formatting text)
+     */
+    private static void cleanFormattingText(Element element)
+    {
+        boolean hasElement = false;
+
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling())
+        {
+            if (child.getNodeType() == Node.ELEMENT_NODE)
+            {
+                hasElement = true;
+                break;
+            }
+        }
+
+        if (!hasElement)
+            return;
+
+        Node child = element.getFirstChild();
+        while (child != null)
+        {
+            final Node next = child.getNextSibling();
+
+            if ((child.getNodeType() == Node.TEXT_NODE) && StringUtil.isEmpty(child.getNodeValue(), true))
+                element.removeChild(child);
+
+            child = next;
+        }
+    }
+
+    /**
+     * Write the specified DOM node (and its children) to the given streaming writer.<br>
+     * Element containing child elements are written with one child per line.
+     */
+    public static void writeNode(XMLStreamWriter writer, Node node) throws XMLStreamException
+    {
+        switch (node.getNodeType())
+        {
+            case Node.ELEMENT_NODE:
+                final NamedNodeMap attributes = node.getAttributes();
+                boolean hasElement = false;
+
+                for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+                {
+                    if (child.getNodeType() == Node.ELEMENT_NODE)
+                    {
+                        hasElement = true;
+                        break;
+                    }
+                }
+
+                writer.writeStartElement(node.getNodeName());
+
+                for (int i = 0; i < attributes.getLength(); i++)
+                {
+                    final Node attr = attributes.item(i);
+                    writer.writeAttribute(attr.getNodeName(), attr.getNodeValue());
+                }
+
+                for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling())
+                {
+                    if (hasElement)
+                    {
+                        // ignore formatting text
+                        if ((child.getNodeType() == Node.TEXT_NODE)
+                                && StringUtil.isEmpty(child.getNodeValue(), true))
+                            continue;
+
+                        writer.writeCharacters("\n");
+                    }
+
+                    writeNode(writer, child);
+                }
+
+                if (hasElement)
+                    writer.writeCharacters("\n");
+
+                writer.writeEndElement();
+                break;
+
+            case Node.TEXT_NODE:
+                writer.writeCharacters(node.getNodeValue());
+                break;
+
+            case Node.CDATA_SECTION_NODE:
+                writer.writeCData(node.getNodeValue());
+                break;
+
+            case Node.COMMENT_NODE:
+                writer.writeComment(node.getNodeValue());
+                break;
+
+            default:
+                // ignore others nodes
+                break;
+        }
+    }
+
     /**
      * Return the XML String from the specified document.
      * 
@@ -1098,18 +1364,72 @@ public class XMLUtil
         return StringUtil.parseDouble(value, def);
     }
 
+    /**
+     * Returns the encoding used to store byte array values.
+     */
+    public static BytesEncoding getBytesEncoding()
+    {
+        return bytesEncoding;
+    }
+
+    /**
+     * Sets the encoding used to store byte array values (default is {@link BytesEncoding#BASE64}).<br>
+     * All encodings can be read back whatever is the current setting, use {@link BytesEncoding#DECIMAL} if you need
+     * files readable by old versions.
+     */
+    public static void setBytesEncoding(BytesEncoding value)
+    {
+        if (value != null)
+            bytesEncoding = value;
+    }
+
+    /**
+     * Returns the compression level used to store byte array values.
+     */
+    public static int getBytesCompressionLevel()
+    {
+        return bytesCompressionLevel;
+    }
+
+    /**
+     * Sets the compression level (from 0 to 9) used to store byte array values (default is 2).
+     */
+    public static void setBytesCompressionLevel(int value)
+    {
+        bytesCompressionLevel = Math.max(Deflater.NO_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, value));
+    }
+
     public static byte[] getBytes(String value, byte[] def) throws DataFormatException
     {
         if (value == null)
             return def;
 
-        // get packed byte data
-        final byte[] result = (byte[]) ArrayUtil.stringToArray1D(value, DataType.BYTE, true, ":");
+        // uncompressed Base64
+        if (value.startsWith(BYTES_BASE64_RAW_PREFIX))
+            return decodeBase64(value, BYTES_BASE64_RAW_PREFIX.length());
+
+        final byte[] packed;
+
+        // compressed Base64
+        if (value.startsWith(BYTES_BASE64_PREFIX))
+            packed = decodeBase64(value, BYTES_BASE64_PREFIX.length());
+        else
+            // legacy decimal format
+            packed = (byte[]) ArrayUtil.stringToArray1D(value, DataType.BYTE, true, ":");
+
+        // unpack and return
+        return ZipUtil.unpack(inflater.get(), packed);
+    }
 
-        synchronized (inflater)
+    private static byte[] decodeBase64(String value, int offset) throws DataFormatException
+    {
+        try
         {
-            // unpack and return
-            return ZipUtil.unpack(inflater, result);
+            return Base64Util.decode(value, offset);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new DataFormatException(e.getMessage());
         }
     }
 
@@ -1140,15 +1460,19 @@ public class XMLUtil
 
     public static String toString(byte[] value)
     {
-        final byte[] packed;
+        final BytesEncoding encoding = bytesEncoding;
 
-        synchronized (deflater)
-        {
-            packed = ZipUtil.pack(deflater, value, -1);
-        }
+        if (encoding == BytesEncoding.BASE64_RAW)
+            return BYTES_BASE64_RAW_PREFIX + Base64Util.encode(value);
+
+        // pack data
+        final byte[] packed = ZipUtil.pack(deflater.get(), value, bytesCompressionLevel);
+
+        // and convert to string
+        if (encoding == BytesEncoding.DECIMAL)
+            return ArrayUtil.array1DToString(packed, false, true, ":", -1);
 
-        // pack data and convert to string
-        return ArrayUtil.array1DToString(packed, false, true, ":", -1);
+        return BYTES_BASE64_PREFIX + Base64Util.encode(packed);
     }
 
     /**
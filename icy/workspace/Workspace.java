@@ -23,6 +23,7 @@ import icy.file.xml.XMLPersistent;
 import icy.file.xml.XMLPersistentHelper;
 import icy.gui.frame.progress.ProgressFrame;
 import icy.gui.util.RibbonUtil;
+import icy.network.NetworkCache;
 import icy.plugin.PluginDescriptor;
 import icy.plugin.PluginInstaller;
 import icy.plugin.PluginLoader;
@@ -1015,7 +1016,8 @@ public class Workspace implements XMLPersistent, Comparable<Workspace>
      */
     public boolean load(URL url)
     {
-        return XMLPersistentHelper.loadFromXML(this, url);
+        // online workspaces are cached
+        return XMLPersistentHelper.loadFromXML(this, NetworkCache.loadDocument(url, null, false));
     }
 
     @Override
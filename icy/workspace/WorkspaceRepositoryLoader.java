@@ -18,6 +18,7 @@
  */
 package icy.workspace;
 
+import icy.network.NetworkCache;
 import icy.network.NetworkUtil;
 import icy.network.URLUtil;
 import icy.preferences.RepositoryPreferences;
@@ -155,7 +156,7 @@ public class WorkspaceRepositoryLoader
     public static ArrayList<String> getWorkspaceFiles(RepositoryInfo repos)
     {
         final ArrayList<String> result = new ArrayList<String>();
-        final Document document = XMLUtil.loadDocument(repos.getLocation(), repos.getAuthenticationInfo(), true);
+        final Document document = NetworkCache.loadDocument(repos.getLocation(), repos.getAuthenticationInfo(), true);
 
         if (document != null)
         {
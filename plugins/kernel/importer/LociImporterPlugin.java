@@ -11,7 +11,9 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.channels.ClosedByInterruptException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Stack;
 
 import javax.swing.filechooser.FileFilter;
@@ -122,7 +124,7 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
                 try
                 {
                     // get reader and working buffers
-                    final IFormatReader r = getReader();
+                    final IFormatReader r = getReader(series, level);
                     final TilePixelsWorkBuffer buf = buffers.pop();
 
                     try
@@ -178,6 +180,9 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
         final int downScaleLevel;
         // resolution shift divider
         final int resShift;
+        // series and reader resolution level
+        final int series;
+        final int level;
         final int z;
         final int t;
         final int c;
@@ -190,6 +195,7 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
         {
             super();
 
+            this.series = series;
             this.z = z;
             this.t = t;
             this.c = c;
@@ -205,10 +211,22 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
             if (region != null)
                 adjRegion = adjRegion.intersection(region);
 
-            // prepare main reader and get needed downScale
-            downScaleLevel = prepareReader(series, resolution);
+            final int[] res;
+
+            try
+            {
+                res = getResolutions(series);
+            }
+            catch (FormatException e)
+            {
+                throw translateException(getOpened(), e);
+            }
+
+            // reader resolution level and needed downScale
+            level = getResolutionLevel(res, resolution);
+            downScaleLevel = resolution - res[level];
             // real resolution shift used by reader
-            resShift = getResolutionShift();
+            resShift = res[level];
 
             // adapt region size to final image resolution
             imageRegion = new Rectangle(adjRegion.x >> resolution, adjRegion.y >> resolution,
@@ -221,7 +239,7 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
             result = Array1DUtil.createArray(type, imageRegion.width * imageRegion.height);
 
             // allocate working buffers
-            final int rgbChannelCount = reader.getRGBChannelCount();
+            final int rgbChannelCount = getRGBChannelCount(series, level);
 
             int tw = tileW;
             int th = tileH;
@@ -368,7 +386,7 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
                 try
                 {
                     // get reader and working buffers
-                    final IFormatReader r = getReader();
+                    final IFormatReader r = getReader(series, level);
                     final TileImageWorkBuffer buf = buffers.pop();
 
                     try
@@ -430,6 +448,9 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
         final int downScaleLevel;
         // resolution shift divider
         final int resShift;
+        // series and reader resolution level
+        final int series;
+        final int level;
         final int z;
         final int t;
         final int c;
@@ -442,6 +463,7 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
         {
             super();
 
+            this.series = series;
             this.z = z;
             this.t = t;
             this.c = c;
@@ -457,10 +479,22 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
             if (region != null)
                 adjRegion = adjRegion.intersection(region);
 
-            // prepare main reader and get needed downScale
-            downScaleLevel = prepareReader(series, resolution);
+            final int[] res;
+
+            try
+            {
+                res = getResolutions(series);
+            }
+            catch (FormatException e)
+            {
+                throw translateException(getOpened(), e);
+            }
+
+            // reader resolution level and needed downScale
+            level = getResolutionLevel(res, resolution);
+            downScaleLevel = resolution - res[level];
             // real resolution shift used by reader
-            resShift = getResolutionShift();
+            resShift = res[level];
 
             // adapt region size to final image resolution
             imageRegion = new Rectangle(adjRegion.x >> resolution, adjRegion.y >> resolution,
@@ -474,7 +508,7 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
             // allocate colormaps
             colormaps = new IcyColorMap[sizeC];
             // allocate working buffers
-            final int rgbChannelCount = reader.getRGBChannelCount();
+            final int rgbChannelCount = getRGBChannelCount(series, level);
 
             int tw = tileW;
             int th = tileH;
@@ -627,6 +661,10 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
      * internal resolution levels
      */
     protected int[] resolutions;
+    /**
+     * internal resolution levels per series (thread safe access)
+     */
+    protected final Map<Integer, int[]> seriesResolutions;
     /**
      * Internal opened path (Bio-formats does not always keep track of it)
      */
@@ -648,6 +686,7 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
         internalReader = null;
         acceptReader = null;
         readersPool = new ArrayList<IFormatReader>();
+        seriesResolutions = new HashMap<Integer, int[]>();
 
         options = new DynamicMetadataOptions();
 
@@ -871,6 +910,10 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
             openFlags = flags;
             // need to update resolution levels
             resolutions = null;
+            synchronized (seriesResolutions)
+            {
+                seriesResolutions.clear();
+            }
 
             return true;
         }
@@ -896,6 +939,11 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
 
                 readersPool.clear();
             }
+
+            synchronized (seriesResolutions)
+            {
+                seriesResolutions.clear();
+            }
         }
     }
 
@@ -976,36 +1024,21 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
     }
 
     /**
-     * Returns a reader to use for the current thread (allocate it if needed).<br>
-     * Any obtained reader should be released using {@link #releaseReader(IFormatReader)}
-     * 
-     * @see #releaseReader(IFormatReader)
+     * Returns a reader from the reader pool (allocate it if needed) without modifying its series and resolution state.
      */
-    public IFormatReader getReader() throws FormatException, IOException
+    protected IFormatReader acquireReader() throws FormatException, IOException
     {
         try
         {
-            final IFormatReader result;
-
             synchronized (readersPool)
             {
-                if (readersPool.isEmpty())
-                    result = cloneReader();
                 // allocate last reader (faster)
-                else
-                    result = readersPool.remove(readersPool.size() - 1);
+                if (!readersPool.isEmpty())
+                    return readersPool.remove(readersPool.size() - 1);
             }
 
-            final int s = reader.getSeries();
-            final int r = reader.getResolution();
-
-            // ensure we are working on same series and resolution
-            if (result.getSeries() != s)
-                result.setSeries(s);
-            if (result.getResolution() != r)
-                result.setResolution(r);
-
-            return result;
+            // clone reader outside the lock as it can take a while (re open the file)
+            return cloneReader();
         }
         catch (InstantiationException e)
         {
@@ -1019,6 +1052,46 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
         }
     }
 
+    /**
+     * Returns a reader to use for the current thread (allocate it if needed).<br>
+     * The reader is set to the series and resolution level of the main reader (see {@link #prepareReader(int, int)}
+     * ).<br>
+     * Any obtained reader should be released using {@link #releaseReader(IFormatReader)}
+     * 
+     * @see #getReader(int, int)
+     * @see #releaseReader(IFormatReader)
+     */
+    public IFormatReader getReader() throws FormatException, IOException
+    {
+        return getReader(reader.getSeries(), reader.getResolution());
+    }
+
+    /**
+     * Returns a reader to use for the current thread (allocate it if needed) set to the specified series and
+     * resolution level.<br>
+     * Each pooled reader keeps its own series and resolution state so this method can be used concurrently with
+     * different series / resolution.<br>
+     * Any obtained reader should be released using {@link #releaseReader(IFormatReader)}
+     * 
+     * @param series
+     *        series index
+     * @param resolutionLevel
+     *        internal reader resolution level index (see {@link #getResolutionLevel(int, int)})
+     * @see #releaseReader(IFormatReader)
+     */
+    public IFormatReader getReader(int series, int resolutionLevel) throws FormatException, IOException
+    {
+        final IFormatReader result = acquireReader();
+
+        // ensure we are working on wanted series and resolution
+        if (result.getSeries() != series)
+            result.setSeries(series);
+        if (result.getResolution() != resolutionLevel)
+            result.setResolution(resolutionLevel);
+
+        return result;
+    }
+
     /**
      * Release the reader obtained through {@link #getReader()} to the reader pool.
      * 
@@ -1033,31 +1106,31 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
     }
 
     /**
-     * Prepare the reader to read data from specified series but keep the current / default resolution level.<br>
-     * WARNING: this method should not be called while image reading operation are still occurring (multi threaded
-     * read).
+     * Returns the available resolution levels for the specified series (index = internal reader resolution level,
+     * value = resolution as power of 2 divider).<br>
+     * This method is thread safe and does not modify the main reader state.
      */
-    protected void prepareReader(int series)
+    protected int[] getResolutions(int series) throws FormatException, IOException
     {
-        // series changed ?
-        if (reader.getSeries() != series)
+        final Integer key = Integer.valueOf(series);
+
+        synchronized (seriesResolutions)
         {
-            // set wanted series
-            reader.setSeries(series);
-            // reset resolution level
-            resolutions = null;
+            final int[] result = seriesResolutions.get(key);
+
+            if (result != null)
+                return result;
         }
 
-        // need to update resolution levels ?
-        if (resolutions == null)
-        {
-            // set default resolution
-            reader.setResolution(0);
+        final IFormatReader r = getReader(series, 0);
+        final int[] result;
 
+        try
+        {
             // get default sizeX
-            final double sizeX = reader.getSizeX();
+            final double sizeX = r.getSizeX();
             // get resolution count for this series
-            final int resCount = reader.getResolutionCount();
+            final int resCount = r.getResolutionCount();
 
             // init resolution levels
             final List<Integer> validResolutions = new ArrayList<Integer>(16);
@@ -1065,13 +1138,13 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
             validResolutions.add(Integer.valueOf(0));
 
             // check the sub resolution level
-            for (int r = 1; r < resCount; r++)
+            for (int res = 1; res < resCount; res++)
             {
                 // set resolution level in reader
-                reader.setResolution(r);
+                r.setResolution(res);
 
                 // get real resolution level
-                final double level = Math.log(sizeX / reader.getSizeX()) / Math.log(2);
+                final double level = Math.log(sizeX / r.getSizeX()) / Math.log(2);
                 final double levelInt = Math.floor(level);
 
                 // we only want 2^x sub resolution
@@ -1079,49 +1152,116 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
                     validResolutions.add(Integer.valueOf((int) levelInt));
             }
 
-            // copy back to resolutions
-            resolutions = new int[validResolutions.size()];
-            for (int i = 0; i < resolutions.length; i++)
-                resolutions[i] = validResolutions.get(i).intValue();
+            // back to full resolution
+            r.setResolution(0);
+
+            result = new int[validResolutions.size()];
+            for (int i = 0; i < result.length; i++)
+                result[i] = validResolutions.get(i).intValue();
+        }
+        finally
+        {
+            releaseReader(r);
+        }
+
+        synchronized (seriesResolutions)
+        {
+            seriesResolutions.put(key, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the internal reader resolution level to use to read the specified series at the wanted resolution
+     * (closest but strictly <= available resolution).
+     * 
+     * @see #getResolutions(int)
+     */
+    protected int getResolutionLevel(int series, int resolution) throws FormatException, IOException
+    {
+        return getResolutionLevel(getResolutions(series), resolution);
+    }
+
+    private static int getResolutionLevel(int[] res, int resolution)
+    {
+        if (resolution <= 0)
+            return 0;
+
+        // find closest (but strictly <=) available resolution level
+        int indRes = 1;
+        while ((indRes < res.length) && (res[indRes] <= resolution))
+            indRes++;
+
+        // get back to correct resolution level index
+        return indRes - 1;
+    }
+
+    /**
+     * Prepare the reader to read data from specified series but keep the current / default resolution level.<br>
+     * WARNING: this method modify the main reader state so it should not be called while image reading operation are
+     * still occurring (multi threaded read).
+     * 
+     * @deprecated Use {@link #getReader(int, int)} and {@link #getResolutions(int)} instead (thread safe).
+     */
+    @Deprecated
+    protected void prepareReader(int series)
+    {
+        // series changed ?
+        if (reader.getSeries() != series)
+        {
+            // set wanted series
+            reader.setSeries(series);
+            // reset resolution level
+            resolutions = null;
+        }
+
+        // need to update resolution levels ?
+        if (resolutions == null)
+        {
+            try
+            {
+                resolutions = getResolutions(series);
+            }
+            catch (Exception e)
+            {
+                // only full resolution
+                resolutions = new int[] {0};
+            }
+
+            // set default resolution
+            reader.setResolution(0);
         }
     }
 
     /**
      * Prepare the reader to read data from specified series and at specified resolution.<br>
-     * WARNING: this method should not be called while image reading operation are still occurring (multi threaded
-     * read).
+     * WARNING: this method modify the main reader state so it should not be called while image reading operation are
+     * still occurring (multi threaded read).
      * 
      * @return the image divisor factor to match the wanted resolution if needed
+     * @deprecated Use {@link #getReader(int, int)} and {@link #getResolutionLevel(int, int)} instead (thread safe).
      */
+    @Deprecated
     protected int prepareReader(int series, int resolution)
     {
         prepareReader(series);
 
-        if (resolution > 0)
-        {
-            // find closest (but strictly <=) available resolution level
-            int indRes = 1;
-            while ((indRes < resolutions.length) && (resolutions[indRes] <= resolution))
-                indRes++;
-
-            // get back to correct resolution level index
-            indRes--;
-            // set resolution level
-            reader.setResolution(indRes);
-
-            // return difference between selected resolution level and wanted resolution level
-            return resolution - resolutions[indRes];
-        }
+        final int indRes = getResolutionLevel(resolutions, resolution);
 
-        // just use default full resolution
-        reader.setResolution(0);
+        // set resolution level
+        reader.setResolution(indRes);
 
-        return 0;
+        // return difference between selected resolution level and wanted resolution level
+        return resolution - resolutions[indRes];
     }
 
     /**
      * Internal use only
+     * 
+     * @deprecated Use {@link #getResolutions(int)} instead
      */
+    @Deprecated
     protected int getResolutionShift()
     {
         return resolutions[reader.getResolution()];
@@ -1129,12 +1269,39 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
 
     /**
      * Internal use only
+     * 
+     * @deprecated Use {@link #getResolutions(int)} instead
      */
+    @Deprecated
     protected double getResolutionDiviserFactor()
     {
         return 1d / Math.pow(2, getResolutionShift());
     }
 
+    /**
+     * Internal use only
+     */
+    protected int getRGBChannelCount(int series, int resolutionLevel) throws UnsupportedFormatException, IOException
+    {
+        try
+        {
+            final IFormatReader r = getReader(series, resolutionLevel);
+
+            try
+            {
+                return r.getRGBChannelCount();
+            }
+            finally
+            {
+                releaseReader(r);
+            }
+        }
+        catch (FormatException e)
+        {
+            throw translateException(getOpened(), e);
+        }
+    }
+
     @Override
     public OMEXMLMetadata getOMEXMLMetaData() throws UnsupportedFormatException, IOException
     {
@@ -1179,11 +1346,26 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
         if (getOpened() == null)
             return 0;
 
-        // prepare reader
-        prepareReader(series);
+        int result;
+
+        try
+        {
+            // use a pooled reader so we don't modify the main reader state
+            final IFormatReader r = getReader(series, 0);
 
-        // don't need thread safe reader for this
-        int result = reader.getOptimalTileWidth();
+            try
+            {
+                result = r.getOptimalTileWidth();
+            }
+            finally
+            {
+                releaseReader(r);
+            }
+        }
+        catch (FormatException e)
+        {
+            throw translateException(getOpened(), e);
+        }
 
         if (result == 0)
             return result;
@@ -1199,11 +1381,26 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
         if (getOpened() == null)
             return 0;
 
-        // prepare reader
-        prepareReader(series);
+        int result;
 
-        // don't need thread safe reader for this
-        int result = reader.getOptimalTileHeight();
+        try
+        {
+            // use a pooled reader so we don't modify the main reader state
+            final IFormatReader r = getReader(series, 0);
+
+            try
+            {
+                result = r.getOptimalTileHeight();
+            }
+            finally
+            {
+                releaseReader(r);
+            }
+        }
+        catch (FormatException e)
+        {
+            throw translateException(getOpened(), e);
+        }
 
         if (result == 0)
             return result;
@@ -1219,15 +1416,19 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
         if (getOpened() == null)
             return resolution == 0;
 
-        // prepare reader
-        prepareReader(series);
-
         if (resolution > 0)
         {
-            // try to find wanted resolution
-            for (int r : resolutions)
-                if (r == resolution)
-                    return true;
+            try
+            {
+                // try to find wanted resolution
+                for (int r : getResolutions(series))
+                    if (r == resolution)
+                        return true;
+            }
+            catch (FormatException e)
+            {
+                throw translateException(getOpened(), e);
+            }
         }
 
         return resolution == 0;
@@ -1248,10 +1449,8 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
 
         try
         {
-            // prepare reader (no down scaling here)
-            prepareReader(series, 0);
-
-            final IFormatReader r = getReader();
+            // get reader (no down scaling here)
+            final IFormatReader r = getReader(series, 0);
 
             try
             {
@@ -1285,15 +1484,17 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
 
         try
         {
-            // prepare reader and get down scale factor
-            final int downScaleLevel = prepareReader(series, resolution);
-            final IFormatReader r = getReader();
+            // get reader resolution level and down scale factor
+            final int[] res = getResolutions(series);
+            final int level = getResolutionLevel(res, resolution);
+            final int downScaleLevel = resolution - res[level];
+            final IFormatReader r = getReader(series, level);
 
             final Rectangle adjRect;
 
             // adjust rectangle to current reader resolution if needed
             if (rectangle != null)
-                adjRect = Rectangle2DUtil.getScaledRectangle(rectangle, getResolutionDiviserFactor(), false, true)
+                adjRect = Rectangle2DUtil.getScaledRectangle(rectangle, 1d / Math.pow(2, res[level]), false, true)
                         .getBounds();
             else
                 adjRect = null;
@@ -1325,14 +1526,16 @@ public class LociImporterPlugin extends PluginSequenceFileImporter
 
         try
         {
-            // prepare reader and get down scale factor if wanted resolution is not available
-            final int downScaleLevel = prepareReader(series, resolution);
-            final IFormatReader r = getReader();
+            // get reader resolution level and down scale factor if wanted resolution is not available
+            final int[] res = getResolutions(series);
+            final int level = getResolutionLevel(res, resolution);
+            final int downScaleLevel = resolution - res[level];
+            final IFormatReader r = getReader(series, level);
             final Rectangle adjRect;
 
             // adjust rectangle to current reader resolution if needed
             if (rectangle != null)
-                adjRect = Rectangle2DUtil.getScaledRectangle(rectangle, getResolutionDiviserFactor(), false, true)
+                adjRect = Rectangle2DUtil.getScaledRectangle(rectangle, 1d / Math.pow(2, res[level]), false, true)
                         .getBounds();
             else
                 adjRect = null;
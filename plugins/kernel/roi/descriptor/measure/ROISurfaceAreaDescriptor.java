@@ -70,6 +70,8 @@ public class ROISurfaceAreaDescriptor extends ROIDescriptor
     /**
      * Computes and returns the surface area expressed in the unit of the descriptor (see {@link #getUnit(Sequence)})
      * for the specified ROI.<br>
+     * The surface mesh area is cached in voxel unit by the ROI (see {@link ROI3D#getSurfaceAreaInVoxel()}) so only
+     * the pixel size scaling is done here when ROI didn't changed.<br>
      * It may thrown an <code>UnsupportedOperationException</code> if the operation is not supported for that ROI.
      * 
      * @param roi
@@ -22,19 +22,18 @@ import icy.painter.Anchor2D;
 import icy.painter.LineAnchor2D;
 import icy.resource.ResourceUtil;
 import icy.roi.ROI;
+import icy.roi.ShapeRasterizer;
+import icy.roi.ShapeRasterizer.Spans;
 import icy.type.geom.Polyline2D;
 import icy.type.point.Point2DUtil;
 import icy.type.point.Point5D;
 import icy.util.XMLUtil;
 
 import java.awt.Color;
-import java.awt.Graphics2D;
 import java.awt.Polygon;
 import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -309,32 +308,10 @@ public class ROI2DPolyLine extends ROI2DShape
     }
 
     @Override
-    public boolean[] getBooleanMask(int x, int y, int w, int h, boolean inclusive)
+    protected Spans createSpans(boolean inclusive)
     {
-        if ((w <= 0) || (h <= 0))
-            return new boolean[0];
-
-        // this ROI doesn't contains area
-        if (!inclusive)
-            return new boolean[w * h];
-
-        final BufferedImage maskImg = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
-        final Graphics2D g = maskImg.createGraphics();
-
-        // draw shape in image
-        g.setColor(Color.white);
-        g.translate(-x, -y);
-        g.draw(shape);
-        g.dispose();
-
-        // use the image to define the mask
-        final byte[] maskData = ((DataBufferByte) maskImg.getRaster().getDataBuffer()).getData();
-        final boolean[] result = new boolean[w * h];
-
-        for (int i = 0; i < result.length; i++)
-            result[i] = (maskData[i] != 0);
-
-        return result;
+        // this ROI doesn't contains area, only edge is considered
+        return ShapeRasterizer.getSpans(shape, false, inclusive);
     }
 
     @Override
@@ -23,7 +23,6 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
-import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
@@ -32,8 +31,6 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -56,6 +53,8 @@ import icy.painter.PathAnchor2D;
 import icy.roi.ROI;
 import icy.roi.ROI2D;
 import icy.roi.ROIEvent;
+import icy.roi.ShapeRasterizer;
+import icy.roi.ShapeRasterizer.Spans;
 import icy.roi.edit.Point2DAddedROIEdit;
 import icy.roi.edit.Point2DMovedROIEdit;
 import icy.roi.edit.Point2DRemovedROIEdit;
@@ -1018,6 +1017,11 @@ public abstract class ROI2DShape extends ROI2D implements Shape
     protected final Anchor2DPositionListener anchor2DPositionListener;
     protected final OverlayListener anchor2DOverlayListener;
     protected boolean firstMove;
+    /**
+     * cached mask spans (exclusive / inclusive) and their content version
+     */
+    protected final Spans[] cachedSpans;
+    protected final long[] cachedSpansVersions;
 
     public ROI2DShape(Shape shape)
     {
@@ -1026,6 +1030,8 @@ public abstract class ROI2DShape extends ROI2D implements Shape
         this.shape = shape;
         controlPoints = new ArrayList<Anchor2D>();
         firstMove = true;
+        cachedSpans = new Spans[2];
+        cachedSpansVersions = new long[] {-1L, -1L};
 
         anchor2DPositionListener = new Anchor2DPositionListener()
         {
@@ -1684,43 +1690,53 @@ public abstract class ROI2DShape extends ROI2D implements Shape
             }
         }
 
-        final BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
-        final byte[] buffer = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
-        final Graphics2D g = img.createGraphics();
-
-        // we want accurate rendering as we use the image for the mask
-        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
-        g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        // use cached spans
+        return getSpans(inclusive).getMask(x, y, width, height);
+    }
 
-        // translate back to origin and pixel center
-        g.translate(-(x - 0.5d), -(y - 0.5d));
+    /**
+     * Returns the pixel spans (computed by {@link ShapeRasterizer}) representing the ROI mask.<br>
+     * Spans are cached and only recomputed when ROI content changed (see {@link #getContentVersion()}).
+     * 
+     * @param inclusive
+     *        If true then all partially contained (intersected) pixels are included in the mask.
+     */
+    public Spans getSpans(boolean inclusive)
+    {
+        final int ind = inclusive ? 1 : 0;
+        // get version first so we never associate old version with new content
+        final long version = getContentVersion();
 
-        // fill content
-        g.setColor(Color.white);
-        // only fill closed shapes
-        g.fill(ShapeUtil.getClosedPath(shape));
-        // we want edge as well
-        if (inclusive)
-            g.draw(shape);
-        // TODO: do we really need that ??
-        else
+        synchronized (cachedSpans)
         {
-            // remove edge from content as fill operation may be a bit off
-            g.setColor(Color.black);
-            g.draw(shape);
+            if ((cachedSpans[ind] != null) && (cachedSpansVersions[ind] == version))
+                return cachedSpans[ind];
         }
 
-        g.dispose();
+        // compute outside lock
+        final Spans result = createSpans(inclusive);
 
-        final boolean[] result = new boolean[width * height];
-
-        // compute mask from image
-        for (int i = 0; i < result.length; i++)
-            result[i] = (buffer[i] != 0);
+        synchronized (cachedSpans)
+        {
+            cachedSpans[ind] = result;
+            cachedSpansVersions[ind] = version;
+        }
 
         return result;
     }
 
+    /**
+     * Compute the pixel spans representing the ROI mask.<br>
+     * Default implementation fills the (closed) shape, override it if the ROI does not represent an area.
+     * 
+     * @param inclusive
+     *        If true then all partially contained (intersected) pixels are included in the mask.
+     */
+    protected Spans createSpans(boolean inclusive)
+    {
+        return ShapeRasterizer.getSpans(shape, true, inclusive);
+    }
+
     @Override
     public boolean contains(Point2D p)
     {
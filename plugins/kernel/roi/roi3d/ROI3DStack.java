@@ -25,13 +25,18 @@ import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelEvent;
 import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
 
 import org.w3c.dom.Element;
@@ -49,6 +54,8 @@ import icy.roi.ROIEvent;
 import icy.roi.ROIListener;
 import icy.sequence.Sequence;
 import icy.system.IcyExceptionHandler;
+import icy.system.SystemUtil;
+import icy.system.thread.Processor;
 import icy.type.point.Point5D;
 import icy.type.rectangle.Rectangle3D;
 import icy.util.XMLUtil;
@@ -69,6 +76,32 @@ public class ROI3DStack<R extends ROI2D> extends ROI3D implements ROIListener, O
     @Deprecated
     public static final String PROPERTY_USECHILDCOLOR = "useChildColor";
 
+    /**
+     * Boolean operation processed slice by slice
+     */
+    protected static enum SliceOperation
+    {
+        ADD, EXCLUSIVE_ADD, INTERSECT, SUBTRACT
+    };
+
+    /**
+     * Minimum number of slice per thread for parallel boolean operation
+     */
+    protected static final int PARALLEL_MIN_SLICES = 4;
+
+    private static Processor processor = null;
+
+    private static synchronized Processor getProcessor()
+    {
+        if (processor == null)
+        {
+            processor = new Processor(Math.max(1, SystemUtil.getNumberOfCPUs()));
+            processor.setThreadName("ROI3DStack slice operation");
+        }
+
+        return processor;
+    }
+
     protected final TreeMap<Integer, R> slices = new TreeMap<Integer, R>();
 
     protected final Class<? extends R> roiClass;
@@ -487,96 +520,321 @@ public class ROI3DStack<R extends ROI2D> extends ROI3D implements ROIListener, O
     }
 
     /**
-     * Add the specified {@link ROI3DStack} content to this ROI3DStack
+     * Returns a copy of the slices in the specified Z interval.
+     * 
+     * @param minZ
+     *        minimum Z position (inclusive)
+     * @param maxZ
+     *        maximum Z position (inclusive)
      */
-    public void add(ROI3DStack<R> roi) throws UnsupportedOperationException
+    public TreeMap<Integer, R> getSlices(int minZ, int maxZ)
     {
-        beginUpdate();
-        try
+        if (maxZ < minZ)
+            return new TreeMap<Integer, R>();
+
+        synchronized (slices)
         {
-            synchronized (slices)
-            {
-                for (Entry<Integer, R> entry : roi.slices.entrySet())
-                    add(entry.getKey().intValue(), entry.getValue());
-            }
+            return new TreeMap<Integer, R>(slices.subMap(Integer.valueOf(minZ), true, Integer.valueOf(maxZ), true));
         }
-        finally
+    }
+
+    /**
+     * Returns <code>true</code> if at least one slice in the specified Z interval intersects the specified 2D ROI (Z
+     * position of the 2D ROI is ignored).
+     * 
+     * @param roi2d
+     *        the 2D ROI to test
+     * @param minZ
+     *        minimum Z position (inclusive)
+     * @param maxZ
+     *        maximum Z position (inclusive)
+     */
+    public boolean intersects(ROI2D roi2d, int minZ, int maxZ)
+    {
+        final Rectangle2D roiBounds = roi2d.getBounds2D();
+        BooleanMask2D roiMask = null;
+
+        for (R slice : getSlices(minZ, maxZ).values())
         {
-            endUpdate();
+            // easy discard
+            if (!slice.getBounds2D().intersects(roiBounds))
+                continue;
+
+            // compute ROI mask only if needed
+            if (roiMask == null)
+                roiMask = roi2d.getBooleanMask(true);
+
+            if (slice.getBooleanMask(true).intersects(roiMask))
+                return true;
         }
+
+        return false;
     }
 
     /**
-     * Exclusively add the specified {@link ROI3DStack} content to this ROI3DStack
+     * Returns <code>true</code> if all slices in the specified Z interval exist and contain the specified 2D ROI (Z
+     * position of the 2D ROI is ignored).
+     * 
+     * @param roi2d
+     *        the 2D ROI to test
+     * @param minZ
+     *        minimum Z position (inclusive)
+     * @param maxZ
+     *        maximum Z position (inclusive)
      */
-    public void exclusiveAdd(ROI3DStack<R> roi) throws UnsupportedOperationException
+    public boolean contains(ROI2D roi2d, int minZ, int maxZ)
     {
-        beginUpdate();
-        try
+        final TreeMap<Integer, R> rangeSlices = getSlices(minZ, maxZ);
+
+        // missing slices
+        if (rangeSlices.size() != ((maxZ - minZ) + 1))
+            return false;
+
+        final Rectangle2D roiBounds = roi2d.getBounds2D();
+        final BooleanMask2D roiMask = roi2d.getBooleanMask(true);
+
+        for (R slice : rangeSlices.values())
         {
-            synchronized (slices)
+            // easy discard
+            if (!slice.getBounds2D().contains(roiBounds))
+                return false;
+
+            if (!roiMask.isEmpty() && !slice.getBooleanMask(true).contains(roiMask))
+                return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean contains(ROI roi)
+    {
+        if (roi instanceof ROI3DStack)
+        {
+            final ROI3DStack<?> stack = (ROI3DStack<?>) roi;
+
+            if (onSamePos(stack, true) && !stack.isEmpty())
             {
-                for (Entry<Integer, R> entry : roi.slices.entrySet())
-                    exclusiveAdd(entry.getKey().intValue(), entry.getValue());
+                final TreeMap<Integer, ? extends ROI2D> roiSlices;
+
+                synchronized (stack.slices)
+                {
+                    roiSlices = new TreeMap<Integer, ROI2D>(stack.slices);
+                }
+
+                // only slices of the specified ROI need to be tested
+                for (Entry<Integer, ? extends ROI2D> entry : roiSlices.entrySet())
+                {
+                    final R slice = getSlice(entry.getKey().intValue());
+
+                    if ((slice == null) || !slice.contains(entry.getValue()))
+                        return false;
+                }
+
+                return true;
             }
         }
-        finally
+
+        return super.contains(roi);
+    }
+
+    @Override
+    public boolean intersects(ROI roi)
+    {
+        if (roi instanceof ROI3DStack)
         {
-            endUpdate();
+            final ROI3DStack<?> stack = (ROI3DStack<?>) roi;
+
+            if (onSamePos(stack, false))
+            {
+                final TreeMap<Integer, ? extends ROI2D> roiSlices;
+
+                synchronized (stack.slices)
+                {
+                    roiSlices = new TreeMap<Integer, ROI2D>(stack.slices);
+                }
+
+                if (roiSlices.isEmpty())
+                    return false;
+
+                // only the overlapping Z range need to be tested
+                for (Entry<Integer, R> entry : getSlices(roiSlices.firstKey().intValue(),
+                        roiSlices.lastKey().intValue()).entrySet())
+                {
+                    final ROI2D roiSlice = roiSlices.get(entry.getKey());
+
+                    if ((roiSlice != null) && entry.getValue().intersects(roiSlice))
+                        return true;
+                }
+
+                return false;
+            }
         }
+
+        return super.intersects(roi);
     }
 
     /**
-     * Process intersection of the specified {@link ROI3DStack} with this ROI3DStack.
+     * Process the specified boolean operation between this ROI3DStack and the specified one.<br>
+     * The operation is done slice by slice (in parallel for large stack) and only on the Z range of the specified
+     * ROI (except for intersection where slices outside this range are removed).<br>
+     * This ROI is modified only once all slice results are computed (so it is never partially modified).
      */
-    public void intersect(ROI3DStack<R> roi) throws UnsupportedOperationException
+    protected void processSliceOperation(final SliceOperation operation, ROI3DStack<R> roi)
+            throws UnsupportedOperationException
     {
-        beginUpdate();
-        try
+        final TreeMap<Integer, R> roiSlices;
+
+        synchronized (roi.slices)
+        {
+            roiSlices = new TreeMap<Integer, R>(roi.slices);
+        }
+
+        final Set<Integer> toRemove = new HashSet<Integer>();
+
+        if (operation == SliceOperation.INTERSECT)
         {
             synchronized (slices)
             {
-                final Set<Integer> keys = roi.slices.keySet();
-                final Set<Integer> toRemove = new HashSet<Integer>();
-
-                // remove slices which are not contained
+                // slices which are not contained will be removed
                 for (Integer key : slices.keySet())
-                    if (!keys.contains(key))
+                    if (!roiSlices.containsKey(key))
                         toRemove.add(key);
+            }
+        }
+
+        final int[] zs = new int[roiSlices.size()];
+        final List<R> currentSlices = new ArrayList<R>(zs.length);
+        final List<R> operandSlices = new ArrayList<R>(roiSlices.values());
+        int i = 0;
+
+        for (Integer key : roiSlices.keySet())
+        {
+            zs[i++] = key.intValue();
+            currentSlices.add(getSlice(key.intValue()));
+        }
+
+        final ROI[] results = new ROI[zs.length];
+        final int numChunk = Math.min(SystemUtil.getNumberOfCPUs(), zs.length / PARALLEL_MIN_SLICES);
+
+        // small stack --> sequential processing
+        if (numChunk <= 1)
+        {
+            for (i = 0; i < zs.length; i++)
+                results[i] = computeSliceOperation(operation, zs[i], currentSlices.get(i), operandSlices.get(i));
+        }
+        else
+        {
+            final List<Future<ROI[]>> futures = new ArrayList<Future<ROI[]>>(numChunk);
+            final Processor proc = getProcessor();
+
+            for (int chunk = 0; chunk < numChunk; chunk++)
+            {
+                final int start = getChunkStart(zs.length, numChunk, chunk);
+                final int end = getChunkStart(zs.length, numChunk, chunk + 1);
+
+                futures.add(proc.submit(new Callable<ROI[]>()
+                {
+                    @Override
+                    public ROI[] call() throws Exception
+                    {
+                        final ROI[] chunkResults = new ROI[end - start];
 
-                // do remove first
-                for (Integer key : toRemove)
-                    removeSlice(key.intValue());
+                        for (int j = start; j < end; j++)
+                            chunkResults[j - start] = computeSliceOperation(operation, zs[j], currentSlices.get(j),
+                                    operandSlices.get(j));
 
-                // then process intersection
-                for (Entry<Integer, R> entry : roi.slices.entrySet())
-                    intersect(entry.getKey().intValue(), entry.getValue());
+                        return chunkResults;
+                    }
+                }));
+            }
+
+            int done = 0;
+
+            try
+            {
+                for (Future<ROI[]> future : futures)
+                {
+                    final ROI[] chunkResults = future.get();
+                    System.arraycopy(chunkResults, 0, results, getChunkStart(zs.length, numChunk, done),
+                            chunkResults.length);
+                    done++;
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                for (Future<ROI[]> future : futures)
+                    future.cancel(true);
+
+                // finish on the calling thread (we don't want to leave the ROI partially modified)
+                for (i = getChunkStart(zs.length, numChunk, done); i < zs.length; i++)
+                    results[i] = computeSliceOperation(operation, zs[i], currentSlices.get(i), operandSlices.get(i));
+            }
+            catch (ExecutionException e)
+            {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+
+                throw new RuntimeException(e.getCause());
             }
         }
+
+        beginUpdate();
+        try
+        {
+            // remove slices
+            for (Integer key : toRemove)
+                removeSlice(key.intValue());
+            // set resulting slices
+            for (i = 0; i < zs.length; i++)
+                setSliceOperationResult(zs[i], results[i]);
+        }
         finally
         {
             endUpdate();
         }
     }
 
+    /**
+     * Returns the first slice index of the specified chunk when <code>numSlice</code> slices are split in
+     * <code>numChunk</code> chunks.
+     */
+    private static int getChunkStart(int numSlice, int numChunk, int chunk)
+    {
+        return (int) (((long) numSlice * chunk) / numChunk);
+    }
+
+    /**
+     * Add the specified {@link ROI3DStack} content to this ROI3DStack
+     */
+    public void add(ROI3DStack<R> roi) throws UnsupportedOperationException
+    {
+        processSliceOperation(SliceOperation.ADD, roi);
+    }
+
+    /**
+     * Exclusively add the specified {@link ROI3DStack} content to this ROI3DStack
+     */
+    public void exclusiveAdd(ROI3DStack<R> roi) throws UnsupportedOperationException
+    {
+        processSliceOperation(SliceOperation.EXCLUSIVE_ADD, roi);
+    }
+
+    /**
+     * Process intersection of the specified {@link ROI3DStack} with this ROI3DStack.
+     */
+    public void intersect(ROI3DStack<R> roi) throws UnsupportedOperationException
+    {
+        processSliceOperation(SliceOperation.INTERSECT, roi);
+    }
+
     /**
      * Remove the specified {@link ROI3DStack} from this ROI3DStack
      */
     public void subtract(ROI3DStack<R> roi) throws UnsupportedOperationException
     {
-        beginUpdate();
-        try
-        {
-            synchronized (slices)
-            {
-                for (Entry<Integer, R> entry : roi.slices.entrySet())
-                    subtract(entry.getKey().intValue(), entry.getValue());
-            }
-        }
-        finally
-        {
-            endUpdate();
-        }
+        processSliceOperation(SliceOperation.SUBTRACT, roi);
     }
 
     @Override
@@ -739,6 +997,109 @@ public class ROI3DStack<R extends ROI2D> extends ROI3D implements ROIListener, O
         return super.subtract(roi, allowCreate);
     }
 
+    /**
+     * Computes the result of the boolean operation between the current slice and the specified one at the given Z
+     * position.<br>
+     * Only a copy of <code>currentSlice</code> is modified (<code>roiSlice</code> is copied only if its position
+     * has to be changed) so no event is sent, which allows to call it from any thread. The result should then be applied from the calling
+     * thread with {@link #setSliceOperationResult(int, ROI)}.
+     * 
+     * @return the resulting slice (<code>currentSlice</code> if nothing changed) or <code>null</code> if the slice
+     *         should be removed
+     * @throws UnsupportedOperationException
+     *         if the operation result cannot be stored as a slice of this ROI
+     */
+    protected ROI computeSliceOperation(SliceOperation operation, int z, R currentSlice, R roiSlice)
+            throws UnsupportedOperationException
+    {
+        if (roiSlice == null)
+        {
+            // better to throw an exception here than removing slice
+            if (operation == SliceOperation.INTERSECT)
+                throw new IllegalArgumentException("Cannot intersect an empty slice in a 3D ROI");
+
+            return currentSlice;
+        }
+
+        if (currentSlice == null)
+        {
+            switch (operation)
+            {
+                case ADD:
+                case EXCLUSIVE_ADD:
+                    // get a copy
+                    return roiSlice.getCopy();
+
+                default:
+                    // nothing to do
+                    return null;
+            }
+        }
+
+        // only the modified slice is copied so live slices are never modified (and don't send events) from here
+        final ROI slice = currentSlice.getCopy();
+        // operand is not modified by the operation: copy it only if we need to change its position
+        final boolean samePosition = (roiSlice.getZ() == z) && (roiSlice.getT() == getT())
+                && (roiSlice.getC() == getC());
+        final ROI operand = samePosition ? roiSlice : roiSlice.getCopy();
+
+        if ((slice == null) || (operand == null))
+            throw new UnsupportedOperationException("Can't copy 2D slice " + z + " for the merge operation");
+
+        // we need to modify the Z, T and C position so we do the merge correctly
+        ((ROI2D) slice).setZ(z);
+        if (!samePosition)
+        {
+            ((ROI2D) operand).setZ(z);
+            ((ROI2D) operand).setT(getT());
+            ((ROI2D) operand).setC(getC());
+        }
+
+        final ROI newSlice;
+
+        switch (operation)
+        {
+            case ADD:
+                // do ROI union
+                newSlice = slice.add(operand, true);
+                break;
+            case EXCLUSIVE_ADD:
+                // do ROI exclusive union
+                newSlice = slice.exclusiveAdd(operand, true);
+                break;
+            case INTERSECT:
+                // do ROI intersection
+                newSlice = slice.intersect(operand, true);
+                break;
+            default:
+                // do ROI subtraction
+                newSlice = slice.subtract(operand, true);
+                break;
+        }
+
+        // check the resulting ROI is the same type
+        if (!newSlice.getClass().isInstance(currentSlice))
+            throw new UnsupportedOperationException("Can't add the result of the merge operation on 2D slice " + z
+                    + ": " + newSlice.getClassName());
+
+        // union never removes slice
+        if ((operation != SliceOperation.ADD) && newSlice.isEmpty())
+            return null;
+
+        return newSlice;
+    }
+
+    /**
+     * Sets the result of {@link #computeSliceOperation(SliceOperation, int, ROI2D, ROI2D)} for the given Z position.
+     */
+    protected void setSliceOperationResult(int z, ROI newSlice)
+    {
+        if (newSlice == null)
+            removeSlice(z);
+        else
+            setSlice(z, (R) newSlice);
+    }
+
     /**
      * Adds content of specified <code>ROI</code> slice into the <code>ROI</code> slice at given Z position.
      * The resulting content of this <code>ROI</code> will include the union of both ROI's contents.<br>
@@ -757,30 +1118,7 @@ public class ROI3DStack<R extends ROI2D> extends ROI3D implements ROIListener, O
         if (roiSlice == null)
             return;
 
-        final R currentSlice = getSlice(z);
-        final ROI newSlice;
-
-        // merge both slice
-        if (currentSlice != null)
-        {
-            // we need to modify the Z, T and C position so we do the merge correctly
-            roiSlice.setZ(z);
-            roiSlice.setT(getT());
-            roiSlice.setC(getC());
-            // do ROI union
-            newSlice = currentSlice.add(roiSlice, true);
-
-            // check the resulting ROI is the same type
-            if (!newSlice.getClass().isInstance(currentSlice))
-                throw new UnsupportedOperationException("Can't add the result of the merge operation on 2D slice " + z
-                        + ": " + newSlice.getClassName());
-        }
-        else
-            // get a copy
-            newSlice = roiSlice.getCopy();
-
-        // set slice
-        setSlice(z, (R) newSlice);
+        setSliceOperationResult(z, computeSliceOperation(SliceOperation.ADD, z, getSlice(z), roiSlice));
     }
 
     /**
@@ -803,32 +1141,7 @@ public class ROI3DStack<R extends ROI2D> extends ROI3D implements ROIListener, O
         if (roiSlice == null)
             return;
 
-        final R currentSlice = getSlice(z);
-        final ROI newSlice;
-
-        // merge both slice
-        if (currentSlice != null)
-        {
-            // we need to modify the Z, T and C position so we do the merge correctly
-            roiSlice.setZ(z);
-            roiSlice.setT(getT());
-            roiSlice.setC(getC());
-            // do ROI exclusive union
-            newSlice = currentSlice.exclusiveAdd(roiSlice, true);
-
-            // check the resulting ROI is same type
-            if (!newSlice.getClass().isInstance(currentSlice))
-                throw new UnsupportedOperationException("Can't add the result of the merge operation on 2D slice " + z
-                        + ": " + newSlice.getClassName());
-        }
-        else
-            // get a copy
-            newSlice = roiSlice.getCopy();
-
-        if (newSlice.isEmpty())
-            removeSlice(z);
-        else
-            setSlice(z, (R) newSlice);
+        setSliceOperationResult(z, computeSliceOperation(SliceOperation.EXCLUSIVE_ADD, z, getSlice(z), roiSlice));
     }
 
     /**
@@ -846,32 +1159,11 @@ public class ROI3DStack<R extends ROI2D> extends ROI3D implements ROIListener, O
      */
     public void intersect(int z, R roiSlice)
     {
-        // better to throw an exception here than removing slice
-        if (roiSlice == null)
-            throw new IllegalArgumentException("Cannot intersect an empty slice in a 3D ROI");
-
         final R currentSlice = getSlice(z);
+        final ROI newSlice = computeSliceOperation(SliceOperation.INTERSECT, z, currentSlice, roiSlice);
 
-        // merge both slice
         if (currentSlice != null)
-        {
-            // we need to modify the Z, T and C position so we do the merge correctly
-            roiSlice.setZ(z);
-            roiSlice.setT(getT());
-            roiSlice.setC(getC());
-            // do ROI intersection
-            final ROI newSlice = currentSlice.intersect(roiSlice, true);
-
-            // check the resulting ROI is same type
-            if (!newSlice.getClass().isInstance(currentSlice))
-                throw new UnsupportedOperationException("Can't add the result of the merge operation on 2D slice " + z
-                        + ": " + newSlice.getClassName());
-
-            if (newSlice.isEmpty())
-                removeSlice(z);
-            else
-                setSlice(z, (R) newSlice);
-        }
+            setSliceOperationResult(z, newSlice);
     }
 
     /**
@@ -892,26 +1184,8 @@ public class ROI3DStack<R extends ROI2D> extends ROI3D implements ROIListener, O
 
         final R currentSlice = getSlice(z);
 
-        // merge both slice
         if (currentSlice != null)
-        {
-            // we need to modify the Z, T and C position so we do the merge correctly
-            roiSlice.setZ(z);
-            roiSlice.setT(getT());
-            roiSlice.setC(getC());
-            // do ROI subtraction
-            final ROI newSlice = currentSlice.subtract(roiSlice, true);
-
-            // check the resulting ROI is same type
-            if (!newSlice.getClass().isInstance(currentSlice))
-                throw new UnsupportedOperationException("Can't add the result of the merge operation on 2D slice " + z
-                        + ": " + newSlice.getClassName());
-
-            if (newSlice.isEmpty())
-                removeSlice(z);
-            else
-                setSlice(z, (R) newSlice);
-        }
+            setSliceOperationResult(z, computeSliceOperation(SliceOperation.SUBTRACT, z, currentSlice, roiSlice));
     }
 
     /**
@@ -1098,32 +1372,6 @@ public class ROI3DStack<R extends ROI2D> extends ROI3D implements ROIListener, O
         }
     }
 
-    // default approximated implementation for ROI3DStack
-    @Override
-    public double computeSurfaceArea(Sequence sequence) throws UnsupportedOperationException
-    {
-        // 3D contour points = first slice points + all slices perimeter + last slice points
-        double result = 0;
-
-        synchronized (slices)
-        {
-            if (!slices.isEmpty())
-            {
-                final double psx = sequence.getPixelSizeX();
-                final double psy = sequence.getPixelSizeY();
-                final double psz = sequence.getPixelSizeZ();
-
-                result = slices.firstEntry().getValue().getNumberOfPoints() * psx * psy;
-                result += slices.lastEntry().getValue().getNumberOfPoints() * psx * psy;
-
-                for (R slice : slices.values())
-                    result += slice.getLength(sequence) * psz;
-            }
-        }
-
-        return result;
-    }
-
     // default approximated implementation for ROI3DStack
     @Override
     public double computeNumberOfContourPoints()
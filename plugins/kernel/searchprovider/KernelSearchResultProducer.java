@@ -19,14 +19,20 @@
 package plugins.kernel.searchprovider;
 
 import java.awt.Image;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+
+import javax.swing.Action;
 
 import org.pushingpixels.flamingo.api.common.RichTooltip;
 
 import icy.action.ActionManager;
 import icy.action.IcyAbstractAction;
 import icy.resource.icon.IcyIcon;
+import icy.search.SearchIndex;
 import icy.search.SearchResult;
 import icy.search.SearchResultConsumer;
 import icy.search.SearchResultProducer;
@@ -160,6 +166,67 @@ public class KernelSearchResultProducer extends SearchResultProducer
         }
     }
 
+    /**
+     * Action index shared by all producer instances (action --> description, long description)
+     */
+    static final SearchIndex<IcyAbstractAction> index = new SearchIndex<IcyAbstractAction>();
+
+    /**
+     * Indexed action list and its size when indexed (to detect action set change)
+     */
+    static List<IcyAbstractAction> indexedActions = null;
+    static int indexedCount = 0;
+
+    /**
+     * Update index entry of an action when its description changes
+     */
+    static final PropertyChangeListener actionListener = new PropertyChangeListener()
+    {
+        @Override
+        public void propertyChange(PropertyChangeEvent evt)
+        {
+            final String name = evt.getPropertyName();
+
+            if (Action.SHORT_DESCRIPTION.equals(name) || Action.LONG_DESCRIPTION.equals(name))
+            {
+                final IcyAbstractAction action = (IcyAbstractAction) evt.getSource();
+                index.put(action, action.getDescription(), action.getLongDescription());
+            }
+        }
+    };
+
+    /**
+     * Rebuild the action index if the action set changed (description changes are handled by
+     * {@link #actionListener}).
+     */
+    static void updateIndex()
+    {
+        synchronized (index)
+        {
+            final List<IcyAbstractAction> actions = ActionManager.actions;
+
+            // same action set --> index is up to date
+            if ((actions == indexedActions) && ((actions == null) || (actions.size() == indexedCount)))
+                return;
+
+            index.clear();
+
+            if (actions != null)
+            {
+                for (IcyAbstractAction action : actions)
+                {
+                    // avoid duplicated listener
+                    action.removePropertyChangeListener(actionListener);
+                    action.addPropertyChangeListener(actionListener);
+                    index.put(action, action.getDescription(), action.getLongDescription());
+                }
+            }
+
+            indexedActions = actions;
+            indexedCount = (actions == null) ? 0 : actions.size();
+        }
+    }
+
     @Override
     public int getOrder()
     {
@@ -190,13 +257,21 @@ public class KernelSearchResultProducer extends SearchResultProducer
         final List<SearchResult> tmpResults = new ArrayList<SearchResult>();
         final boolean startWithOnly = getShortSearch(words);
 
+        updateIndex();
+
+        // actions containing at least one of the words
+        final Set<IcyAbstractAction> matches = index.search(words);
+
         for (IcyAbstractAction action : ActionManager.actions)
         {
             if (hasWaitingSearch())
                 return;
+            if (!matches.contains(action))
+                continue;
 
             // action match filter
-            final int prio = searchInAction(action, words, startWithOnly);
+            final String[] texts = index.getFields(action);
+            final int prio = searchInText(texts[0], texts[1], words, startWithOnly);
 
             if (prio > 0)
                 tmpResults.add(new KernelSearchResult(this, action, words, prio, startWithOnly));
@@ -229,6 +304,57 @@ public class KernelSearchResultProducer extends SearchResultProducer
         return result / words.size();
     }
 
+    /**
+     * Returns the mean score of the specified search words for the given lower case action
+     * description and long description.
+     */
+    public static int searchInText(String description, String longDescription, List<SearchWord> words,
+            boolean startWithOnly)
+    {
+        int result = 0;
+
+        // we accept action which contains all words only
+        for (SearchWord sw : words)
+        {
+            final int r = searchInText(description, longDescription, sw.word.trim().toLowerCase(), startWithOnly);
+
+            // mandatory word not found ? --> reject
+            if ((r == 0) && sw.mandatory)
+                return 0;
+            // reject word found ? --> reject
+            if ((r > 0) && sw.reject)
+                return 0;
+
+            result += r;
+        }
+
+        // return mean score
+        return result / words.size();
+    }
+
+    /**
+     * Returns the score of the specified lower case search word for the given lower case action
+     * description and long description.
+     */
+    public static int searchInText(String description, String longDescription, String wordlc,
+            boolean startWithOnly)
+    {
+        if (description.startsWith(wordlc))
+            return 8;
+        if (longDescription.startsWith(wordlc))
+            return 5;
+
+        if (!startWithOnly)
+        {
+            if (description.contains(wordlc))
+                return 7;
+            if (longDescription.contains(wordlc))
+                return 3;
+        }
+
+        return 0;
+    }
+
     public static int searchInAction(IcyAbstractAction action, String word, boolean startWithOnly)
     {
         final String wordlc = word.trim().toLowerCase();
@@ -19,12 +19,19 @@
 package plugins.kernel.searchprovider;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
 import icy.gui.plugin.PluginDetailPanel;
 import icy.plugin.PluginDescriptor;
 import icy.plugin.PluginLauncher;
 import icy.plugin.PluginLoader;
+import icy.plugin.PluginLoader.PluginLoaderEvent;
+import icy.plugin.PluginLoader.PluginLoaderListener;
+import icy.search.SearchIndex;
 import icy.search.SearchResult;
 import icy.search.SearchResultConsumer;
 import icy.search.SearchResultProducer;
@@ -66,6 +73,89 @@ public class LocalPluginSearchResultProducer extends SearchResultProducer
         }
     }
 
+    /**
+     * Plugin index shared by all producer instances (class name --> name, description)
+     */
+    static final SearchIndex<String> index = new SearchIndex<String>();
+    /**
+     * Indexed plugins (kept in plugin loader order)
+     */
+    static Map<String, PluginDescriptor> indexedPlugins = null;
+
+    /**
+     * Update index incrementally when plugin list changes
+     */
+    static final PluginLoaderListener indexUpdater = new PluginLoaderListener()
+    {
+        @Override
+        public void pluginLoaderChanged(PluginLoaderEvent e)
+        {
+            updateIndex();
+        }
+    };
+
+    static
+    {
+        PluginLoader.addListener(indexUpdater);
+    }
+
+    /**
+     * Update the plugin index from the current plugin list.<br>
+     * Only added, removed or modified plugins are (re)indexed.
+     */
+    static void updateIndex()
+    {
+        final Map<String, PluginDescriptor> plugins = new LinkedHashMap<String, PluginDescriptor>();
+
+        for (PluginDescriptor plugin : PluginLoader.getPlugins())
+            if (isSearchable(plugin))
+                plugins.put(plugin.getClassName(), plugin);
+
+        synchronized (index)
+        {
+            // remove old plugins
+            for (String className : index.getKeys())
+                if (!plugins.containsKey(className))
+                    index.remove(className);
+
+            // add new or modified plugins (unchanged ones are ignored)
+            for (Entry<String, PluginDescriptor> entry : plugins.entrySet())
+                index.put(entry.getKey(), entry.getValue().getName(), entry.getValue().getDescription());
+
+            indexedPlugins = plugins;
+        }
+    }
+
+    static Map<String, PluginDescriptor> getIndexedPlugins()
+    {
+        synchronized (index)
+        {
+            // build index on first search
+            if (indexedPlugins == null)
+                updateIndex();
+
+            return indexedPlugins;
+        }
+    }
+
+    /**
+     * Returns <code>false</code> if the plugin should never appear in search results
+     */
+    public static boolean isSearchable(PluginDescriptor plugin)
+    {
+        if (plugin.getPluginClass() != null)
+        {
+            // we don't want abstract nor interface nor bundled plugin in results list
+            if (plugin.isAbstract() || plugin.isInterface())
+                return false;
+            // we don't want bundled plugin which are not actionable
+            if (plugin.isBundled() && !plugin.isActionable())
+                return false;
+        }
+
+        return true;
+    }
+
     @Override
     public int getOrder()
     {
@@ -96,15 +186,33 @@ public class LocalPluginSearchResultProducer extends SearchResultProducer
         final List<SearchResult> tmpResults = new ArrayList<SearchResult>();
         final boolean startWithOnly = getShortSearch(words);
 
-        for (PluginDescriptor plugin : PluginLoader.getPlugins())
+        final Map<String, PluginDescriptor> plugins = getIndexedPlugins();
+        // plugins containing at least one of the words
+        final Set<String> matches = index.search(words);
+
+        // iterate in plugin order to keep ordering for same priority results
+        for (Entry<String, PluginDescriptor> entry : plugins.entrySet())
         {
             if (hasWaitingSearch())
                 return;
 
-            final int prio = searchInPlugin(plugin, words, startWithOnly);
+            final String className = entry.getKey();
+
+            if (!matches.contains(className))
+                continue;
+
+            final String[] texts = index.getFields(className);
+            // removed in between
+            if (texts == null)
+                continue;
+
+            final int prio = searchInText(texts[0], texts[1], words, startWithOnly);
 
             if (prio > 0)
+            {
+                final PluginDescriptor plugin = entry.getValue();
                 tmpResults.add(new LocalPluginResult(this, plugin, plugin.getDescription(), words, prio));
+            }
         }
 
         // use a copy to avoid future concurrent accesses
@@ -159,18 +267,46 @@ public class LocalPluginSearchResultProducer extends SearchResultProducer
 
     public static int searchInPlugin(PluginDescriptor plugin, String word, boolean startWithOnly)
     {
-        if (plugin.getPluginClass() != null)
+        if (!isSearchable(plugin))
+            return 0;
+
+        return searchInText(plugin.getName().toLowerCase(), plugin.getDescription().toLowerCase(),
+                word.toLowerCase(), startWithOnly);
+    }
+
+    /**
+     * Returns the score of the specified search words for the given lower case plugin name and
+     * description.
+     */
+    public static int searchInText(String name, String description, List<SearchWord> words, boolean startWithOnly)
+    {
+        int result = 0;
+
+        // search for all word
+        for (SearchWord sw : words)
         {
-            // we don't want abstract nor interface nor bundled plugin in results list
-            if (plugin.isAbstract() || plugin.isInterface())
+            final int r = searchInText(name, description, sw.word.toLowerCase(), startWithOnly);
+
+            // mandatory word not found ? --> reject
+            if ((r == 0) && sw.mandatory)
                 return 0;
-            // we don't want bundled plugin which are not actionable
-            if (plugin.isBundled() && !plugin.isActionable())
+            // reject word found ? --> reject
+            if ((r > 0) && sw.reject)
                 return 0;
+
+            result += r;
         }
 
-        final String wordlc = word.toLowerCase();
-        final String name = plugin.getName().toLowerCase();
+        // return score
+        return result;
+    }
+
+    /**
+     * Returns the score of the specified lower case search word for the given lower case plugin
+     * name and description.
+     */
+    public static int searchInText(String name, String description, String wordlc, boolean startWithOnly)
+    {
         int ind;
 
         ind = name.indexOf(wordlc);
@@ -193,8 +329,6 @@ public class LocalPluginSearchResultProducer extends SearchResultProducer
         // more search...
         if (!startWithOnly)
         {
-            final String description = plugin.getDescription().toLowerCase();
-
             ind = description.indexOf(wordlc);
             if (ind >= 0)
             {
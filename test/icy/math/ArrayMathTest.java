@@ -0,0 +1,202 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.math;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests of the parallel compensated reductions of {@link ArrayMath} (used for arrays of at least
+ * {@link ArrayMath#PARALLEL_THRESHOLD} elements) against the sequential loops.
+ * 
+ * @author Stephane
+ */
+public class ArrayMathTest
+{
+    private static final int LENGTH = (ArrayMath.PARALLEL_THRESHOLD * 2) + 12345;
+
+    private static double[] createDoubles(int length, long seed)
+    {
+        final Random random = new Random(seed);
+        final double[] result = new double[length];
+
+        for (int i = 0; i < length; i++)
+            result[i] = 1000d + (random.nextGaussian() * 10d);
+
+        return result;
+    }
+
+    /**
+     * Values of very different magnitudes: sequential double summation loses low bits
+     */
+    private static float[] createFloats(int length, long seed)
+    {
+        final Random random = new Random(seed);
+        final float[] result = new float[length];
+
+        for (int i = 0; i < length; i++)
+            result[i] = ((i % 1000) == 0) ? 1e9f : random.nextFloat();
+
+        return result;
+    }
+
+    private static double sequentialSum(double[] array)
+    {
+        double sum = 0d;
+        for (double d : array)
+            sum += d;
+        return sum;
+    }
+
+    private static double sequentialSum(float[] array)
+    {
+        double sum = 0d;
+        for (float f : array)
+            sum += f;
+        return sum;
+    }
+
+    private static double sequentialVar(double[] array)
+    {
+        final double mean = sequentialSum(array) / array.length;
+        double var = 0d;
+        for (double d : array)
+            var += (d - mean) * (d - mean);
+        return var / (array.length - 1);
+    }
+
+    private static double sequentialCorrelation(double[] a, double[] b)
+    {
+        double sum = 0d, sqsumA = 0d, sqsumB = 0d;
+        for (int i = 0; i < a.length; i++)
+        {
+            sum += a[i] * b[i];
+            sqsumA += a[i] * a[i];
+            sqsumB += b[i] * b[i];
+        }
+        return sum / Math.sqrt(sqsumA * sqsumB);
+    }
+
+    private static double sequentialPearson(double[] a, double[] b)
+    {
+        double sum = 0d;
+        for (int i = 0; i < a.length; i++)
+            sum += a[i] * b[i];
+        final double meanA = sequentialSum(a) / a.length;
+        final double meanB = sequentialSum(b) / b.length;
+        return (sum - (a.length * meanA * meanB))
+                / ((a.length - 1) * Math.sqrt(sequentialVar(a)) * Math.sqrt(sequentialVar(b)));
+    }
+
+    /**
+     * Exact sum (each float value is exactly representable)
+     */
+    private static BigDecimal exactSum(float[] array)
+    {
+        BigDecimal result = BigDecimal.ZERO;
+        for (float f : array)
+            result = result.add(new BigDecimal(f));
+        return result;
+    }
+
+    private static double error(double value, BigDecimal exact)
+    {
+        return new BigDecimal(value).subtract(exact).abs().doubleValue();
+    }
+
+    @Test
+    public void testSumAgreesWithSequential()
+    {
+        final double[] array = createDoubles(LENGTH, 1);
+        final double expected = sequentialSum(array);
+
+        assertEquals(expected, ArrayMath.sum(array), Math.abs(expected) * 1e-12);
+        assertEquals(expected / LENGTH, ArrayMath.mean(array), Math.abs(expected / LENGTH) * 1e-12);
+        assertEquals(expected, ArrayMath.sum(array, true), Math.abs(expected) * 1e-12);
+    }
+
+    @Test
+    public void testVarAgreesWithSequential()
+    {
+        final double[] array = createDoubles(LENGTH, 2);
+        final double expected = sequentialVar(array);
+
+        assertEquals(expected, ArrayMath.var(array, true), expected * 1e-9);
+        assertEquals(expected, ArrayMath.var((Object) array, true, true), expected * 1e-9);
+        assertEquals(Math.sqrt(expected), ArrayMath.std(array, true), Math.sqrt(expected) * 1e-9);
+    }
+
+    @Test
+    public void testCorrelationAgreesWithSequential()
+    {
+        final double[] a = createDoubles(LENGTH, 3);
+        final double[] b = new double[LENGTH];
+
+        for (int i = 0; i < LENGTH; i++)
+            b[i] = (a[i] * 0.5d) + (i % 7);
+
+        assertEquals(sequentialCorrelation(a, b), ArrayMath.correlation(a, b), 1e-12);
+        // sequential formula cancels large terms (less accurate)
+        assertEquals(sequentialPearson(a, b), ArrayMath.correlationPearson(a, b), 1e-6);
+    }
+
+    @Test
+    public void testFloatSumAccuracy()
+    {
+        final float[] array = createFloats(LENGTH, 4);
+        final BigDecimal exact = exactSum(array);
+        final double sequentialError = error(sequentialSum(array), exact);
+        final double compensatedError = error(ArrayMath.sum(array), exact);
+
+        // compensated result is correctly rounded (or nearly) and more accurate than the sequential loop
+        assertTrue("error " + compensatedError, compensatedError <= Math.ulp(exact.doubleValue()));
+        assertTrue("compensated " + compensatedError + " sequential " + sequentialError,
+                compensatedError < sequentialError);
+        assertEquals(ArrayMath.sum(array), ArrayMath.sum((Object) array, true), 0d);
+    }
+
+    @Test
+    public void testInterrupted()
+    {
+        final double[] array = createDoubles(LENGTH, 5);
+        final double expected = ArrayMath.sum(array);
+        final double result;
+
+        Thread.currentThread().interrupt();
+        try
+        {
+            result = ArrayMath.sum(array);
+        }
+        finally
+        {
+            // interrupt flag is preserved (and cleared here for the next tests)
+            assertTrue(Thread.interrupted());
+        }
+
+        // reduction completed on the calling thread in the same order
+        assertFalse(Double.isNaN(result));
+        assertEquals(expected, result, 0d);
+    }
+}
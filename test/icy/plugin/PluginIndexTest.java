@@ -0,0 +1,234 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import icy.file.FileUtil;
+import icy.plugin.abstract_.Plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the persisted plugin index.
+ * 
+ * @author Stephane
+ */
+public class PluginIndexTest
+{
+    private static final String PACKAGE_NAME = "icy.plugin";
+    private static final String CLASS_NAME = PluginIndexTest.class.getName();
+
+    /**
+     * Indexed plugin class (direct sub class of {@link Plugin})
+     */
+    public static class IndexedPlugin extends Plugin
+    {
+        //
+    }
+
+    /**
+     * Indexed plugin class (indirect sub class of {@link Plugin})
+     */
+    public static class IndexedSubPlugin extends IndexedPlugin
+    {
+        //
+    }
+
+    /**
+     * Class loader which can't load anything (checks the index resolves plugins from class headers only)
+     */
+    private static final ClassLoader NO_LOADER = new ClassLoader(null)
+    {
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException
+        {
+            throw new ClassNotFoundException(name);
+        }
+    };
+
+    private File directory;
+    private File pluginDirectory;
+    private File jar;
+    private String indexPath;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        directory = File.createTempFile("pluginindex", "");
+        directory.delete();
+        pluginDirectory = new File(directory, "plugins");
+        pluginDirectory.mkdirs();
+
+        jar = new File(pluginDirectory, "test.jar");
+        writeJar(jar);
+        indexPath = new File(directory, "index.xml").getPath();
+    }
+
+    @After
+    public void tearDown()
+    {
+        FileUtil.delete(directory, true);
+    }
+
+    private static byte[] getClassBytes(Class<?> clazz) throws IOException
+    {
+        final InputStream in = clazz.getResourceAsStream("/" + clazz.getName().replace('.', '/') + ".class");
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int len;
+
+        try
+        {
+            while ((len = in.read(buffer)) > 0)
+                bytes.write(buffer, 0, len);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Write a JAR containing this test class and the test plugin classes
+     */
+    private static void writeJar(File file) throws IOException
+    {
+        final JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+
+        try
+        {
+            for (Class<?> clazz : new Class<?>[] {PluginIndexTest.class, IndexedPlugin.class, IndexedSubPlugin.class})
+            {
+                out.putNextEntry(new JarEntry(clazz.getName().replace('.', '/') + ".class"));
+                out.write(getClassBytes(clazz));
+                out.closeEntry();
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    @Test
+    public void testRoundTrip()
+    {
+        final PluginIndex index = PluginIndex.load(pluginDirectory.getPath(), PACKAGE_NAME, indexPath);
+
+        assertEquals(1, index.scanned);
+        assertTrue(index.contains(CLASS_NAME));
+        assertTrue(new File(indexPath).exists());
+
+        // reloaded from the persisted index without any scan
+        final PluginIndex reloaded = PluginIndex.load(pluginDirectory.getPath(), PACKAGE_NAME, indexPath);
+        final PluginIndex.ClassHeader header = reloaded.getHeader(CLASS_NAME);
+
+        assertEquals(0, reloaded.scanned);
+        assertNotNull(header);
+        assertEquals(Object.class.getName(), header.superName);
+        assertTrue(header.isPublic());
+        assertFalse(header.isInterface());
+        assertFalse(reloaded.isPlugin(CLASS_NAME, getClass().getClassLoader()));
+    }
+
+    @Test
+    public void testPluginClasses()
+    {
+        PluginIndex.load(pluginDirectory.getPath(), PACKAGE_NAME, indexPath);
+
+        // class names and plugin state given by the persisted index (JAR not opened)
+        final PluginIndex index = PluginIndex.load(pluginDirectory.getPath(), PACKAGE_NAME, indexPath);
+
+        assertEquals(0, index.scanned);
+        assertEquals(3, index.getClassNames().size());
+        assertTrue(index.getClassNames().contains(IndexedPlugin.class.getName()));
+        assertTrue(index.getClassNames().contains(IndexedSubPlugin.class.getName()));
+        assertTrue(index.isPlugin(IndexedPlugin.class.getName(), NO_LOADER));
+        assertTrue(index.isPlugin(IndexedSubPlugin.class.getName(), NO_LOADER));
+        assertFalse(index.isPlugin(CLASS_NAME, getClass().getClassLoader()));
+    }
+
+    @Test
+    public void testStaleJarRescan()
+    {
+        PluginIndex.load(pluginDirectory.getPath(), PACKAGE_NAME, indexPath);
+
+        // JAR updated since the index was saved
+        assertTrue(jar.setLastModified(jar.lastModified() + 10000L));
+
+        final PluginIndex index = PluginIndex.load(pluginDirectory.getPath(), PACKAGE_NAME, indexPath);
+
+        assertEquals(1, index.scanned);
+        assertTrue(index.contains(CLASS_NAME));
+    }
+
+    @Test
+    public void testRemovedJar()
+    {
+        PluginIndex.load(pluginDirectory.getPath(), PACKAGE_NAME, indexPath);
+
+        assertTrue(jar.delete());
+
+        final PluginIndex index = PluginIndex.load(pluginDirectory.getPath(), PACKAGE_NAME, indexPath);
+
+        assertEquals(0, index.scanned);
+        assertFalse(index.contains(CLASS_NAME));
+    }
+
+    @Test
+    public void testCorruptIndex() throws IOException
+    {
+        PluginIndex.load(pluginDirectory.getPath(), PACKAGE_NAME, indexPath);
+
+        final FileOutputStream out = new FileOutputStream(indexPath);
+
+        try
+        {
+            out.write("<?xml version=\"1.0\"?><index version=\"1\"><container path=".getBytes("UTF-8"));
+        }
+        finally
+        {
+            out.close();
+        }
+
+        // corrupt index --> full scan
+        final PluginIndex index = PluginIndex.load(pluginDirectory.getPath(), PACKAGE_NAME, indexPath);
+
+        assertEquals(1, index.scanned);
+        assertTrue(index.contains(CLASS_NAME));
+
+        // and index is saved back
+        assertEquals(0, PluginIndex.load(pluginDirectory.getPath(), PACKAGE_NAME, indexPath).scanned);
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.plugin;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import icy.common.Version;
+import icy.file.FileUtil;
+import icy.network.NetworkUtil;
+import icy.plugin.PluginDescriptor.PluginIdent;
+import icy.plugin.PluginInstaller.PluginCommitter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests of plugin download (resume, verification) and install order against an embedded HTTP repository.
+ * 
+ * @author Stephane
+ */
+public class PluginInstallerTest
+{
+    private static final byte[] XML = "<?xml version=\"1.0\"?><root/>".getBytes();
+
+    /**
+     * Minimal HTTP repository supporting range requests with <code>If-Range</code> validation
+     */
+    private class RepositoryHandler implements HttpHandler
+    {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            final String path = exchange.getRequestURI().getPath();
+            final String range = exchange.getRequestHeaders().getFirst("Range");
+            final String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            final byte[] data = files.get(path);
+
+            requests.add(path + ((range == null) ? "" : " " + range));
+
+            if (data == null)
+            {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+
+            final String etag = "\"" + etags.get(path) + "\"";
+            int start = 0;
+
+            // range is honored only if the file did not change
+            if ((range != null) && etag.equals(ifRange))
+                start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+            // broken server returning a range which doesn't start at the requested position
+            if ((start > 0) && badRange)
+                start = 1;
+
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (start > 0)
+            {
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + start + "-" + (data.length - 1) + "/" + data.length);
+                exchange.sendResponseHeaders(206, data.length - start);
+            }
+            else
+                exchange.sendResponseHeaders(200, data.length);
+
+            final OutputStream out = exchange.getResponseBody();
+
+            // connection lost in the middle of the transfer
+            if (truncated.contains(path))
+                out.write(data, start, (data.length - start) / 2);
+            else
+                out.write(data, start, data.length - start);
+
+            exchange.close();
+        }
+    }
+
+    final Map<String, byte[]> files = new HashMap<String, byte[]>();
+    final Map<String, String> etags = new HashMap<String, String>();
+    final Set<String> truncated = new HashSet<String>();
+    final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    volatile boolean badRange;
+
+    private HttpServer server;
+    private String basePath;
+    private File directory;
+    private byte[] jar;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new RepositoryHandler());
+        server.start();
+        basePath = "http://127.0.0.1:" + server.getAddress().getPort() + "/repo/";
+
+        directory = File.createTempFile("plugininstaller", "");
+        directory.delete();
+        directory.mkdirs();
+
+        jar = createJar();
+        badRange = false;
+    }
+
+    @After
+    public void tearDown()
+    {
+        server.stop(0);
+        FileUtil.delete(directory, true);
+    }
+
+    /**
+     * Create a (not compressible) valid JAR file content
+     */
+    private static byte[] createJar() throws IOException
+    {
+        final byte[] content = new byte[256 * 1024];
+        new Random(1).nextBytes(content);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ZipOutputStream out = new ZipOutputStream(bytes);
+
+        out.putNextEntry(new ZipEntry("data.bin"));
+        out.write(content);
+        out.closeEntry();
+        out.close();
+
+        return bytes.toByteArray();
+    }
+
+    private static String md5(byte[] data) throws Exception
+    {
+        final StringBuilder result = new StringBuilder();
+
+        for (byte b : MessageDigest.getInstance("MD5").digest(data))
+            result.append(String.format("%02x", Integer.valueOf(b & 0xFF)));
+
+        return result.toString();
+    }
+
+    /**
+     * Create a plugin descriptor and publish its files in the repository
+     */
+    private PluginDescriptor createPlugin(String name, String version)
+    {
+        final PluginDescriptor result = new PluginDescriptor();
+
+        result.getIdent().setClassName("plugins.test." + name);
+        result.getIdent().setVersion(new Version(version));
+        result.setName(name);
+        result.setJarUrl(name + ".jar");
+        result.setXmlUrl(name + ".xml");
+
+        publish(name + ".jar", jar, "v1");
+        publish(name + ".xml", XML, "v1");
+
+        return result;
+    }
+
+    private void publish(String name, byte[] data, String etag)
+    {
+        files.put("/repo/" + name, data);
+        etags.put("/repo/" + name, etag);
+    }
+
+    private File getFile(String name)
+    {
+        return new File(directory, name);
+    }
+
+    private String download(PluginDescriptor plugin)
+    {
+        return PluginInstaller.downloadPlugin(plugin, basePath, null, null, directory.getPath(), null);
+    }
+
+    /**
+     * Write the first half of the JAR file as a previous interrupted download with the specified validator
+     */
+    private void writePartialJar(String name, String validator)
+    {
+        final File file = getFile(name + ".jar");
+
+        FileUtil.save(file, Arrays.copyOf(jar, jar.length / 2), true);
+        FileUtil.save(NetworkUtil.getValidatorFile(file), validator.getBytes(), true);
+    }
+
+    @Test
+    public void testDownload() throws Exception
+    {
+        final PluginDescriptor plugin = createPlugin("Simple", "1.0.0.0");
+
+        plugin.setJarMD5(md5(jar));
+        plugin.setJarSize(jar.length);
+
+        assertEquals("", download(plugin));
+        assertArrayEquals(jar, FileUtil.load(getFile("Simple.jar"), true));
+        assertArrayEquals(XML, FileUtil.load(getFile("Simple.xml"), true));
+        // download complete --> no more validator
+        assertFalse(NetworkUtil.getValidatorFile(getFile("Simple.jar")).exists());
+    }
+
+    @Test
+    public void testResume() throws Exception
+    {
+        final PluginDescriptor plugin = createPlugin("Resumed", "1.0.0.0");
+
+        plugin.setJarMD5(md5(jar));
+        writePartialJar("Resumed", "\"v1\"");
+
+        assertEquals("", download(plugin));
+        assertTrue(requests.contains("/repo/Resumed.jar bytes=" + (jar.length / 2) + "-"));
+        assertArrayEquals(jar, FileUtil.load(getFile("Resumed.jar"), true));
+    }
+
+    @Test
+    public void testResumeChangedFile() throws Exception
+    {
+        final PluginDescriptor plugin = createPlugin("Changed", "1.0.0.0");
+
+        // partial data come from a previous version of the file --> full download
+        writePartialJar("Changed", "\"v0\"");
+
+        assertEquals("", download(plugin));
+        assertArrayEquals(jar, FileUtil.load(getFile("Changed.jar"), true));
+    }
+
+    @Test
+    public void testResumeWithoutValidator() throws Exception
+    {
+        final PluginDescriptor plugin = createPlugin("NoValidator", "1.0.0.0");
+
+        writePartialJar("NoValidator", "");
+        NetworkUtil.getValidatorFile(getFile("NoValidator.jar")).delete();
+
+        assertEquals("", download(plugin));
+        // can't know if partial data is still valid --> no range request
+        assertTrue(requests.contains("/repo/NoValidator.jar"));
+        assertArrayEquals(jar, FileUtil.load(getFile("NoValidator.jar"), true));
+    }
+
+    @Test
+    public void testResumeBadContentRange() throws Exception
+    {
+        final PluginDescriptor plugin = createPlugin("BadRange", "1.0.0.0");
+
+        badRange = true;
+        writePartialJar("BadRange", "\"v1\"");
+
+        // returned range doesn't start at the end of partial data --> restart from beginning
+        assertEquals("", download(plugin));
+        assertArrayEquals(jar, FileUtil.load(getFile("BadRange.jar"), true));
+    }
+
+    @Test
+    public void testChecksumFailure() throws Exception
+    {
+        final PluginDescriptor plugin = createPlugin("Corrupted", "1.0.0.0");
+
+        plugin.setJarMD5(md5(XML));
+
+        assertFalse(download(plugin).isEmpty());
+        // corrupted file is never kept (nor resumed)
+        assertFalse(getFile("Corrupted.jar").exists());
+        assertFalse(NetworkUtil.getValidatorFile(getFile("Corrupted.jar")).exists());
+    }
+
+    @Test
+    public void testSizeFailure() throws Exception
+    {
+        final PluginDescriptor plugin = createPlugin("BadSize", "1.0.0.0");
+
+        plugin.setJarSize(jar.length + 1);
+
+        assertFalse(download(plugin).isEmpty());
+        assertFalse(getFile("BadSize.jar").exists());
+    }
+
+    @Test
+    public void testOptionalFileDiscarded() throws Exception
+    {
+        final PluginDescriptor plugin = createPlugin("Icon", "1.0.0.0");
+
+        plugin.setIconUrl("Icon_icon.png");
+        publish("Icon_icon.png", jar, "v1");
+        truncated.add("/repo/Icon_icon.png");
+
+        // optional file failed --> still installable but partial icon is discarded
+        assertEquals("", download(plugin));
+        assertTrue(getFile("Icon.jar").exists());
+        assertFalse(getFile("Icon_icon.png").exists());
+        assertFalse(NetworkUtil.getValidatorFile(getFile("Icon_icon.png")).exists());
+    }
+
+    @Test
+    public void testDependencyFailure() throws Exception
+    {
+        final PluginDescriptor dependency = createPlugin("Dependency", "2.0.0.0");
+        final PluginDescriptor dependent = createPlugin("Dependent", "1.0.0.0");
+        final PluginDescriptor independent = createPlugin("Independent", "1.0.0.0");
+        final PluginIdent required = new PluginIdent();
+
+        // dependency download fails
+        dependency.setJarMD5(md5(XML));
+        // dependent requires an older version
+        required.setClassName(dependency.getClassName());
+        required.setVersion(new Version("1.0.0.0"));
+        dependent.required.add(required);
+
+        final List<PluginDescriptor> plugins = Arrays.asList(dependency, dependent, independent);
+        final Map<PluginDescriptor, Future<String>> downloads = new HashMap<PluginDescriptor, Future<String>>();
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        try
+        {
+            for (final PluginDescriptor plugin : plugins)
+            {
+                downloads.put(plugin, executor.submit(new Callable<String>()
+                {
+                    @Override
+                    public String call() throws Exception
+                    {
+                        return download(plugin);
+                    }
+                }));
+            }
+
+            final List<PluginDescriptor> committed = new ArrayList<PluginDescriptor>();
+            final Set<PluginDescriptor> pluginsOk = new HashSet<PluginDescriptor>();
+            final Set<PluginDescriptor> pluginsNOk = new HashSet<PluginDescriptor>();
+
+            PluginInstaller.commitPlugins(plugins, downloads, new PluginCommitter()
+            {
+                @Override
+                public String commit(PluginDescriptor plugin)
+                {
+                    committed.add(plugin);
+                    return "";
+                }
+            }, pluginsOk, pluginsNOk, null);
+
+            assertEquals(Arrays.asList(independent), committed);
+            assertEquals(new HashSet<PluginDescriptor>(Arrays.asList(independent)), pluginsOk);
+            assertEquals(new HashSet<PluginDescriptor>(Arrays.asList(dependency, dependent)), pluginsNOk);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+}
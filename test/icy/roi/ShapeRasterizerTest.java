@@ -0,0 +1,274 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.roi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import icy.roi.ShapeRasterizer.Spans;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+import org.junit.Test;
+
+/**
+ * Compare the scanline filler of {@link ShapeRasterizer} with Java2D masks: {@link Area} / {@link Shape#contains}
+ * insideness (exact, same rules) and {@link Graphics2D#fill(Shape)} rendering (only edge pixels can differ).
+ * 
+ * @author Stephane
+ */
+public class ShapeRasterizerTest
+{
+    /**
+     * Distance under which a point is considered as lying exactly on the shape boundary
+     */
+    private static final double EPSILON = 1e-6d;
+
+    /**
+     * Returns the region to compare for the specified shape (shape bounds plus a margin)
+     */
+    private static Rectangle getRegion(Shape shape)
+    {
+        final Rectangle result = shape.getBounds();
+
+        result.grow(2, 2);
+
+        return result;
+    }
+
+    /**
+     * Java2D insideness mask: pixel (x,y) is inside if the point (x,y) is inside the shape
+     */
+    private static boolean[] getContainsMask(Shape shape, Rectangle region)
+    {
+        final boolean[] result = new boolean[region.width * region.height];
+        int off = 0;
+
+        for (int y = region.y; y < region.y + region.height; y++)
+            for (int x = region.x; x < region.x + region.width; x++)
+                result[off++] = shape.contains(x, y);
+
+        return result;
+    }
+
+    /**
+     * Java2D rendering mask (no antialiasing, pure stroke), shifted by half a pixel as Java2D samples pixel centers
+     */
+    private static boolean[] getRenderedMask(Shape shape, Rectangle region)
+    {
+        final BufferedImage image = new BufferedImage(region.width, region.height, BufferedImage.TYPE_BYTE_GRAY);
+        final Graphics2D g = image.createGraphics();
+
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+        g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+        g.setColor(Color.white);
+        g.translate(0.5d - region.x, 0.5d - region.y);
+        g.fill(shape);
+        g.dispose();
+
+        final byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        final boolean[] result = new boolean[data.length];
+
+        for (int i = 0; i < data.length; i++)
+            result[i] = data[i] != 0;
+
+        return result;
+    }
+
+    /**
+     * Returns <code>true</code> if the specified point lies on the shape boundary (tangent points, vertices...)
+     * where insideness is ambiguous (as {@link Ellipse2D} which excludes its whole boundary).
+     * 
+     * @param tolerance
+     *        boundary tolerance, should be the flatness for shapes containing curves
+     */
+    private static boolean isOnBoundary(Shape shape, double x, double y, double tolerance)
+    {
+        final Rectangle2D r = new Rectangle2D.Double(x - tolerance, y - tolerance, 2d * tolerance, 2d * tolerance);
+
+        return shape.intersects(r) && !shape.contains(r);
+    }
+
+    /**
+     * Returns <code>true</code> if the specified pixel is at less than 1 pixel from the shape edge
+     */
+    private static boolean isOnEdge(Shape shape, double x, double y)
+    {
+        final Rectangle2D r = new Rectangle2D.Double(x - 1d, y - 1d, 2d, 2d);
+
+        return shape.intersects(r) && !shape.contains(r);
+    }
+
+    /**
+     * Check the rasterizer result is the same as the Java2D insideness mask (except for points exactly on the
+     * boundary) and that it only differs from Java2D rendering on edge pixels.
+     * 
+     * @param tolerance
+     *        boundary tolerance, should be the flatness for shapes containing curves
+     */
+    private static void check(String name, Shape shape, double tolerance)
+    {
+        final Rectangle region = getRegion(shape);
+        final Spans spans = ShapeRasterizer.getFillSpans(shape);
+        final boolean[] mask = spans.getMask(region.x, region.y, region.width, region.height);
+        final boolean[] contains = getContainsMask(shape, region);
+        final boolean[] rendered = getRenderedMask(shape, region);
+        int numPoints = 0;
+        int off = 0;
+
+        for (int y = region.y; y < region.y + region.height; y++)
+        {
+            for (int x = region.x; x < region.x + region.width; x++)
+            {
+                if (!isOnBoundary(shape, x, y, tolerance))
+                    assertEquals(name + " insideness at " + x + "," + y, contains[off], mask[off]);
+                if (mask[off] != rendered[off])
+                    assertTrue(name + " rendering at " + x + "," + y, isOnEdge(shape, x, y));
+                if (mask[off])
+                    numPoints++;
+
+                off++;
+            }
+        }
+
+        assertEquals(name + " number of points", numPoints, spans.getNumberOfPoints());
+        // nothing outside the compared region
+        if (!spans.isEmpty())
+            assertTrue(name + " bounds", region.contains(spans.getBounds()));
+    }
+
+    private static void check(String name, Shape shape)
+    {
+        check(name, shape, EPSILON);
+    }
+
+    private static Path2D polygon(int windingRule, double... coords)
+    {
+        final Path2D result = new Path2D.Double(windingRule);
+
+        result.moveTo(coords[0], coords[1]);
+        for (int i = 2; i < coords.length; i += 2)
+            result.lineTo(coords[i], coords[i + 1]);
+        result.closePath();
+
+        return result;
+    }
+
+    /**
+     * 5 branches star (self intersecting, center is only inside with non zero rule)
+     */
+    private static Path2D star(int windingRule, double cx, double cy, double radius)
+    {
+        final double[] coords = new double[10];
+
+        for (int i = 0; i < 5; i++)
+        {
+            final double angle = (-Math.PI / 2d) + ((i * 4d * Math.PI) / 5d);
+
+            coords[(i * 2) + 0] = cx + (radius * Math.cos(angle));
+            coords[(i * 2) + 1] = cy + (radius * Math.sin(angle));
+        }
+
+        return polygon(windingRule, coords);
+    }
+
+    @Test
+    public void testRectangle()
+    {
+        check("aligned rectangle", new Rectangle2D.Double(10d, 5d, 20d, 12d));
+        check("sub pixel rectangle", new Rectangle2D.Double(10.3d, 5.7d, 20.2d, 12.6d));
+        check("half pixel rectangle", new Rectangle2D.Double(-4.5d, -3.5d, 9d, 7d));
+        check("thin rectangle", new Rectangle2D.Double(2.2d, 1.1d, 0.6d, 30.4d));
+    }
+
+    @Test
+    public void testRotatedPolygon()
+    {
+        final Shape rect = new Rectangle2D.Double(0d, 0d, 40d, 15d);
+
+        for (int angle = 0; angle < 180; angle += 15)
+        {
+            final AffineTransform t = new AffineTransform();
+            t.translate(50.25d, 40.75d);
+            t.rotate(Math.toRadians(angle));
+
+            check("rotated rectangle " + angle, new Path2D.Double(rect, t));
+        }
+
+        check("triangle", polygon(Path2D.WIND_NON_ZERO, 3.3d, 2.1d, 47.9d, 10.6d, 12.2d, 38.4d));
+        check("concave", polygon(Path2D.WIND_EVEN_ODD, 0d, 0d, 30d, 0d, 30d, 30d, 15.5d, 10.5d, 0d, 30d));
+    }
+
+    @Test
+    public void testSelfIntersecting()
+    {
+        final Path2D evenOdd = star(Path2D.WIND_EVEN_ODD, 40.3d, 35.6d, 30d);
+        final Path2D nonZero = star(Path2D.WIND_NON_ZERO, 40.3d, 35.6d, 30d);
+
+        check("even-odd star", evenOdd);
+        check("non-zero star", nonZero);
+
+        // center hole only with even odd rule
+        assertTrue(!ShapeRasterizer.getFillSpans(evenOdd).contains(40, 35));
+        assertTrue(ShapeRasterizer.getFillSpans(nonZero).contains(40, 35));
+
+        // overlapping sub paths
+        final Path2D rects = new Path2D.Double(Path2D.WIND_EVEN_ODD);
+        rects.append(new Rectangle2D.Double(0d, 0d, 20d, 20d), false);
+        rects.append(new Rectangle2D.Double(10.5d, 10.5d, 20d, 20d), false);
+        check("even-odd rectangles", rects);
+        rects.setWindingRule(Path2D.WIND_NON_ZERO);
+        check("non-zero rectangles", rects);
+    }
+
+    @Test
+    public void testEllipse()
+    {
+        check("circle", new Ellipse2D.Double(10d, 10d, 30d, 30d));
+        check("ellipse", new Ellipse2D.Double(5.2d, 3.7d, 40.5d, 25.3d));
+        check("small ellipse", new Ellipse2D.Double(-1.3d, 2.6d, 2.2d, 1.4d));
+        check("flat ellipse", new Ellipse2D.Double(0.4d, 0.1d, 60d, 0.8d));
+    }
+
+    @Test
+    public void testSubPixelEdges()
+    {
+        // edges just before / after / on pixel centers
+        check("near centers", polygon(Path2D.WIND_NON_ZERO, 0.999d, 1.001d, 20.001d, 0.999d, 19.999d, 10.001d,
+                1.001d, 9.999d));
+        check("on centers", polygon(Path2D.WIND_NON_ZERO, 1d, 1d, 20d, 1d, 20d, 10d, 1d, 10d));
+        check("sliver", polygon(Path2D.WIND_NON_ZERO, 0d, 0.2d, 50d, 0.6d, 50d, 0.9d));
+        // smaller than a pixel
+        check("tiny", new Rectangle2D.Double(3.1d, 3.1d, 0.5d, 0.5d));
+        // through Area (boolean operation result), ellipse is converted to curves which are flattened
+        final Area area = new Area(new Ellipse2D.Double(0d, 0d, 30d, 30d));
+        area.subtract(new Area(new Rectangle2D.Double(10.5d, 10.5d, 9.25d, 9.25d)));
+        check("area", area, ShapeRasterizer.FLATNESS);
+    }
+}
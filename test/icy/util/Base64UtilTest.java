@@ -0,0 +1,95 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests of the Base64 codec.
+ * 
+ * @author Stephane
+ */
+public class Base64UtilTest
+{
+    // RFC 4648 test vectors
+    private static final String[] PLAIN = {"", "f", "fo", "foo", "foob", "fooba", "foobar"};
+    private static final String[] ENCODED = {"", "Zg==", "Zm8=", "Zm9v", "Zm9vYg==", "Zm9vYmE=", "Zm9vYmFy"};
+
+    private static byte[] bytes(String value) throws UnsupportedEncodingException
+    {
+        return value.getBytes("US-ASCII");
+    }
+
+    @Test
+    public void testEncodeVectors() throws UnsupportedEncodingException
+    {
+        for (int i = 0; i < PLAIN.length; i++)
+            assertEquals(ENCODED[i], Base64Util.encode(bytes(PLAIN[i])));
+    }
+
+    @Test
+    public void testDecodeVectors() throws UnsupportedEncodingException
+    {
+        for (int i = 0; i < PLAIN.length; i++)
+            assertArrayEquals(bytes(PLAIN[i]), Base64Util.decode(ENCODED[i]));
+    }
+
+    @Test
+    public void testRoundTrip()
+    {
+        final Random random = new Random(1234);
+
+        for (int len = 0; len < 300; len++)
+        {
+            final byte[] data = new byte[len];
+            random.nextBytes(data);
+
+            assertArrayEquals(data, Base64Util.decode(Base64Util.encode(data)));
+        }
+    }
+
+    @Test
+    public void testEncodePart() throws UnsupportedEncodingException
+    {
+        assertEquals("Zm9vYmFy", Base64Util.encode(bytes("xxfoobarxx"), 2, 6));
+        assertEquals("Zm9vYg==", Base64Util.encode(bytes("xxfoobarxx"), 2, 4));
+    }
+
+    @Test
+    public void testDecodeOffsetWhiteSpaceAndPadding() throws UnsupportedEncodingException
+    {
+        assertArrayEquals(bytes("foobar"), Base64Util.decode("B64:Zm9vYmFy", 4));
+        assertArrayEquals(bytes("foobar"), Base64Util.decode(" Zm9v\r\n YmFy\n"));
+        // padding is optional
+        assertArrayEquals(bytes("foob"), Base64Util.decode("Zm9vYg"));
+        assertArrayEquals(bytes("fooba"), Base64Util.decode("Zm9vYmE"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCharacter()
+    {
+        Base64Util.decode("Zm9v*mFy");
+    }
+}
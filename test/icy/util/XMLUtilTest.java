@@ -0,0 +1,207 @@
+/*
+ * Copyright 2010-2015 Institut Pasteur.
+ * 
+ * This file is part of Icy.
+ * 
+ * Icy is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Icy is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with Icy. If not, see <http://www.gnu.org/licenses/>.
+ */
+package icy.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import icy.type.DataType;
+import icy.type.collection.array.ByteArrayConvert;
+import icy.util.XMLUtil.BytesEncoding;
+
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import org.junit.After;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Tests of the XML byte array value encodings.
+ * 
+ * @author Stephane
+ */
+public class XMLUtilTest
+{
+    /**
+     * "Icy legacy XML bytes" stored in the legacy format (deflated data as colon separated hexadecimal values)
+     */
+    private static final String LEGACY_VALUE = "78:5e:f3:4c:ae:54:c8:49:4d:4f:4:52:11:be:3e:a:49:95:25:a9:c5:0:48:cf:7:13";
+
+    private static final DataType[] DATA_TYPES = {DataType.BYTE, DataType.SHORT, DataType.INT, DataType.LONG,
+            DataType.FLOAT, DataType.DOUBLE};
+
+    @After
+    public void tearDown()
+    {
+        XMLUtil.setBytesEncoding(BytesEncoding.BASE64);
+    }
+
+    /**
+     * Returns an array of the specified type filled with random values
+     */
+    private static Object createArray(DataType dataType, int length, Random random)
+    {
+        switch (dataType)
+        {
+            case BYTE:
+            {
+                final byte[] result = new byte[length];
+                random.nextBytes(result);
+                return result;
+            }
+            case SHORT:
+            {
+                final short[] result = new short[length];
+                for (int i = 0; i < length; i++)
+                    result[i] = (short) random.nextInt();
+                return result;
+            }
+            case INT:
+            {
+                final int[] result = new int[length];
+                for (int i = 0; i < length; i++)
+                    result[i] = random.nextInt();
+                return result;
+            }
+            case LONG:
+            {
+                final long[] result = new long[length];
+                for (int i = 0; i < length; i++)
+                    result[i] = random.nextLong();
+                return result;
+            }
+            case FLOAT:
+            {
+                final float[] result = new float[length];
+                for (int i = 0; i < length; i++)
+                    result[i] = (float) random.nextGaussian();
+                return result;
+            }
+            default:
+            {
+                final double[] result = new double[length];
+                for (int i = 0; i < length; i++)
+                    result[i] = random.nextGaussian();
+                return result;
+            }
+        }
+    }
+
+    private static void assertArrayEqualsObject(Object expected, Object actual)
+    {
+        if (expected instanceof byte[])
+            assertArrayEquals((byte[]) expected, (byte[]) actual);
+        else if (expected instanceof short[])
+            assertArrayEquals((short[]) expected, (short[]) actual);
+        else if (expected instanceof int[])
+            assertArrayEquals((int[]) expected, (int[]) actual);
+        else if (expected instanceof long[])
+            assertArrayEquals((long[]) expected, (long[]) actual);
+        else if (expected instanceof float[])
+            assertArrayEquals((float[]) expected, (float[]) actual, 0f);
+        else
+            assertArrayEquals((double[]) expected, (double[]) actual, 0d);
+    }
+
+    @Test
+    public void testRoundTrip() throws DataFormatException
+    {
+        final Random random = new Random(4321);
+
+        for (BytesEncoding encoding : BytesEncoding.values())
+        {
+            XMLUtil.setBytesEncoding(encoding);
+
+            for (DataType dataType : DATA_TYPES)
+            {
+                // empty, padded and larger arrays
+                for (int length : new int[] {0, 1, 2, 3, 1000})
+                {
+                    final Object array = createArray(dataType, length, random);
+                    final byte[] bytes = ByteArrayConvert.toByteArray(array, false);
+                    final String value = XMLUtil.toString(bytes);
+                    final byte[] result = XMLUtil.getBytes(value, null);
+
+                    assertArrayEquals(encoding + " " + dataType, bytes, result);
+                    assertArrayEqualsObject(array, ByteArrayConvert.byteArrayTo(result, dataType, false));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPrefixes()
+    {
+        final byte[] bytes = new byte[] {1, 2, 3};
+
+        XMLUtil.setBytesEncoding(BytesEncoding.BASE64);
+        assertTrue(XMLUtil.toString(bytes).startsWith(XMLUtil.BYTES_BASE64_PREFIX));
+        XMLUtil.setBytesEncoding(BytesEncoding.BASE64_RAW);
+        assertEquals(XMLUtil.BYTES_BASE64_RAW_PREFIX + "AQID", XMLUtil.toString(bytes));
+        XMLUtil.setBytesEncoding(BytesEncoding.DECIMAL);
+        assertFalse(XMLUtil.toString(bytes).startsWith(XMLUtil.BYTES_BASE64_PREFIX));
+    }
+
+    @Test
+    public void testAttributeRoundTrip()
+    {
+        final byte[] bytes = (byte[]) createArray(DataType.BYTE, 5000, new Random(42));
+
+        for (BytesEncoding encoding : BytesEncoding.values())
+        {
+            XMLUtil.setBytesEncoding(encoding);
+
+            final Document document = XMLUtil.createDocument(true);
+            final Element element = XMLUtil.getRootElement(document);
+
+            XMLUtil.setAttributeBytesValue(element, "data", bytes);
+            assertArrayEquals(encoding.toString(), bytes, XMLUtil.getAttributeBytesValue(element, "data", null));
+        }
+    }
+
+    @Test
+    public void testLegacyDecimal() throws Exception
+    {
+        // legacy values are read whatever is the current encoding
+        for (BytesEncoding encoding : BytesEncoding.values())
+        {
+            XMLUtil.setBytesEncoding(encoding);
+            assertEquals("Icy legacy XML bytes", new String(XMLUtil.getBytes(LEGACY_VALUE, null), "US-ASCII"));
+        }
+    }
+
+    @Test
+    public void testMissingValue() throws DataFormatException
+    {
+        final byte[] def = new byte[] {7};
+
+        assertArrayEquals(def, XMLUtil.getBytes(null, def));
+        assertNull(XMLUtil.getBytes(null, null));
+    }
+
+    @Test(expected = DataFormatException.class)
+    public void testInvalidBase64() throws DataFormatException
+    {
+        XMLUtil.getBytes(XMLUtil.BYTES_BASE64_RAW_PREFIX + "AQ*D", null);
+    }
+}